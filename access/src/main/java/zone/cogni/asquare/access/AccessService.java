@@ -1,5 +1,6 @@
 package zone.cogni.asquare.access;
 
+import com.google.common.collect.Lists;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
@@ -9,6 +10,7 @@ import zone.cogni.asquare.rdf.TypedResource;
 import zone.cogni.asquare.triplestore.RdfStoreService;
 
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
@@ -55,6 +57,15 @@ public interface AccessService {
   // todo what should this method do? Return all resources? Return defaulted page of resources? Or is actual behavior implementation-specific?
   List<? extends TypedResource> findAll(ApplicationProfile.Type type);
 
+  /**
+   * Passes all resources of a type to <code>pageConsumer</code> in pages of at most <code>pageSize</code> resources,
+   * so callers going over all resources do not keep them, and the data loaded for them, in memory at once.
+   * Default implementation splits the result of {@link #findAll(ApplicationProfile.Type)} in pages.
+   */
+  default void findAll(ApplicationProfile.Type type, int pageSize, Consumer<List<? extends TypedResource>> pageConsumer) {
+    Lists.partition(findAll(type), pageSize).forEach(pageConsumer);
+  }
+
   List<TypedResource> findAll(Supplier<ApplicationProfile.Type> typeSupplier, ApplicationView.AttributeMatcher... attributeMatchers);
 
   void save(List<DeltaResource> deltaResources);
@@ -0,0 +1,226 @@
+package zone.cogni.asquare.access.simplerdf;
+
+import com.google.common.collect.Lists;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.sem.jena.JenaUtils;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Loads data of resources returned by one access call, e.g. a <code>findAll</code>,
+ * with a few queries instead of queries per resource.
+ * <p>
+ * Queries get a <code>VALUES</code> block over all resources of the batch:
+ * one <code>SELECT</code> per type to check which resources match the type
+ * and one <code>CONSTRUCT</code> per attribute to load the attribute values of all resources.
+ * Values of an attribute become a new batch, so nested calls are loaded the same way.
+ * <p>
+ * Results are cached per query text and bindings for as long as the resources of the batch are used.
+ * The cache is cleared when data is saved through the access service.
+ */
+class BatchLoader {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchLoader.class);
+
+  /**
+   * Maximum number of resources in one <code>VALUES</code> block.
+   */
+  private static final int valuesBlockSize = 500;
+
+  private final RdfStoreService rdfStoreService;
+  private final Function<String, Query> queryParser;
+  private final LongSupplier modificationCount;
+
+  private final List<List<Resource>> blocks;
+  private final Map<Resource, Integer> blockIndex = new HashMap<>();
+  private final Map<QueryKey, Object> cache = new ConcurrentHashMap<>();
+
+  private volatile long cacheModificationCount;
+
+  /**
+   * @param rdfStoreService   store to run queries on
+   * @param queryParser       parses (and typically caches) query text
+   * @param modificationCount counter which changes when data is saved, to clear cached results
+   * @param resources         resources of the batch, blank nodes are skipped
+   */
+  BatchLoader(RdfStoreService rdfStoreService,
+              Function<String, Query> queryParser,
+              LongSupplier modificationCount,
+              Collection<? extends Resource> resources) {
+    this.rdfStoreService = rdfStoreService;
+    this.queryParser = queryParser;
+    this.modificationCount = modificationCount;
+    this.cacheModificationCount = modificationCount.getAsLong();
+
+    List<Resource> uriResources = resources.stream()
+                                           .filter(Objects::nonNull)
+                                           .filter(Resource::isURIResource)
+                                           .distinct()
+                                           .collect(Collectors.toList());
+    this.blocks = Lists.partition(uriResources, valuesBlockSize);
+    for (int i = 0; i < blocks.size(); i++) {
+      int index = i;
+      blocks.get(i).forEach(resource -> blockIndex.put(resource, index));
+    }
+  }
+
+  /**
+   * @return <code>true</code> if data of <code>resource</code> can be loaded by this batch
+   */
+  boolean contains(@Nonnull Resource resource) {
+    return blockIndex.containsKey(resource);
+  }
+
+  int size() {
+    return blockIndex.size();
+  }
+
+  /**
+   * @param selectQuery select query returning variable <code>?resource</code> for resources matching a type
+   * @return <code>true</code> if <code>resource</code> is returned by the query
+   */
+  boolean exists(@Nonnull String selectQuery, @Nonnull Resource resource) {
+    Set<Resource> existing = getCached(selectQuery, resource, block -> select(selectQuery, block));
+    return existing.contains(resource);
+  }
+
+  /**
+   * @param constructQuery construct query for variable <code>?instance</code>
+   * @param property       property of the attribute, used to collect values for the next batch
+   * @return model of the block of <code>resource</code> together with a batch for the attribute values
+   */
+  @Nonnull
+  ModelBlock getModelBlock(@Nonnull String constructQuery, @Nonnull Property property, @Nonnull Resource resource) {
+    return getCached(constructQuery, resource, block -> construct(constructQuery, property, block));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T getCached(String query, Resource resource, Function<List<Resource>, T> loader) {
+    Integer index = blockIndex.get(resource);
+    if (index == null) throw new IllegalStateException("resource " + resource + " is not part of batch");
+
+    clearCacheIfModified();
+    return (T) cache.computeIfAbsent(new QueryKey(query, index), key -> loader.apply(blocks.get(index)));
+  }
+
+  private void clearCacheIfModified() {
+    long currentModificationCount = modificationCount.getAsLong();
+    if (currentModificationCount == cacheModificationCount) return;
+
+    cache.clear();
+    cacheModificationCount = currentModificationCount;
+  }
+
+  private Set<Resource> select(String selectQuery, List<Resource> block) {
+    Set<Resource> result = new HashSet<>();
+    rdfStoreService.streamSelectQuery(withValues(selectQuery, "resource", block), new QuerySolutionMap(), row -> {
+      RDFNode resource = row.get("resource");
+      if (resource != null && resource.isResource()) result.add(resource.asResource());
+    });
+
+    log.debug("(select) {} of {} resources match", result.size(), block.size());
+    return result;
+  }
+
+  private ModelBlock construct(String constructQuery, Property property, List<Resource> block) {
+    Model model = rdfStoreService.executeConstructQuery(withValues(constructQuery, "instance", block), new QuerySolutionMap());
+    log.debug("(construct) {} triples for {} resources", model.size(), block.size());
+    if (log.isTraceEnabled()) log.trace("model:\n{}", JenaUtils.toString(model, "turtle"));
+
+    Set<Resource> values = new LinkedHashSet<>();
+    block.forEach(resource -> model.listObjectsOfProperty(model.createResource(resource.getURI()), property)
+                                   .filterKeep(RDFNode::isURIResource)
+                                   .forEachRemaining(value -> values.add(value.asResource())));
+
+    BatchLoader valueBatch = new BatchLoader(rdfStoreService, queryParser, modificationCount, values);
+    return new ModelBlock(model, valueBatch);
+  }
+
+  private Query withValues(String sparql, String variable, List<Resource> block) {
+    Query query = queryParser.apply(sparql).cloneQuery();
+
+    Var var = Var.alloc(variable);
+    ElementData values = new ElementData();
+    values.add(var);
+    block.forEach(resource -> values.add(BindingFactory.binding(var, resource.asNode())));
+
+    ElementGroup pattern = new ElementGroup();
+    pattern.addElement(values);
+    pattern.addElement(query.getQueryPattern());
+    query.setQueryPattern(pattern);
+    return query;
+  }
+
+  /**
+   * Model loaded for a block of resources and the batch of attribute values found in it.
+   */
+  static class ModelBlock {
+
+    private final Model model;
+    private final BatchLoader valueBatch;
+
+    ModelBlock(Model model, BatchLoader valueBatch) {
+      this.model = model;
+      this.valueBatch = valueBatch;
+    }
+
+    Model getModel() {
+      return model;
+    }
+
+    BatchLoader getValueBatch() {
+      return valueBatch;
+    }
+  }
+
+  /**
+   * Cache key of a query: query text and the block of resources bound in the <code>VALUES</code> block.
+   */
+  private static class QueryKey {
+
+    private final String query;
+    private final int blockIndex;
+
+    private QueryKey(String query, int blockIndex) {
+      this.query = query;
+      this.blockIndex = blockIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      QueryKey queryKey = (QueryKey) o;
+      return blockIndex == queryKey.blockIndex && query.equals(queryKey.query);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(query, blockIndex);
+    }
+  }
+}
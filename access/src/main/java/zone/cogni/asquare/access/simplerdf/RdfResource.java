@@ -19,6 +19,8 @@ public class RdfResource implements TypedResource {
   protected Resource resource;
   protected ApplicationProfile.Type type;
 
+  private BatchLoader batchLoader;
+
   public RdfResource(AccessService accessService) {
     this.accessService = accessService;
   }
@@ -45,6 +47,17 @@ public class RdfResource implements TypedResource {
     this.resource = resource;
   }
 
+  /**
+   * @return batch this resource was loaded with, used to load its values together with the other resources of the batch
+   */
+  BatchLoader getBatchLoader() {
+    return batchLoader;
+  }
+
+  void setBatchLoader(BatchLoader batchLoader) {
+    this.batchLoader = batchLoader;
+  }
+
   @Nonnull
   @Override
   public <T extends RdfValue> List<T> getValues(@Nonnull ApplicationProfile.Attribute attribute) {
@@ -5,7 +5,6 @@ import com.google.common.collect.Streams;
 import io.vavr.Tuple2;
 import io.vavr.control.Option;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QuerySolutionMap;
@@ -27,16 +26,17 @@ import zone.cogni.asquare.access.ApplicationView;
 import zone.cogni.asquare.access.simplerdf.filter.AttributeFilter;
 import zone.cogni.asquare.access.simplerdf.filter.TypeFilter;
 import zone.cogni.asquare.access.simplerdf.snippet.SnippetQueryService;
+import zone.cogni.asquare.access.validation.BatchValueValidation;
 import zone.cogni.asquare.access.validation.ValidationResult;
 import zone.cogni.asquare.access.validation.ValueValidation;
 import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
-import zone.cogni.asquare.applicationprofile.model.basic.def.ApplicationProfileDef;
 import zone.cogni.asquare.applicationprofile.prefix.PrefixCcService;
 import zone.cogni.asquare.applicationprofile.rules.RdfType;
 import zone.cogni.asquare.applicationprofile.rules.Snippet;
 import zone.cogni.asquare.edit.DeltaResource;
 import zone.cogni.asquare.edit.delta.MergingDelta;
 import zone.cogni.asquare.edit.delta.SparqlVisitor;
+import zone.cogni.asquare.edit.delta.TypedResourceDelta;
 import zone.cogni.asquare.rdf.BasicRdfValue;
 import zone.cogni.asquare.rdf.RdfValue;
 import zone.cogni.asquare.rdf.TypedResource;
@@ -48,30 +48,39 @@ import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static zone.cogni.asquare.access.simplerdf.SparqlFragment.getCoreTriple;
-import static zone.cogni.asquare.rdf.TypedResourceBuilder.type;
-import static zone.cogni.asquare.rdf.TypedResourceBuilder.uri;
 import static zone.cogni.core.util.function.CachingSupplier.memoize;
 
 public class SimpleRdfAccessService implements AccessService {
 
   private static final Logger log = LoggerFactory.getLogger(SimpleRdfAccessService.class);
 
-  private final Map<ApplicationProfileDef, Map<ApplicationProfile.Attribute, Query>> queryCache = new IdentityHashMap<>();
-  private final Map<ApplicationProfileDef, Map<ApplicationProfile.Type, Query>> typeQueryCache = new IdentityHashMap<>();
+  /**
+   * Parsed queries per query text, query text only depends on the application profile.
+   */
+  private final Map<String, Query> queryCache = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented on each save, clears results cached by {@link BatchLoader}s.
+   */
+  private final AtomicLong modificationCount = new AtomicLong();
 
   private PrefixCcService prefixCcService;
   private Supplier<RdfStoreService> rdfStoreServiceSupplier;
   private Supplier<SnippetQueryService> snippetQueryServiceSupplier;
+  private boolean validateOnSave;
 
   public SimpleRdfAccessService() {
   }
@@ -102,6 +111,19 @@ public class SimpleRdfAccessService implements AccessService {
     rdfStoreServiceSupplier = () -> rdfStoreService;
   }
 
+  public boolean isValidateOnSave() {
+    return validateOnSave;
+  }
+
+  /**
+   * When set, values added by a save are validated against the rules of their attribute before the save is executed.
+   * All values of one save are validated together with {@link BatchValueValidation},
+   * so the number of queries depends on the rules and not on the number of values.
+   */
+  public void setValidateOnSave(boolean validateOnSave) {
+    this.validateOnSave = validateOnSave;
+  }
+
   // TODO see if this is smart
   @Override
   public RdfStoreService getRdfStoreService() {
@@ -117,7 +139,11 @@ public class SimpleRdfAccessService implements AccessService {
 
   @Override
   public RdfResource getTypedResource(ApplicationProfile.Type type, Resource resource) {
-    Option<RdfResource> resultOption = getTypedResourceOption(type, resource);
+    return getTypedResource(type, resource, null);
+  }
+
+  private RdfResource getTypedResource(ApplicationProfile.Type type, Resource resource, BatchLoader batchLoader) {
+    Option<RdfResource> resultOption = getTypedResourceOption(type, resource, batchLoader);
     return resultOption.getOrElse(() -> {
       String message = "Type " + type.getDescription() + " and resource " + resource.getURI() + " did not return results.";
       log.debug(message);
@@ -148,22 +174,49 @@ public class SimpleRdfAccessService implements AccessService {
               .collect(Collectors.toList());
     }
 
-    Pair<Model, List<RDFNode>> attributeModel = getAttributeValues(typedResource, attribute);
-    return attributeModel.getRight()
-                         .stream()
-                         .map(node -> {
-                           return (T) getObject(applicationProfile, attribute, attributeModel.getLeft(), node);
-                         })
-                         .collect(Collectors.toList());
+    BatchLoader.ModelBlock modelBlock = getModelBlock(typedResource, attribute);
+    Model model = modelBlock.getModel();
+    return getAttributeValues(typedResource, attribute, model)
+            .stream()
+            .map(node -> {
+              return (T) getObject(applicationProfile, attribute, model, node, modelBlock.getValueBatch());
+            })
+            .collect(Collectors.toList());
 
   }
 
   // todo support and implement findAll as a paged method, this method should apply a default page size and offset 0
   @Override
   public List<RdfResource> findAll(ApplicationProfile.Type type) {
-    return getResources(type).stream()
-                             .map(resource -> getTypedResource(type, resource))
-                             .collect(Collectors.toList());
+    List<Resource> resources = getResources(type);
+    BatchLoader batchLoader = newBatchLoader(resources);
+    return resources.stream()
+                    .map(resource -> getTypedResource(type, resource, batchLoader))
+                    .collect(Collectors.toList());
+  }
+
+  /**
+   * Pages with <code>limit</code> and <code>offset</code> over the resources of the type,
+   * each page gets its own batch loader so data loaded for previous pages can be garbage collected.
+   */
+  @Override
+  public void findAll(ApplicationProfile.Type type, int pageSize, Consumer<List<? extends TypedResource>> pageConsumer) {
+    Preconditions.checkArgument(pageSize > 0, "invalid page size " + pageSize);
+
+    String sparql = findAllSparqlQuery(type) + "\nORDER BY ?resource";
+    long offset = 0;
+    while (true) {
+      List<Resource> resources = queryAndReturnResources(sparql + "\nLIMIT " + pageSize + " OFFSET " + offset);
+      if (resources.isEmpty()) return;
+
+      BatchLoader batchLoader = newBatchLoader(resources);
+      pageConsumer.accept(resources.stream()
+                                   .map(resource -> getTypedResource(type, resource, batchLoader))
+                                   .collect(Collectors.toList()));
+
+      if (resources.size() < pageSize) return;
+      offset += pageSize;
+    }
   }
 
   @Override
@@ -192,8 +245,9 @@ public class SimpleRdfAccessService implements AccessService {
 
     List<Resource> resources = getRdfStoreService().executeSelectQuery(sparql, this::resultToResourceList);
 
+    BatchLoader batchLoader = newBatchLoader(resources);
     return resources.stream()
-                    .map(resource -> getTypedResource(type(type), uri(resource)))
+                    .map(resource -> (TypedResource) getTypedResource(type, resource, batchLoader))
                     .collect(Collectors.toList());
   }
 
@@ -208,31 +262,81 @@ public class SimpleRdfAccessService implements AccessService {
   @Override
   public void save(List<DeltaResource> deltaResources) {
     MergingDelta delta = new MergingDelta(deltaResources);
+    if (validateOnSave) validate(delta);
 
     String sparql = delta.getSparql();
 
     if (StringUtils.isNotBlank(sparql)) log.debug(sparql);
 
     getRdfStoreService().executeUpdateQuery(sparql);
+    modificationCount.incrementAndGet();
   }
 
-  private <T extends RdfValue> Option<T> getTypedResourceOption(ApplicationProfile.Type type, Resource resource) {
-    Query query = getQuery(type);
-    QuerySolutionMap bindings = new QuerySolutionMap();
-    bindings.add("resource", resource);
+  /**
+   * Validates added values of all resources of the save in one batch, as if the save was already executed.
+   */
+  private void validate(MergingDelta delta) {
+    Map<ApplicationProfile, Tuple2<BatchValueValidation, List<String>>> validations = new LinkedHashMap<>();
+
+    for (TypedResourceDelta resourceDelta : delta.getDeltas()) {
+      resourceDelta.getAddedValues().forEach((attribute, values) -> {
+        Tuple2<BatchValueValidation, List<String>> validation =
+                validations.computeIfAbsent(attribute.getType().getApplicationProfile(),
+                                            profile -> new Tuple2<>(BatchValueValidation.withReport(getRdfStoreService(), profile)
+                                                                                        .withPendingChanges(delta),
+                                                                    new ArrayList<>()));
+        String description = "attribute '" + attribute.getAttributeId() + "' of '" + resourceDelta.getTypedResource().getResource() + "'";
+        values.forEach(value -> attribute.getRules().forEach(rule -> {
+          validation._1.add(value.isLiteral() ? value.getLiteral() : value.getResource(), rule);
+          validation._2.add(description);
+        }));
+      });
+    }
 
-    boolean exists = rdfStoreServiceSupplier.get().executeAskQuery(query, bindings);
+    List<String> violations = new ArrayList<>();
+    validations.values().forEach(validation -> {
+      List<ValidationResult> results = validation._1.validate();
+      IntStream.range(0, results.size())
+               .filter(i -> !results.get(i).conforms())
+               .forEach(i -> violations.add("violations on " + validation._2.get(i) + ":" + results.get(i).getRdfStatements()));
+    });
+
+    if (!violations.isEmpty()) {
+      throw new RuntimeException("Save not executed, validation failed.\n" + String.join("\n", violations));
+    }
+  }
+
+  /**
+   * Resources which are part of <code>batchLoader</code> are checked together with the other resources of the batch,
+   * other resources are checked with an <code>ASK</code> query.
+   */
+  private <T extends RdfValue> Option<T> getTypedResourceOption(ApplicationProfile.Type type, Resource resource, BatchLoader batchLoader) {
+    boolean isInBatch = batchLoader != null && batchLoader.contains(resource);
+
+    boolean exists = isInBatch ? batchLoader.exists(findAllSparqlQuery(type), resource)
+                               : askTypedResource(type, resource);
     if (!exists) return Option.none();
 
     RdfResource typedResource = getTypedResource();
     typedResource.setType(type);
     typedResource.setResource(resource);
+    typedResource.setBatchLoader(isInBatch ? batchLoader : newBatchLoader(Collections.singletonList(resource)));
     return (Option<T>) Option.of(typedResource);
   }
 
-  private Pair<Model, List<RDFNode>> getAttributeValues(TypedResource typedResource, ApplicationProfile.Attribute attribute) {
-    Model model = getModel(typedResource, attribute);
+  private boolean askTypedResource(ApplicationProfile.Type type, Resource resource) {
+    Query query = getQuery(findOneSparqlQuery(type).get());
+    QuerySolutionMap bindings = new QuerySolutionMap();
+    bindings.add("resource", resource);
 
+    return rdfStoreServiceSupplier.get().executeAskQuery(query, bindings);
+  }
+
+  private BatchLoader newBatchLoader(List<Resource> resources) {
+    return new BatchLoader(rdfStoreServiceSupplier.get(), this::getQuery, modificationCount::get, resources);
+  }
+
+  private List<RDFNode> getAttributeValues(TypedResource typedResource, ApplicationProfile.Attribute attribute, Model model) {
     // todo handle case where typedResource is a bnode!!? not sure if this helps at all???
     Resource resource = typedResource.getResource();
     resource = resource.isURIResource() ? model.createResource(resource.getURI())
@@ -244,7 +348,7 @@ public class SimpleRdfAccessService implements AccessService {
             .filter(validateAttributeValue(attribute, model))  // during loading we only do validations to do filtering
             .collect(Collectors.toList());
 
-    return Pair.of(model, values);
+    return values;
   }
 
   // this is the wrong way to do filtering!!
@@ -270,23 +374,28 @@ public class SimpleRdfAccessService implements AccessService {
             .allMatch(validationTuple -> validationTuple._2.conforms());
   }
 
+  /**
+   * Loads the attribute for the batch of the resource, if it has one.
+   * Blank nodes cannot be part of a batch and are loaded on their own.
+   */
+  private BatchLoader.ModelBlock getModelBlock(TypedResource typedResource, ApplicationProfile.Attribute attribute) {
+    Resource resource = typedResource.getResource();
+    if (!resource.isURIResource()) {
+      return new BatchLoader.ModelBlock(getModel(typedResource, attribute), newBatchLoader(Collections.emptyList()));
+    }
+
+    BatchLoader batchLoader = typedResource instanceof RdfResource ? ((RdfResource) typedResource).getBatchLoader() : null;
+    if (batchLoader == null || !batchLoader.contains(resource)) {
+      batchLoader = newBatchLoader(Collections.singletonList(resource));
+    }
+
+    return batchLoader.getModelBlock(getAttributeSparqlQuery(attribute),
+                                     ResourceFactory.createProperty(attribute.getUri()),
+                                     resource);
+  }
+
   private Model getModel(TypedResource typedResource, ApplicationProfile.Attribute attribute) {
-    Supplier<String> sparql = () -> {
-      List<SparqlFragment> sparqlFragments = new AttributeFilter().apply(attribute);
-      String result = "CONSTRUCT {" + '\n' +
-                      " " + getCoreTriple(attribute) + "." + '\n' +
-                      " " + getConstructFragment(sparqlFragments) + '\n' +
-                      "} " + '\n' +
-                      "WHERE {" + '\n' +
-                      " " + getCoreTriple(attribute) + "." + '\n' +
-                      " " + getWhereFragment(sparqlFragments) + '\n' +
-                      "}";
-
-      if (log.isInfoEnabled()) log.info("sparql: {}", result);
-      return result;
-    };
-
-    Query query = getQuery(attribute, sparql);
+    Query query = getQuery(getAttributeSparqlQuery(attribute));
     QuerySolutionMap bindings = new QuerySolutionMap();
     bindings.add("instance", typedResource.getResource());
 
@@ -296,36 +405,23 @@ public class SimpleRdfAccessService implements AccessService {
     return model;
   }
 
-  private Query getQuery(ApplicationProfile.Attribute attribute, Supplier<String> sparql) {
-    ApplicationProfileDef rootApplicationProfile = attribute.getType().getApplicationProfile().getApplicationProfileDef().getRootDefinition();
-    if (!queryCache.containsKey(rootApplicationProfile)) {
-      queryCache.put(rootApplicationProfile, new HashMap<>());
-    }
-
-    Map<ApplicationProfile.Attribute, Query> queryMap = queryCache.get(rootApplicationProfile);
-    if (!queryMap.containsKey(attribute)) {
-      Query query = QueryFactory.create(sparql.get(), Syntax.syntaxARQ);
-      queryMap.put(attribute, query);
-    }
-
-    return queryMap.get(attribute);
+  private String getAttributeSparqlQuery(ApplicationProfile.Attribute attribute) {
+    List<SparqlFragment> sparqlFragments = new AttributeFilter().apply(attribute);
+    return "CONSTRUCT {" + '\n' +
+           " " + getCoreTriple(attribute) + "." + '\n' +
+           " " + getConstructFragment(sparqlFragments) + '\n' +
+           "} " + '\n' +
+           "WHERE {" + '\n' +
+           " " + getCoreTriple(attribute) + "." + '\n' +
+           " " + getWhereFragment(sparqlFragments) + '\n' +
+           "}";
   }
 
-  private Query getQuery(ApplicationProfile.Type type) {
-
-    ApplicationProfileDef rootApplicationProfile = type.getApplicationProfile().getApplicationProfileDef().getRootDefinition();
-    if (!typeQueryCache.containsKey(rootApplicationProfile)) {
-      typeQueryCache.put(rootApplicationProfile, new HashMap<>());
-    }
-
-    Map<ApplicationProfile.Type, Query> queryMap = typeQueryCache.get(rootApplicationProfile);
-    if (!queryMap.containsKey(type)) {
-      Supplier<String> sparql = findOneSparqlQuery(type);
-      Query query = QueryFactory.create(sparql.get(), Syntax.syntaxARQ);
-      queryMap.put(type, query);
-    }
-
-    return queryMap.get(type);
+  private Query getQuery(String sparql) {
+    return queryCache.computeIfAbsent(sparql, key -> {
+      if (log.isInfoEnabled()) log.info("sparql: {}", key);
+      return QueryFactory.create(key, Syntax.syntaxARQ);
+    });
   }
 
   private String getWhereFragment(List<SparqlFragment> sparqlFragments) {
@@ -342,15 +438,20 @@ public class SimpleRdfAccessService implements AccessService {
                           .collect(Collectors.joining("\n "));
   }
 
-  private RdfValue getObject(ApplicationProfile applicationProfile, ApplicationProfile.Attribute attribute, Model model, RDFNode node) {
+  private RdfValue getObject(ApplicationProfile applicationProfile,
+                            ApplicationProfile.Attribute attribute,
+                            Model model,
+                            RDFNode node,
+                            BatchLoader valueBatch) {
     return node.isLiteral() ? new BasicRdfValue(node.asLiteral())
-                            : getSimpleOrTypedResource(applicationProfile, attribute, model, node.asResource());
+                            : getSimpleOrTypedResource(applicationProfile, attribute, model, node.asResource(), valueBatch);
   }
 
   private RdfValue getSimpleOrTypedResource(ApplicationProfile applicationProfile,
                                             ApplicationProfile.Attribute attribute,
                                             Model model,
-                                            Resource resource) {
+                                            Resource resource,
+                                            BatchLoader valueBatch) {
 
     List<ApplicationProfile.Type> assignableTypes = getResourceTypes(applicationProfile, attribute, model, resource);
     if (assignableTypes.isEmpty()) {
@@ -361,7 +462,7 @@ public class SimpleRdfAccessService implements AccessService {
     ApplicationProfile.Type type = ApplicationProfile.Type.calculateType(assignableTypes);
 
     // in some cases it might match query but not the more detailed "fetching" of the resource
-    return getTypedResourceOption(type, resource)
+    return getTypedResourceOption(type, resource, valueBatch)
             .getOrElse(() -> new BasicRdfValue(resource));
   }
 
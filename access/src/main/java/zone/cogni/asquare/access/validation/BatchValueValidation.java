@@ -0,0 +1,231 @@
+package zone.cogni.asquare.access.validation;
+
+import com.google.common.collect.Lists;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.access.validation.ValueValidation.TripleCheck;
+import zone.cogni.asquare.applicationprofile.model.Rule;
+import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
+import zone.cogni.asquare.edit.delta.Delta;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Validates many values against their rules with a few queries, instead of one ASK query per value.
+ * <p>
+ * Values and rules are added first. On {@link #validate()} all triples validation needs are collected,
+ * grouped per rule (property and rule term) and checked with a single <code>SELECT</code> with a
+ * <code>VALUES</code> block per group. Validation itself is the one of {@link ValueValidation},
+ * so results are the same as validating each value on its own.
+ * <p>
+ * When data is already in a local <code>Model</code>, validation is done in memory
+ * with {@link ValueValidationModel} and no queries are run.
+ * <p>
+ * To validate values of a save before it is executed, pass the changes of the save with
+ * {@link #withPendingChanges(Delta)}: triples the save adds or removes take precedence over the store.
+ */
+public class BatchValueValidation {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchValueValidation.class);
+
+  /**
+   * Maximum number of values in one <code>VALUES</code> block.
+   */
+  private static final int valuesBlockSize = 500;
+
+  public static BatchValueValidation withReport(RdfStoreService rdfStoreService, ApplicationProfile applicationProfile) {
+    return new BatchValueValidation(rdfStoreService, null, applicationProfile, true);
+  }
+
+  public static BatchValueValidation withoutReport(RdfStoreService rdfStoreService, ApplicationProfile applicationProfile) {
+    return new BatchValueValidation(rdfStoreService, null, applicationProfile, false);
+  }
+
+  public static BatchValueValidation withReport(Model model, ApplicationProfile applicationProfile) {
+    return new BatchValueValidation(null, model, applicationProfile, true);
+  }
+
+  public static BatchValueValidation withoutReport(Model model, ApplicationProfile applicationProfile) {
+    return new BatchValueValidation(null, model, applicationProfile, false);
+  }
+
+  private final RdfStoreService rdfStoreService;
+  private final Model model;
+  private final ApplicationProfile applicationProfile;
+  private final boolean report;
+
+  private final List<Object> values = new ArrayList<>();
+  private final List<Rule> rules = new ArrayList<>();
+
+  private final Set<TripleCheck> pendingAdds = new HashSet<>();
+  private final Set<TripleCheck> pendingRemoves = new HashSet<>();
+
+  private int queryCount;
+
+  private BatchValueValidation(RdfStoreService rdfStoreService,
+                               Model model,
+                               ApplicationProfile applicationProfile,
+                               boolean report) {
+    this.rdfStoreService = rdfStoreService;
+    this.model = model;
+    this.applicationProfile = applicationProfile;
+    this.report = report;
+  }
+
+  /**
+   * Adds a value to validate against <code>rule</code>.
+   */
+  public BatchValueValidation add(Object value, Rule rule) {
+    values.add(value);
+    rules.add(rule);
+    return this;
+  }
+
+  /**
+   * Adds values to validate against each of the <code>rules</code>.
+   */
+  public BatchValueValidation addAll(List<?> values, List<Rule> rules) {
+    values.forEach(value -> rules.forEach(rule -> add(value, rule)));
+    return this;
+  }
+
+  /**
+   * Validates as if the changes of <code>delta</code> were already in the store.
+   * Only used when validating against a store.
+   */
+  public BatchValueValidation withPendingChanges(Delta delta) {
+    delta.getAddStatements().forEach(statement -> addTripleCheck(pendingAdds, statement));
+    delta.getRemoveStatements().forEach(statement -> addTripleCheck(pendingRemoves, statement));
+    return this;
+  }
+
+  private void addTripleCheck(Set<TripleCheck> tripleChecks, Statement statement) {
+    if (!statement.getSubject().isURIResource() || !statement.getObject().isURIResource()) return;
+
+    tripleChecks.add(new TripleCheck(statement.getSubject().getURI(), statement.getPredicate().getURI(),
+                                     statement.getObject().asResource().getURI(), true));
+  }
+
+  /**
+   * @return number of queries run by the last {@link #validate()}
+   */
+  public int getQueryCount() {
+    return queryCount;
+  }
+
+  /**
+   * @return validation result for each added value and rule, in the order they were added
+   */
+  public List<ValidationResult> validate() {
+    if (model != null) return validateInModel();
+
+    long start = System.nanoTime();
+    Set<TripleCheck> existingTriples = getExistingTriples(getTripleChecks());
+
+    ValueValidation.TripleLookup tripleLookup = (subject, property, object) -> {
+      TripleCheck tripleCheck = new TripleCheck(subject, property, object, true);
+      if (pendingRemoves.contains(tripleCheck)) return false;
+      return pendingAdds.contains(tripleCheck) || existingTriples.contains(tripleCheck);
+    };
+
+    List<ValidationResult> result = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++) {
+      result.add(ValueValidation.getValidationResult(tripleLookup, values.get(i), applicationProfile,
+                                                     rules.get(i), newValidationResult()));
+    }
+
+    log.debug("(validate) {} values validated with {} queries in {} ms",
+              values.size(), queryCount, (System.nanoTime() - start) / 1_000_000);
+    return result;
+  }
+
+  private List<ValidationResult> validateInModel() {
+    queryCount = 0;
+
+    List<ValidationResult> result = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++) {
+      ValidationResult validationResult = report
+                                          ? ValueValidationModel.withReport(model, values.get(i), applicationProfile).apply(rules.get(i))
+                                          : ValueValidationModel.withoutReport(model, values.get(i), applicationProfile).apply(rules.get(i));
+      result.add(validationResult);
+    }
+    return result;
+  }
+
+  private ValidationResult newValidationResult() {
+    return report ? new ValidationResult.Reporting() : new ValidationResult.Conforming();
+  }
+
+  /**
+   * @return triples to check, grouped per rule: property, rule term and position of the value
+   */
+  private Map<TripleCheck, Set<String>> getTripleChecks() {
+    Map<TripleCheck, Set<String>> result = new LinkedHashMap<>();
+    for (int i = 0; i < values.size(); i++) {
+      ValueValidation.collectTripleChecks(values.get(i), applicationProfile, rules.get(i), tripleCheck -> {
+        TripleCheck group = getGroup(tripleCheck);
+        result.computeIfAbsent(group, k -> new LinkedHashSet<>()).add(tripleCheck.getValue());
+      });
+    }
+    return result;
+  }
+
+  private TripleCheck getGroup(TripleCheck tripleCheck) {
+    return tripleCheck.isValueSubject()
+           ? new TripleCheck(null, tripleCheck.getProperty(), tripleCheck.getObject(), true)
+           : new TripleCheck(tripleCheck.getSubject(), tripleCheck.getProperty(), null, false);
+  }
+
+  /**
+   * Runs one select query per group, and per block of values if a group is large.
+   *
+   * @return triples which exist in the store
+   */
+  private Set<TripleCheck> getExistingTriples(Map<TripleCheck, Set<String>> tripleChecks) {
+    queryCount = 0;
+
+    Set<TripleCheck> result = new HashSet<>();
+    tripleChecks.forEach((group, groupValues) -> {
+      for (List<String> block : Lists.partition(new ArrayList<>(groupValues), valuesBlockSize)) {
+        queryCount++;
+        rdfStoreService.streamSelectQuery(getSelectQuery(group, block), row -> {
+          RDFNode value = row.get("value");
+          if (value == null || !value.isURIResource()) return;
+
+          String uri = value.asResource().getURI();
+          result.add(group.isValueSubject()
+                     ? new TripleCheck(uri, group.getProperty(), group.getObject(), true)
+                     : new TripleCheck(group.getSubject(), group.getProperty(), uri, false));
+        });
+      }
+    });
+    return result;
+  }
+
+  private String getSelectQuery(TripleCheck group, List<String> block) {
+    String valuesBlock = block.stream()
+                              .filter(Objects::nonNull)
+                              .map(uri -> "<" + uri + ">")
+                              .collect(Collectors.joining(" "));
+    String triple = group.isValueSubject()
+                    ? "?value <" + group.getProperty() + "> <" + group.getObject() + ">"
+                    : "<" + group.getSubject() + "> <" + group.getProperty() + "> ?value";
+
+    return "SELECT DISTINCT ?value WHERE { " +
+           "   VALUES ?value { " + valuesBlock + " } " +
+           "   " + triple + ". " +
+           "} ";
+  }
+}
@@ -45,6 +45,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -56,6 +57,78 @@ import static io.vavr.Predicates.anyOf;
 
 public class ValueValidation {
 
+  /**
+   * Answers whether a triple exists, with an ASK query or from results fetched up front.
+   * Terms are URIs, as they are put between angle brackets in the ASK query.
+   */
+  interface TripleLookup {
+    boolean contains(String subject, String property, String object);
+  }
+
+  /**
+   * Triple which needs to be checked in the store to validate a value.
+   * Value is either the subject or the object of the triple, the other terms come from the rule.
+   */
+  static class TripleCheck {
+
+    private final String subject;
+    private final String property;
+    private final String object;
+    private final boolean valueIsSubject;
+
+    TripleCheck(String subject, String property, String object, boolean valueIsSubject) {
+      this.subject = subject;
+      this.property = property;
+      this.object = object;
+      this.valueIsSubject = valueIsSubject;
+    }
+
+    String getSubject() {
+      return subject;
+    }
+
+    String getProperty() {
+      return property;
+    }
+
+    String getObject() {
+      return object;
+    }
+
+    boolean isValueSubject() {
+      return valueIsSubject;
+    }
+
+    String getValue() {
+      return valueIsSubject ? subject : object;
+    }
+
+    /**
+     * @return term of the rule, fixed for all values checked against the same rule
+     */
+    String getRuleTerm() {
+      return valueIsSubject ? object : subject;
+    }
+
+    /**
+     * Equal if the triple is the same, position of the value is not taken into account.
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      TripleCheck that = (TripleCheck) o;
+      return Objects.equals(subject, that.subject)
+             && Objects.equals(property, that.property)
+             && Objects.equals(object, that.object);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(subject, property, object);
+    }
+  }
+
   public static Function<Rule, ValidationResult> withoutReport(Model model,
                                                                Object value,
                                                                ApplicationProfile applicationProfile) {
@@ -79,23 +152,100 @@ public class ValueValidation {
                                                       ApplicationProfile applicationProfile,
                                                       Rule rule,
                                                       ValidationResult validationResult) {
-    ValueValidation valueValidation = new ValueValidation(validationResult, applicationProfile, rdfStoreService, value);
+    return getValidationResult((subject, property, object) -> ask(rdfStoreService, subject, property, object),
+                               value, applicationProfile, rule, validationResult);
+  }
+
+  static ValidationResult getValidationResult(TripleLookup tripleLookup,
+                                              Object value,
+                                              ApplicationProfile applicationProfile,
+                                              Rule rule,
+                                              ValidationResult validationResult) {
+    ValueValidation valueValidation = new ValueValidation(validationResult, applicationProfile, tripleLookup, value);
     valueValidation.validateRule(rule);
     return valueValidation.validationResult;
   }
 
+  /**
+   * Collects the triples which validation of <code>value</code> against <code>rule</code> can check in the store.
+   * Follows the same rules as the validation itself but collects all branches of <code>Or</code> rules,
+   * so result can contain more triples than validation actually checks.
+   */
+  static void collectTripleChecks(Object value,
+                                  ApplicationProfile applicationProfile,
+                                  Rule rule,
+                                  Consumer<TripleCheck> tripleChecks) {
+    if (!(value instanceof RDFNode) || !(rule instanceof Range)) return;
+
+    RDFNode node = (RDFNode) value;
+    if (!node.isURIResource()) return;
+
+    collectTripleChecks(node.asResource().getURI(), applicationProfile, ((Range) rule).getValue(),
+                        new HashSet<>(), tripleChecks);
+  }
+
+  private static void collectTripleChecks(String uri,
+                                          ApplicationProfile applicationProfile,
+                                          Rule rule,
+                                          Set<String> ongoingClassValidations,
+                                          Consumer<TripleCheck> tripleChecks) {
+    if (rule instanceof Or) {
+      ((Or) rule).getValue().forEach(r -> collectTripleChecks(uri, applicationProfile, r, ongoingClassValidations, tripleChecks));
+    }
+    else if (rule instanceof And) {
+      ((And) rule).getValue().forEach(r -> collectTripleChecks(uri, applicationProfile, r, ongoingClassValidations, tripleChecks));
+    }
+    else if (rule instanceof Not) {
+      collectTripleChecks(uri, applicationProfile, ((Not) rule).getValue(), ongoingClassValidations, tripleChecks);
+    }
+    else if (rule instanceof ClassId) {
+      ApplicationProfile.Type type = applicationProfile.getType(((ClassId) rule).getValue());
+      if (ongoingClassValidations.contains(type.getClassId())) return;
+
+      ongoingClassValidations.add(type.getClassId());
+      Option<Constraints> constraints = type.getRule(Constraints.class);
+      Rule classRule = constraints.isDefined() ? constraints.get().getValue() : new And(type.getRules());
+      collectTripleChecks(uri, applicationProfile, classRule, ongoingClassValidations, tripleChecks);
+      ongoingClassValidations.remove(type.getClassId());
+    }
+    else if (rule instanceof RdfType) {
+      String rdfType = ((RdfType) rule).getValue();
+      if (Objects.equals(rdfType, RDFS.Resource.getURI())) return;
+
+      tripleChecks.accept(new TripleCheck(uri, RDF.type.getURI(), rdfType, true));
+    }
+    else if (rule instanceof InScheme) {
+      tripleChecks.accept(new TripleCheck(uri, SKOS.inScheme.getURI(), ((InScheme) rule).getValue(), true));
+    }
+    else if (rule instanceof MemberOf) {
+      tripleChecks.accept(new TripleCheck(((MemberOf) rule).getValue(), SKOS.member.getURI(), uri, false));
+    }
+    else if (rule instanceof PropertyPath) {
+      PropertyPath propertyPath = (PropertyPath) rule;
+      tripleChecks.accept(new TripleCheck(uri, getPropertyPathUri(propertyPath), getPropertyPathValue(propertyPath), true));
+    }
+  }
+
+  private static String getPropertyPathUri(PropertyPath propertyPath) {
+    return ResourceFactory.createProperty(PropertyPathUriMapper.getUri(propertyPath.getPath())).getURI();
+  }
+
+  private static String getPropertyPathValue(PropertyPath propertyPath) {
+    return RdfParserUtils.parseRdfNode(propertyPath.getValue()).toString();
+  }
+
   private final ValidationResult validationResult;
   private final ApplicationProfile applicationProfile;
-  private final RdfStoreService rdfStoreService;
+  private final TripleLookup tripleLookup;
   private final Object value;
 
   private ValueValidation(ValidationResult validationResult,
                           ApplicationProfile applicationProfile,
-                          RdfStoreService rdfStoreService,
+                          TripleLookup tripleLookup,
                           Object value) {
     this.validationResult = validationResult;
     this.applicationProfile = applicationProfile;
-    this.rdfStoreService = rdfStoreService;
+    this.tripleLookup = tripleLookup;
     this.value = value;
   }
 
@@ -204,6 +354,10 @@ public class ValueValidation {
   }
 
   private boolean ask(String uri, String property, String resource) {
+    return tripleLookup.contains(uri, property, resource);
+  }
+
+  private static boolean ask(RdfStoreService rdfStoreService, String uri, String property, String resource) {
     String ask = "ASK { " +
                  "   <" + uri + ">  <" + property + ">  <" + resource + ">. " +
                  "} ";
@@ -378,7 +532,7 @@ public class ValueValidation {
 //      if (model.contains(resource, model.createProperty(PropertyPathUriMapper.getUri(propertyPath.getPath())), RdfParserUtils.parseRdfNode(propertyPath.getValue()))) return new RdfStatements();
       Preconditions.checkState(node.asResource().isURIResource());
       // todo
-      if (ask(node.asResource().getURI(), ResourceFactory.createProperty(PropertyPathUriMapper.getUri(propertyPath.getPath())).getURI(), RdfParserUtils.parseRdfNode(propertyPath.getValue()).toString())) return new RdfStatements();
+      if (ask(node.asResource().getURI(), getPropertyPathUri(propertyPath), getPropertyPathValue(propertyPath))) return new RdfStatements();
 
       String message = "PropertyPath rule violated. " +
                        "Expected resource having property path '" + propertyPath.getPath() + "' with value '" + propertyPath.getValue() + "'. Resource '" + getValueAsString() + "' is missing expected property path value.";
@@ -11,6 +11,7 @@ import zone.cogni.asquare.triplestore.RdfStoreService;
 import zone.cogni.asquare.web.rest.controller.exceptions.NotFoundException;
 
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
@@ -44,6 +45,11 @@ public class EditableAccessService implements AccessService {
     return accessService.findAll(type);
   }
 
+  @Override
+  public void findAll(ApplicationProfile.Type type, int pageSize, Consumer<List<? extends TypedResource>> pageConsumer) {
+    accessService.findAll(type, pageSize, pageConsumer);
+  }
+
   @Override
   public List<TypedResource> findAll(Supplier<ApplicationProfile.Type> typeSupplier, ApplicationView.AttributeMatcher... attributeMatchers) {
     return accessService.findAll(typeSupplier, attributeMatchers);
@@ -6,6 +6,7 @@ import zone.cogni.asquare.edit.DeltaResource;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -26,6 +27,11 @@ public class MergingDelta extends Delta {
                           .collect(Collectors.toList()));
   }
 
+  @Nonnull
+  public Collection<TypedResourceDelta> getDeltas() {
+    return Collections.unmodifiableCollection(deltas);
+  }
+
   @Override
   public List<Statement> getAddStatements() {
     return deltas.stream()
@@ -10,6 +10,7 @@ import zone.cogni.asquare.edit.DeltaResource;
 import zone.cogni.asquare.rdf.RdfValue;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,19 @@ public class TypedResourceDelta extends Delta {
     this.typedResource = typedResource;
   }
 
+  @Nonnull
+  public DeltaResource getTypedResource() {
+    return typedResource;
+  }
+
+  /**
+   * @return values added per attribute
+   */
+  @Nonnull
+  public Map<ApplicationProfile.Attribute, List<RdfValue>> getAddedValues() {
+    return Collections.unmodifiableMap(add);
+  }
+
   public boolean hasChanges() {
     return !getAddStatements().isEmpty() || !getRemoveStatements().isEmpty();
   }
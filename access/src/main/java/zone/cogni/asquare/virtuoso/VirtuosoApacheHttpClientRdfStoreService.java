@@ -6,35 +6,31 @@ import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.apache.jena.query.ParameterizedSparqlString;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.rdf.model.Model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import zone.cogni.libs.core.utils.ApacheHttpClientUtils;
+import zone.cogni.libs.core.utils.PooledHttpClient;
 import zone.cogni.libs.sparqlservice.impl.VirtuosoHelper;
 import zone.cogni.sem.jena.template.JenaResultSetHandler;
 
@@ -50,6 +46,12 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
   protected final String rdfStoreUser;
   protected final String rdfStorePassword;
   private final boolean graphCrudUseBasicAuth;
+  private final PooledHttpClient.Configuration httpClientConfiguration;
+  private String streamingSelectAcceptHeader = ApacheHttpClientUtils.APPLICATION_SPARQL_RESULTS_XML;
+
+  private volatile CloseableHttpClient httpClient;
+  private PooledHttpClient pooledHttpClient;
+  private boolean closed;
 
   public VirtuosoApacheHttpClientRdfStoreService(String rdfStoreUrl, String rdfStoreUser,
       String rdfStorePassword) {
@@ -58,25 +60,90 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
 
   public VirtuosoApacheHttpClientRdfStoreService(String rdfStoreUrl, String rdfStoreUser,
       String rdfStorePassword, boolean graphCrudUseBasicAuth) {
+    this(rdfStoreUrl, rdfStoreUser, rdfStorePassword, graphCrudUseBasicAuth,
+        new PooledHttpClient.Configuration());
+  }
+
+  /**
+   * @param httpClientConfiguration connection pool and timeouts of the http client shared by all
+   *                                requests of this store
+   */
+  public VirtuosoApacheHttpClientRdfStoreService(String rdfStoreUrl, String rdfStoreUser,
+      String rdfStorePassword, boolean graphCrudUseBasicAuth,
+      PooledHttpClient.Configuration httpClientConfiguration) {
     this.rdfStoreUrl = rdfStoreUrl;
     this.rdfStoreUser = rdfStoreUser;
     this.rdfStorePassword = rdfStorePassword;
     this.graphCrudUseBasicAuth = graphCrudUseBasicAuth;
+    this.httpClientConfiguration = httpClientConfiguration;
   }
 
+  /**
+   * @return http client shared by all requests, built with {@link #buildHttpClient()} on first use
+   * and closed in {@link #close()}
+   */
+  protected CloseableHttpClient getHttpClient() {
+    CloseableHttpClient result = httpClient;
+    if (result != null) {
+      return result;
+    }
+
+    synchronized (this) {
+      if (closed) {
+        throw new RuntimeException("Virtuoso store " + rdfStoreUrl + " is closed");
+      }
+      if (httpClient == null) {
+        httpClient = buildHttpClient();
+      }
+      return httpClient;
+    }
+  }
+
+  /**
+   * Builds the http client shared by all requests of this store, called once.
+   * Default is a {@link PooledHttpClient} using the configuration passed in the constructor,
+   * subclasses can override it to customize the client.
+   */
   protected CloseableHttpClient buildHttpClient() {
-    HttpClientBuilder httpClientBuilder = HttpClients.custom().useSystemProperties();
-    httpClientBuilder.setConnectionManager(
-        new PoolingHttpClientConnectionManager(60L, TimeUnit.SECONDS));
-    if (!StringUtils.isBlank(rdfStoreUser)) {
-      CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-      credentialsProvider.setCredentials(AuthScope.ANY,
-          new UsernamePasswordCredentials(rdfStoreUser, rdfStorePassword));
-      httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-    } else {
+    if (StringUtils.isBlank(rdfStoreUser)) {
       log.warn("Virtuoso executor service {} is configured without credentials.", rdfStoreUrl);
     }
-    return httpClientBuilder.build();
+    pooledHttpClient = new PooledHttpClient(rdfStoreUser, rdfStorePassword,
+        httpClientConfiguration);
+    return pooledHttpClient.getHttpClient();
+  }
+
+  /**
+   * @return statistics of the connection pool: leased, pending, available and max connections
+   * @throws RuntimeException if {@link #buildHttpClient()} is overridden and does not use a
+   *                          {@link PooledHttpClient}
+   */
+  public PoolStats getConnectionPoolStats() {
+    getHttpClient();
+    if (pooledHttpClient == null) {
+      throw new RuntimeException("Virtuoso store " + rdfStoreUrl + " does not use a pooled client");
+    }
+    return pooledHttpClient.getPoolStats();
+  }
+
+  @Override
+  public void close() {
+    VirtuosoRdfStoreService.super.close();
+
+    synchronized (this) {
+      closed = true;
+      if (pooledHttpClient != null) {
+        pooledHttpClient.close();
+      } else if (httpClient != null) {
+        try {
+          httpClient.close();
+        } catch (IOException e) {
+          log.warn("Failed to close http client of {}", rdfStoreUrl, e);
+        }
+      }
+      httpClient = null;
+      pooledHttpClient = null;
+    }
   }
 
   @Override
@@ -107,8 +174,7 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
           (rdfStoreUser + ":" + rdfStorePassword).getBytes(StandardCharsets.UTF_8)));
     }
 
-    try (CloseableHttpClient client = buildHttpClient()) {
-      HttpResponse response = client.execute(request);
+    try (CloseableHttpResponse response = getHttpClient().execute(request)) {
       int responseCode = response.getStatusLine().getStatusCode();
       String reason = response.getStatusLine().getReasonPhrase();
       String responseBody = Try.of(
@@ -136,14 +202,34 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
 
     query = buildQuery(query, bindings);
 
-    return ApacheHttpClientUtils.executeSelect(rdfStoreUrl, rdfStoreUser, rdfStorePassword,
+    return ApacheHttpClientUtils.executeSelect(getHttpClient(), rdfStoreUrl, rdfStoreUser, rdfStorePassword,
         query.toString(), graphCrudUseBasicAuth, resultSetHandler::handle);
   }
 
+  /**
+   * @param streamingSelectAcceptHeader accept header used by
+   *                                    {@link #streamSelectQuery(Query, QuerySolutionMap, Consumer)},
+   *                                    defaults to XML results which are parsed incrementally
+   */
+  public void setStreamingSelectAcceptHeader(String streamingSelectAcceptHeader) {
+    this.streamingSelectAcceptHeader = streamingSelectAcceptHeader;
+  }
+
+  @Override
+  public void streamSelectQuery(Query query, QuerySolutionMap bindings,
+      Consumer<QuerySolution> rowConsumer) {
+    log.debug("Stream select - {} \n{}", bindings, query);
+
+    query = buildQuery(query, bindings);
+
+    ApacheHttpClientUtils.executeSelect(getHttpClient(), rdfStoreUrl, rdfStoreUser, rdfStorePassword,
+        query.toString(), graphCrudUseBasicAuth, streamingSelectAcceptHeader, rowConsumer);
+  }
+
   @Override
   public boolean executeAskQuery(Query query, QuerySolutionMap bindings) {
     query = buildQuery(query, bindings);
-    return ApacheHttpClientUtils.executeAsk(rdfStoreUrl, rdfStoreUser, rdfStorePassword,
+    return ApacheHttpClientUtils.executeAsk(getHttpClient(), rdfStoreUrl, rdfStoreUser, rdfStorePassword,
         query.toString(), graphCrudUseBasicAuth);
   }
 
@@ -151,22 +237,18 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
   public Model executeConstructQuery(Query query, QuerySolutionMap bindings) {
     query = buildQuery(query, bindings);
 
-    return ApacheHttpClientUtils.executeConstruct(rdfStoreUrl, rdfStoreUser, rdfStorePassword,
+    return ApacheHttpClientUtils.executeConstruct(getHttpClient(), rdfStoreUrl, rdfStoreUser, rdfStorePassword,
         query.toString(), graphCrudUseBasicAuth);
   }
 
   @Override
   public void executeUpdateQuery(String updateQuery) {
-    CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-    credentialsProvider.setCredentials(AuthScope.ANY,
-        new UsernamePasswordCredentials(rdfStoreUser, rdfStorePassword));
-
-    try (CloseableHttpClient httpClient = buildHttpClient()) {
-      HttpPost httpPost = new HttpPost(rdfStoreUrl);
-      httpPost.setEntity(new UrlEncodedFormEntity(
-          Collections.singletonList(new BasicNameValuePair("query", updateQuery)),
-          StandardCharsets.UTF_8));
-      HttpResponse response = httpClient.execute(httpPost);
+    HttpPost httpPost = new HttpPost(rdfStoreUrl);
+    httpPost.setEntity(new UrlEncodedFormEntity(
+        Collections.singletonList(new BasicNameValuePair("query", updateQuery)),
+        StandardCharsets.UTF_8));
+
+    try (CloseableHttpResponse response = getHttpClient().execute(httpPost)) {
       StatusLine statusLine = response.getStatusLine();
 
       if (!Objects.requireNonNull(HttpStatus.resolve(statusLine.getStatusCode()))
@@ -176,6 +258,8 @@ public class VirtuosoApacheHttpClientRdfStoreService implements VirtuosoRdfStore
             StandardCharsets.UTF_8);
         log.error("Virtuoso update failed with result {}", errorResponse);
       }
+      // fully read response so connection can be reused
+      EntityUtils.consume(response.getEntity());
     } catch (IOException ex) {
       log.error("Virtuoso update failed {}", ex.getMessage());
       throw new VirtuosoOperationException();
@@ -0,0 +1,256 @@
+package zone.cogni.asquare.access.simplerdf;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.SKOS;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import zone.cogni.asquare.access.ApplicationView;
+import zone.cogni.asquare.access.ApplicationViewFactory;
+import zone.cogni.asquare.applicationprofile.json.ApplicationProfileConfig;
+import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
+import zone.cogni.asquare.applicationprofile.prefix.PrefixCcService;
+import zone.cogni.asquare.edit.DeltaResource;
+import zone.cogni.asquare.rdf.RdfValue;
+import zone.cogni.asquare.rdf.TypedResource;
+import zone.cogni.asquare.triplestore.jenamemory.InternalRdfStoreService;
+import zone.cogni.sem.jena.JenaUtils;
+import zone.cogni.sem.jena.template.JenaResultSetHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zone.cogni.asquare.rdf.TypedResourceBuilder.type;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = ApplicationViewFactory.class)
+class SimpleRdfAccessServiceBatchTest {
+
+  private static final String folder = "zone/cogni/asquare/access/simplerdf/";
+  private static final String data = "http://example.cogni.zone/data/";
+
+  @Autowired
+  PrefixCcService prefixCcService;
+
+  @Autowired
+  ApplicationProfileConfig applicationProfileConfig;
+
+  private CountingRdfStoreService rdfStore;
+  private SimpleRdfAccessService accessService;
+  private ApplicationView view;
+
+  @BeforeEach
+  void beforeEach() {
+    rdfStore = new CountingRdfStoreService(getModel());
+    ApplicationProfile applicationProfile = applicationProfileConfig.getDeserializer()
+                                                                    .apply(getResource("simple-rdf-properties.ap.json"));
+    accessService = new SimpleRdfAccessService(prefixCcService, () -> rdfStore);
+    view = new ApplicationView(accessService, applicationProfile);
+  }
+
+  @Test
+  void find_all_uses_same_number_of_queries_for_any_number_of_resources() {
+    // when
+    List<Integer> smallCounts = loadPersons(type(view, "Person").get(), 3);
+    int smallQueryCount = rdfStore.queryCount.getAndSet(0);
+
+    addPersons(200);
+    List<Integer> largeCounts = loadPersons(type(view, "Person").get(), 203);
+    int largeQueryCount = rdfStore.queryCount.get();
+
+    // then
+    assertThat(smallCounts).containsOnly(2);
+    assertThat(largeCounts).containsOnly(2);
+    assertThat(rdfStore.askCount.get()).isZero();
+    assertThat(largeQueryCount).isEqualTo(smallQueryCount);
+  }
+
+  @Test
+  void find_all_in_pages_returns_all_resources() {
+    // given
+    ApplicationProfile.Type person = type(view, "Person").get();
+    addPersons(3);
+    List<String> expected = view.getRepository().findAll(person).stream()
+                                .map(typedResource -> typedResource.getResource().getURI())
+                                .collect(Collectors.toList());
+
+    // when
+    List<Integer> pageSizes = new ArrayList<>();
+    List<String> uris = new ArrayList<>();
+    view.getRepository().findAll(person, 2, page -> {
+      pageSizes.add(page.size());
+      page.forEach(typedResource -> {
+        assertThat(typedResource.<RdfValue>getValues("name")).hasSize(1);
+        uris.add(typedResource.getResource().getURI());
+      });
+    });
+
+    // then
+    assertThat(pageSizes).containsExactly(2, 2, 2);
+    assertThat(uris).containsExactlyInAnyOrderElementsOf(expected);
+  }
+
+  @Test
+  void values_are_reloaded_after_save() {
+    // given
+    TypedResource jan = view.getRepository().getTypedResource(type(view, "Person"), () -> data + "jan");
+    assertThat(jan.<RdfValue>getValues("name")).hasSize(1);
+    int queryCount = rdfStore.queryCount.get();
+
+    // when
+    assertThat(jan.<RdfValue>getValues("name")).hasSize(1);
+    int cachedQueryCount = rdfStore.queryCount.get();
+    view.getRepository().save(Collections.emptyList());
+    rdfStore.getModel().add(rdfStore.getModel().createResource(data + "jan"),
+                            rdfStore.getModel().createProperty("http://xmlns.com/foaf/0.1/name"),
+                            "Janneke");
+
+    // then
+    assertThat(cachedQueryCount).isEqualTo(queryCount);
+    assertThat(jan.<RdfValue>getValues("name")).hasSize(2);
+  }
+
+  @Test
+  void save_validates_all_added_values_with_same_number_of_queries() {
+    // given
+    accessService.setValidateOnSave(true);
+    addGenders(100);
+
+    // when
+    int smallQueryCount = saveGenders("jan", 0, 1);
+    int largeQueryCount = saveGenders("person-0", 0, 100);
+
+    // then
+    assertThat(largeQueryCount).isEqualTo(smallQueryCount);
+    assertThat(rdfStore.getModel().listObjectsOfProperty(rdfStore.getModel().createResource(data + "person-0"),
+                                                         rdfStore.getModel().createProperty("http://example.cogni.zone/ontology/relatedConcept"))
+                       .toList()).hasSize(102);
+  }
+
+  @Test
+  void save_with_invalid_value_is_not_executed() {
+    // given
+    accessService.setValidateOnSave(true);
+    addGenders(10);
+    DeltaResource jan = view.getDeltaResource(type(view, "Person"), data + "jan");
+    jan.addValue("gender", rdfStore.getModel().createResource(data + "gender-0"));
+    jan.addValue("gender", rdfStore.getModel().createResource(data + "dog"));
+    long size = rdfStore.getModel().size();
+
+    // then
+    assertThatThrownBy(() -> view.save(jan))
+            .hasMessageContaining("attribute 'gender'");
+    assertThat(rdfStore.getModel().size()).isEqualTo(size);
+  }
+
+  /**
+   * @return number of queries of the save, none of them are ASK queries
+   */
+  private int saveGenders(String person, int from, int to) {
+    DeltaResource deltaResource = view.getDeltaResource(type(view, "Person"), data + person);
+    IntStream.range(from, to).forEach(i -> deltaResource.addValue("gender", rdfStore.getModel().createResource(data + "gender-" + i)));
+
+    rdfStore.queryCount.set(0);
+    rdfStore.askCount.set(0);
+    view.save(deltaResource);
+
+    assertThat(rdfStore.askCount.get()).isZero();
+    return rdfStore.queryCount.get();
+  }
+
+  private void addGenders(int count) {
+    Model model = ModelFactory.createDefaultModel();
+    IntStream.range(0, count).forEach(i -> model.createResource(data + "gender-" + i)
+                                                .addProperty(RDF.type, SKOS.Concept)
+                                                .addProperty(SKOS.inScheme, model.createResource(data + "gender")));
+    rdfStore.addData(model);
+  }
+
+  /**
+   * @return number of related concepts with a label, per person
+   */
+  private List<Integer> loadPersons(ApplicationProfile.Type person, int expectedSize) {
+    List<? extends TypedResource> persons = view.getRepository().findAll(person);
+    assertThat(persons).hasSize(expectedSize);
+
+    return persons.stream()
+                  .map(typedResource -> {
+                    assertThat(typedResource.<RdfValue>getValues("name")).hasSize(1);
+                    List<TypedResource> concepts = typedResource.getValues("relatedConcept");
+                    return (int) concepts.stream()
+                                         .filter(concept -> concept.<RdfValue>getValues("prefLabel").size() == 1)
+                                         .count();
+                  })
+                  .collect(Collectors.toList());
+  }
+
+  private Model getModel() {
+    Model model = JenaUtils.read(getResource("simple-rdf-properties.ttl"));
+    Resource person = model.createResource("http://example.cogni.zone/ontology/Person");
+    IntStream.range(0, 2).forEach(i -> model.createResource(data + "person-" + i)
+                                            .addProperty(RDF.type, person)
+                                            .addProperty(model.createProperty("http://xmlns.com/foaf/0.1/name"), "person " + i)
+                                            .addProperty(model.createProperty("http://example.cogni.zone/ontology/relatedConcept"), model.createResource(data + "male"))
+                                            .addProperty(model.createProperty("http://example.cogni.zone/ontology/relatedConcept"), model.createResource(data + "dog")));
+    return model;
+  }
+
+  private void addPersons(int count) {
+    Model model = ModelFactory.createDefaultModel();
+    Resource person = model.createResource("http://example.cogni.zone/ontology/Person");
+    IntStream.range(100, 100 + count).forEach(i -> model.createResource(data + "person-" + i)
+                                                        .addProperty(RDF.type, person)
+                                                        .addProperty(model.createProperty("http://xmlns.com/foaf/0.1/name"), "person " + i)
+                                                        .addProperty(model.createProperty("http://example.cogni.zone/ontology/relatedConcept"), model.createResource(data + "female"))
+                                                        .addProperty(model.createProperty("http://example.cogni.zone/ontology/relatedConcept"), model.createResource(data + "human")));
+    rdfStore.addData(model);
+  }
+
+  private ClassPathResource getResource(String file) {
+    return new ClassPathResource(folder + file);
+  }
+
+  private static class CountingRdfStoreService extends InternalRdfStoreService {
+
+    private final AtomicInteger queryCount = new AtomicInteger();
+    private final AtomicInteger askCount = new AtomicInteger();
+
+    private CountingRdfStoreService(Model model) {
+      super(model);
+    }
+
+    @Override
+    public <R> R executeSelectQuery(Query query, QuerySolutionMap bindings, JenaResultSetHandler<R> resultSetHandler, String context) {
+      queryCount.incrementAndGet();
+      return super.executeSelectQuery(query, bindings, resultSetHandler, context);
+    }
+
+    @Override
+    public boolean executeAskQuery(Query query, QuerySolutionMap bindings) {
+      queryCount.incrementAndGet();
+      askCount.incrementAndGet();
+      return super.executeAskQuery(query, bindings);
+    }
+
+    @Override
+    public Model executeConstructQuery(Query query, QuerySolutionMap bindings) {
+      queryCount.incrementAndGet();
+      return super.executeConstructQuery(query, bindings);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package zone.cogni.asquare.access.validation;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.SKOS;
+import org.junit.jupiter.api.Test;
+import zone.cogni.asquare.applicationprofile.model.Rule;
+import zone.cogni.asquare.applicationprofile.rules.InScheme;
+import zone.cogni.asquare.applicationprofile.rules.MemberOf;
+import zone.cogni.asquare.applicationprofile.rules.Or;
+import zone.cogni.asquare.applicationprofile.rules.Range;
+import zone.cogni.asquare.applicationprofile.rules.RdfType;
+import zone.cogni.asquare.triplestore.jenamemory.InternalRdfStoreService;
+import zone.cogni.sem.jena.template.JenaResultSetHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchValueValidationTest {
+
+  private static final String ns = "http://example.cogni.zone/";
+
+  @Test
+  void batch_gives_same_results_as_validation_per_value() {
+    // given
+    CountingRdfStoreService rdfStore = new CountingRdfStoreService(getModel());
+    List<Rule> rules = Arrays.asList(new Range(new InScheme(ns + "scheme")),
+                                     new Range(new Or(Arrays.asList(new MemberOf(ns + "collection"),
+                                                                    new RdfType(ns + "Special")))));
+    List<RDFNode> values = new ArrayList<>();
+    IntStream.range(0, 20).forEach(i -> values.add(rdfStore.getModel().createResource(ns + "concept-" + i)));
+    values.add(rdfStore.getModel().createLiteral("not a concept"));
+
+    // when
+    List<ValidationResult> batchResults = BatchValueValidation.withReport(rdfStore, null)
+                                                              .addAll(values, rules)
+                                                              .validate();
+    int batchAsks = rdfStore.askCount.get();
+    int batchSelects = rdfStore.selectCount.get();
+
+    List<ValidationResult> singleResults = values.stream()
+                                                 .flatMap(value -> rules.stream().map(rule -> ValueValidation.withReport(rdfStore, value, null).apply(rule)))
+                                                 .collect(Collectors.toList());
+
+    // then
+    assertThat(batchAsks).isZero();
+    assertThat(batchSelects).isEqualTo(3);
+    assertThat(rdfStore.askCount.get()).isGreaterThan(40);
+
+    assertThat(batchResults).hasSameSizeAs(singleResults);
+    for (int i = 0; i < batchResults.size(); i++) {
+      assertThat(batchResults.get(i).conforms()).isEqualTo(singleResults.get(i).conforms());
+      assertThat(batchResults.get(i).getRdfStatements().get()).hasSameSizeAs(singleResults.get(i).getRdfStatements().get());
+    }
+    assertThat(batchResults.stream().filter(ValidationResult::conforms).count()).isEqualTo(10 + 10);
+  }
+
+  @Test
+  void batch_on_model_runs_no_queries() {
+    // given
+    Model model = getModel();
+    Resource value = model.createResource(ns + "concept-15");
+
+    // when
+    BatchValueValidation batch = BatchValueValidation.withoutReport(model, null)
+                                                     .add(value, new Range(new InScheme(ns + "scheme")))
+                                                     .add(value, new Range(new MemberOf(ns + "collection")));
+    List<ValidationResult> results = batch.validate();
+
+    // then
+    assertThat(batch.getQueryCount()).isZero();
+    assertThat(results).extracting(ValidationResult::conforms).containsExactly(false, true);
+  }
+
+  /**
+   * Concepts 0 to 9 are in scheme, 10 to 16 are member of the collection and 5 to 7 have type Special.
+   */
+  private Model getModel() {
+    Model model = ModelFactory.createDefaultModel();
+    Resource collection = model.createResource(ns + "collection");
+    IntStream.range(0, 20).forEach(i -> {
+      Resource concept = model.createResource(ns + "concept-" + i);
+      if (i < 10) concept.addProperty(SKOS.inScheme, model.createResource(ns + "scheme"));
+      if (i >= 10 && i < 17) collection.addProperty(SKOS.member, concept);
+      if (i >= 5 && i < 8) concept.addProperty(RDF.type, model.createResource(ns + "Special"));
+    });
+    return model;
+  }
+
+  private static class CountingRdfStoreService extends InternalRdfStoreService {
+
+    private final AtomicInteger askCount = new AtomicInteger();
+    private final AtomicInteger selectCount = new AtomicInteger();
+
+    private CountingRdfStoreService(Model model) {
+      super(model);
+    }
+
+    @Override
+    public boolean executeAskQuery(Query query, QuerySolutionMap bindings) {
+      askCount.incrementAndGet();
+      return super.executeAskQuery(query, bindings);
+    }
+
+    @Override
+    public <R> R executeSelectQuery(Query query, QuerySolutionMap bindings, JenaResultSetHandler<R> resultSetHandler, String context) {
+      selectCount.incrementAndGet();
+      return super.executeSelectQuery(query, bindings, resultSetHandler, context);
+    }
+  }
+}
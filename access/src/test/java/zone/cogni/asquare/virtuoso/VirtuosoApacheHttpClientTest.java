@@ -0,0 +1,44 @@
+package zone.cogni.asquare.virtuoso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.Test;
+
+public class VirtuosoApacheHttpClientTest {
+
+  @Test
+  public void http_client_is_built_once_by_overridable_hook() {
+    AtomicInteger builds = new AtomicInteger();
+    VirtuosoApacheHttpClientRdfStoreService store =
+        new VirtuosoApacheHttpClientRdfStoreService("http://localhost:1/sparql", "", "") {
+          @Override
+          protected CloseableHttpClient buildHttpClient() {
+            builds.incrementAndGet();
+            return HttpClients.createDefault();
+          }
+        };
+
+    CloseableHttpClient first = store.getHttpClient();
+    CloseableHttpClient second = store.getHttpClient();
+
+    assertThat(first).isSameAs(second);
+    assertThat(builds.get()).isEqualTo(1);
+    assertThatThrownBy(store::getConnectionPoolStats).hasMessageContaining("pooled");
+    store.close();
+  }
+
+  @Test
+  public void closed_store_does_not_create_a_new_pool() {
+    VirtuosoApacheHttpClientRdfStoreService store =
+        new VirtuosoApacheHttpClientRdfStoreService("http://localhost:1/sparql", "", "");
+    assertThat(store.getConnectionPoolStats().getLeased()).isZero();
+
+    store.close();
+
+    assertThatThrownBy(store::getConnectionPoolStats).hasMessageContaining("closed");
+  }
+}
@@ -17,6 +17,7 @@ public class LoggedActionModel {
     String success = "success";
     String stackTraceValue = "stackTraceValue";   //to use in debugger aka analyse stacktrace
     String stackTrace = "stackTrace";   //for readability
+    String stackTraceHash = "stackTraceHash";   //to group reports with the same stacktrace
     String errorMessage = "errorMessage";
 
     String httpRequestURL = "http.requestURL";
@@ -0,0 +1,398 @@
+package zone.cogni.asquare.actionlogger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.actionlogger.LoggedActionModel;
+import zone.cogni.actionlogger.LoggedActionSaver;
+import zone.cogni.asquare.service.elasticsearch.Params;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkItem;
+import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves reports to an index with <code>_bulk</code> requests instead of one request per report.
+ * <p>
+ * Reports are converted when they are saved and kept in a bounded ring buffer.
+ * The buffer is sent by a background thread when it holds <code>batchSize</code> reports
+ * or when <code>flushInterval</code> passed, whichever comes first.
+ * Saving a report never blocks: when the buffer is full the {@link OverflowPolicy} decides which report is dropped.
+ * </p>
+ * <p>
+ * Stack traces are deduplicated: each report with a stack trace gets a <code>stackTraceHash</code>,
+ * the full stack trace is sent until a report with it is stored, later reports only have the hash.
+ * Deduplication happens when a batch is sent, so a report which is dropped or fails to be stored
+ * never hides the stack trace of later reports.
+ * </p>
+ */
+public class BufferedElasticStoreLoggedActionSaver implements LoggedActionSaver, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(BufferedElasticStoreLoggedActionSaver.class);
+
+  public enum OverflowPolicy {
+    /**
+     * Report being saved is dropped, buffered reports are kept.
+     */
+    DROP_NEWEST,
+    /**
+     * Oldest buffered report is dropped to make room for the report being saved.
+     */
+    DROP_OLDEST,
+    /**
+     * One in <code>sampleRate</code> reports being saved replaces the oldest buffered report, others are dropped.
+     * Keeps a sample of a burst instead of only its start or end.
+     */
+    SAMPLE
+  }
+
+  public static class Configuration {
+
+    private int capacity = 10_000;
+    private int batchSize = 500;
+    private Duration flushInterval = Duration.ofSeconds(5);
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private int sampleRate = 10;
+    private int stackTraceCacheSize = 1000;
+    private Params params = Params.noRefresh();
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    public Configuration withCapacity(int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public Configuration withBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public Duration getFlushInterval() {
+      return flushInterval;
+    }
+
+    public Configuration withFlushInterval(Duration flushInterval) {
+      this.flushInterval = flushInterval;
+      return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+      return overflowPolicy;
+    }
+
+    public Configuration withOverflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    public int getSampleRate() {
+      return sampleRate;
+    }
+
+    public Configuration withSampleRate(int sampleRate) {
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    public int getStackTraceCacheSize() {
+      return stackTraceCacheSize;
+    }
+
+    public Configuration withStackTraceCacheSize(int stackTraceCacheSize) {
+      this.stackTraceCacheSize = stackTraceCacheSize;
+      return this;
+    }
+
+    public Params getParams() {
+      return params;
+    }
+
+    public Configuration withParams(Params params) {
+      this.params = params;
+      return this;
+    }
+  }
+
+  private final Elasticsearch7Store elasticStore;
+  private final String index;
+  private final Configuration configuration;
+
+  private final Object lock = new Object();
+  private final BulkItem[] buffer;
+  private int head;
+  private int size;
+  private long overflowCount;
+
+  private final Set<String> sentStackTraces;
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private final ScheduledExecutorService flushScheduler;
+
+  private final AtomicLong sentCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  public BufferedElasticStoreLoggedActionSaver(Elasticsearch7Store elasticStore, String index) {
+    this(elasticStore, index, new Configuration());
+  }
+
+  public BufferedElasticStoreLoggedActionSaver(Elasticsearch7Store elasticStore, String index, Configuration configuration) {
+    this.elasticStore = elasticStore;
+    this.index = index;
+    this.configuration = configuration;
+    this.buffer = new BulkItem[configuration.getCapacity()];
+    this.sentStackTraces = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+        return size() > configuration.getStackTraceCacheSize();
+      }
+    });
+
+    this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "logged-action-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long flushMillis = configuration.getFlushInterval().toMillis();
+    flushScheduler.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void save(Map<String, Object> report) {
+    Map<String, Object> document = new HashMap<>(report);
+    addStackTraceHash(document);
+
+    String id = (String) report.get(LoggedActionModel.ReportKeys.id);
+    offer(new BulkItem(index, id, convertToObjectNode(document)));
+
+    if (getBufferedCount() >= configuration.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+      flushScheduler.execute(this::flushSafely);
+    }
+  }
+
+  /**
+   * Adds hash of stack trace to <code>document</code>, if it has a stack trace.
+   */
+  private void addStackTraceHash(Map<String, Object> document) {
+    Object stackTrace = document.get(LoggedActionModel.ReportKeys.stackTraceValue);
+    if (!(stackTrace instanceof String)) return;
+
+    document.put(LoggedActionModel.ReportKeys.stackTraceHash, getHash((String) stackTrace));
+  }
+
+  /**
+   * Removes stack traces which are already stored or which are sent by an earlier item of the same batch.
+   */
+  private List<BulkItem> removeSentStackTraces(List<BulkItem> items) {
+    Set<String> batchStackTraces = new HashSet<>();
+    List<BulkItem> result = new ArrayList<>(items.size());
+    for (BulkItem item : items) {
+      String hash = getFullStackTraceHash(item);
+      if (hash == null || (batchStackTraces.add(hash) && !isSent(hash))) {
+        result.add(item);
+        continue;
+      }
+
+      ObjectNode document = item.getDocument().deepCopy();
+      document.remove(LoggedActionModel.ReportKeys.stackTraceValue);
+      document.remove(LoggedActionModel.ReportKeys.stackTrace);
+      result.add(new BulkItem(item.getIndexName(), item.getId(), document));
+    }
+    return result;
+  }
+
+  /**
+   * @return hash of the stack trace if <code>item</code> contains the full stack trace, otherwise <code>null</code>
+   */
+  private static String getFullStackTraceHash(BulkItem item) {
+    ObjectNode document = item.getDocument();
+    if (!document.has(LoggedActionModel.ReportKeys.stackTraceValue)) return null;
+
+    return document.path(LoggedActionModel.ReportKeys.stackTraceHash).asText(null);
+  }
+
+  private boolean isSent(String hash) {
+    synchronized (sentStackTraces) {
+      return sentStackTraces.contains(hash);
+    }
+  }
+
+  private static String getHash(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder result = new StringBuilder();
+      for (int i = 0; i < 16; i++) {
+        result.append(String.format("%02x", digest[i]));
+      }
+      return result.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-256 not supported", e);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if item was added to the buffer
+   */
+  private boolean offer(BulkItem item) {
+    synchronized (lock) {
+      if (size < buffer.length) {
+        buffer[(head + size) % buffer.length] = item;
+        size += 1;
+        return true;
+      }
+
+      droppedCount.incrementAndGet();
+      OverflowPolicy overflowPolicy = configuration.getOverflowPolicy();
+      if (overflowPolicy == OverflowPolicy.DROP_NEWEST) return false;
+      if (overflowPolicy == OverflowPolicy.SAMPLE && overflowCount++ % configuration.getSampleRate() != 0) return false;
+
+      // buffer is full, so the oldest item is at the position of the new one
+      buffer[head] = item;
+      head = (head + 1) % buffer.length;
+      return true;
+    }
+  }
+
+  private List<BulkItem> drain(int max) {
+    synchronized (lock) {
+      int count = Math.min(max, size);
+      List<BulkItem> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        result.add(buffer[head]);
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+      }
+      size -= count;
+      if (size == 0) overflowCount = 0;
+      return result;
+    }
+  }
+
+  /**
+   * Sends all buffered reports.
+   */
+  public void flush() {
+    flushRequested.set(false);
+    while (true) {
+      List<BulkItem> items = drain(configuration.getBatchSize());
+      if (items.isEmpty()) return;
+
+      send(items);
+    }
+  }
+
+  private void flushSafely() {
+    try {
+      flush();
+    }
+    catch (RuntimeException e) {
+      log.warn("Failed to flush logged actions to index '{}'", index, e);
+    }
+  }
+
+  private void send(List<BulkItem> batch) {
+    List<BulkItem> items = removeSentStackTraces(batch);
+
+    ObjectNode response;
+    try {
+      response = elasticStore.bulkIndex(items, configuration.getParams());
+    }
+    catch (RuntimeException e) {
+      failedCount.addAndGet(items.size());
+      log.warn("Failed to store {} logs to index '{}'", items.size(), index, e);
+      return;
+    }
+
+    // items of the response are in the order of the request
+    int failed = 0;
+    int position = 0;
+    for (JsonNode item : response.path("items")) {
+      JsonNode result = item.elements().next();
+      BulkItem bulkItem = position < items.size() ? items.get(position) : null;
+      position += 1;
+
+      if (!result.has("error")) {
+        markStackTraceSent(bulkItem);
+        continue;
+      }
+
+      failed += 1;
+      log.warn("Failed to store log '{}' to index '{}': {}", result.path("_id").asText(), index, result.path("error"));
+    }
+    failedCount.addAndGet(failed);
+    sentCount.addAndGet(items.size() - failed);
+  }
+
+  private void markStackTraceSent(BulkItem item) {
+    String hash = item == null ? null : getFullStackTraceHash(item);
+    if (hash == null) return;
+
+    synchronized (sentStackTraces) {
+      sentStackTraces.add(hash);
+    }
+  }
+
+  @Override
+  public void close() {
+    flushScheduler.shutdown();
+    try {
+      if (!flushScheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Flush of logged actions to index '{}' did not finish in time", index);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    log.info("Closed logged action saver for index '{}': {} sent, {} dropped, {} failed",
+             index, getSentCount(), getDroppedCount(), getFailedCount());
+  }
+
+  public int getBufferedCount() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  public long getSentCount() {
+    return sentCount.get();
+  }
+
+  /**
+   * @return number of reports dropped because the buffer was full
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return number of reports rejected by the store or lost in a failed request
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+}
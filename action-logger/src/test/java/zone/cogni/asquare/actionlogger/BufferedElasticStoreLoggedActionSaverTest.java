@@ -0,0 +1,223 @@
+package zone.cogni.asquare.actionlogger;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import zone.cogni.actionlogger.LoggedActionModel.ReportKeys;
+import zone.cogni.asquare.service.elasticsearch.Params;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkItem;
+import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static zone.cogni.asquare.actionlogger.BufferedElasticStoreLoggedActionSaver.Configuration;
+import static zone.cogni.asquare.actionlogger.BufferedElasticStoreLoggedActionSaver.OverflowPolicy;
+
+class BufferedElasticStoreLoggedActionSaverTest {
+
+  private final List<List<BulkItem>> requests = new ArrayList<>();
+  private final AtomicInteger failingRequests = new AtomicInteger();
+
+  @Test
+  void reports_are_sent_in_batches() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(new Configuration().withBatchSize(10));
+
+    // when
+    for (int i = 0; i < 25; i++) {
+      saver.save(getReport("report-" + i));
+    }
+    saver.close();
+
+    // then
+    assertThat(getIds()).hasSize(25);
+    assertThat(requests).allSatisfy(request -> assertThat(request).hasSizeLessThanOrEqualTo(10));
+    assertThat(requests.size()).isLessThan(25);
+    assertThat(saver.getSentCount()).isEqualTo(25);
+    assertThat(saver.getDroppedCount()).isZero();
+  }
+
+  @Test
+  void drop_newest_keeps_buffered_reports() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(getFullBufferConfiguration(OverflowPolicy.DROP_NEWEST));
+
+    // when
+    for (int i = 0; i < 8; i++) {
+      saver.save(getReport("report-" + i));
+    }
+    saver.close();
+
+    // then
+    assertThat(getIds()).containsExactly("report-0", "report-1", "report-2", "report-3");
+    assertThat(saver.getDroppedCount()).isEqualTo(4);
+  }
+
+  @Test
+  void drop_oldest_keeps_latest_reports() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(getFullBufferConfiguration(OverflowPolicy.DROP_OLDEST));
+
+    // when
+    for (int i = 0; i < 8; i++) {
+      saver.save(getReport("report-" + i));
+    }
+    saver.close();
+
+    // then
+    assertThat(getIds()).containsExactly("report-4", "report-5", "report-6", "report-7");
+    assertThat(saver.getDroppedCount()).isEqualTo(4);
+  }
+
+  @Test
+  void sample_keeps_one_in_sample_rate_reports() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(getFullBufferConfiguration(OverflowPolicy.SAMPLE).withSampleRate(3));
+
+    // when
+    for (int i = 0; i < 10; i++) {
+      saver.save(getReport("report-" + i));
+    }
+    saver.close();
+
+    // then
+    assertThat(getIds()).containsExactly("report-2", "report-3", "report-4", "report-7");
+    assertThat(saver.getDroppedCount()).isEqualTo(6);
+  }
+
+  @Test
+  void stack_trace_is_only_sent_once() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(new Configuration());
+    String stackTrace = getStackTrace(new IllegalStateException("failed"));
+
+    // when
+    saver.save(getFailedReport("first", stackTrace));
+    saver.save(getFailedReport("second", stackTrace));
+    saver.save(getFailedReport("other", getStackTrace(new IllegalArgumentException("other"))));
+    saver.close();
+
+    // then
+    Map<String, ObjectNode> documents = getDocuments();
+    assertThat(documents.get("first").has(ReportKeys.stackTraceValue)).isTrue();
+    assertThat(documents.get("second").has(ReportKeys.stackTraceValue)).isFalse();
+    assertThat(documents.get("second").has(ReportKeys.stackTrace)).isFalse();
+    assertThat(documents.get("other").has(ReportKeys.stackTraceValue)).isTrue();
+    assertThat(documents.get("second").get(ReportKeys.stackTraceHash))
+            .isEqualTo(documents.get("first").get(ReportKeys.stackTraceHash))
+            .isNotEqualTo(documents.get("other").get(ReportKeys.stackTraceHash));
+  }
+
+  @Test
+  void stack_trace_of_dropped_report_is_sent_with_later_report() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(getFullBufferConfiguration(OverflowPolicy.DROP_OLDEST).withCapacity(2));
+    String stackTrace = getStackTrace(new IllegalStateException("failed"));
+
+    // when
+    saver.save(getFailedReport("first", stackTrace));
+    saver.save(getReport("report-1"));
+    saver.save(getReport("report-2"));
+    saver.save(getFailedReport("second", stackTrace));
+    saver.close();
+
+    // then
+    assertThat(getIds()).containsExactly("report-2", "second");
+    assertThat(getDocuments().get("second").has(ReportKeys.stackTraceValue)).isTrue();
+  }
+
+  @Test
+  void stack_trace_is_sent_again_after_failed_request() {
+    // given
+    BufferedElasticStoreLoggedActionSaver saver = newSaver(getFullBufferConfiguration(OverflowPolicy.DROP_NEWEST));
+    String stackTrace = getStackTrace(new IllegalStateException("failed"));
+    failingRequests.set(1);
+
+    // when
+    saver.save(getFailedReport("first", stackTrace));
+    saver.flush();
+    saver.save(getFailedReport("second", stackTrace));
+    saver.flush();
+    saver.save(getFailedReport("third", stackTrace));
+    saver.close();
+
+    // then
+    Map<String, ObjectNode> documents = getDocuments();
+    assertThat(saver.getFailedCount()).isEqualTo(1);
+    assertThat(documents.get("second").has(ReportKeys.stackTraceValue)).isTrue();
+    assertThat(documents.get("third").has(ReportKeys.stackTraceValue)).isFalse();
+  }
+
+  private Configuration getFullBufferConfiguration(OverflowPolicy overflowPolicy) {
+    // nothing is flushed before close
+    return new Configuration().withCapacity(4)
+                              .withBatchSize(100)
+                              .withFlushInterval(Duration.ofHours(1))
+                              .withOverflowPolicy(overflowPolicy);
+  }
+
+  private BufferedElasticStoreLoggedActionSaver newSaver(Configuration configuration) {
+    Elasticsearch7Store elasticStore = Mockito.mock(Elasticsearch7Store.class);
+    Mockito.when(elasticStore.bulkIndex(any(), any(Params.class))).thenAnswer(invocation -> {
+      List<BulkItem> items = invocation.getArgument(0);
+      if (failingRequests.getAndDecrement() > 0) throw new RuntimeException("request failed");
+
+      synchronized (requests) {
+        requests.add(new ArrayList<>(items));
+      }
+      return getResponse(items);
+    });
+    return new BufferedElasticStoreLoggedActionSaver(elasticStore, "logs", configuration);
+  }
+
+  private static ObjectNode getResponse(List<BulkItem> items) {
+    ObjectNode response = JsonNodeFactory.instance.objectNode();
+    ArrayNode resultItems = response.putArray("items");
+    items.forEach(item -> resultItems.addObject().putObject("index").put("_id", item.getId()).put("status", 201));
+    return response;
+  }
+
+  private List<String> getIds() {
+    return requests.stream()
+                   .flatMap(List::stream)
+                   .map(BulkItem::getId)
+                   .collect(Collectors.toList());
+  }
+
+  private Map<String, ObjectNode> getDocuments() {
+    return requests.stream()
+                   .flatMap(List::stream)
+                   .collect(Collectors.toMap(BulkItem::getId, BulkItem::getDocument));
+  }
+
+  private static Map<String, Object> getReport(String id) {
+    Map<String, Object> report = new HashMap<>();
+    report.put(ReportKeys.id, id);
+    report.put(ReportKeys.name, "test");
+    report.put(ReportKeys.success, true);
+    return report;
+  }
+
+  private static Map<String, Object> getFailedReport(String id, String stackTrace) {
+    Map<String, Object> report = getReport(id);
+    report.put(ReportKeys.success, false);
+    report.put(ReportKeys.stackTraceValue, stackTrace);
+    report.put(ReportKeys.stackTrace, stackTrace.split("\n"));
+    return report;
+  }
+
+  private static String getStackTrace(Exception exception) {
+    return ExceptionUtils.getStackTrace(exception);
+  }
+}
@@ -1,9 +1,12 @@
 package zone.cogni.asquareroot.elastic;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
@@ -16,6 +19,8 @@ import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.support.replication.ReplicatedWriteRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.discovery.DiscoveryModule;
@@ -229,4 +234,48 @@ public class EmbeddedElasticsearch7Store implements Elasticsearch7Store {
   public ObjectNode search(String indexName, ObjectNode searchObject) {
     return null;
   }
+
+  @Override
+  public List<String> getIndexesForAlias(String alias) {
+    ImmutableOpenMap<String, List<AliasMetaData>> aliases = client.admin().indices().prepareGetAliases(alias).get().getAliases();
+
+    List<String> result = new ArrayList<>();
+    aliases.keysIt().forEachRemaining(index -> {
+      if (!aliases.get(index).isEmpty()) result.add(index);
+    });
+    return result;
+  }
+
+  @Override
+  public boolean indexExists(String indexName) {
+    return client.admin().indices().prepareExists(indexName).get().isExists();
+  }
+
+  @Override
+  public void updateAliases(ObjectNode actions) {
+    IndicesAliasesRequestBuilder request = client.admin().indices().prepareAliases();
+    actions.path("actions").forEach(action -> action.fields().forEachRemaining(
+      entry -> request.addAliasAction(getAliasAction(entry.getKey(), entry.getValue()))));
+
+    AcknowledgedResponse response = request.get();
+    log.info("updateAliases response {}", response);
+  }
+
+  private IndicesAliasesRequest.AliasActions getAliasAction(String type, JsonNode action) {
+    switch (type) {
+      case "add":
+        return IndicesAliasesRequest.AliasActions.add()
+                                                 .index(action.path("index").asText())
+                                                 .alias(action.path("alias").asText());
+      case "remove":
+        return IndicesAliasesRequest.AliasActions.remove()
+                                                 .index(action.path("index").asText())
+                                                 .alias(action.path("alias").asText());
+      case "remove_index":
+        return IndicesAliasesRequest.AliasActions.removeIndex()
+                                                 .index(action.path("index").asText());
+      default:
+        throw new RuntimeException("Alias action '" + type + "' is not supported");
+    }
+  }
 }
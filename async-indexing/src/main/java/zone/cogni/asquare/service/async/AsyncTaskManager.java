@@ -3,6 +3,7 @@ package zone.cogni.asquare.service.async;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zone.cogni.libs.core.utils.VirtualThreads;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -11,11 +12,22 @@ import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Executor for async tasks which keeps track of running tasks by key and rejects a task while another one
+ * with the same key is running.
+ * <p>
+ * Tasks run on platform threads by default. With {@link #setVirtualThreads(boolean)} they run on virtual threads
+ * on Java 21 or later, so pool size can be raised for tasks doing mostly blocking I/O.
+ * Limit calls to each downstream service with a <code>ConcurrencyLimiter</code> in that case.
+ */
 public class AsyncTaskManager extends ThreadPoolTaskExecutor {
 
   private static final long serialVersionUID = -1059950250082758143L;
@@ -28,6 +40,8 @@ public class AsyncTaskManager extends ThreadPoolTaskExecutor {
   private final Map<Object, CompletableFuture<Object>> executionMap = new ConcurrentHashMap<>();
   private final Map<Object, LocalDateTime> executionTime = new ConcurrentHashMap<>();
 
+  private boolean virtualThreads;
+
   private LocalDateTime lastExecutionStart;
   private LocalDateTime lastExecutionStop;
 
@@ -92,6 +106,27 @@ public class AsyncTaskManager extends ThreadPoolTaskExecutor {
 
   }
 
+  /**
+   * Run tasks on virtual threads, to be set before the executor is initialized.
+   * Falls back to platform threads if the JVM does not support virtual threads.
+   * Core and max pool size still limit the number of concurrent tasks.
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  @Override
+  protected ExecutorService initializeExecutor(ThreadFactory threadFactory,
+                                               RejectedExecutionHandler rejectedExecutionHandler) {
+    boolean useVirtualThreads = virtualThreads && VirtualThreads.checkAvailable(getThreadNamePrefix());
+    ThreadFactory factory = useVirtualThreads ? VirtualThreads.newThreadFactory(getThreadNamePrefix()) : threadFactory;
+    return super.initializeExecutor(factory, rejectedExecutionHandler);
+  }
+
   protected static CompletableFuture<Object> getCompletableFuture() {
     return threadLocalCompletableFuture.get();
   }
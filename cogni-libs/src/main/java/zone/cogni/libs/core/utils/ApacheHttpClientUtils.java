@@ -3,6 +3,7 @@ package zone.cogni.libs.core.utils;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
@@ -12,6 +13,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
@@ -21,6 +23,8 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -35,13 +39,26 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Utility functions for working with the Apache HttpClient.
+ * <p>
+ * Methods without a client argument build and close a client per call. Services sending many
+ * requests should own a {@link PooledHttpClient}, configured for their load, pass its client to
+ * the methods with a client argument and close it when they are closed.
  */
 public class ApacheHttpClientUtils {
 
   private final static Logger log = LoggerFactory.getLogger(ApacheHttpClientUtils.class);
   public static final String APPLICATION_SPARQL_RESULTS_XML = "application/sparql-results+xml";
+  public static final String APPLICATION_SPARQL_RESULTS_JSON = "application/sparql-results+json";
+  public static final String TEXT_TAB_SEPARATED_VALUES = "text/tab-separated-values";
   public static final String TEXT_TURTLE = "text/turtle";
 
+  /**
+   * Accept header for streamed selects, prefers formats which are cheap to parse.
+   */
+  public static final String STREAMING_SELECT_ACCEPT_HEADER =
+      TEXT_TAB_SEPARATED_VALUES + ", " + APPLICATION_SPARQL_RESULTS_JSON + ";q=0.9, "
+          + APPLICATION_SPARQL_RESULTS_XML + ";q=0.8";
+
   /**
    * Builds a http client given username and password for authentication. Apache HttpClient is
    * capable of delivering both Basic auth and Digest auth.
@@ -66,6 +83,18 @@ public class ApacheHttpClientUtils {
     return httpClientBuilder.build();
   }
 
+  /**
+   * Runs <code>call</code> with a client built for this call only, closed afterwards.
+   */
+  private static <R> R withNewHttpClient(final String username, final String password,
+      final Function<CloseableHttpClient, R> call) {
+    try (final CloseableHttpClient httpclient = buildHttpClient(username, password)) {
+      return call.apply(httpclient);
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Ensures the response is 2xx. Throws a Runtime exception otherwise.
    *
@@ -104,9 +133,9 @@ public class ApacheHttpClientUtils {
     actualContentType = removeCharset(actualContentType);
 
     // If the server fails to return a Content-Type then we will assume
-    // the server returned the type we asked for
+    // the server returned the (first) type we asked for
     if (actualContentType.isEmpty()) {
-      actualContentType = acceptHeader;
+      actualContentType = removeCharset(StringUtils.substringBefore(acceptHeader, ",").trim());
     }
 
     RIOT.init();
@@ -151,18 +180,34 @@ public class ApacheHttpClientUtils {
       final String password, final boolean addBasicAuth, final HttpEntity httpEntity, boolean put,
       final String contentType) {
 
-    try (final CloseableHttpClient httpclient = ApacheHttpClientUtils.buildHttpClient(username,
-        password)) {
-      final HttpEntityEnclosingRequestBase httpPost = put ? new HttpPut(url) : new HttpPost(url);
-      httpPost.setHeader(HttpHeaders.CONTENT_TYPE, contentType);
-      if (addBasicAuth) {
-        httpPost.setHeader(HttpHeaders.AUTHORIZATION, "Basic " + Base64.encodeBase64String(
-            (username + ":" + password).getBytes(StandardCharsets.UTF_8)));
-      }
-      httpPost.setEntity(httpEntity);
+    withNewHttpClient(username, password, httpclient -> {
+      executeAuthenticatedPostOrPut(httpclient, url, username, password, addBasicAuth, httpEntity,
+          put, contentType);
+      return null;
+    });
+  }
+
+  /**
+   * Same as {@link #executeAuthenticatedPostOrPut(String, String, String, boolean, HttpEntity,
+   * boolean, String)} using a client owned by the caller, e.g. of a {@link PooledHttpClient}.
+   *
+   * @param httpclient client to use, it is not closed
+   */
+  public static void executeAuthenticatedPostOrPut(final CloseableHttpClient httpclient,
+      final String url, final String username, final String password, final boolean addBasicAuth,
+      final HttpEntity httpEntity, boolean put, final String contentType) {
+
+    final HttpEntityEnclosingRequestBase httpPost = put ? new HttpPut(url) : new HttpPost(url);
+    httpPost.setHeader(HttpHeaders.CONTENT_TYPE, contentType);
+    if (addBasicAuth) {
+      httpPost.setHeader(HttpHeaders.AUTHORIZATION, "Basic " + Base64.encodeBase64String(
+          (username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+    }
+    httpPost.setEntity(httpEntity);
 
-      final HttpResponse response = httpclient.execute(httpPost);
+    try (final CloseableHttpResponse response = httpclient.execute(httpPost)) {
       ensureResponseOK(response);
+      EntityUtils.consume(response.getEntity());
     } catch (final IOException e) {
       throw new RuntimeException(e);
     }
@@ -174,23 +219,38 @@ public class ApacheHttpClientUtils {
    * @param sparqlServiceUrl SPARQL endpoint
    * @param username         to authenticate with
    * @param password         to authenticate with
-   * @param query            SELECT query
+   * @param query            ASK query
    * @param addBasicAuth     whether the "Authorization Basic ..." header shall be added
    */
   public static boolean executeAsk(final String sparqlServiceUrl, final String username,
       final String password, final String query, final boolean addBasicAuth) {
 
-    try (final CloseableHttpClient httpclient = ApacheHttpClientUtils.buildHttpClient(username,
-        password)) {
-      final String acceptHeader = APPLICATION_SPARQL_RESULTS_XML;
-      final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, acceptHeader,
-          username, password, addBasicAuth);
-      httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+    return withNewHttpClient(username, password,
+        httpclient -> executeAsk(httpclient, sparqlServiceUrl, username, password, query,
+            addBasicAuth));
+  }
 
-      final HttpResponse response = httpclient.execute(httpPost);
+  /**
+   * Same as {@link #executeAsk(String, String, String, String, boolean)} using a client owned by
+   * the caller, e.g. of a {@link PooledHttpClient}.
+   *
+   * @param httpclient client to use, it is not closed
+   */
+  public static boolean executeAsk(final CloseableHttpClient httpclient,
+      final String sparqlServiceUrl, final String username, final String password,
+      final String query, final boolean addBasicAuth) {
+
+    final String acceptHeader = APPLICATION_SPARQL_RESULTS_XML;
+    final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, acceptHeader,
+        username, password, addBasicAuth);
+    httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+
+    try (final CloseableHttpResponse response = httpclient.execute(httpPost)) {
       ensureResponseOK(response);
-      return ResultSetMgr.readBoolean(response.getEntity().getContent(),
+      final boolean result = ResultSetMgr.readBoolean(response.getEntity().getContent(),
           getResultSetLanguage(response, acceptHeader));
+      EntityUtils.consume(response.getEntity());
+      return result;
     } catch (final IOException e) {
       throw new RuntimeException(e);
     }
@@ -202,24 +262,79 @@ public class ApacheHttpClientUtils {
    * @param sparqlServiceUrl SPARQL endpoint
    * @param username         to authenticate with
    * @param password         to authenticate with
-   * @param query            ASK query
+   * @param query            SELECT query
    * @param addBasicAuth     whether the "Authorization Basic ..." header shall be added
    */
   public static <R> R executeSelect(final String sparqlServiceUrl, final String username,
       final String password, final String query, final boolean addBasicAuth,
       final Function<ResultSet, R> handler) {
 
-    try (final CloseableHttpClient httpclient = ApacheHttpClientUtils.buildHttpClient(username,
-        password)) {
-      final String acceptHeader = APPLICATION_SPARQL_RESULTS_XML;
-      final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, acceptHeader,
-          username, password, addBasicAuth);
-      httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+    return withNewHttpClient(username, password,
+        httpclient -> executeSelect(httpclient, sparqlServiceUrl, username, password, query,
+            addBasicAuth, handler));
+  }
+
+  /**
+   * Same as {@link #executeSelect(String, String, String, String, boolean, Function)} using a
+   * shared client, e.g. of a {@link PooledHttpClient}.
+   *
+   * @param httpclient client to use, it is not closed
+   */
+  public static <R> R executeSelect(final CloseableHttpClient httpclient,
+      final String sparqlServiceUrl, final String username, final String password,
+      final String query, final boolean addBasicAuth, final Function<ResultSet, R> handler) {
+
+    final String acceptHeader = APPLICATION_SPARQL_RESULTS_XML;
+    final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, acceptHeader,
+        username, password, addBasicAuth);
+    httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+
+    try (final CloseableHttpResponse response = httpclient.execute(httpPost)) {
+      ensureResponseOK(response);
+      final ResultSet resultSet = ResultSetMgr.read(response.getEntity().getContent(),
+          getResultSetLanguage(response, acceptHeader)).materialise();
+      // fully read response so connection can be reused
+      EntityUtils.consume(response.getEntity());
+      return handler.apply(resultSet);
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Executes SPARQL SELECT against a SPARQL 1.1 Protocol endpoint and passes rows to
+   * <code>rowConsumer</code> while the response is being read.
+   * <p>
+   * Unlike {@link #executeSelect(CloseableHttpClient, String, String, String, String, boolean,
+   * Function)} the response is not buffered, so first rows arrive before the whole response is
+   * received and memory use does not grow with the size of the result. Rows must not be kept
+   * beyond the call unless they are copied.
+   *
+   * @param httpclient       client to use, it is not closed
+   * @param sparqlServiceUrl SPARQL endpoint
+   * @param username         to authenticate with
+   * @param password         to authenticate with
+   * @param query            SELECT query
+   * @param addBasicAuth     whether the "Authorization Basic ..." header shall be added
+   * @param acceptHeader     accept header, e.g. {@link #STREAMING_SELECT_ACCEPT_HEADER}; the
+   *                         content type of the response decides which parser is used
+   * @param rowConsumer      called for each row
+   */
+  public static void executeSelect(final CloseableHttpClient httpclient,
+      final String sparqlServiceUrl, final String username, final String password,
+      final String query, final boolean addBasicAuth, final String acceptHeader,
+      final Consumer<QuerySolution> rowConsumer) {
+
+    final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, acceptHeader,
+        username, password, addBasicAuth);
+    httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
 
-      final HttpResponse response = httpclient.execute(httpPost);
+    try (final CloseableHttpResponse response = httpclient.execute(httpPost)) {
       ensureResponseOK(response);
-      return handler.apply(ResultSetMgr.read(response.getEntity().getContent(),
-          getResultSetLanguage(response, acceptHeader)).materialise());
+      final ResultSet resultSet = ResultSetMgr.read(response.getEntity().getContent(),
+          getResultSetLanguage(response, acceptHeader));
+      resultSet.forEachRemaining(rowConsumer);
+      EntityUtils.consume(response.getEntity());
     } catch (final IOException e) {
       throw new RuntimeException(e);
     }
@@ -237,17 +352,31 @@ public class ApacheHttpClientUtils {
   public static Model executeConstruct(final String sparqlServiceUrl, final String username,
       final String password, final String query, final boolean addBasicAuth) {
 
-    try (final CloseableHttpClient httpclient = ApacheHttpClientUtils.buildHttpClient(username,
-        password)) {
-      final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, TEXT_TURTLE,
-          username, password, addBasicAuth);
-      httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+    return withNewHttpClient(username, password,
+        httpclient -> executeConstruct(httpclient, sparqlServiceUrl, username, password, query,
+            addBasicAuth));
+  }
+
+  /**
+   * Same as {@link #executeConstruct(String, String, String, String, boolean)} using a shared
+   * client, e.g. of a {@link PooledHttpClient}.
+   *
+   * @param httpclient client to use, it is not closed
+   */
+  public static Model executeConstruct(final CloseableHttpClient httpclient,
+      final String sparqlServiceUrl, final String username, final String password,
+      final String query, final boolean addBasicAuth) {
+
+    final HttpEntityEnclosingRequestBase httpPost = createPost(sparqlServiceUrl, TEXT_TURTLE,
+        username, password, addBasicAuth);
+    httpPost.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
 
-      final HttpResponse response = httpclient.execute(httpPost);
+    try (final CloseableHttpResponse response = httpclient.execute(httpPost)) {
       ensureResponseOK(response);
 
       final Model model = ModelFactory.createDefaultModel();
       model.read(response.getEntity().getContent(), null, Lang.TURTLE.getLabel());
+      EntityUtils.consume(response.getEntity());
       return model;
     } catch (final IOException e) {
       throw new RuntimeException(e);
@@ -0,0 +1,123 @@
+package zone.cogni.libs.core.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent calls to one downstream service, e.g. a triplestore or an
+ * Elasticsearch cluster, independent of the number of threads making the calls.
+ * <p>
+ * Meant to be shared by all components calling the same service, typically one Spring bean per
+ * downstream. Permits are handed out in order of arrival.
+ */
+public class ConcurrencyLimiter {
+
+  private final String name;
+  private final int maxConcurrency;
+  private final Semaphore semaphore;
+
+  private final LongAdder callCount = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+
+  /**
+   * @param name           name of downstream service, used in logging
+   * @param maxConcurrency maximum number of concurrent calls
+   */
+  public ConcurrencyLimiter(String name, int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new RuntimeException("maxConcurrency of '" + name + "' must be at least 1");
+    }
+
+    this.name = name;
+    this.maxConcurrency = maxConcurrency;
+    this.semaphore = new Semaphore(maxConcurrency, true);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * @return number of calls in progress
+   */
+  public int getActiveCount() {
+    return maxConcurrency - semaphore.availablePermits();
+  }
+
+  /**
+   * @return estimate of the number of threads waiting for a permit
+   */
+  public int getWaitingCount() {
+    return semaphore.getQueueLength();
+  }
+
+  public long getCallCount() {
+    return callCount.sum();
+  }
+
+  /**
+   * @return total time all calls waited for a permit, in milliseconds
+   */
+  public long getTotalWaitMillis() {
+    return waitNanos.sum() / 1_000_000;
+  }
+
+  /**
+   * Runs <code>callable</code> once a permit is available, checked exceptions are wrapped in a
+   * <code>RuntimeException</code>.
+   */
+  public <T> T call(Callable<T> callable) {
+    acquire();
+    try {
+      return callable.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } finally {
+      semaphore.release();
+    }
+  }
+
+  public <T> T get(Supplier<T> supplier) {
+    acquire();
+    try {
+      return supplier.get();
+    } finally {
+      semaphore.release();
+    }
+  }
+
+  public void run(Runnable runnable) {
+    acquire();
+    try {
+      runnable.run();
+    } finally {
+      semaphore.release();
+    }
+  }
+
+  private void acquire() {
+    long start = System.nanoTime();
+    try {
+      semaphore.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while waiting for '" + name + "'", e);
+    }
+    waitNanos.add(System.nanoTime() - start);
+    callCount.increment();
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrencyLimiter{" + name + ": " + getActiveCount() + " of " + maxConcurrency
+        + " active, " + getWaitingCount() + " waiting}";
+  }
+}
@@ -0,0 +1,240 @@
+package zone.cogni.libs.core.utils;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived Apache HttpClient backed by a connection pool, meant to be shared by all requests to
+ * one server, e.g. one instance per RDF store.
+ * <p>
+ * Connections are kept alive and reused between requests, expired and idle connections are
+ * evicted by a background thread. Client needs to be closed to release the pool.
+ */
+public class PooledHttpClient implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(PooledHttpClient.class);
+
+  public static class Configuration {
+
+    private int maxTotal = 20;
+    private int maxPerRoute = 10;
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration connectionRequestTimeout = Duration.ofSeconds(30);
+    private Duration socketTimeout = Duration.ZERO;
+    private Duration keepAlive = Duration.ofSeconds(30);
+    private Duration timeToLive = Duration.ofSeconds(60);
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+    public int getMaxTotal() {
+      return maxTotal;
+    }
+
+    /**
+     * @param maxTotal maximum number of connections in the pool
+     */
+    public Configuration withMaxTotal(int maxTotal) {
+      this.maxTotal = maxTotal;
+      return this;
+    }
+
+    public int getMaxPerRoute() {
+      return maxPerRoute;
+    }
+
+    /**
+     * @param maxPerRoute maximum number of connections to one host, usually the maximum number of
+     *                    concurrent queries
+     */
+    public Configuration withMaxPerRoute(int maxPerRoute) {
+      this.maxPerRoute = maxPerRoute;
+      return this;
+    }
+
+    public Duration getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public Configuration withConnectTimeout(Duration connectTimeout) {
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    public Duration getConnectionRequestTimeout() {
+      return connectionRequestTimeout;
+    }
+
+    /**
+     * @param connectionRequestTimeout maximum time to wait for a free connection of the pool
+     */
+    public Configuration withConnectionRequestTimeout(Duration connectionRequestTimeout) {
+      this.connectionRequestTimeout = connectionRequestTimeout;
+      return this;
+    }
+
+    public Duration getSocketTimeout() {
+      return socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout maximum time of inactivity while reading a response, zero means no
+     *                      timeout which is the default since queries can take long
+     */
+    public Configuration withSocketTimeout(Duration socketTimeout) {
+      this.socketTimeout = socketTimeout;
+      return this;
+    }
+
+    public Duration getKeepAlive() {
+      return keepAlive;
+    }
+
+    /**
+     * @param keepAlive how long an idle connection is kept for reuse in case server does not send
+     *                  a <code>Keep-Alive</code> header
+     */
+    public Configuration withKeepAlive(Duration keepAlive) {
+      this.keepAlive = keepAlive;
+      return this;
+    }
+
+    public Duration getTimeToLive() {
+      return timeToLive;
+    }
+
+    /**
+     * @param timeToLive maximum lifetime of a connection, whether it is idle or not
+     */
+    public Configuration withTimeToLive(Duration timeToLive) {
+      this.timeToLive = timeToLive;
+      return this;
+    }
+
+    public Duration getMaxIdleTime() {
+      return maxIdleTime;
+    }
+
+    /**
+     * @param maxIdleTime idle connections are closed by a background thread after this time
+     */
+    public Configuration withMaxIdleTime(Duration maxIdleTime) {
+      this.maxIdleTime = maxIdleTime;
+      return this;
+    }
+
+    public Duration getValidateAfterInactivity() {
+      return validateAfterInactivity;
+    }
+
+    /**
+     * @param validateAfterInactivity connections idle for longer are checked before being reused
+     */
+    public Configuration withValidateAfterInactivity(Duration validateAfterInactivity) {
+      this.validateAfterInactivity = validateAfterInactivity;
+      return this;
+    }
+  }
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+
+  public PooledHttpClient(String username, String password) {
+    this(username, password, new Configuration());
+  }
+
+  /**
+   * @param username      to authenticate with, no credentials are configured if blank
+   * @param password      to authenticate with
+   * @param configuration of pool and timeouts
+   */
+  public PooledHttpClient(String username, String password, Configuration configuration) {
+    connectionManager = new PoolingHttpClientConnectionManager(
+        configuration.getTimeToLive().toMillis(), TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(configuration.getMaxTotal());
+    connectionManager.setDefaultMaxPerRoute(configuration.getMaxPerRoute());
+    connectionManager.setValidateAfterInactivity(
+        (int) configuration.getValidateAfterInactivity().toMillis());
+
+    HttpClientBuilder httpClientBuilder = HttpClients.custom()
+        .useSystemProperties()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(getRequestConfig(configuration))
+        .setKeepAliveStrategy(getKeepAliveStrategy(configuration))
+        .evictExpiredConnections()
+        .evictIdleConnections(configuration.getMaxIdleTime().toMillis(), TimeUnit.MILLISECONDS);
+
+    if (StringUtils.isNotBlank(username)) {
+      CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+      credentialsProvider.setCredentials(AuthScope.ANY,
+          new UsernamePasswordCredentials(username, password));
+      httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+    } else {
+      log.warn("Service is configured without credentials.");
+    }
+
+    httpClient = httpClientBuilder.build();
+  }
+
+  private static RequestConfig getRequestConfig(Configuration configuration) {
+    return RequestConfig.custom()
+        .setConnectTimeout((int) configuration.getConnectTimeout().toMillis())
+        .setConnectionRequestTimeout((int) configuration.getConnectionRequestTimeout().toMillis())
+        .setSocketTimeout((int) configuration.getSocketTimeout().toMillis())
+        .build();
+  }
+
+  private static ConnectionKeepAliveStrategy getKeepAliveStrategy(Configuration configuration) {
+    long defaultKeepAlive = configuration.getKeepAlive().toMillis();
+    return (response, context) -> {
+      long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+          .getKeepAliveDuration(response, context);
+      return keepAlive > 0 ? keepAlive : defaultKeepAlive;
+    };
+  }
+
+  /**
+   * @return shared client, callers must not close it but must close or consume each response to
+   * return its connection to the pool
+   */
+  public CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * @return statistics of the whole pool: leased, pending, available and max connections
+   */
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void close() {
+    try {
+      httpClient.close();
+    } catch (Exception e) {
+      log.warn("Failed to close http client", e);
+    }
+    connectionManager.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "PooledHttpClient " + getPoolStats();
+  }
+}
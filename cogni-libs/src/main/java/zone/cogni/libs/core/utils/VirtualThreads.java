@@ -0,0 +1,95 @@
+package zone.cogni.libs.core.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to virtual threads of JDK 21 and later, while the code itself is still compiled for an
+ * older Java version. Virtual threads are looked up with reflection once.
+ * <p>
+ * Virtual threads are cheap to create and to block, so blocking I/O can run with hundreds of
+ * concurrent tasks. They do not limit concurrency, combine them with a {@link ConcurrencyLimiter}
+ * per downstream service.
+ */
+public final class VirtualThreads {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+  private static final Method ofVirtual = findMethod(Thread.class, "ofVirtual");
+
+  private VirtualThreads() {
+  }
+
+  private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the running JVM supports virtual threads
+   */
+  public static boolean isAvailable() {
+    return ofVirtual != null;
+  }
+
+  /**
+   * @param namePrefix prefix of thread names, followed by a counter
+   * @return factory of virtual threads
+   * @throws RuntimeException if virtual threads are not available
+   */
+  public static ThreadFactory newThreadFactory(String namePrefix) {
+    if (!isAvailable()) {
+      throw new RuntimeException(
+          "virtual threads need Java 21 or later, running on " + System.getProperty("java.version"));
+    }
+
+    try {
+      Object builder = ofVirtual.invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class)
+          .invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("cannot create virtual thread factory", e);
+    }
+  }
+
+  /**
+   * @param namePrefix prefix of thread names, followed by a counter
+   * @return executor which starts a new virtual thread for each task
+   * @throws RuntimeException if virtual threads are not available
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+    ThreadFactory threadFactory = newThreadFactory(namePrefix);
+    try {
+      Method method = findMethod(Executors.class,
+          "newThreadPerTaskExecutor", ThreadFactory.class);
+      if (method == null) {
+        throw new RuntimeException("Executors.newThreadPerTaskExecutor not found");
+      }
+      return (ExecutorService) method.invoke(null, threadFactory);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("cannot create virtual thread executor", e);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if virtual threads are available, logs a warning otherwise
+   */
+  public static boolean checkAvailable(String usedBy) {
+    if (isAvailable()) {
+      return true;
+    }
+
+    log.warn("virtual threads requested for '{}' but not available on Java {}, "
+        + "falling back to platform threads", usedBy, System.getProperty("java.version"));
+    return false;
+  }
+}
@@ -1,9 +1,11 @@
 package zone.cogni.libs.sparqlservice;
 
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 
 import java.io.File;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public interface SparqlService {
@@ -25,6 +27,20 @@ public interface SparqlService {
 
   <R> R executeSelectQuery(String query, Function<ResultSet, R> resultHandler);
 
+  /**
+   * Runs a select query and passes each row to <code>rowConsumer</code> while results are being read.
+   * Rows are only valid during the call, copy them if they need to be kept.
+   *
+   * @param query select query
+   * @param rowConsumer called for each row
+   */
+  default void streamSelectQuery(String query, Consumer<QuerySolution> rowConsumer) {
+    executeSelectQuery(query, resultSet -> {
+      resultSet.forEachRemaining(rowConsumer);
+      return null;
+    });
+  }
+
   void dropGraph(String graphUri);
 
   /**
@@ -0,0 +1,98 @@
+package zone.cogni.libs.core.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.pool.PoolStats;
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PooledHttpClientTest {
+
+  private FusekiServer server;
+  private PooledHttpClient sut;
+
+  @BeforeEach
+  public void init() throws URISyntaxException {
+    server = FusekiServer.create().port(12346)
+        .add("/rdf", RDFDataMgr.loadDataset(
+            Objects.requireNonNull(getClass().getResource("/dataset.trig")).toURI().toString()))
+        .build();
+    server.start();
+    sut = new PooledHttpClient(null, null);
+  }
+
+  @AfterEach
+  public void destroy() {
+    sut.close();
+    server.stop();
+  }
+
+  @Test
+  public void connection_is_reused_between_queries() {
+    for (int i = 0; i < 10; i++) {
+      Integer rows = ApacheHttpClientUtils.executeSelect(sut.getHttpClient(),
+          "http://localhost:12346/rdf", null, null, "select * { ?s ?p ?o } limit 1", false,
+          resultSet -> resultSet.getRowNumber());
+      assertThat(rows).isNotNull();
+
+      boolean ask = ApacheHttpClientUtils.executeAsk(sut.getHttpClient(),
+          "http://localhost:12346/rdf", null, null, "ask { graph ?g { ?s ?p ?o } }", false);
+      assertThat(ask).isTrue();
+    }
+
+    PoolStats stats = sut.getPoolStats();
+    assertThat(stats.getLeased()).isZero();
+    assertThat(stats.getPending()).isZero();
+    assertThat(stats.getAvailable()).isEqualTo(1);
+  }
+
+  @Test
+  public void static_methods_do_not_need_a_client() {
+    boolean ask = ApacheHttpClientUtils.executeAsk("http://localhost:12346/rdf", null, null,
+        "ask { graph ?g { ?s ?p ?o } }", false);
+    assertThat(ask).isTrue();
+  }
+
+  @Test
+  public void pool_size_is_configurable() {
+    try (PooledHttpClient client = new PooledHttpClient(null, null,
+        new PooledHttpClient.Configuration().withMaxTotal(50).withMaxPerRoute(25))) {
+      assertThat(client.getPoolStats().getMax()).isEqualTo(50);
+    }
+  }
+
+  @Test
+  public void streamed_select_returns_all_rows() {
+    Integer expected = ApacheHttpClientUtils.executeSelect(sut.getHttpClient(),
+        "http://localhost:12346/rdf", null, null, "select * { graph ?g { ?s ?p ?o } }", false,
+        resultSet -> {
+          int count = 0;
+          while (resultSet.hasNext()) {
+            resultSet.next();
+            count++;
+          }
+          return count;
+        });
+
+    for (String acceptHeader : Arrays.asList(ApacheHttpClientUtils.STREAMING_SELECT_ACCEPT_HEADER,
+        ApacheHttpClientUtils.APPLICATION_SPARQL_RESULTS_XML)) {
+      AtomicInteger rows = new AtomicInteger();
+      ApacheHttpClientUtils.executeSelect(sut.getHttpClient(), "http://localhost:12346/rdf",
+          null, null, "select * { graph ?g { ?s ?p ?o } }", false, acceptHeader,
+          row -> {
+            assertThat(row.get("s")).isNotNull();
+            rows.incrementAndGet();
+          });
+      assertThat(rows.get()).isEqualTo(expected).isPositive();
+    }
+
+    assertThat(sut.getPoolStats().getLeased()).isZero();
+  }
+}
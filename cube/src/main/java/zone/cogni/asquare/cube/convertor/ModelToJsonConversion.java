@@ -13,14 +13,19 @@ import org.apache.commons.collections4.keyvalue.DefaultMapEntry;
 import org.apache.jena.datatypes.RDFDatatype;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.datatypes.xsd.impl.RDFLangString;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +40,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -209,8 +215,7 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
     ConversionReport result = new ConversionReport();
     result.setResult(conversionResult);
 
-    Model missedTriples = JenaUtils.difference(context.model, context.alreadyProcessedModel);
-    result.setMissedTriples(missedTriples);
+    result.setMissedTriples(context.getUnprocessedTriples());
 
     return result;
   }
@@ -288,14 +293,13 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
   }
 
   private void reportMissedSubjects(Context context, String root) {
-    Set<Resource> missedSubjects = new HashSet<>(context.subjectTypeMap.keySet());
-    missedSubjects.removeAll(context.alreadyProcessedResources);
+    List<Resource> missedSubjects = context.getUnprocessedTypedSubjects();
 
     if (!missedSubjects.isEmpty()) {
       log.warn("<{}> missed {} subjects out of {}. missed subjects: {}",
               root,
               missedSubjects.size(),
-              context.subjectTypeMap.size(),
+              context.getTypedSubjectCount(),
               missedSubjects);
     }
   }
@@ -303,7 +307,7 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
   private void reportUnprocessedTriples(Context context, String root) {
     if (!log.isWarnEnabled()) return;
 
-    Model remainingModel = context.model.difference(context.alreadyProcessedModel);
+    Model remainingModel = context.getUnprocessedTriples();
 
     if (!remainingModel.isEmpty()) {
       log.warn("<{}> missed {} triples \n{}",
@@ -326,18 +330,16 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
                                @Nonnull Resource subject,
                                @Nonnull ObjectNode instanceRoot) {
     // only process once, at most
-    if (context.alreadyProcessedResources.contains(subject)) return;
+    if (context.isProcessed(subject)) return;
 
     // process instance fields
-    ConversionProfile.Type type = context.subjectTypeMap.get(subject);
+    ConversionProfile.Type type = context.getType(subject);
     setInstanceUri(subject, instanceRoot);
     setInstanceType(context, model, instanceRoot, subject, type);
     setInstanceRootType(context, model, instanceRoot, subject, type);
 
     // bookkeeping -> must be before processing attributes !
-    context.alreadyProcessedResources.add(subject);
-    getTypeStatements(subject, type)
-            .forEach(context.alreadyProcessedModel::add);
+    context.setProcessed(subject, type);
 
     // process attributes
     type.getAttributes().forEach(attribute -> {
@@ -345,13 +347,6 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
     });
   }
 
-  private Stream<Statement> getTypeStatements(Resource subject, ConversionProfile.Type type) {
-    return type.getRdfTypes()
-            .stream()
-            .map(ResourceFactory::createResource)
-            .map(typeResource -> ResourceFactory.createStatement(subject, RDF.type, typeResource));
-  }
-
   /**
    * Process a single attribute of a subject with all its values.
    *
@@ -403,16 +398,16 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
   private List<RDFNode> getValues(Context context,
                                   Resource subject,
                                   ConversionProfile.Attribute attribute) {
-    StmtIterator iterator = context.model.listStatements(attribute.isInverse() ? null : subject,
-            attribute.getProperty(),
-            attribute.isInverse() ? subject : null);
+    if (!attribute.isInverse()) return context.getValues(subject, attribute.getProperty());
+
+    StmtIterator iterator = context.model.listStatements(null, attribute.getProperty(), subject);
 
     List<RDFNode> result = new ArrayList<>();
     while (iterator.hasNext()) {
       Statement statement = iterator.nextStatement();
 
-      context.alreadyProcessedModel.add(statement);
-      result.add(attribute.isInverse() ? statement.getSubject() : statement.getObject());
+      context.setProcessed(statement.asTriple());
+      result.add(statement.getSubject());
     }
 
     return result;
@@ -683,13 +678,13 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
               type.getRootClassId(), attribute.getAttributeId(), value);
     }
 
-    if (!context.subjectTypeMap.containsKey(value.asResource())) {
+    if (!context.hasType(value.asResource())) {
       log.error("Type '{}' and attribute '{}' must contain a typed resource, found a plain resource '{}'",
               type.getRootClassId(), attribute.getAttributeId(), value);
     }
 
     // already processed
-    if (context.alreadyProcessedResources.contains(value.asResource())) return;
+    if (context.isProcessed(value.asResource())) return;
 
     // process and add as included
     ObjectNode linkedInstance = JsonNodeFactory.instance.objectNode();
@@ -711,7 +706,7 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
 
     if (type == null) {
       throw new RuntimeException("cannot find type for instance '" + instance.getURI() + "'" +
-              ": found types '" + context.subjectTypeMap.get(instance) + "'.");
+              ": found types '" + context.getType(instance) + "'.");
     }
 
     if (configuration.isJsonType(JsonType.ROOT)) {
@@ -753,7 +748,7 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
 
     if (type == null) {
       throw new RuntimeException(("cannot find type for instance '" + instance.getURI() + "'" +
-              ": found types '" + context.subjectTypeMap.get(instance) + "'."));
+              ": found types '" + context.getType(instance) + "'."));
     }
 
     if (configuration.isJsonRootType(JsonRootType.ENABLED)) {
@@ -848,50 +843,75 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
     return JsonNodeFactory.instance.numberNode(value);
   }
 
+  /**
+   * State of a single conversion.
+   * <p>
+   * Triples of the model are read once and indexed per subject, attribute values are read from that index.
+   * Processed triples are kept as a bitset over the indexed triples instead of in a copy of the model.
+   */
   private static class Context {
 
     private final ModelToJsonConversion parent;
     private final Model model;
     private final ObjectNode jsonRoot;
-    private final Set<Resource> alreadyProcessedResources;
-    private final Model alreadyProcessedModel;
-    private final Map<Resource, ConversionProfile.Type> subjectTypeMap;
+    private final Triple[] triples;
+    private final BitSet processedTriples;
+    private final Map<Node, SubjectIndex> subjectIndexes;
 
     public Context(ModelToJsonConversion parent, Model model) {
       this.parent = parent;
       this.model = model;
 
-      subjectTypeMap = calculateSubjectTypeMap(model);
-      alreadyProcessedResources = new HashSet<>();
-      alreadyProcessedModel = ModelFactory.createDefaultModel();
+      List<Triple> tripleList = new ArrayList<>();
+      subjectIndexes = new HashMap<>();
+      indexModel(tripleList);
+
+      triples = tripleList.toArray(new Triple[0]);
+      processedTriples = new BitSet(triples.length);
       jsonRoot = JsonNodeFactory.instance.objectNode();
     }
 
-    private Map<Resource, ConversionProfile.Type> calculateSubjectTypeMap(Model model) {
-      Map<Resource, Set<String>> rdfTypesMap = calculateSubjectRdfTypesMap(model);
+    /**
+     * Reads all triples of the model once: collects triples and rdf types per subject and calculates the type.
+     * Triples of a subject keep the order in which the model returns them.
+     */
+    private void indexModel(List<Triple> tripleList) {
+      Node rdfType = RDF.type.asNode();
+
+      ExtendedIterator<Triple> iterator = model.getGraph().find();
+      try {
+        while (iterator.hasNext()) {
+          Triple triple = iterator.next();
+          tripleList.add(triple);
+
+          SubjectIndex subjectIndex = subjectIndexes.computeIfAbsent(triple.getSubject(), subject -> new SubjectIndex());
+          subjectIndex.size += 1;
+          if (rdfType.equals(triple.getPredicate())) {
+            String type = model.asRDFNode(triple.getObject()).asResource().getURI();
+            subjectIndex.addRdfType(type);
+          }
+        }
+      }
+      finally {
+        iterator.close();
+      }
 
-      Map<Resource, ConversionProfile.Type> result = new HashMap<>();
-      rdfTypesMap.forEach((resource, rdfTypes) -> {
-        result.put(resource, calculateType(rdfTypes));
+      subjectIndexes.values().forEach(subjectIndex -> {
+        subjectIndex.triples = new int[subjectIndex.size];
+        subjectIndex.size = 0;
       });
-      return result;
-    }
-
-    private Map<Resource, Set<String>> calculateSubjectRdfTypesMap(Model model) {
-      Map<Resource, Set<String>> subjectTypeMap = new HashMap<>();
-
-      model.listStatements(null, RDF.type, (RDFNode) null)
-              .forEachRemaining(statement -> {
-                Resource subject = statement.getSubject();
-                if (!subjectTypeMap.containsKey(subject)) {
-                  subjectTypeMap.put(subject, new HashSet<>());
-                }
+      for (int i = 0; i < tripleList.size(); i++) {
+        SubjectIndex subjectIndex = subjectIndexes.get(tripleList.get(i).getSubject());
+        subjectIndex.triples[subjectIndex.size++] = i;
+      }
 
-                String type = statement.getObject().asResource().getURI();
-                subjectTypeMap.get(subject).add(type);
-              });
+      subjectIndexes.values().forEach(subjectIndex -> {
+        if (subjectIndex.rdfTypes == null) return;
 
-      return subjectTypeMap;
+        subjectIndex.type = calculateType(subjectIndex.rdfTypes);
+        subjectIndex.isTyped = true;
+        subjectIndex.rdfTypes = null;
+      });
     }
 
     private ConversionProfile.Type calculateType(Set<String> rdfTypes) {
@@ -913,5 +933,112 @@ public class ModelToJsonConversion implements BiFunction<Model, String, ObjectNo
       throw new RuntimeException("should never get here");
     }
 
+    private boolean hasType(Resource subject) {
+      SubjectIndex subjectIndex = subjectIndexes.get(subject.asNode());
+      return subjectIndex != null && subjectIndex.isTyped;
+    }
+
+    private ConversionProfile.Type getType(Resource subject) {
+      SubjectIndex subjectIndex = subjectIndexes.get(subject.asNode());
+      return subjectIndex == null ? null : subjectIndex.type;
+    }
+
+    private int getTypedSubjectCount() {
+      return (int) subjectIndexes.values().stream()
+                                 .filter(subjectIndex -> subjectIndex.isTyped)
+                                 .count();
+    }
+
+    private boolean isProcessed(Resource subject) {
+      SubjectIndex subjectIndex = subjectIndexes.get(subject.asNode());
+      return subjectIndex != null && subjectIndex.isProcessed;
+    }
+
+    /**
+     * Marks subject as processed, together with its <code>rdf:type</code> triples which are part of <code>type</code>.
+     */
+    private void setProcessed(Resource subject, ConversionProfile.Type type) {
+      SubjectIndex subjectIndex = subjectIndexes.computeIfAbsent(subject.asNode(), node -> new SubjectIndex());
+      subjectIndex.isProcessed = true;
+      if (type == null) return;
+
+      Node rdfType = RDF.type.asNode();
+      Collection<String> typeRdfTypes = type.getRdfTypes();
+      for (int position : subjectIndex.triples) {
+        Triple triple = triples[position];
+        if (rdfType.equals(triple.getPredicate())
+            && triple.getObject().isURI()
+            && typeRdfTypes.contains(triple.getObject().getURI())) {
+          processedTriples.set(position);
+        }
+      }
+    }
+
+    private void setProcessed(Triple triple) {
+      SubjectIndex subjectIndex = subjectIndexes.get(triple.getSubject());
+      if (subjectIndex == null) return;
+
+      for (int position : subjectIndex.triples) {
+        if (triples[position].equals(triple)) {
+          processedTriples.set(position);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Returns objects of <code>subject</code> and <code>property</code> and marks the triples as processed.
+     */
+    private List<RDFNode> getValues(Resource subject, Property property) {
+      List<RDFNode> result = new ArrayList<>();
+
+      SubjectIndex subjectIndex = subjectIndexes.get(subject.asNode());
+      if (subjectIndex == null) return result;
+
+      Node predicate = property.asNode();
+      for (int position : subjectIndex.triples) {
+        Triple triple = triples[position];
+        if (!predicate.equals(triple.getPredicate())) continue;
+
+        processedTriples.set(position);
+        result.add(model.asRDFNode(triple.getObject()));
+      }
+      return result;
+    }
+
+    private List<Resource> getUnprocessedTypedSubjects() {
+      List<Resource> result = new ArrayList<>();
+      subjectIndexes.forEach((subject, subjectIndex) -> {
+        if (subjectIndex.isTyped && !subjectIndex.isProcessed) result.add(model.wrapAsResource(subject));
+      });
+      return result;
+    }
+
+    private Model getUnprocessedTriples() {
+      Model result = ModelFactory.createDefaultModel();
+      Graph graph = result.getGraph();
+      for (int i = processedTriples.nextClearBit(0); i < triples.length; i = processedTriples.nextClearBit(i + 1)) {
+        graph.add(triples[i]);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Positions of the triples of a subject in {@link Context#triples} and the state of the subject during conversion.
+   */
+  private static class SubjectIndex {
+
+    private int[] triples = new int[0];
+    private int size;
+    private Set<String> rdfTypes;
+    private boolean isTyped;
+    private ConversionProfile.Type type;
+    private boolean isProcessed;
+
+    private void addRdfType(String rdfType) {
+      if (rdfTypes == null) rdfTypes = new HashSet<>();
+      rdfTypes.add(rdfType);
+    }
   }
 }
@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableMap;
 import io.vavr.Tuple2;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -13,12 +14,16 @@ import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.shacl.vocabulary.SHACLM;
 import org.apache.jena.vocabulary.RDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.MessageFormatter;
 import org.springframework.core.io.ClassPathResource;
+import zone.cogni.asquare.cube.convertor.data2shacl.ShaclStatistics.PropertyStatistics;
+import zone.cogni.asquare.cube.pagination.OffsetPaginationStrategy;
 import zone.cogni.asquare.cube.pagination.PaginatedQuery;
 import zone.cogni.asquare.cube.spel.SpelService;
 import zone.cogni.asquare.triplestore.RdfStoreService;
@@ -64,15 +69,15 @@ public class ShaclGenerator {
   private List<String> getGraphsOfType(RdfStoreService rdfStoreService, String typeUri) {
     String query = spelService.processTemplate(getResource("type-graphs/select-type-graphs.sparql.spel"),
                                                ImmutableMap.of("type", typeUri));
-    List<Map<String, RDFNode>> rows = paginatedQuery.select(rdfStoreService, query);
-    return paginatedQuery.convertSingleColumnUriToStringList(rows);
+    return paginatedQuery.selectUris(rdfStoreService, query);
   }
 
   public Model generate(@Nonnull Configuration configuration,
                         @Nonnull Map<String, String> prefixes,
                         @Nonnull RdfStoreService rdfStoreService,
                         @Nonnull String graph) {
-    Model model = paginatedQuery.getGraph(rdfStoreService, graph);
+    Model model = ModelFactory.createDefaultModel();
+    paginatedQuery.streamGraph(rdfStoreService, graph, StreamRDFLib.graph(model.getGraph()));
     return generate(configuration, prefixes, model);
   }
 
@@ -89,20 +94,33 @@ public class ShaclGenerator {
   public Model generate(@Nonnull Configuration configuration,
                         @Nonnull Map<String, String> prefixes,
                         @Nonnull Model inputModel) {
-    InternalRdfStoreService graphRdfStore = new InternalRdfStoreService(inputModel);
-    return generate(configuration, prefixes, graphRdfStore);
+    return generate(configuration, prefixes, ShaclStatistics.calculate(inputModel));
   }
 
+  /**
+   * Calculates all facets in one pass over the data of <code>rdfStoreService</code>,
+   * see {@link #getStatistics(RdfStoreService)}, instead of running queries per type and property.
+   */
   public Model generate(@Nonnull Configuration configuration,
                         @Nonnull Map<String, String> prefixes,
                         @Nonnull RdfStoreService rdfStoreService) {
+    return generate(configuration, prefixes, getStatistics(rdfStoreService));
+  }
+
+  /**
+   * Generates SHACL based on statistics, which can be calculated on partitions of the data,
+   * see {@link ShaclStatistics#calculate(Stream)}.
+   */
+  public Model generate(@Nonnull Configuration configuration,
+                        @Nonnull Map<String, String> prefixes,
+                        @Nonnull ShaclStatistics statistics) {
     Model shacl = ModelFactory.createDefaultModel();
     try {
 
       addPrefixes(prefixes, shacl);
       log.debug("(generate) add prefixes done: {}", prefixes.size());
 
-      addTypes(configuration, rdfStoreService, shacl);
+      addTypes(configuration, statistics, shacl);
       log.debug("(generate) add types done");
 
       return shacl;
@@ -113,6 +131,33 @@ public class ShaclGenerator {
     }
   }
 
+  /**
+   * Calculates statistics of all typed subjects in the store.
+   * An in memory store is read directly, other stores are read in pages of a query ordered on subject,
+   * so a store limiting the number of rows of a result does not cut off the statistics.
+   * Pages use offset pagination since the query is totally ordered, triples of a subject spanning two pages
+   * are still added together.
+   */
+  @Nonnull
+  public ShaclStatistics getStatistics(@Nonnull RdfStoreService rdfStoreService) {
+    if (rdfStoreService instanceof InternalRdfStoreService) {
+      return ShaclStatistics.calculate(((InternalRdfStoreService) rdfStoreService).getModel());
+    }
+
+    ShaclStatistics result = new ShaclStatistics();
+    StreamRDF destination = result.getOrderedTriplesDestination();
+    String query = ResourceHelper.toString(getResource("select-typed-subject-triples.sparql"));
+
+    destination.start();
+    paginatedQuery.select(rdfStoreService, query, new OffsetPaginationStrategy(), row -> {
+      destination.triple(Triple.create(row.get("s").asNode(), row.get("p").asNode(), row.get("o").asNode()));
+    });
+    destination.finish();
+
+    log.info("(getStatistics) calculated statistics of {} types", result.getTypes().size());
+    return result;
+  }
+
   private Stream<Statement> getShapes(@Nonnull Model shacl) {
     return Stream.concat(
             shacl.listStatements(null, RDF.type, SHACLM.NodeShape).toList().stream(),
@@ -125,18 +170,15 @@ public class ShaclGenerator {
     shacl.setNsPrefixes(prefixes);
   }
 
-  private void addTypes(Configuration configuration, RdfStoreService rdfStoreService, Model shacl) {
-    List<String> types = getTypes(configuration, rdfStoreService);
+  private void addTypes(Configuration configuration, ShaclStatistics statistics, Model shacl) {
+    List<String> types = getTypes(configuration, statistics);
     log.debug("(addTypes) found {} types", types.size());
-    types.forEach(type -> addType(configuration, rdfStoreService, shacl, type));
+    types.forEach(type -> addType(configuration, statistics, shacl, type));
   }
 
-  private List<String> getTypes(Configuration configuration, RdfStoreService rdfStoreService) {
-    List<Map<String, RDFNode>> rows = getRows(rdfStoreService, "select-types.sparql");
-    List<String> types = paginatedQuery.convertSingleColumnUriToStringList(rows);
-
+  private List<String> getTypes(Configuration configuration, ShaclStatistics statistics) {
+    List<String> types = new ArrayList<>(statistics.getTypes());
     types.sort(getIriComparator(configuration));
-
     return types;
   }
 
@@ -170,7 +212,7 @@ public class ShaclGenerator {
   }
 
   private void addType(@Nonnull Configuration configuration,
-                       @Nonnull RdfStoreService rdfStoreService,
+                       @Nonnull ShaclStatistics statistics,
                        @Nonnull Model shacl,
                        @Nonnull String typeUri) {
     if (isIgnoredType(configuration, typeUri)) {
@@ -187,7 +229,7 @@ public class ShaclGenerator {
     if (log.isDebugEnabled())
       log.debug("(addType) shape name '{}' for targetClass '{}'", typeShape.getURI(), targetClass.getURI());
 
-    addProperties(configuration, rdfStoreService, shacl, typeShape, targetClass);
+    addProperties(configuration, statistics, shacl, typeShape, targetClass);
   }
 
   private boolean isIgnoredType(Configuration configuration, String typeUri) {
@@ -228,16 +270,16 @@ public class ShaclGenerator {
   }
 
   private void addProperties(Configuration configuration,
-                             RdfStoreService rdfStoreService,
+                             ShaclStatistics statistics,
                              Model shacl,
                              Resource typeShape,
                              Resource targetClass) {
-    List<String> properties = getProperties(configuration, rdfStoreService, targetClass);
+    List<String> properties = getProperties(configuration, statistics, targetClass);
     if (log.isDebugEnabled())
       log.debug("(addProperties) shape '{}' has {} properties", typeShape.getLocalName(), properties.size());
 
     properties.forEach(property -> addProperty(configuration,
-                                               rdfStoreService,
+                                               statistics,
                                                shacl,
                                                typeShape,
                                                targetClass,
@@ -245,7 +287,7 @@ public class ShaclGenerator {
   }
 
   private void addProperty(@Nonnull Configuration configuration,
-                           @Nonnull RdfStoreService rdfStoreService,
+                           @Nonnull ShaclStatistics statistics,
                            @Nonnull Model shacl,
                            @Nonnull Resource typeShape,
                            @Nonnull Resource targetClass,
@@ -262,34 +304,31 @@ public class ShaclGenerator {
 
     shacl.add(propertyShape, SHACLM.path, path);
 
-    setMinCount(rdfStoreService, shacl, targetClass, path, propertyShape);
-    setMaxCount(rdfStoreService, shacl, targetClass, path, propertyShape);
+    PropertyStatistics propertyStatistics = statistics.getPropertyStatistics(targetClass.getURI(), property);
+    setMinCount(statistics, shacl, targetClass, path, propertyShape);
+    setMaxCount(propertyStatistics, shacl, propertyShape);
 
-    setNodeKind(configuration, rdfStoreService, shacl, targetClass, path, propertyShape);
+    setNodeKind(configuration, statistics, propertyStatistics, shacl, targetClass, path, propertyShape);
   }
 
-  private void setMinCount(@Nonnull RdfStoreService rdfStore,
+  private void setMinCount(@Nonnull ShaclStatistics statistics,
                            @Nonnull Model shacl,
                            @Nonnull Resource targetClass,
                            @Nonnull Resource path,
                            @Nonnull Resource propertyShape) {
     if (log.isTraceEnabled()) log.trace("(setMinCount) start");
 
-    boolean hasInstanceWithoutProperty = askQuery(rdfStore, "has-instance-without-property.sparql.spel", getTypeAndPropertyParameters(targetClass, path));
-    if (!hasInstanceWithoutProperty) {
+    if (statistics.isPresentOnAllInstances(targetClass.getURI(), path.getURI())) {
       shacl.add(propertyShape, SHACLM.minCount, getOneAsInteger());
     }
   }
 
-  private void setMaxCount(@Nonnull RdfStoreService rdfStore,
+  private void setMaxCount(@Nonnull PropertyStatistics propertyStatistics,
                            @Nonnull Model shacl,
-                           @Nonnull Resource targetClass,
-                           @Nonnull Resource path,
                            @Nonnull Resource propertyShape) {
     if (log.isTraceEnabled()) log.trace("(setMaxCount) start");
 
-    boolean hasInstanceWithTwoProperties = askQuery(rdfStore, "has-instance-with-two-properties.sparql.spel", getTypeAndPropertyParameters(targetClass, path));
-    if (!hasInstanceWithTwoProperties) {
+    if (!propertyStatistics.hasMultipleValues()) {
       shacl.add(propertyShape, SHACLM.maxCount, getOneAsInteger());
     }
   }
@@ -299,19 +338,17 @@ public class ShaclGenerator {
   }
 
   private void setNodeKind(@Nonnull Configuration configuration,
-                           @Nonnull RdfStoreService rdfStore,
+                           @Nonnull ShaclStatistics statistics,
+                           @Nonnull PropertyStatistics propertyStatistics,
                            @Nonnull Model shacl,
                            @Nonnull Resource targetClass,
                            @Nonnull Resource path,
                            @Nonnull Resource propertyShape) {
     if (log.isTraceEnabled()) log.trace("(setNodeKind) start");
 
-    Map<String, String> typeAndPropertyParameters = getTypeAndPropertyParameters(targetClass, path);
-    boolean hasIri = askQuery(rdfStore, "nodekind-is-iri.sparql.spel", typeAndPropertyParameters);
-    boolean hasBlank = askQuery(rdfStore, "nodekind-is-blank.sparql.spel", typeAndPropertyParameters);
-    boolean hasLiteral = askQuery(rdfStore, "nodekind-is-literal.sparql.spel", typeAndPropertyParameters);
-
-    Resource nodeKindValue = calculateNodeKind(hasIri, hasBlank, hasLiteral);
+    Resource nodeKindValue = calculateNodeKind(propertyStatistics.hasIri(),
+                                               propertyStatistics.hasBlank(),
+                                               propertyStatistics.hasLiteral());
     if (nodeKindValue != null) {
       shacl.add(propertyShape, SHACLM.nodeKind, nodeKindValue);
     }
@@ -320,10 +357,10 @@ public class ShaclGenerator {
     }
 
     if (nodeKindValue == SHACLM.Literal) {
-      setShaclDatatype(rdfStore, shacl, targetClass, path, propertyShape);
+      setShaclDatatype(propertyStatistics, shacl, targetClass, path, propertyShape);
     }
     else if (nodeKindValue == SHACLM.IRI) {
-      setShaclClass(configuration, rdfStore, shacl, targetClass, path, propertyShape);
+      setShaclClass(configuration, statistics, shacl, targetClass, path, propertyShape);
     }
   }
 
@@ -338,12 +375,12 @@ public class ShaclGenerator {
     return null;
   }
 
-  private void setShaclDatatype(@Nonnull RdfStoreService rdfStore,
+  private void setShaclDatatype(@Nonnull PropertyStatistics propertyStatistics,
                                 @Nonnull Model shacl,
                                 @Nonnull Resource targetClass,
                                 @Nonnull Resource path,
                                 @Nonnull Resource propertyShape) {
-    List<String> datatypes = selectUris(rdfStore, "select-datatype.sparql.spel", getTypeAndPropertyParameters(targetClass, path));
+    List<String> datatypes = new ArrayList<>(propertyStatistics.getDatatypes());
     if (datatypes.isEmpty()) {
       log.warn("type '{}' and property '{}' does not have at least one datatype",
                shortenUri(shacl, targetClass), shortenUri(shacl, path));
@@ -351,17 +388,15 @@ public class ShaclGenerator {
     }
 
     if (datatypes.size() > 1) {
-      setOrShaclDatatype(rdfStore, shacl, targetClass, path, propertyShape, datatypes);
+      setOrShaclDatatype(propertyStatistics, shacl, propertyShape, datatypes);
     }
     else {
-      setSingleShaclDatatype(rdfStore, shacl, targetClass, path, propertyShape, datatypes);
+      setSingleShaclDatatype(propertyStatistics, shacl, propertyShape, datatypes);
     }
   }
 
-  private void setOrShaclDatatype(RdfStoreService rdfStore,
+  private void setOrShaclDatatype(PropertyStatistics propertyStatistics,
                                   Model shacl,
-                                  Resource targetClass,
-                                  Resource path,
                                   Resource propertyShape,
                                   List<String> datatypes) {
 
@@ -376,7 +411,7 @@ public class ShaclGenerator {
       shacl.add(orDatatypeInstance, SHACLM.datatype, orDatatype);
 
       if (orDatatype.equals(RDF.langString)) {
-        setLanguageIn(rdfStore, shacl, targetClass, path, orDatatypeInstance);
+        setLanguageIn(propertyStatistics, shacl, orDatatypeInstance);
       }
     });
 
@@ -406,41 +441,32 @@ public class ShaclGenerator {
     return new Tuple2<>(orInstance, datatypeValue);
   }
 
-  private void setSingleShaclDatatype(RdfStoreService rdfStore, Model shacl, Resource targetClass, Resource path, Resource propertyShape, List<String> datatypes) {
+  private void setSingleShaclDatatype(PropertyStatistics propertyStatistics, Model shacl, Resource propertyShape, List<String> datatypes) {
     Resource datatypeValue = ResourceFactory.createResource(datatypes.get(0));
     shacl.add(propertyShape, SHACLM.datatype, datatypeValue);
 
 
     if (RDF.langString.equals(datatypeValue)) {
-      setUniqueLang(rdfStore, shacl, targetClass, path, propertyShape);
-      setLanguageIn(rdfStore, shacl, targetClass, path, propertyShape);
+      setUniqueLang(propertyStatistics, shacl, propertyShape);
+      setLanguageIn(propertyStatistics, shacl, propertyShape);
     }
   }
 
-  private void setUniqueLang(@Nonnull RdfStoreService rdfStore,
+  private void setUniqueLang(@Nonnull PropertyStatistics propertyStatistics,
                              @Nonnull Model shacl,
-                             @Nonnull Resource targetClass,
-                             @Nonnull Resource path,
                              @Nonnull Resource propertyShape) {
-    boolean isNotUniqueLang = askQuery(rdfStore,
-                                       "is-not-unique-lang.sparql.spel",
-                                       getTypeAndPropertyParameters(targetClass, path));
-    if (isNotUniqueLang) return;
+    if (propertyStatistics.hasNonUniqueLanguage()) return;
 
     shacl.add(propertyShape, SHACLM.uniqueLang, ResourceFactory.createTypedLiteral(true));
   }
 
 
-  private void setLanguageIn(@Nonnull RdfStoreService rdfStore,
+  private void setLanguageIn(@Nonnull PropertyStatistics propertyStatistics,
                              @Nonnull Model shacl,
-                             @Nonnull Resource targetClass,
-                             @Nonnull Resource path,
                              @Nonnull Resource propertyShape) {
-    List<Map<String, RDFNode>> rows = getRows(rdfStore,
-                                              "select-languages.sparql.spel",
-                                              getTypeAndPropertyParameters(targetClass, path));
-
-    List<Literal> languages = paginatedQuery.convertSingleColumnToList(rows, RDFNode::asLiteral);
+    List<Literal> languages = propertyStatistics.getLanguages().stream()
+                                                .map(ResourceFactory::createPlainLiteral)
+                                                .collect(Collectors.toList());
     RDFList languagesList = shacl.createList(languages.iterator());
 
     shacl.add(propertyShape, SHACLM.languageIn, languagesList);
@@ -472,12 +498,12 @@ public class ShaclGenerator {
   }
 
   private void setShaclClass(Configuration configuration,
-                             RdfStoreService rdfStoreService,
+                             ShaclStatistics statistics,
                              Model shacl,
                              Resource targetClass,
                              Resource path,
                              Resource propertyShape) {
-    List<String> classes = calculateClasses(configuration, rdfStoreService, targetClass, path);
+    List<String> classes = calculateClasses(configuration, statistics, targetClass, path);
 
     if (classes.isEmpty()) {
       String message = getMessage("type '{}' and property '{}' is considered an 'rdfs:Resource'.",
@@ -499,10 +525,10 @@ public class ShaclGenerator {
   }
 
   private List<String> calculateClasses(@Nonnull Configuration configuration,
-                                        @Nonnull RdfStoreService rdfStore,
+                                        @Nonnull ShaclStatistics statistics,
                                         @Nonnull Resource targetClass,
                                         @Nonnull Resource path) {
-    List<String> classes = selectUris(rdfStore, "select-class.sparql.spel", getTypeAndPropertyParameters(targetClass, path));
+    List<String> classes = new ArrayList<>(statistics.getClasses(targetClass.getURI(), path.getURI()));
     // return is 0 or 1 result
     if (classes.size() <= 1) return classes;
 
@@ -522,45 +548,15 @@ public class ShaclGenerator {
     return new ArrayList<>(classes);
   }
 
-  private List<String> selectUris(RdfStoreService rdfStore, String fileName, Map<String, String> typeAndPropertyParameters) {
-    List<Map<String, RDFNode>> rows = getRows(rdfStore, fileName, typeAndPropertyParameters);
-    return paginatedQuery.convertSingleColumnUriToStringList(rows);
-  }
-
-  private Map<String, String> getTypeAndPropertyParameters(Resource type, Resource property) {
-    return ImmutableMap.of("type", type.getURI(),
-                           "property", property.getURI());
-  }
-
-  private List<Map<String, RDFNode>> getRows(@Nonnull RdfStoreService rdfStore,
-                                             @Nonnull String fileName,
-                                             @Nonnull Map<String, String> parameters) {
-    String query = spelService.processTemplate(getResource(fileName), parameters);
-    return paginatedQuery.select(rdfStore, query);
-  }
-
-  private boolean askQuery(RdfStoreService rdfStoreService, String queryFile, Map<String, String> parameters) {
-    String query = spelService.processTemplate(getResource(queryFile), parameters);
-    return rdfStoreService.executeAskQuery(query);
-  }
-
   private @Nonnull
   List<String> getProperties(@Nonnull Configuration configuration,
-                             @Nonnull RdfStoreService rdfStoreService,
+                             @Nonnull ShaclStatistics statistics,
                              @Nonnull Resource targetClass) {
-    String query = spelService.processTemplate(getResource("select-properties.sparql.spel"),
-                                               ImmutableMap.of("type", targetClass.getURI()));
-    List<Map<String, RDFNode>> rows = paginatedQuery.select(rdfStoreService, query);
-    List<String> properties = paginatedQuery.convertSingleColumnUriToStringList(rows);
+    List<String> properties = new ArrayList<>(statistics.getProperties(targetClass.getURI()));
     properties.sort(getIriComparator(configuration));
     return properties;
   }
 
-  private List<Map<String, RDFNode>> getRows(RdfStoreService rdfStoreService, String fileName) {
-    String selectTypesSparql = ResourceHelper.toString(getResource(fileName));
-    return paginatedQuery.select(rdfStoreService, selectTypesSparql);
-  }
-
   private org.springframework.core.io.Resource getResource(String fileName) {
     return new ClassPathResource(classpathRoot + fileName);
   }
@@ -0,0 +1,350 @@
+package zone.cogni.asquare.cube.convertor.data2shacl;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.vocabulary.RDF;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Facets of data needed to generate SHACL, calculated per type and per property of that type
+ * in one pass over the data instead of one query per type and property.
+ * </p>
+ * <p>
+ * Data is added in partitions, e.g. a model, a graph or a page of triples.
+ * A partition must contain all triples of the subjects in it,
+ * since <code>sh:minCount</code>, <code>sh:maxCount</code> and <code>sh:uniqueLang</code> are calculated per subject.
+ * Statistics of partitions can be calculated in parallel and merged afterwards,
+ * see {@link #calculate(Stream)}.
+ * </p>
+ */
+public class ShaclStatistics {
+
+  /**
+   * Calculates statistics of partitions in parallel and merges them.
+   *
+   * @param partitions models which each contain all triples of their subjects
+   * @return merged statistics of all partitions
+   */
+  @Nonnull
+  public static ShaclStatistics calculate(@Nonnull Stream<Model> partitions) {
+    return partitions.parallel()
+                     .collect(ShaclStatistics::new, ShaclStatistics::add, ShaclStatistics::merge);
+  }
+
+  @Nonnull
+  public static ShaclStatistics calculate(@Nonnull Model model) {
+    ShaclStatistics result = new ShaclStatistics();
+    result.add(model);
+    return result;
+  }
+
+  private final Map<String, TypeStatistics> typeStatistics = new HashMap<>();
+  private final Map<Node, Set<String>> typesByResource = new HashMap<>();
+
+  public void add(@Nonnull Model partition) {
+    add(partition.getGraph());
+  }
+
+  public void add(@Nonnull Graph partition) {
+    Set<Node> subjects = new LinkedHashSet<>();
+    partition.find(Node.ANY, RDF.type.asNode(), Node.ANY)
+             .forEachRemaining(triple -> subjects.add(triple.getSubject()));
+
+    subjects.forEach(subject -> addSubject(subject, partition.find(subject, Node.ANY, Node.ANY).toList()));
+  }
+
+  /**
+   * Returns a destination for triples ordered on subject, e.g. the rows of a query with an <code>order by ?s</code>.
+   * Triples of a subject are added when the next subject starts or when <code>finish</code> is called,
+   * so the triples of a subject cannot be spread over more than one destination.
+   *
+   * @return destination adding triples to these statistics
+   */
+  @Nonnull
+  public StreamRDF getOrderedTriplesDestination() {
+    return new StreamRDFBase() {
+      private List<Triple> subjectTriples = new ArrayList<>();
+
+      @Override
+      public void triple(Triple triple) {
+        if (!subjectTriples.isEmpty() && !subjectTriples.get(0).getSubject().equals(triple.getSubject())) {
+          finish();
+        }
+        subjectTriples.add(triple);
+      }
+
+      @Override
+      public void finish() {
+        if (subjectTriples.isEmpty()) return;
+
+        addSubject(subjectTriples.get(0).getSubject(), subjectTriples);
+        subjectTriples = new ArrayList<>();
+      }
+    };
+  }
+
+  private void addSubject(@Nonnull Node subject, @Nonnull List<Triple> triples) {
+    Set<String> types = new HashSet<>();
+    Map<Node, List<Node>> valuesByProperty = new LinkedHashMap<>();
+    triples.forEach(triple -> {
+      Node property = triple.getPredicate();
+      if (property.equals(RDF.type.asNode())) {
+        if (triple.getObject().isURI()) types.add(triple.getObject().getURI());
+        return;
+      }
+      if (!property.isURI()) return;
+
+      valuesByProperty.computeIfAbsent(property, k -> new ArrayList<>())
+                      .add(triple.getObject());
+    });
+    if (types.isEmpty()) return;
+
+    typesByResource.computeIfAbsent(subject, k -> new HashSet<>()).addAll(types);
+
+    // facets of a subject are calculated once, then added to each of its types
+    List<PropertyStatistics> subjectStatistics = new ArrayList<>(valuesByProperty.size());
+    valuesByProperty.forEach((property, values) -> subjectStatistics.add(PropertyStatistics.of(values)));
+
+    List<String> properties = new ArrayList<>(valuesByProperty.size());
+    valuesByProperty.keySet().forEach(property -> properties.add(property.getURI()));
+
+    types.forEach(type -> {
+      TypeStatistics statistics = typeStatistics.computeIfAbsent(type, k -> new TypeStatistics());
+      statistics.instanceCount += 1;
+      for (int i = 0; i < properties.size(); i++) {
+        statistics.properties.computeIfAbsent(properties.get(i), k -> new PropertyStatistics())
+                             .merge(subjectStatistics.get(i));
+      }
+    });
+  }
+
+  /**
+   * Adds statistics of another partition to this one.
+   */
+  public void merge(@Nonnull ShaclStatistics other) {
+    other.typeStatistics.forEach((type, statistics) -> typeStatistics.computeIfAbsent(type, k -> new TypeStatistics())
+                                                                     .merge(statistics));
+    other.typesByResource.forEach((resource, types) -> typesByResource.computeIfAbsent(resource, k -> new HashSet<>())
+                                                                      .addAll(types));
+  }
+
+  /**
+   * @return uris of all types which have an instance
+   */
+  @Nonnull
+  public Set<String> getTypes() {
+    return Collections.unmodifiableSet(typeStatistics.keySet());
+  }
+
+  public long getInstanceCount(@Nonnull String type) {
+    TypeStatistics statistics = typeStatistics.get(type);
+    return statistics == null ? 0 : statistics.instanceCount;
+  }
+
+  /**
+   * @return uris of properties, except <code>rdf:type</code>, used by at least one instance of <code>type</code>
+   */
+  @Nonnull
+  public Set<String> getProperties(@Nonnull String type) {
+    TypeStatistics statistics = typeStatistics.get(type);
+    return statistics == null ? Collections.emptySet() : Collections.unmodifiableSet(statistics.properties.keySet());
+  }
+
+  @Nullable
+  public PropertyStatistics getPropertyStatistics(@Nonnull String type, @Nonnull String property) {
+    TypeStatistics statistics = typeStatistics.get(type);
+    return statistics == null ? null : statistics.properties.get(property);
+  }
+
+  /**
+   * @return <code>true</code> if all instances of <code>type</code> have at least one value for <code>property</code>
+   */
+  public boolean isPresentOnAllInstances(@Nonnull String type, @Nonnull String property) {
+    PropertyStatistics statistics = getPropertyStatistics(type, property);
+    return statistics != null && statistics.subjectCount == getInstanceCount(type);
+  }
+
+  /**
+   * Only available if all values of <code>property</code> are IRIs, see {@link PropertyStatistics#hasOnlyIris()}.
+   *
+   * @return uris of the types of all values of <code>property</code> on instances of <code>type</code>
+   */
+  @Nonnull
+  public SortedSet<String> getClasses(@Nonnull String type, @Nonnull String property) {
+    PropertyStatistics statistics = getPropertyStatistics(type, property);
+    if (statistics == null) return Collections.emptySortedSet();
+    if (!statistics.hasOnlyIris())
+      throw new RuntimeException("classes are only kept for properties with only IRI values: type '" + type
+                                      + "' and property '" + property + "'");
+
+    SortedSet<String> result = new TreeSet<>();
+    statistics.iriValues.forEach(value -> result.addAll(typesByResource.getOrDefault(value, Collections.emptySet())));
+    return result;
+  }
+
+  private static class TypeStatistics {
+
+    private long instanceCount;
+    private final Map<String, PropertyStatistics> properties = new HashMap<>();
+
+    private void merge(@Nonnull TypeStatistics other) {
+      instanceCount += other.instanceCount;
+      other.properties.forEach((property, statistics) -> properties.computeIfAbsent(property, k -> new PropertyStatistics())
+                                                                   .merge(statistics));
+    }
+  }
+
+  /**
+   * Facets of one property of a type, can be merged with facets of the same property calculated on other data.
+   */
+  public static class PropertyStatistics {
+
+    /**
+     * Facets of the values of one subject.
+     */
+    private static PropertyStatistics of(@Nonnull List<Node> values) {
+      PropertyStatistics result = new PropertyStatistics();
+      result.subjectCount = 1;
+      result.hasMultipleValues = hasMultipleValues(values);
+
+      Set<String> languages = new HashSet<>();
+      for (Node value : values) {
+        if (value.isURI()) {
+          result.hasIri = true;
+          result.iriValues.add(value);
+        }
+        else if (value.isBlank()) {
+          result.hasBlank = true;
+        }
+        else if (value.isLiteral()) {
+          result.hasLiteral = true;
+          result.datatypes.add(value.getLiteralDatatypeURI());
+
+          String language = value.getLiteralLanguage();
+          if (language.isEmpty()) continue;
+
+          result.languages.add(language);
+          if (!languages.add(language)) result.hasNonUniqueLanguage = true;
+        }
+      }
+
+      result.dropIriValuesIfMixed();
+      return result;
+    }
+
+    /**
+     * Same as comparing each pair of values on <code>str</code>, <code>datatype</code> and <code>lang</code> in SPARQL:
+     * distinct values are different, except an IRI and a literal with the same string value.
+     */
+    private static boolean hasMultipleValues(@Nonnull List<Node> values) {
+      if (values.size() != 2) return values.size() > 2;
+
+      Node first = values.get(0);
+      Node second = values.get(1);
+      if (first.isURI() && second.isLiteral()) return !first.getURI().equals(second.getLiteralLexicalForm());
+      if (first.isLiteral() && second.isURI()) return !second.getURI().equals(first.getLiteralLexicalForm());
+      return true;
+    }
+
+    private long subjectCount;
+    private boolean hasMultipleValues;
+    private boolean hasNonUniqueLanguage;
+    private boolean hasIri;
+    private boolean hasBlank;
+    private boolean hasLiteral;
+    private final SortedSet<String> datatypes = new TreeSet<>();
+    private final SortedSet<String> languages = new TreeSet<>();
+    // values are only needed to calculate sh:class, which is only done if all values are IRIs
+    private final Set<Node> iriValues = new HashSet<>();
+
+    private void merge(@Nonnull PropertyStatistics other) {
+      subjectCount += other.subjectCount;
+      hasMultipleValues |= other.hasMultipleValues;
+      hasNonUniqueLanguage |= other.hasNonUniqueLanguage;
+      hasIri |= other.hasIri;
+      hasBlank |= other.hasBlank;
+      hasLiteral |= other.hasLiteral;
+      datatypes.addAll(other.datatypes);
+      languages.addAll(other.languages);
+
+      if (!hasBlank && !hasLiteral) iriValues.addAll(other.iriValues);
+      dropIriValuesIfMixed();
+    }
+
+    private void dropIriValuesIfMixed() {
+      if ((hasBlank || hasLiteral) && !iriValues.isEmpty()) iriValues.clear();
+    }
+
+    /**
+     * @return number of subjects with at least one value
+     */
+    public long getSubjectCount() {
+      return subjectCount;
+    }
+
+    /**
+     * @return <code>true</code> if at least one subject has more than one value
+     */
+    public boolean hasMultipleValues() {
+      return hasMultipleValues;
+    }
+
+    /**
+     * @return <code>true</code> if at least one subject has two values with the same language
+     */
+    public boolean hasNonUniqueLanguage() {
+      return hasNonUniqueLanguage;
+    }
+
+    public boolean hasIri() {
+      return hasIri;
+    }
+
+    public boolean hasBlank() {
+      return hasBlank;
+    }
+
+    public boolean hasLiteral() {
+      return hasLiteral;
+    }
+
+    public boolean hasOnlyIris() {
+      return hasIri && !hasBlank && !hasLiteral;
+    }
+
+    /**
+     * @return sorted uris of datatypes of literal values, <code>rdf:langString</code> for values with a language
+     */
+    @Nonnull
+    public SortedSet<String> getDatatypes() {
+      return Collections.unmodifiableSortedSet(datatypes);
+    }
+
+    /**
+     * @return sorted, non empty, languages of literal values
+     */
+    @Nonnull
+    public SortedSet<String> getLanguages() {
+      return Collections.unmodifiableSortedSet(languages);
+    }
+  }
+}
@@ -2,6 +2,10 @@ package zone.cogni.asquare.cube.convertor.json;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.rdf.model.Property;
@@ -11,14 +15,16 @@ import org.springframework.core.io.InputStreamSource;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /*
@@ -88,6 +94,13 @@ public class ConversionProfile {
   @JsonIgnore
   private final Map<String, Type> expandedRdfTypeTypeMap = new TreeMap<>();
 
+  /**
+   * Hash based lookups for type resolution, calculated from the maps above.
+   * Dropped when a type is added and calculated again on next lookup.
+   */
+  @JsonIgnore
+  private volatile TypeIndex typeIndex;
+
   public Context getContext() {
     Objects.requireNonNull(context, "context cannot be null");
     return context;
@@ -142,10 +155,7 @@ public class ConversionProfile {
   }
 
   public Type getTypeFromClassIds(Collection<String> input) {
-    List<Type> result = this.classIdTypeMap.values()
-                                           .stream()
-                                           .filter(t -> CollectionUtils.isEqualCollection(t.classIds, input))
-                                           .collect(Collectors.toList());
+    List<Type> result = getTypeIndex().typesByClassIds.getOrDefault(HashMultiset.create(input), Collections.emptyList());
     if (result.size() != 1) {
       String types = result.stream().map(Type::getRootClassId).collect(Collectors.joining());
       throw new RuntimeException("type lookup failed: input " + input + " and result " + types);
@@ -154,10 +164,7 @@ public class ConversionProfile {
   }
 
   public Type getTypeFromRdfTypes(Collection<String> input) {
-    List<Type> result = this.expandedClassIdTypeMap.values()
-                                                   .stream()
-                                                   .filter(isExactType(input))
-                                                   .collect(Collectors.toList());
+    List<Type> result = getTypeIndex().typesByExpandedRdfTypes.getOrDefault(HashMultiset.create(input), Collections.emptyList());
     if (result.size() != 1) {
       List<String> types = result.stream().map(Type::getRootClassId).collect(Collectors.toList());
       throw new RuntimeException("expecting exactly one type for input " + input + ", found " + types);
@@ -166,16 +173,21 @@ public class ConversionProfile {
     return result.get(0);
   }
 
-  private Predicate<Type> isExactType(Collection<String> input) {
-    return t -> CollectionUtils.isEqualCollection(t.expandedRdfTypes, input);
-  }
-
+  /**
+   * Matching type is remembered per distinct input, so only the first lookup of a combination of rdf types
+   * pays for finding and sorting candidates.
+   */
   public Type getBestMatchingTypeFromRdfTypes(Collection<String> input) {
-    List<Type> result = this.expandedClassIdTypeMap.values()
-                                                   .stream()
-                                                   .filter(isCandidateType(input))
-                                                   .sorted(getBestMatchCalculation(input))
-                                                   .collect(Collectors.toList());
+    TypeIndex typeIndex = getTypeIndex();
+    Multiset<String> key = HashMultiset.create(input);
+
+    Type cachedResult = typeIndex.bestMatches.getIfPresent(key);
+    if (cachedResult != null) return cachedResult;
+
+    List<Type> result = typeIndex.getCandidateTypes(input)
+                                 .stream()
+                                 .sorted(getBestMatchCalculation(input))
+                                 .collect(Collectors.toList());
     if (result.isEmpty()) {
       throw new RuntimeException("no class matches input " + input);
     }
@@ -184,13 +196,10 @@ public class ConversionProfile {
                                  result.get(0).getRdfTypes() + " and " + result.get(1).getRdfTypes());
     }
 
+    typeIndex.bestMatches.put(key, result.get(0));
     return result.get(0);
   }
 
-  private Predicate<Type> isCandidateType(Collection<String> input) {
-    return t -> CollectionUtils.containsAll(input, t.expandedRdfTypes);
-  }
-
   private Comparator<Object> getBestMatchCalculation(Collection<String> input) {
     return Comparator.comparing(t -> CollectionUtils.intersection(((Type) t).rdfTypes, input).size())
                      .reversed();
@@ -206,11 +215,22 @@ public class ConversionProfile {
     expandedClassIdTypeMap.put(context.curieToFullUri(type.rootClassId), type);
     rdfTypeTypeMap.put(type.rootRdfType, type);
     expandedRdfTypeTypeMap.put(context.curieToFullUri(type.rootRdfType), type);
+    typeIndex = null;
   }
 
 
   public void done() {
     calculateTypesByLevel();
+    typeIndex = new TypeIndex();
+  }
+
+  private TypeIndex getTypeIndex() {
+    TypeIndex result = typeIndex;
+    if (result == null) {
+      result = new TypeIndex();
+      typeIndex = result;
+    }
+    return result;
   }
 
   private void calculateTypesByLevel() {
@@ -243,6 +263,65 @@ public class ConversionProfile {
     return result.toString();
   }
 
+  /**
+   * Lookups of types by their class ids or rdf types.
+   * Lists of types keep the order of the maps they are calculated from, so results and errors do not change.
+   */
+  private class TypeIndex {
+
+    private final Map<Multiset<String>, List<Type>> typesByClassIds = new HashMap<>();
+    private final Map<Multiset<String>, List<Type>> typesByExpandedRdfTypes = new HashMap<>();
+
+    /**
+     * Types per expanded rdf type they have, types without rdf types are candidates for every input.
+     */
+    private final Map<String, List<Type>> candidateTypesByRdfType = new HashMap<>();
+    private final List<Type> typesWithoutRdfTypes = new ArrayList<>();
+    private final Map<Type, Integer> typeOrder = new IdentityHashMap<>();
+
+    private final Cache<Multiset<String>, Type> bestMatches = CacheBuilder.newBuilder()
+                                                                               .maximumSize(10_000)
+                                                                               .build();
+
+    private TypeIndex() {
+      classIdTypeMap.values().forEach(type -> {
+        if (type.classIds == null) return;
+        typesByClassIds.computeIfAbsent(HashMultiset.create(type.classIds), key -> new ArrayList<>()).add(type);
+      });
+
+      expandedClassIdTypeMap.values().forEach(type -> {
+        typeOrder.put(type, typeOrder.size());
+        if (type.expandedRdfTypes == null) return;
+
+        typesByExpandedRdfTypes.computeIfAbsent(HashMultiset.create(type.expandedRdfTypes), key -> new ArrayList<>()).add(type);
+
+        if (type.expandedRdfTypes.isEmpty()) typesWithoutRdfTypes.add(type);
+        new HashSet<>(type.expandedRdfTypes)
+                .forEach(rdfType -> candidateTypesByRdfType.computeIfAbsent(rdfType, key -> new ArrayList<>()).add(type));
+      });
+    }
+
+    /**
+     * @return types of which all rdf types are part of <code>input</code>, in order of the profile
+     */
+    private List<Type> getCandidateTypes(Collection<String> input) {
+      Set<String> inputSet = new HashSet<>(input);
+
+      Set<Type> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+      candidates.addAll(typesWithoutRdfTypes);
+      inputSet.forEach(rdfType -> {
+        candidateTypesByRdfType.getOrDefault(rdfType, Collections.emptyList())
+                               .stream()
+                               .filter(type -> inputSet.containsAll(type.expandedRdfTypes))
+                               .forEach(candidates::add);
+      });
+
+      List<Type> result = new ArrayList<>(candidates);
+      result.sort(Comparator.comparing(typeOrder::get));
+      return result;
+    }
+  }
+
   public static class Context {
 
     private Map<String, String> prefixes = new TreeMap<>();
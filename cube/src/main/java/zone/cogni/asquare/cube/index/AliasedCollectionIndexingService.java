@@ -2,7 +2,6 @@ package zone.cogni.asquare.cube.index;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import zone.cogni.asquare.cube.convertor.ModelToJsonConversion;
 import zone.cogni.asquare.cube.index.swap.IndexSwapService;
 import zone.cogni.asquare.cube.index.swap.IndexSwapState;
@@ -13,19 +12,23 @@ import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadata;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadataService;
 import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getCallableForUri;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexFolder;
-import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForUri;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForPartition;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getPartitionUris;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getUrisFromQuery;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getValidPartitionNames;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.withConcurrencyLimiters;
 
 public class AliasedCollectionIndexingService implements FolderBasedIndexingService {
 
@@ -50,6 +53,13 @@ public class AliasedCollectionIndexingService implements FolderBasedIndexingServ
 
   private final ElasticsearchMetadataService elasticsearchMetadataService;
 
+  /**
+   * When set, limit concurrent calls to the RDF store and to Elasticsearch over all index tasks,
+   * independent of the number of threads of the pool.
+   */
+  private ConcurrencyLimiter triplestoreLimiter;
+  private ConcurrencyLimiter elasticsearchLimiter;
+
   public AliasedCollectionIndexingService(@Nonnull SpelService spelService,
                                           @Nonnull PaginatedQuery paginatedQuery,
                                           @Nonnull MonitoredPool indexMonitoredPool,
@@ -71,6 +81,16 @@ public class AliasedCollectionIndexingService implements FolderBasedIndexingServ
     this.elasticsearchMetadataService = new ElasticsearchMetadataService(new ElasticsearchMetadata.Configuration());
   }
 
+  /**
+   * @param triplestoreLimiter   limits concurrent loading of models, <code>null</code> for no limit
+   * @param elasticsearchLimiter limits concurrent calls to Elasticsearch, <code>null</code> for no limit
+   */
+  public void setConcurrencyLimiters(@Nullable ConcurrencyLimiter triplestoreLimiter,
+                                     @Nullable ConcurrencyLimiter elasticsearchLimiter) {
+    this.triplestoreLimiter = triplestoreLimiter;
+    this.elasticsearchLimiter = elasticsearchLimiter;
+  }
+
   @Override
   public boolean isIndexRunning() {
     return indexMonitoredPool.isActive();
@@ -144,10 +164,9 @@ public class AliasedCollectionIndexingService implements FolderBasedIndexingServ
 
     // get callables to run
     IndexingConfiguration.Partition partitionConfiguration = indexConfiguration.getValidPartition(collectionName);
-    List<Callable<String>> callables = getCallables(indexSwapState.getNewIndexName(), partitionConfiguration);
+    Stream<Callable<String>> callables = getCallables(indexSwapState.getNewIndexName(), partitionConfiguration);
 
     // run
-    log.info("(indexByCollection) {} uris found", callables.size());
     indexMonitoredPool.invoke(callables);
 
     // delete old index
@@ -160,23 +179,21 @@ public class AliasedCollectionIndexingService implements FolderBasedIndexingServ
    * @return stream of <code>Callable</code>s for a single collection in an index
    */
   @Nonnull
-  private List<Callable<String>> getCallables(@Nonnull String indexToFill,
-                                              @Nonnull IndexingConfiguration.Partition partitionConfiguration) {
+  private Stream<Callable<String>> getCallables(@Nonnull String indexToFill,
+                                                @Nonnull IndexingConfiguration.Partition partitionConfiguration) {
     log.info("(getCallables) for index '{}' and collection '{}'", indexToFill, partitionConfiguration.getName());
     List<String> collectionConstructQueries = partitionConfiguration.getConstructQueries();
-    List<Resource> facetQueryResources = partitionConfiguration.getFacetQueryResources();
+    Function<String, IndexMethod> indexMethods = withConcurrencyLimiters(getIndexMethodForPartition(
+            spelService, paginatedQuery, rdfStore, elasticStore,
+            modelToJsonConversion, queryTemplateParameters,
+            indexToFill, partitionConfiguration, null
+    ), triplestoreLimiter, elasticsearchLimiter);
 
     return getPartitionUris(spelService, paginatedQuery, rdfStore, queryTemplateParameters, partitionConfiguration)
             .stream()
-            .map(uri -> getCallable(
-                    getIndexMethodForUri(
-                            spelService, paginatedQuery, rdfStore, elasticStore,
-                            modelToJsonConversion, queryTemplateParameters,
-                            indexToFill, facetQueryResources, uri
-                    ),
-                    collectionConstructQueries,
-                    uri))
-            .collect(Collectors.toList());
+            .map(uri -> getCallable(indexMethods.apply(uri),
+                                    collectionConstructQueries,
+                                    uri));
   }
 
   @Nonnull
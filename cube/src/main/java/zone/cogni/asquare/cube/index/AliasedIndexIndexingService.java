@@ -2,7 +2,6 @@ package zone.cogni.asquare.cube.index;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import zone.cogni.asquare.cube.convertor.ModelToJsonConversion;
 import zone.cogni.asquare.cube.index.swap.IndexSwapService;
 import zone.cogni.asquare.cube.index.swap.IndexSwapState;
@@ -11,24 +10,30 @@ import zone.cogni.asquare.cube.pagination.PaginatedQuery;
 import zone.cogni.asquare.cube.spel.SpelService;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadata;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadataService;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkIndexer;
 import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.closeBulkIndexer;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.createBulkIndexer;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getCallableForUri;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexFolder;
-import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForUri;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForPartition;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getPartitionUris;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getUrisFromQuery;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getValidPartitionNames;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.indexSynchronously;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.withConcurrencyLimiters;
 
 public class AliasedIndexIndexingService implements FolderBasedIndexingService {
 
@@ -53,6 +58,18 @@ public class AliasedIndexIndexingService implements FolderBasedIndexingService {
 
   private final ElasticsearchMetadataService elasticsearchMetadataService;
 
+  /**
+   * When set, documents of index runs are sent in <code>_bulk</code> requests instead of one request per document.
+   */
+  private BulkIndexer.Configuration bulkIndexerConfiguration;
+
+  /**
+   * When set, limit concurrent calls to the RDF store and to Elasticsearch over all index tasks,
+   * independent of the number of threads of the pool.
+   */
+  private ConcurrencyLimiter triplestoreLimiter;
+  private ConcurrencyLimiter elasticsearchLimiter;
+
   public AliasedIndexIndexingService(@Nonnull IndexingConfiguration indexingConfiguration,
                                      @Nonnull SpelService spelService,
                                      @Nonnull PaginatedQuery paginatedQuery,
@@ -74,6 +91,20 @@ public class AliasedIndexIndexingService implements FolderBasedIndexingService {
     this.elasticsearchMetadataService = new ElasticsearchMetadataService(new ElasticsearchMetadata.Configuration());
   }
 
+  public void setBulkIndexerConfiguration(@Nullable BulkIndexer.Configuration bulkIndexerConfiguration) {
+    this.bulkIndexerConfiguration = bulkIndexerConfiguration;
+  }
+
+  /**
+   * @param triplestoreLimiter   limits concurrent loading of models, <code>null</code> for no limit
+   * @param elasticsearchLimiter limits concurrent calls to Elasticsearch, <code>null</code> for no limit
+   */
+  public void setConcurrencyLimiters(@Nullable ConcurrencyLimiter triplestoreLimiter,
+                                     @Nullable ConcurrencyLimiter elasticsearchLimiter) {
+    this.triplestoreLimiter = triplestoreLimiter;
+    this.elasticsearchLimiter = elasticsearchLimiter;
+  }
+
   @Override
   public boolean isIndexRunning() {
     return indexMonitoredPool.isActive();
@@ -168,10 +199,14 @@ public class AliasedIndexIndexingService implements FolderBasedIndexingService {
             "(indexByCollection) index '{}' (alias {}) and collections: {}",
             indexToFill, indexConfiguration.getName(), String.join(", ", collections)
     );
-    List<Callable<String>> callables = getCallables(indexToFill, indexConfiguration, collections).collect(Collectors.toList());
-
-    log.info("(indexByCollection) {} uris found", callables.size());
-    indexMonitoredPool.invoke(callables);
+    BulkIndexer bulkIndexer = createBulkIndexer(elasticStore, bulkIndexerConfiguration);
+    try {
+      indexMonitoredPool.invoke(getCallables(indexToFill, indexConfiguration, collections, bulkIndexer));
+    }
+    finally {
+      // all documents must be in the index before a swap
+      closeBulkIndexer(bulkIndexer);
+    }
   }
 
   /**
@@ -180,15 +215,17 @@ public class AliasedIndexIndexingService implements FolderBasedIndexingService {
    * @param indexToFill        index being filled, can be active index (in case of collection update) or a new index
    * @param indexConfiguration of index
    * @param collections        set of collections, each of them being a collection object urisgeing loaded in index
+   * @param bulkIndexer        to send documents to, <code>null</code> if documents are sent one by one
    * @return stream of <code>Callable</code>s for a set of collections in an index
    */
   @Nonnull
   private Stream<Callable<String>> getCallables(@Nonnull String indexToFill,
                                                 @Nonnull IndexingConfiguration.Index indexConfiguration,
-                                                @Nonnull List<String> collections) {
+                                                @Nonnull List<String> collections,
+                                                @Nullable BulkIndexer bulkIndexer) {
     return collections.stream()
                       .map(indexConfiguration::getValidPartition)
-                      .flatMap(collectionFolder -> getCallables(indexToFill, indexConfiguration, collectionFolder));
+                      .flatMap(collectionFolder -> getCallables(indexToFill, indexConfiguration, collectionFolder, bulkIndexer));
   }
 
   /**
@@ -197,32 +234,36 @@ public class AliasedIndexIndexingService implements FolderBasedIndexingService {
    * @param indexToFill            index being filled, can be active index (in case of collection update) or a new index
    * @param indexConfiguration     for the knowing alias, which is identical to <code>name</code> (only used in logging)
    * @param partitionConfiguration of object uris being loaded in index
+   * @param bulkIndexer            to send documents to, <code>null</code> if documents are sent one by one
    * @return stream of <code>Callable</code>s for a single collection in an index
    */
   @Nonnull
   private Stream<Callable<String>> getCallables(@Nonnull String indexToFill,
                                                 @Nonnull IndexingConfiguration.Index indexConfiguration,
-                                                @Nonnull IndexingConfiguration.Partition partitionConfiguration) {
+                                                @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                                @Nullable BulkIndexer bulkIndexer) {
     log.info(
             "(getCallables) for index '{}' (alias {}) and collection '{}'",
             indexToFill, indexConfiguration.getName(), partitionConfiguration.getName()
     );
 
     List<String> constructQueries = partitionConfiguration.getConstructQueries();
-    List<Resource> facetQueries = partitionConfiguration.getFacetQueryResources();
+    Function<String, IndexMethod> indexMethods = getIndexMethods(indexToFill, partitionConfiguration, bulkIndexer);
     return getPartitionUris(spelService, paginatedQuery, rdfStore, queryTemplateParameters, partitionConfiguration)
             .stream()
-            .map(uri -> getCallable(getIndexMethod(indexToFill, facetQueries, uri),
+            .map(uri -> getCallable(indexMethods.apply(uri),
                                     constructQueries,
                                     uri));
   }
 
   @Nonnull
-  private IndexMethod getIndexMethod(@Nonnull String indexToFill,
-                                     @Nonnull List<Resource> facetQueryResources,
-                                     @Nonnull String uri) {
-    return getIndexMethodForUri(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
-                                indexToFill, facetQueryResources, uri);
+  private Function<String, IndexMethod> getIndexMethods(@Nonnull String indexToFill,
+                                                        @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                                        @Nullable BulkIndexer bulkIndexer) {
+    Function<String, IndexMethod> indexMethods =
+            getIndexMethodForPartition(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
+                                       indexToFill, partitionConfiguration, bulkIndexer);
+    return withConcurrencyLimiters(indexMethods, triplestoreLimiter, elasticsearchLimiter);
   }
 
   @Nonnull
@@ -0,0 +1,245 @@
+package zone.cogni.asquare.cube.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.jena.rdf.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.cube.hash.ModelHasher;
+import zone.cogni.asquare.service.elasticsearch.Params;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkIndexer;
+import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Keeps a digest of the model of each indexed document in a sidecar index, named after the index with a
+ * <code>-digest</code> suffix. Sidecar documents have the uri as id and contain <code>uri</code> and <code>digest</code>.
+ * </p>
+ * <p>
+ * During an incremental index run the digests of the previous runs are loaded first.
+ * Documents whose model has the same digest are not converted and not sent to Elasticsearch again.
+ * At the end of a run over the whole index, documents which were not selected anymore can be deleted.
+ * </p>
+ * <p>
+ * Note: digest is calculated on the model only, a change in the conversion profile or in facet queries
+ * is not detected. Run a reindex with <code>clear</code> after changing those.
+ * </p>
+ */
+public class DocumentDigestIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(DocumentDigestIndex.class);
+
+  private static final String suffix = "-digest";
+  private static final int pageSize = 1000;
+
+  @Nonnull
+  public static String getDigestIndexName(@Nonnull String indexName) {
+    return indexName + suffix;
+  }
+
+  private final ModelHasher modelHasher = new ModelHasher();
+
+  private final Elasticsearch7Store elasticStore;
+  private final String indexName;
+  private final String digestIndexName;
+
+  private final Map<String, String> previousDigests = new ConcurrentHashMap<>();
+  private final Set<String> processedUris = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder updated = new LongAdder();
+  private final LongAdder deleted = new LongAdder();
+
+  public DocumentDigestIndex(@Nonnull Elasticsearch7Store elasticStore, @Nonnull String indexName) {
+    this.elasticStore = elasticStore;
+    this.indexName = indexName;
+    this.digestIndexName = getDigestIndexName(indexName);
+  }
+
+  @Nonnull
+  public String getIndexName() {
+    return indexName;
+  }
+
+  @Nonnull
+  public String getDigestIndexName() {
+    return digestIndexName;
+  }
+
+  /**
+   * Creates sidecar index with a <code>keyword</code> mapping for <code>uri</code> and <code>digest</code>.
+   */
+  public void createDigestIndex() {
+    ObjectNode settings = JsonNodeFactory.instance.objectNode();
+    ObjectNode properties = settings.putObject("mappings").putObject("properties");
+    properties.putObject("uri").put("type", "keyword");
+    properties.putObject("digest").put("type", "keyword").put("index", false);
+
+    elasticStore.createIndex(digestIndexName, settings);
+  }
+
+  public void deleteDigestIndex() {
+    elasticStore.deleteIndex(digestIndexName);
+  }
+
+  /**
+   * Loads digests of all documents of the sidecar index, page by page, sorted on <code>uri</code>.
+   */
+  public void loadDigests() {
+    long start = System.nanoTime();
+
+    JsonNode searchAfter = null;
+    while (true) {
+      ArrayNode hits = searchPage(searchAfter);
+      hits.forEach(hit -> {
+        JsonNode source = hit.path("_source");
+        previousDigests.put(source.path("uri").asText(), source.path("digest").asText());
+      });
+
+      if (hits.size() < pageSize) break;
+      searchAfter = hits.get(hits.size() - 1).path("sort");
+    }
+
+    log.info("(loadDigests) loaded {} digests of index '{}' in {} ms",
+             previousDigests.size(), indexName, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  @Nonnull
+  private ArrayNode searchPage(@Nullable JsonNode searchAfter) {
+    ObjectNode search = JsonNodeFactory.instance.objectNode();
+    search.put("size", pageSize);
+    search.putObject("query").putObject("match_all");
+    search.putArray("sort").addObject().put("uri", "asc");
+    if (searchAfter != null) search.set("search_after", searchAfter);
+
+    JsonNode hits = elasticStore.search(digestIndexName, search).path("hits").path("hits");
+    if (!hits.isArray()) throw new RuntimeException("unexpected search response for index '" + digestIndexName + "'");
+    return (ArrayNode) hits;
+  }
+
+  /**
+   * @return hex encoded digest of <code>model</code>
+   */
+  @Nonnull
+  public String getDigest(@Nonnull Model model) {
+    return Hex.encodeHexString(modelHasher.apply(model));
+  }
+
+  /**
+   * Marks <code>uri</code> as selected in current run, its document is not deleted by {@link #deleteUnprocessed()}
+   * even if loading its model or indexing it fails.
+   */
+  public void markProcessed(@Nonnull String uri) {
+    processedUris.add(uri);
+  }
+
+  /**
+   * @return <code>true</code> if previous run indexed <code>uri</code> with the same <code>digest</code>,
+   * the document does not need to be sent again in that case
+   */
+  public boolean isUnchanged(@Nonnull String uri, @Nonnull String digest) {
+    boolean unchanged = digest.equals(previousDigests.get(uri));
+    if (unchanged) skipped.increment();
+    return unchanged;
+  }
+
+  /**
+   * Stores digest of a document which was indexed successfully.
+   *
+   * @param bulkIndexer if not <code>null</code> digest is added to the next <code>_bulk</code> request,
+   *                    without blocking so it can be called when the bulk request of the document completes
+   * @param params      used if digest is sent on its own
+   */
+  public void saveDigest(@Nonnull String uri,
+                         @Nonnull String digest,
+                         @Nullable BulkIndexer bulkIndexer,
+                         @Nullable Params params) {
+    ObjectNode document = JsonNodeFactory.instance.objectNode();
+    document.put("uri", uri);
+    document.put("digest", digest);
+
+    if (bulkIndexer != null) bulkIndexer.addToNextBatch(digestIndexName, uri, document);
+    else elasticStore.indexDocument(digestIndexName, uri, document, params);
+
+    previousDigests.put(uri, digest);
+    updated.increment();
+  }
+
+  /**
+   * Deletes documents, and their digests, which were indexed in a previous run
+   * but were not processed in the current run, with one <code>_bulk</code> request per <code>pageSize</code> documents.
+   * A digest is only deleted once its document is gone, so a failed delete is tried again next run.
+   * Only makes sense after a successful run over all partitions of the index.
+   */
+  public void deleteUnprocessed() {
+    List<String> unprocessedUris = previousDigests.keySet()
+                                                  .stream()
+                                                  .filter(uri -> !processedUris.contains(uri))
+                                                  .collect(Collectors.toList());
+
+    Lists.partition(unprocessedUris, pageSize).forEach(uris -> {
+      List<String> removedUris = deleteDocuments(indexName, uris, deleted);
+      if (removedUris.isEmpty()) return;
+
+      deleteDocuments(digestIndexName, removedUris, null);
+      removedUris.forEach(previousDigests::remove);
+    });
+  }
+
+  /**
+   * @param deletedCount incremented for each document the response reports as deleted, can be <code>null</code>
+   * @return uris of documents which are not in the index anymore, deleted now or already missing
+   */
+  @Nonnull
+  private List<String> deleteDocuments(@Nonnull String index, @Nonnull List<String> uris, @Nullable LongAdder deletedCount) {
+    JsonNode items = elasticStore.bulkDelete(index, uris, Params.noRefresh()).path("items");
+    if (items.size() != uris.size())
+      throw new RuntimeException("bulk delete response of index '" + index + "' has " + items.size() + " items,"
+                                 + " expected " + uris.size());
+
+    List<String> result = new ArrayList<>();
+    for (int i = 0; i < uris.size(); i++) {
+      JsonNode item = items.get(i).path("delete");
+      int status = item.path("status").asInt();
+      if (status == 200 || status == 404) {
+        result.add(uris.get(i));
+        if (status == 200 && deletedCount != null) deletedCount.increment();
+      }
+      else {
+        log.warn("(deleteUnprocessed) delete of '{}' in index '{}' failed: {}", uris.get(i), index, item.path("error"));
+      }
+    }
+    return result;
+  }
+
+  public long getSkippedCount() {
+    return skipped.sum();
+  }
+
+  public long getUpdatedCount() {
+    return updated.sum();
+  }
+
+  public long getDeletedCount() {
+    return deleted.sum();
+  }
+
+  public void logSummary() {
+    log.info("(digests) index '{}': {} skipped, {} updated, {} deleted",
+             indexName, getSkippedCount(), getUpdatedCount(), getDeletedCount());
+  }
+}
@@ -12,11 +12,14 @@ import zone.cogni.asquare.cube.convertor.ModelToJsonConversion;
 import zone.cogni.asquare.cube.pagination.PaginatedQuery;
 import zone.cogni.asquare.cube.sparql2json.SparqlSelectToJson;
 import zone.cogni.asquare.cube.util.TimingUtil;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkIndexer;
 import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
 
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
 /**
@@ -37,6 +40,9 @@ import java.util.function.Supplier;
  *   <li>an Elasticsearch index</li>
  *   <li>a conversion profile from Jena Model to JSON</li>
  *   <li>a component to turn SPARQL into JSON for facets</li>
+ *   <li>optionally a <code>BulkIndexer</code> to send documents in <code>_bulk</code> requests</li>
+ *   <li>optionally a <code>DocumentDigestIndex</code> to skip documents whose model did not change</li>
+ *   <li>optionally a <code>ConcurrencyLimiter</code> for the RDF store and one for Elasticsearch</li>
  * </ul>
  * </p>
  */
@@ -46,16 +52,33 @@ public class IndexMethod {
 
     public static final Configuration AsyncElasticsearch = new Configuration(Params.noRefresh());
     public static final Configuration SyncElasticsearch = new Configuration(Params.refresh());
+    public static final Configuration BulkElasticsearch = new Configuration(Params.noRefresh(), true);
 
     private Params params;
+    private boolean bulk;
 
     public Configuration(Params params) {
+      this(params, false);
+    }
+
+    public Configuration(Params params, boolean bulk) {
       this.params = params;
+      this.bulk = bulk;
     }
 
     public Params getParams() {
       return params;
     }
+
+    /**
+     * @return <code>true</code> if documents are passed to the <code>BulkIndexer</code> of the <code>IndexMethod</code>,
+     * <code>params</code> are ignored in that case.
+     * Calls do not wait for the bulk request with their document,
+     * failed documents are counted by the <code>BulkIndexer</code> and can be checked when it is closed.
+     */
+    public boolean isBulk() {
+      return bulk;
+    }
   }
 
   private static final Logger log = LoggerFactory.getLogger(IndexMethod.class);
@@ -66,6 +89,11 @@ public class IndexMethod {
   private final Elasticsearch7Store elasticStore;
   private final String indexName;
   private final SparqlSelectToJson sparqlSelectToJson;
+  private final BulkIndexer bulkIndexer;
+  private final DocumentDigestIndex documentDigestIndex;
+
+  private ConcurrencyLimiter triplestoreLimiter;
+  private ConcurrencyLimiter elasticsearchLimiter;
 
   public IndexMethod(ModelToJsonConversion modelToJsonConversion,
                      String indexName,
@@ -96,12 +124,68 @@ public class IndexMethod {
                      String indexName,
                      Elasticsearch7Store elasticStore,
                      SparqlSelectToJson sparqlSelectToJson) {
+    this(paginatedQuery, rdfStoreService, modelToJsonConversion, indexName, elasticStore, sparqlSelectToJson, null);
+  }
+
+  /**
+   * @param bulkIndexer used to save documents when indexing with <code>Configuration.BulkElasticsearch</code>,
+   *                    can be <code>null</code> in which case documents are saved one by one
+   */
+  public IndexMethod(ModelToJsonConversion modelToJsonConversion,
+                     String indexName,
+                     Elasticsearch7Store elasticStore,
+                     SparqlSelectToJson sparqlSelectToJson,
+                     BulkIndexer bulkIndexer) {
+    this(null, null, modelToJsonConversion, indexName, elasticStore, sparqlSelectToJson, bulkIndexer);
+  }
+
+  public IndexMethod(PaginatedQuery paginatedQuery,
+                     RdfStoreService rdfStoreService,
+                     ModelToJsonConversion modelToJsonConversion,
+                     String indexName,
+                     Elasticsearch7Store elasticStore,
+                     SparqlSelectToJson sparqlSelectToJson,
+                     BulkIndexer bulkIndexer) {
+    this(paginatedQuery, rdfStoreService, modelToJsonConversion, indexName, elasticStore, sparqlSelectToJson, bulkIndexer, null);
+  }
+
+  /**
+   * @param documentDigestIndex if not <code>null</code> documents are only converted and saved when the digest
+   *                            of their model differs from the one of the previous run
+   */
+  public IndexMethod(PaginatedQuery paginatedQuery,
+                     RdfStoreService rdfStoreService,
+                     ModelToJsonConversion modelToJsonConversion,
+                     String indexName,
+                     Elasticsearch7Store elasticStore,
+                     SparqlSelectToJson sparqlSelectToJson,
+                     BulkIndexer bulkIndexer,
+                     DocumentDigestIndex documentDigestIndex) {
     this.paginatedQuery = paginatedQuery;
     this.rdfStoreService = rdfStoreService;
     this.modelToJsonConversion = modelToJsonConversion;
     this.indexName = indexName;
     this.elasticStore = elasticStore;
     this.sparqlSelectToJson = sparqlSelectToJson;
+    this.bulkIndexer = bulkIndexer;
+    this.documentDigestIndex = documentDigestIndex;
+  }
+
+  /**
+   * @param triplestoreLimiter   limits concurrent loading of models, <code>null</code> for no limit
+   * @param elasticsearchLimiter limits concurrent calls to Elasticsearch, <code>null</code> for no limit
+   */
+  public void setConcurrencyLimiters(ConcurrencyLimiter triplestoreLimiter, ConcurrencyLimiter elasticsearchLimiter) {
+    this.triplestoreLimiter = triplestoreLimiter;
+    this.elasticsearchLimiter = elasticsearchLimiter;
+  }
+
+  /**
+   * @return configuration used by <code>Callable</code>s when none is passed:
+   * bulk if a <code>BulkIndexer</code> is present, asynchronous otherwise
+   */
+  public Configuration getDefaultConfiguration() {
+    return bulkIndexer != null ? Configuration.BulkElasticsearch : Configuration.AsyncElasticsearch;
   }
 
   /**
@@ -142,14 +226,15 @@ public class IndexMethod {
   }
 
   /**
-   * Returns a <code>Callable</code> which can asynchronously index.
+   * Returns a <code>Callable</code> which can asynchronously index,
+   * using bulk requests if a <code>BulkIndexer</code> is configured.
    *
    * @param modelSupplier supplier of the Model which contains data to be indexed
    * @param uri uri of root instance to be indexed
    * @return <code>Callable</code> which can asynchronously index
    */
   public Callable<String> indexOneCallable(Supplier<Model> modelSupplier, String uri) {
-    return () -> indexOne(modelSupplier, uri, Configuration.AsyncElasticsearch);
+    return () -> indexOne(modelSupplier, uri, getDefaultConfiguration());
   }
 
   /**
@@ -176,14 +261,30 @@ public class IndexMethod {
    *
    * @param modelSupplier supplier of the Model which contains data to be indexed
    * @param uri uri of root instance to be indexed
-   * @return "ok" on success
+   * @return "ok" on success, "skipped" if the model did not change since the previous run;
+   * in bulk mode "ok" is returned once the document is passed to the <code>BulkIndexer</code>
    */
   public String indexOne(Supplier<Model> modelSupplier, String uri, Configuration configuration) {
     long start = System.nanoTime();
     if (log.isDebugEnabled()) log.debug("indexing uri {} start", uri);
 
-    ObjectNode document = convert(modelSupplier.get(), uri);
-    saveDocument(uri, document, configuration.getParams());
+    if (documentDigestIndex != null) documentDigestIndex.markProcessed(uri);
+
+    Model model = triplestoreLimiter == null ? modelSupplier.get() : triplestoreLimiter.get(modelSupplier);
+    String digest = documentDigestIndex == null ? null : documentDigestIndex.getDigest(model);
+    if (digest != null && documentDigestIndex.isUnchanged(uri, digest)) {
+      if (log.isDebugEnabled()) log.debug("indexing uri {} skipped, unchanged ({} ms)", uri, TimingUtil.millisSinceStart(start, 1));
+      return "skipped";
+    }
+
+    ObjectNode document = convert(model, uri);
+    CompletableFuture<Void> bulkResult = getFromElasticsearch(() -> saveDocument(uri, document, configuration));
+
+    // digest is only saved once the document is indexed, a failed document is sent again next run
+    if (digest != null) {
+      if (bulkResult == null) callElasticsearch(() -> saveDigest(uri, digest, configuration));
+      else bulkResult.thenRun(() -> saveDigest(uri, digest, configuration));
+    }
 
     log.info("indexing uri {} done ({} ms)", uri, TimingUtil.millisSinceStart(start, 1));
     return "ok";
@@ -201,8 +302,34 @@ public class IndexMethod {
     return paginatedQuery.getGraph(rdfStoreService, graphUri);
   }
 
-  private void saveDocument(String uri, ObjectNode document, Params params) {
-    elasticStore.indexDocument(indexName, uri, document, params);
+  private void callElasticsearch(Runnable runnable) {
+    if (elasticsearchLimiter == null) runnable.run();
+    else elasticsearchLimiter.run(runnable);
+  }
+
+  private <T> T getFromElasticsearch(Supplier<T> supplier) {
+    return elasticsearchLimiter == null ? supplier.get() : elasticsearchLimiter.get(supplier);
+  }
+
+  /**
+   * @return result of the bulk item if document was passed to the <code>BulkIndexer</code>,
+   * <code>null</code> if it was indexed right away
+   */
+  private CompletableFuture<Void> saveDocument(String uri, ObjectNode document, Configuration configuration) {
+    if (configuration.isBulk() && bulkIndexer != null) {
+      return bulkIndexer.index(indexName, uri, document);
+    }
+
+    elasticStore.indexDocument(indexName, uri, document, configuration.getParams());
+    return null;
+  }
+
+  /**
+   * In bulk mode this runs when the bulk request of the document completes, on a sender thread of the <code>BulkIndexer</code>.
+   */
+  private void saveDigest(String uri, String digest, Configuration configuration) {
+    BulkIndexer digestBulkIndexer = configuration.isBulk() ? bulkIndexer : null;
+    documentDigestIndex.saveDigest(uri, digest, digestBulkIndexer, configuration.getParams());
   }
 
   private ObjectNode addFacets(Model draftModel, ObjectNode objectNode, String uri) {
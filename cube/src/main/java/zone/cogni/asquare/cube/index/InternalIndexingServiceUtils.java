@@ -3,7 +3,6 @@ package zone.cogni.asquare.cube.index;
 import com.google.common.collect.Lists;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.RDFNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
@@ -13,22 +12,32 @@ import zone.cogni.asquare.cube.sparql2json.SparqlSelectToJson;
 import zone.cogni.asquare.cube.spel.SpelService;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadata;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadataService;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkIndexer;
 import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 class InternalIndexingServiceUtils {
 
   private static final Logger log = LoggerFactory.getLogger(InternalIndexingServiceUtils.class);
 
+  /**
+   * Matches use of <code>uri</code> in a SpEL template, e.g. <code>#{[uri]}</code>.
+   */
+  private static final Pattern uriTemplateParameter = Pattern.compile("#\\{[^}]*\\[\\s*'?uri'?\\s*]");
+
   @Nonnull
   static List<String> getValidPartitionNames(@Nonnull IndexingConfiguration.Index indexConfiguration) {
     return indexConfiguration.getValidPartitions()
@@ -59,8 +68,7 @@ class InternalIndexingServiceUtils {
             .getSelectQueries()
             .stream()
             .map(query -> spelService.processTemplate(query, queryTemplateParameters))
-            .map(query -> paginatedQuery.select(rdfStore, query))
-            .flatMap(queryResult -> paginatedQuery.convertSingleColumnUriToStringList(queryResult).stream())
+            .flatMap(query -> paginatedQuery.selectUris(rdfStore, query).stream())
             .collect(Collectors.toList());
   }
 
@@ -73,18 +81,125 @@ class InternalIndexingServiceUtils {
                                  @Nonnull IndexingConfiguration.Partition partitionConfiguration,
                                  @Nonnull String indexToFill,
                                  @Nonnull List<String> uris) {
+    indexSynchronously(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
+                       partitionConfiguration, indexToFill, uris, null);
+  }
+
+  /**
+   * @param documentDigestIndex if not <code>null</code> digests of indexed documents are updated
+   */
+  static void indexSynchronously(@Nonnull SpelService spelService,
+                                 @Nonnull PaginatedQuery paginatedQuery,
+                                 @Nonnull RdfStoreService rdfStore,
+                                 @Nonnull Elasticsearch7Store elasticStore,
+                                 @Nonnull ModelToJsonConversion modelToJsonConversion,
+                                 @Nonnull Map<String, String> queryTemplateParameters,
+                                 @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                 @Nonnull String indexToFill,
+                                 @Nonnull List<String> uris,
+                                 @Nullable DocumentDigestIndex documentDigestIndex) {
     List<String> constructQueryResources = partitionConfiguration.getConstructQueries();
-    List<Resource> facetQueryResources = partitionConfiguration.getFacetQueryResources();
+    Function<String, IndexMethod> indexMethods = getIndexMethodForPartition(spelService, paginatedQuery, rdfStore,
+                                                                            elasticStore, modelToJsonConversion, queryTemplateParameters,
+                                                                            indexToFill, partitionConfiguration, null,
+                                                                            documentDigestIndex);
     for (String uri : uris) {
-      IndexMethod indexMethod = getIndexMethodForUri(spelService, paginatedQuery, rdfStore,
-                                                     elasticStore, modelToJsonConversion, queryTemplateParameters,
-                                                     indexToFill, facetQueryResources, uri);
+      IndexMethod indexMethod = indexMethods.apply(uri);
       Supplier<Model> modelSupplier = getModelSupplier(spelService, paginatedQuery, rdfStore, queryTemplateParameters,
                                                        constructQueryResources, uri);
       indexMethod.indexOne(modelSupplier, uri, IndexMethod.Configuration.SyncElasticsearch);
     }
   }
 
+  /**
+   * <p>
+   * Returns a function which gives the <code>IndexMethod</code> to use for a uri of a partition.
+   * </p>
+   * <p>
+   * Facet queries are templated and parsed once per partition and one <code>IndexMethod</code> is shared by all uris,
+   * the uri being indexed is passed to facet queries as a binding of <code>?uri</code>.
+   * Partitions with facet queries still using the <code>uri</code> template parameter
+   * get a new <code>IndexMethod</code> per uri, like before.
+   * </p>
+   *
+   * @param bulkIndexer of current indexing run, can be <code>null</code>
+   * @return function returning <code>IndexMethod</code> for a uri
+   */
+  @Nonnull
+  static Function<String, IndexMethod> getIndexMethodForPartition(@Nonnull SpelService spelService,
+                                                                  @Nonnull PaginatedQuery paginatedQuery,
+                                                                  @Nonnull RdfStoreService rdfStore,
+                                                                  @Nonnull Elasticsearch7Store elasticStore,
+                                                                  @Nonnull ModelToJsonConversion modelToJsonConversion,
+                                                                  @Nonnull Map<String, String> queryTemplateParameters,
+                                                                  @Nonnull String indexToFill,
+                                                                  @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                                                  @Nullable BulkIndexer bulkIndexer) {
+    return getIndexMethodForPartition(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
+                                      indexToFill, partitionConfiguration, bulkIndexer, null);
+  }
+
+  /**
+   * @param documentDigestIndex of current indexing run, can be <code>null</code>;
+   *                            if present unchanged documents are skipped
+   * @see #getIndexMethodForPartition(SpelService, PaginatedQuery, RdfStoreService, Elasticsearch7Store, ModelToJsonConversion, Map, String, IndexingConfiguration.Partition, BulkIndexer)
+   */
+  @Nonnull
+  static Function<String, IndexMethod> getIndexMethodForPartition(@Nonnull SpelService spelService,
+                                                                  @Nonnull PaginatedQuery paginatedQuery,
+                                                                  @Nonnull RdfStoreService rdfStore,
+                                                                  @Nonnull Elasticsearch7Store elasticStore,
+                                                                  @Nonnull ModelToJsonConversion modelToJsonConversion,
+                                                                  @Nonnull Map<String, String> queryTemplateParameters,
+                                                                  @Nonnull String indexToFill,
+                                                                  @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                                                  @Nullable BulkIndexer bulkIndexer,
+                                                                  @Nullable DocumentDigestIndex documentDigestIndex) {
+    List<Resource> facetQueryResources = partitionConfiguration.getFacetQueryResources();
+    if (hasUriTemplateParameter(partitionConfiguration.getFacetQueries())) {
+      log.warn("(index) facet queries of partition '{}' use the 'uri' template parameter," +
+               " use the '?uri' variable instead to parse facet queries only once", partitionConfiguration.getName());
+      return uri -> getIndexMethodForUri(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion,
+                                         queryTemplateParameters, indexToFill, facetQueryResources, bulkIndexer,
+                                         documentDigestIndex, uri);
+    }
+
+    SparqlSelectToJson sparqlSelectToJson = new SparqlSelectToJson(facetQueryResources.toArray(new Resource[0]),
+                                                                   spelService,
+                                                                   queryTemplateParameters);
+    IndexMethod indexMethod = new IndexMethod(paginatedQuery,
+                                              rdfStore,
+                                              modelToJsonConversion,
+                                              indexToFill,
+                                              elasticStore,
+                                              sparqlSelectToJson,
+                                              bulkIndexer,
+                                              documentDigestIndex);
+    return uri -> indexMethod;
+  }
+
+  /**
+   * @param triplestoreLimiter   set on each <code>IndexMethod</code>, can be <code>null</code>
+   * @param elasticsearchLimiter set on each <code>IndexMethod</code>, can be <code>null</code>
+   * @return function returning <code>IndexMethod</code>s of <code>indexMethods</code> with the concurrency limiters
+   */
+  @Nonnull
+  static Function<String, IndexMethod> withConcurrencyLimiters(@Nonnull Function<String, IndexMethod> indexMethods,
+                                                               @Nullable ConcurrencyLimiter triplestoreLimiter,
+                                                               @Nullable ConcurrencyLimiter elasticsearchLimiter) {
+    if (triplestoreLimiter == null && elasticsearchLimiter == null) return indexMethods;
+
+    return indexMethods.andThen(indexMethod -> {
+      indexMethod.setConcurrencyLimiters(triplestoreLimiter, elasticsearchLimiter);
+      return indexMethod;
+    });
+  }
+
+  private static boolean hasUriTemplateParameter(@Nonnull List<String> queries) {
+    return queries.stream()
+                  .anyMatch(query -> uriTemplateParameter.matcher(query).find());
+  }
+
   /**
    * Returns <code>IndexMethod</code> instance for selected <code>index</code> and <code>partition</code>
    *
@@ -109,7 +224,32 @@ class InternalIndexingServiceUtils {
                                           @Nonnull String indexToFill,
                                           @Nonnull List<Resource> facetQueryResources,
                                           @Nonnull String uri) {
-    // TODO note use of a new instance of SparqlSelectToJson per URI is causing a huge memory usage
+    return getIndexMethodForUri(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
+                                indexToFill, facetQueryResources, null, null, uri);
+  }
+
+  /**
+   * Returns <code>IndexMethod</code> instance for selected <code>index</code> and <code>partition</code>
+   * which sends its documents to <code>bulkIndexer</code> if one is passed.
+   *
+   * @param bulkIndexer         of current indexing run, can be <code>null</code>
+   * @param documentDigestIndex of current indexing run, can be <code>null</code>
+   * @return <code>IndexMethod</code> instance
+   * @see #getIndexMethodForUri(SpelService, PaginatedQuery, RdfStoreService, Elasticsearch7Store, ModelToJsonConversion, Map, String, List, String)
+   */
+  @Nonnull
+  static IndexMethod getIndexMethodForUri(@Nonnull SpelService spelService,
+                                          @Nonnull PaginatedQuery paginatedQuery,
+                                          @Nonnull RdfStoreService rdfStore,
+                                          @Nonnull Elasticsearch7Store elasticStore,
+                                          @Nonnull ModelToJsonConversion modelToJsonConversion,
+                                          @Nonnull Map<String, String> queryTemplateParameters,
+                                          @Nonnull String indexToFill,
+                                          @Nonnull List<Resource> facetQueryResources,
+                                          @Nullable BulkIndexer bulkIndexer,
+                                          @Nullable DocumentDigestIndex documentDigestIndex,
+                                          @Nonnull String uri) {
+    // note: new instance of SparqlSelectToJson per URI, prefer getIndexMethodForPartition when indexing many uris
     Resource[] queryResources = facetQueryResources.toArray(new Resource[0]);
     SparqlSelectToJson sparqlSelectToJson = new SparqlSelectToJson(queryResources,
                                                                    spelService,
@@ -119,7 +259,38 @@ class InternalIndexingServiceUtils {
                            modelToJsonConversion,
                            indexToFill,
                            elasticStore,
-                           sparqlSelectToJson);
+                           sparqlSelectToJson,
+                           bulkIndexer,
+                           documentDigestIndex);
+  }
+
+  /**
+   * @param elasticStore            to send bulk requests to
+   * @param bulkIndexerConfiguration configuration of bulk indexing, <code>null</code> if bulk indexing is disabled
+   * @return new <code>BulkIndexer</code> for one indexing run or <code>null</code> if bulk indexing is disabled
+   */
+  @Nullable
+  static BulkIndexer createBulkIndexer(@Nonnull Elasticsearch7Store elasticStore,
+                                       @Nullable BulkIndexer.Configuration bulkIndexerConfiguration) {
+    if (bulkIndexerConfiguration == null) return null;
+    return new BulkIndexer(elasticStore, bulkIndexerConfiguration);
+  }
+
+  /**
+   * Sends remaining documents of <code>bulkIndexer</code>, waits for all requests to finish and logs a summary.
+   *
+   * @param bulkIndexer to close, nothing happens if it is <code>null</code>
+   * @return number of documents which could not be indexed, <code>0</code> if <code>bulkIndexer</code> is <code>null</code>
+   */
+  static long closeBulkIndexer(@Nullable BulkIndexer bulkIndexer) {
+    if (bulkIndexer == null) return 0;
+
+    bulkIndexer.close();
+    bulkIndexer.logSummary();
+
+    long failureCount = bulkIndexer.getFailureCount();
+    if (failureCount > 0) log.warn("(closeBulkIndexer) {} documents could not be indexed", failureCount);
+    return failureCount;
   }
 
   /**
@@ -136,7 +307,7 @@ class InternalIndexingServiceUtils {
                                             @Nonnull String uri) {
     Supplier<Model> modelSupplier = getModelSupplier(spelService, paginatedQuery, rdfStore, queryTemplateParameters,
                                                      partitionConstructQueries, uri);
-    return indexMethod.indexOneCallable(modelSupplier, uri);
+    return indexMethod.indexOneCallable(modelSupplier, uri, indexMethod.getDefaultConfiguration());
   }
 
   @Nonnull
@@ -169,8 +340,7 @@ class InternalIndexingServiceUtils {
   static List<String> getUrisFromQuery(@Nonnull PaginatedQuery paginatedQuery,
                                        @Nonnull RdfStoreService rdfStore,
                                        @Nonnull String query) {
-    List<Map<String, RDFNode>> results = paginatedQuery.select(rdfStore, query);
-    return paginatedQuery.convertSingleColumnUriToStringList(results);
+    return paginatedQuery.selectUris(rdfStore, query);
   }
 
   /**
@@ -241,8 +411,7 @@ class InternalIndexingServiceUtils {
 
     // run query with filter
     String query = spelService.processTemplate(templateQuery, templateParameterMap);
-    List<Map<String, RDFNode>> rows = paginatedQuery.select(rdfStore, query);
-    return paginatedQuery.convertSingleColumnUriToStringList(rows);
+    return paginatedQuery.selectUris(rdfStore, query);
   }
 
   private static String getUriFilter(List<String> uris) {
@@ -262,6 +431,27 @@ class InternalIndexingServiceUtils {
     elasticStore.createIndex(index, indexConfiguration.getSettingsJson());
   }
 
+  /**
+   * Creates a <code>DocumentDigestIndex</code> for an incremental run on <code>index</code>,
+   * sidecar index is created if it does not exist yet.
+   *
+   * @param loadDigests <code>true</code> to load digests of previous runs, otherwise all documents will be sent
+   */
+  @Nonnull
+  static DocumentDigestIndex getDocumentDigestIndex(@Nonnull ElasticsearchMetadataService elasticsearchMetadataService,
+                                                    @Nonnull Elasticsearch7Store elasticStore,
+                                                    @Nonnull String index,
+                                                    boolean loadDigests) {
+    DocumentDigestIndex result = new DocumentDigestIndex(elasticStore, index);
+    if (!existsIndex(elasticsearchMetadataService, elasticStore, result.getDigestIndexName())) {
+      result.createDigestIndex();
+    }
+    else if (loadDigests) {
+      result.loadDigests();
+    }
+    return result;
+  }
+
   private static boolean existsIndex(@Nonnull ElasticsearchMetadataService elasticsearchMetadataService,
                                      @Nonnull Elasticsearch7Store elasticStore,
                                      @Nonnull String index) {
@@ -2,7 +2,6 @@ package zone.cogni.asquare.cube.index;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import zone.cogni.asquare.cube.convertor.ModelToJsonConversion;
 import zone.cogni.asquare.cube.index.IndexFolderUriReport.CollectionFolderUriReport;
 import zone.cogni.asquare.cube.monitoredpool.MonitoredPool;
@@ -10,25 +9,31 @@ import zone.cogni.asquare.cube.pagination.PaginatedQuery;
 import zone.cogni.asquare.cube.spel.SpelService;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadata;
 import zone.cogni.asquare.service.elasticsearch.info.ElasticsearchMetadataService;
+import zone.cogni.asquare.service.elasticsearch.v7.BulkIndexer;
 import zone.cogni.asquare.service.elasticsearch.v7.Elasticsearch7Store;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.closeBulkIndexer;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.createBulkIndexer;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getCallableForUri;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexFolder;
-import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForUri;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexMethodForPartition;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getIndexableUris;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getPartitionUris;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getUrisFromQuery;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.getValidPartitionNames;
 import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.indexSynchronously;
+import static zone.cogni.asquare.cube.index.InternalIndexingServiceUtils.withConcurrencyLimiters;
 
 /**
  * Here is an expected folder structure for indexing:
@@ -57,8 +62,6 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
 
   private static final Logger log = LoggerFactory.getLogger(StaticIndexIndexingService.class);
 
-  private final int indexBlockSize;
-
   private final IndexingConfiguration indexingConfiguration;
 
   private final SpelService spelService;
@@ -76,6 +79,24 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
    */
   private final Map<String, String> queryTemplateParameters;
 
+  /**
+   * When set, documents of index runs are sent in <code>_bulk</code> requests instead of one request per document.
+   */
+  private BulkIndexer.Configuration bulkIndexerConfiguration;
+
+  /**
+   * When set, a digest of the model of each document is kept in a sidecar index
+   * and documents whose model did not change are not sent again, see {@link DocumentDigestIndex}.
+   */
+  private boolean incremental;
+
+  /**
+   * When set, limit concurrent calls to the RDF store and to Elasticsearch over all index tasks,
+   * independent of the number of threads of the pool.
+   */
+  private ConcurrencyLimiter triplestoreLimiter;
+  private ConcurrencyLimiter elasticsearchLimiter;
+
   public StaticIndexIndexingService(@Nonnull SpelService spelService,
                                     @Nonnull PaginatedQuery paginatedQuery,
                                     @Nonnull MonitoredPool indexMonitoredPool,
@@ -84,11 +105,22 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
                                     @Nonnull ModelToJsonConversion modelToJsonConversion,
                                     @Nonnull IndexingConfiguration indexingConfiguration,
                                     @Nonnull Map<String, String> queryTemplateParameters) {
-    this(20000,
-         spelService, paginatedQuery, indexMonitoredPool, rdfStore, elasticStore,
-         modelToJsonConversion, indexingConfiguration, queryTemplateParameters);
+    this.indexingConfiguration = indexingConfiguration;
+    this.queryTemplateParameters = queryTemplateParameters;
+    this.spelService = spelService;
+    this.indexMonitoredPool = indexMonitoredPool;
+    this.elasticStore = elasticStore;
+    this.paginatedQuery = paginatedQuery;
+    this.rdfStore = rdfStore;
+    this.modelToJsonConversion = modelToJsonConversion;
+    this.elasticsearchMetadataService = new ElasticsearchMetadataService(new ElasticsearchMetadata.Configuration());
   }
 
+  /**
+   * @param indexBlockSize no longer used, uris are passed lazily to <code>indexMonitoredPool</code>
+   *                       which limits the number of uris in progress
+   */
+  @Deprecated
   public StaticIndexIndexingService(int indexBlockSize,
                                     @Nonnull SpelService spelService,
                                     @Nonnull PaginatedQuery paginatedQuery,
@@ -98,16 +130,26 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
                                     @Nonnull ModelToJsonConversion modelToJsonConversion,
                                     @Nonnull IndexingConfiguration indexingConfiguration,
                                     @Nonnull Map<String, String> queryTemplateParameters) {
-    this.indexBlockSize = indexBlockSize;
-    this.indexingConfiguration = indexingConfiguration;
-    this.queryTemplateParameters = queryTemplateParameters;
-    this.spelService = spelService;
-    this.indexMonitoredPool = indexMonitoredPool;
-    this.elasticStore = elasticStore;
-    this.paginatedQuery = paginatedQuery;
-    this.rdfStore = rdfStore;
-    this.modelToJsonConversion = modelToJsonConversion;
-    this.elasticsearchMetadataService = new ElasticsearchMetadataService(new ElasticsearchMetadata.Configuration());
+    this(spelService, paginatedQuery, indexMonitoredPool, rdfStore, elasticStore,
+         modelToJsonConversion, indexingConfiguration, queryTemplateParameters);
+  }
+
+  public void setBulkIndexerConfiguration(@Nullable BulkIndexer.Configuration bulkIndexerConfiguration) {
+    this.bulkIndexerConfiguration = bulkIndexerConfiguration;
+  }
+
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * @param triplestoreLimiter   limits concurrent loading of models, <code>null</code> for no limit
+   * @param elasticsearchLimiter limits concurrent calls to Elasticsearch, <code>null</code> for no limit
+   */
+  public void setConcurrencyLimiters(@Nullable ConcurrencyLimiter triplestoreLimiter,
+                                     @Nullable ConcurrencyLimiter elasticsearchLimiter) {
+    this.triplestoreLimiter = triplestoreLimiter;
+    this.elasticsearchLimiter = elasticsearchLimiter;
   }
 
   @Override
@@ -136,7 +178,7 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
     IndexingConfiguration.Index indexConfiguration = getIndexFolder(indexingConfiguration, index);
 
     clearIndex(indexConfiguration, clear);
-    indexByPartition(index, getValidPartitionNames(indexConfiguration));
+    indexByCollection(indexConfiguration, getValidPartitionNames(indexConfiguration), true);
   }
 
   @Nonnull
@@ -158,6 +200,7 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
     log.info("(clearIndex) '{}' started", indexConfiguration.getName());
 
     deleteIndex(indexConfiguration);
+    if (incremental) deleteDigestIndex(indexConfiguration);
     ensureIndexExists(indexConfiguration.getName());
     log.info("(clearIndex) '{}' done", indexConfiguration.getName());
   }
@@ -178,6 +221,20 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
     }
   }
 
+  /**
+   * Deletes sidecar index with digests of documents, a missing index is ignored.
+   *
+   * @param indexConfiguration of index
+   */
+  private void deleteDigestIndex(@Nonnull IndexingConfiguration.Index indexConfiguration) {
+    try {
+      new DocumentDigestIndex(elasticStore, indexConfiguration.getName()).deleteDigestIndex();
+    }
+    catch (RuntimeException e) {
+      log.warn(".. delete digest index of '{}' failed", indexConfiguration.getName(), e);
+    }
+  }
+
   @Override
   public void indexByCollection(@Nonnull String index,
                                 @Nonnull String collection) {
@@ -188,30 +245,71 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
   public void indexByCollection(@Nonnull String index,
                                 @Nonnull List<String> collections) {
     IndexingConfiguration.Index indexConfiguration = getIndexFolder(indexingConfiguration, index);
-    indexByCollection(indexConfiguration, collections);
+    indexByCollection(indexConfiguration, collections, false);
   }
 
+  /**
+   * @param deleteUnprocessed in incremental mode, delete documents of previous runs which were not selected anymore;
+   *                          only to be used when all partitions of the index are processed
+   */
   private void indexByCollection(@Nonnull IndexingConfiguration.Index indexConfiguration,
-                                 @Nonnull List<String> collections) {
+                                 @Nonnull List<String> collections,
+                                 boolean deleteUnprocessed) {
     log.info("(indexByCollection) index '{}' and collections: {}", indexConfiguration.getName(), String.join(", ", collections));
 
     IndexFolderUriReport uriReport = loadUriReport(indexConfiguration, collections);
     int originalUriReportSize = uriReport.getSize();
     log.info("(indexByCollection) loaded uri report, found {} uris", originalUriReportSize);
 
-    while (!uriReport.isEmpty()) {
-      IndexFolderUriReport subsetUriReport = uriReport.extractSubset(indexBlockSize);
-      List<Callable<String>> callables = getCallables(subsetUriReport);
-
-      log.info("(indexByCollection) processing subset of {} uris", callables.size());
-      indexMonitoredPool.invoke(callables);
+    DocumentDigestIndex documentDigestIndex = getDocumentDigestIndex(indexConfiguration, true);
+    BulkIndexer bulkIndexer = createBulkIndexer(elasticStore, bulkIndexerConfiguration);
+    MonitoredPool.InvocationContext<String> invocation;
+    long bulkFailureCount;
+    try {
+      invocation = indexMonitoredPool.invoke(getCallables(uriReport, bulkIndexer, documentDigestIndex), originalUriReportSize);
+    }
+    finally {
+      bulkFailureCount = closeBulkIndexer(bulkIndexer);
+    }
 
-      log.info("(indexByCollection) processing subset done, {} uris remaining", uriReport.getSize());
+    if (documentDigestIndex != null) {
+      if (deleteUnprocessed) deleteUnprocessed(documentDigestIndex, invocation, bulkFailureCount);
+      documentDigestIndex.logSummary();
     }
 
     log.info("(indexByCollection) done, processed {} uris", originalUriReportSize);
   }
 
+  /**
+   * Deletes documents which were not selected anymore, only if all uris were indexed:
+   * after a failed, timed out or cancelled task it is not sure all selected documents are marked as processed.
+   * Documents rejected in a bulk request count as failed too.
+   */
+  private void deleteUnprocessed(@Nonnull DocumentDigestIndex documentDigestIndex,
+                                 @Nonnull MonitoredPool.InvocationContext<String> invocation,
+                                 long bulkFailureCount) {
+    long failedCount = invocation.getFailedCount() + bulkFailureCount;
+    if (failedCount > 0 || invocation.isCancelled()) {
+      log.warn("(indexByCollection) index '{}' not cleaned up, {} uris failed{}",
+               documentDigestIndex.getIndexName(), failedCount, invocation.isCancelled() ? " and run was cancelled" : "");
+      return;
+    }
+
+    documentDigestIndex.deleteUnprocessed();
+  }
+
+  /**
+   * @param loadDigests <code>true</code> to skip documents which did not change since the previous run
+   * @return <code>DocumentDigestIndex</code> for index if service is incremental, <code>null</code> otherwise
+   */
+  @Nullable
+  private DocumentDigestIndex getDocumentDigestIndex(@Nonnull IndexingConfiguration.Index indexConfiguration,
+                                                     boolean loadDigests) {
+    if (!incremental) return null;
+    return InternalIndexingServiceUtils.getDocumentDigestIndex(elasticsearchMetadataService, elasticStore,
+                                                               indexConfiguration.getName(), loadDigests);
+  }
+
   @Nonnull
   private IndexFolderUriReport loadUriReport(@Nonnull IndexingConfiguration.Index indexConfiguration,
                                              @Nonnull List<String> collections) {
@@ -229,22 +327,29 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
   }
 
   /**
-   * @param uriReport create callables for a single index folder
-   * @return stream of <code>Callable</code>s for a single collection in an index
+   * @param uriReport           create callables for a single index folder
+   * @param bulkIndexer         to send documents to, <code>null</code> if documents are sent one by one
+   * @param documentDigestIndex to skip unchanged documents, <code>null</code> if all documents are sent
+   * @return lazy stream of <code>Callable</code>s for all collections of the report
    */
-  private List<Callable<String>> getCallables(IndexFolderUriReport uriReport) {
+  private Stream<Callable<String>> getCallables(IndexFolderUriReport uriReport,
+                                              @Nullable BulkIndexer bulkIndexer,
+                                              @Nullable DocumentDigestIndex documentDigestIndex) {
     return uriReport.getCollectionFolderReports()
                     .stream()
-                    .flatMap(this::getCallables)
-                    .collect(Collectors.toList());
+                    .flatMap(collectionFolderUriReport -> getCallables(collectionFolderUriReport, bulkIndexer, documentDigestIndex));
   }
 
   /**
    * @param collectionFolderUriReport create callables for a single collection of uris
+   * @param bulkIndexer               to send documents to, <code>null</code> if documents are sent one by one
+   * @param documentDigestIndex       to skip unchanged documents, <code>null</code> if all documents are sent
    * @return stream of <code>Callable</code>s for a single collection in an index
    */
   @Nonnull
-  private Stream<Callable<String>> getCallables(@Nonnull CollectionFolderUriReport collectionFolderUriReport) {
+  private Stream<Callable<String>> getCallables(@Nonnull CollectionFolderUriReport collectionFolderUriReport,
+                                                @Nullable BulkIndexer bulkIndexer,
+                                                @Nullable DocumentDigestIndex documentDigestIndex) {
     IndexingConfiguration.Index indexConfiguration = collectionFolderUriReport.getIndexFolderUriReport()
                                                                               .getIndexFolder();
     IndexingConfiguration.Partition partitionConfiguration = collectionFolderUriReport.getCollectionFolder();
@@ -252,21 +357,24 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
     log.info("(getCallables) for index '{}' and collection '{}'", indexConfiguration.getName(), partitionConfiguration.getName());
 
     List<String> collectionConstructQueries = partitionConfiguration.getConstructQueries();
-    List<Resource> facetQueryResources = partitionConfiguration.getFacetQueryResources();
+    Function<String, IndexMethod> indexMethods = getIndexMethods(indexConfiguration, partitionConfiguration, bulkIndexer, documentDigestIndex);
     return collectionFolderUriReport
             .getUris()
             .stream()
-            .map(uri -> getCallable(getIndexMethod(indexConfiguration, facetQueryResources, uri),
+            .map(uri -> getCallable(indexMethods.apply(uri),
                                     collectionConstructQueries,
                                     uri));
   }
 
   @Nonnull
-  private IndexMethod getIndexMethod(@Nonnull IndexingConfiguration.Index indexConfiguration,
-                                     @Nonnull List<Resource> facetQueryResources,
-                                     @Nonnull String uri) {
-    return getIndexMethodForUri(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
-                                indexConfiguration.getName(), facetQueryResources, uri);
+  private Function<String, IndexMethod> getIndexMethods(@Nonnull IndexingConfiguration.Index indexConfiguration,
+                                                         @Nonnull IndexingConfiguration.Partition partitionConfiguration,
+                                                         @Nullable BulkIndexer bulkIndexer,
+                                                         @Nullable DocumentDigestIndex documentDigestIndex) {
+    Function<String, IndexMethod> indexMethods =
+            getIndexMethodForPartition(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
+                                       indexConfiguration.getName(), partitionConfiguration, bulkIndexer, documentDigestIndex);
+    return withConcurrencyLimiters(indexMethods, triplestoreLimiter, elasticsearchLimiter);
   }
 
   @Nonnull
@@ -308,7 +416,8 @@ public class StaticIndexIndexingService implements FolderBasedIndexingService {
 
     // index uris
     indexSynchronously(spelService, paginatedQuery, rdfStore, elasticStore, modelToJsonConversion, queryTemplateParameters,
-                       partitionConfiguration, indexConfiguration.getName(), indexableUris);
+                       partitionConfiguration, indexConfiguration.getName(), indexableUris,
+                       getDocumentDigestIndex(indexConfiguration, false));
   }
 
   @Override
@@ -0,0 +1,59 @@
+package zone.cogni.asquare.cube.monitoredpool;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of task durations with a fixed number of buckets, so memory does not grow with the number of tasks.
+ * <p>
+ * Bucket boundaries grow by a factor of <code>2^(1/4)</code> (about 19%) starting at 1 microsecond,
+ * percentiles are approximate and return the upper boundary of their bucket.
+ */
+class LatencyHistogram {
+
+  private static final int bucketsPerDoubling = 4;
+  private static final int bucketCount = 42 * bucketsPerDoubling; // 2^42 microseconds is about 50 days
+
+  private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+
+  void record(long nanos) {
+    buckets.incrementAndGet(getBucket(nanos));
+  }
+
+  private static int getBucket(long nanos) {
+    long micros = Math.max(1, nanos / 1000);
+    int bucket = (int) (Math.log(micros) / Math.log(2) * bucketsPerDoubling);
+    return Math.min(bucket, bucketCount - 1);
+  }
+
+  long getCount() {
+    long result = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      result += buckets.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return approximate duration below which <code>percentile</code> of the tasks finished,
+   * zero if nothing was recorded
+   */
+  Duration getPercentile(double percentile) {
+    long count = getCount();
+    if (count == 0) return Duration.ZERO;
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long cumulative = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      cumulative += buckets.get(i);
+      if (cumulative >= rank) return getUpperBound(i);
+    }
+    return getUpperBound(bucketCount - 1);
+  }
+
+  private static Duration getUpperBound(int bucket) {
+    double micros = Math.pow(2, (bucket + 1) / (double) bucketsPerDoubling);
+    return Duration.ofNanos((long) (micros * 1000));
+  }
+}
@@ -3,22 +3,39 @@ package zone.cogni.asquare.cube.monitoredpool;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import zone.cogni.libs.core.utils.VirtualThreads;
 
 import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A thread pool which also monitors its invocations:
@@ -27,7 +44,27 @@ import java.util.stream.Collectors;
  *   <li> gives a summary of total time it took to process the invocation </li>
  *   <li> gives a summary of successes and failures </li>
  *   <li> gives a detailed list of errors </li>
+ *   <li> gives throughput and latency percentiles of tasks, and a progress snapshot while running </li>
+ *   <li> can stop tasks which take too long and invocations which take too long or are cancelled </li>
  * </ul>
+ * <p>
+ * Tasks run on a fixed pool of platform threads, or on virtual threads when created with
+ * {@link #withVirtualThreads(String, int)} on Java 21 or later.
+ * With virtual threads the number of concurrent tasks is still limited, to <code>maxConcurrency</code>,
+ * but it can be set much higher since waiting tasks do not hold a platform thread.
+ * Use a <code>ConcurrencyLimiter</code> per downstream service to protect triplestore and Elasticsearch.
+ * </p>
+ * <p>
+ * Callables can be passed as a <code>Collection</code>, in which case all of them are submitted at once and
+ * all results are returned, or lazily as an <code>Iterator</code> or <code>Stream</code>. In the latter case
+ * at most <code>maxInFlight</code> callables are submitted at any time and results are only counted,
+ * so memory does not grow with the number of callables.
+ * </p>
+ * <p>
+ * Timeouts and cancellation interrupt the threads running the tasks.
+ * Tasks blocked in non interruptible I/O only stop once the I/O returns, e.g. on a socket timeout,
+ * but their result is reported as a failure and the invocation does not wait for them.
+ * </p>
  */
 public class MonitoredPool {
 
@@ -35,16 +72,99 @@ public class MonitoredPool {
 
   private final String name;
   private final int threadPoolSize;
-  private ThreadPoolExecutor threadPool;
+  private final int maxInFlight;
+  private final boolean virtualThreads;
+  private final Semaphore virtualThreadSlots;
+  private final AtomicInteger runningCount = new AtomicInteger();
+  private ExecutorService threadPool;
+
+  private Duration taskTimeout;
+  private Duration invocationTimeout;
+  private Duration progressLogInterval = Duration.ofMinutes(1);
+  private ScheduledThreadPoolExecutor timeoutScheduler;
+
+  private volatile InvocationContext<?> currentInvocation;
 
   public MonitoredPool(String name, int threadPoolSize) {
+    this(name, threadPoolSize, threadPoolSize * 2);
+  }
+
+  /**
+   * @param maxInFlight maximum number of callables submitted to the pool at the same time
+   *                    when callables are passed lazily, should be at least <code>threadPoolSize</code>
+   */
+  public MonitoredPool(String name, int threadPoolSize, int maxInFlight) {
+    this(name, threadPoolSize, maxInFlight, false);
+  }
+
+  /**
+   * Creates a pool which runs each task on a new virtual thread, for pools doing mostly blocking I/O.
+   * Falls back to a pool of <code>maxConcurrency</code> platform threads if the JVM has no virtual threads.
+   *
+   * @param maxConcurrency maximum number of tasks running at the same time
+   */
+  public static MonitoredPool withVirtualThreads(String name, int maxConcurrency) {
+    boolean available = VirtualThreads.checkAvailable("pool '" + name + "'");
+    return new MonitoredPool(name, maxConcurrency, maxConcurrency * 2, available);
+  }
+
+  private MonitoredPool(String name, int threadPoolSize, int maxInFlight, boolean virtualThreads) {
+    if (maxInFlight < threadPoolSize)
+      throw new RuntimeException("maxInFlight " + maxInFlight + " must be at least threadPoolSize " + threadPoolSize);
+
     this.name = name;
     this.threadPoolSize = threadPoolSize;
-    this.threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(threadPoolSize);
+    this.maxInFlight = maxInFlight;
+    this.virtualThreads = virtualThreads;
+    this.virtualThreadSlots = virtualThreads ? new Semaphore(threadPoolSize) : null;
+    this.threadPool = createThreadPool();
 
     startMonitoring();
   }
 
+  private ExecutorService createThreadPool() {
+    return virtualThreads ? VirtualThreads.newThreadPerTaskExecutor(name + "-")
+                          : Executors.newFixedThreadPool(threadPoolSize);
+  }
+
+  /**
+   * @return <code>true</code> if tasks run on virtual threads
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * @param taskTimeout maximum duration of a single callable, thread running it is interrupted afterwards
+   *                    and callable is counted as failed; <code>null</code> for no timeout (default)
+   */
+  public synchronized void setTaskTimeout(Duration taskTimeout) {
+    this.taskTimeout = taskTimeout;
+    if (taskTimeout != null && timeoutScheduler == null) {
+      timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, name + "-Timeout");
+        thread.setDaemon(true);
+        return thread;
+      });
+      timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+  }
+
+  /**
+   * @param invocationTimeout maximum duration of an invocation, remaining callables are cancelled afterwards;
+   *                          <code>null</code> for no timeout (default)
+   */
+  public void setInvocationTimeout(Duration invocationTimeout) {
+    this.invocationTimeout = invocationTimeout;
+  }
+
+  /**
+   * @param progressLogInterval how often progress is logged while the pool is active
+   */
+  public void setProgressLogInterval(Duration progressLogInterval) {
+    this.progressLogInterval = progressLogInterval;
+  }
+
   private void startMonitoring() {
     Thread monitor = new Thread(this::getMonitoringRunnable, name + "-Monitor");
     monitor.setDaemon(true);
@@ -52,43 +172,119 @@ public class MonitoredPool {
   }
 
   private void getMonitoringRunnable() {
-    boolean previousStateActive = threadPool.getActiveCount() != 0;
+    boolean previousStateActive = runningCount.get() != 0;
+    boolean previousStateSaturated = false;
+    long lastProgressLog = System.nanoTime();
     log.info("[pool '{}' activity] {}active", name, (previousStateActive ? "" : "NOT "));
     while (true) {
       try {
         Thread.sleep(1000);
-        boolean currentStateActive = threadPool.getActiveCount() != 0;
+        boolean currentStateActive = runningCount.get() != 0;
         if (previousStateActive != currentStateActive) {
           log.info("[pool '{}' activity] {}active", name, (currentStateActive ? "" : "NOT "));
           previousStateActive = currentStateActive;
         }
+
+        boolean currentStateSaturated = isSaturated();
+        if (previousStateSaturated != currentStateSaturated) {
+          log.info("[pool '{}' activity] {}saturated, {} of {} threads busy, {} tasks queued",
+                   name, (currentStateSaturated ? "" : "NOT "),
+                   runningCount.get(), threadPoolSize, getQueuedCount());
+          previousStateSaturated = currentStateSaturated;
+        }
+
+        if (currentStateActive && System.nanoTime() - lastProgressLog >= progressLogInterval.toNanos()) {
+          Progress progress = getProgress();
+          if (progress != null) log.info("[pool '{}' progress] {}", name, progress);
+          lastProgressLog = System.nanoTime();
+        }
       }
       catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
+      catch (RuntimeException e) {
+        log.warn("[pool '{}' activity] monitoring failed", name, e);
+      }
     }
   }
 
   @PreDestroy
   public void destroy() {
     threadPool.shutdown();
+    synchronized (this) {
+      if (timeoutScheduler != null) timeoutScheduler.shutdownNow();
+    }
   }
 
+  /**
+   * @return <code>true</code> if threads of the pool are running tasks,
+   * on virtual threads also if tasks are waiting for a slot
+   */
   public boolean isActive() {
-    return threadPool.getActiveCount() > 0;
+    return virtualThreads ? runningCount.get() > 0 || virtualThreadSlots.hasQueuedThreads()
+                          : ((ThreadPoolExecutor) threadPool).getActiveCount() > 0;
+  }
+
+  /**
+   * Unlike {@link #isActive()} this does not depend on threads which are still finishing
+   * a task of an invocation that already returned, so invocations can follow each other immediately.
+   *
+   * @return <code>true</code> if an invocation started and did not end yet
+   */
+  public boolean isInvoking() {
+    InvocationContext<?> invocation = currentInvocation;
+    return invocation != null && invocation.getEnd() == null;
+  }
+
+  /**
+   * @return <code>true</code> if all threads are busy and tasks are waiting for a thread
+   */
+  public boolean isSaturated() {
+    return runningCount.get() >= threadPoolSize && getQueuedCount() > 0;
+  }
+
+  /**
+   * @return number of tasks waiting for a thread, or for a slot when running on virtual threads
+   */
+  private int getQueuedCount() {
+    return virtualThreads ? virtualThreadSlots.getQueueLength()
+                          : ((ThreadPoolExecutor) threadPool).getQueue().size();
+  }
+
+  /**
+   * @return snapshot of the progress of the current or last invocation, <code>null</code> if pool was never invoked
+   */
+  public Progress getProgress() {
+    InvocationContext<?> invocation = currentInvocation;
+    if (invocation == null) return null;
+
+    return new Progress(invocation, runningCount.get(), getQueuedCount(), isSaturated());
+  }
+
+  /**
+   * Cancels current invocation: no new callables are started and running ones are interrupted.
+   */
+  public void cancel() {
+    InvocationContext<?> invocation = currentInvocation;
+    if (invocation == null || invocation.getEnd() != null) return;
+
+    log.warn("[pool '{}' activity] cancelling invocation", name);
+    invocation.cancelled = true;
   }
 
   public <V> Collection<V> invoke(Collection<Callable<V>> callables, List<Consumer<InvocationContext<V>>> afterCodeBlocks) {
     log.info("Invoking {} callables", callables.size());
-    if (isActive()) throw new RuntimeException("cannot be invoked, another process is running");
+    if (isInvoking()) throw new RuntimeException("cannot be invoked, another process is running");
 
 
-    InvocationContext<V> context = new InvocationContext(name);
+    InvocationContext<V> context = startInvocation(callables.size());
 
-    List<Future<CallableResult<V>>> futures = submit(callables);
-    List<CallableResult<V>> results = getCallableResults(futures);
+    List<Callable<V>> callableList = new ArrayList<>(callables);
+    List<Future<CallableResult<V>>> futures = submit(callableList, context);
+    List<CallableResult<V>> results = getCallableResults(callableList, futures, context);
 
-    context.setResults(results);
+    context.results = results;
+    context.setEnd();
 
     if (results == null) {
       log.info("Failures happened. Cannot log a report.");
@@ -101,11 +297,31 @@ public class MonitoredPool {
   }
 
   public static class InvocationContext<V> {
+
+    /**
+     * Maximum number of distinct error messages which are counted separately,
+     * to keep memory bounded when messages contain e.g. a uri.
+     */
+    private static final int maxErrorMessages = 1000;
+    private static final String otherErrors = "other errors (too many distinct messages)";
+
     String poolName;
     LocalDateTime start;
-    LocalDateTime end;
+    volatile LocalDateTime end;
     List<CallableResult<V>> results;
 
+    private final long startNanos = System.nanoTime();
+    private long deadlineNanos = Long.MAX_VALUE;
+    private long expectedCount = -1;
+    private volatile boolean cancelled;
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder successCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder timedOutCount = new LongAdder();
+    private final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
     public InvocationContext(String poolName) {
       this.poolName = poolName;
       this.start = LocalDateTime.now();
@@ -113,9 +329,40 @@ public class MonitoredPool {
 
     public void setResults(List<CallableResult<V>> results) {
       this.results = results;
+      if (results != null) results.forEach(this::addResult);
       this.end = LocalDateTime.now();
     }
 
+    /**
+     * Counts result without keeping it.
+     */
+    void addResult(CallableResult<V> result) {
+      if (result.isSuccess()) {
+        successCount.increment();
+        return;
+      }
+
+      failedCount.increment();
+      String message = StringUtils.defaultIfBlank(result.getExceptionMessage(), "exception with no message");
+      String key = errorCounts.size() < maxErrorMessages || errorCounts.containsKey(message) ? message : otherErrors;
+      errorCounts.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    void setEnd() {
+      this.end = LocalDateTime.now();
+    }
+
+    /**
+     * @return <code>true</code> if invocation was cancelled or its deadline has passed
+     */
+    boolean isStopped() {
+      return cancelled || System.nanoTime() - deadlineNanos > 0;
+    }
+
+    long getNanosToDeadline() {
+      return deadlineNanos - System.nanoTime();
+    }
+
     public String getPoolName() {
       return poolName;
     }
@@ -128,10 +375,65 @@ public class MonitoredPool {
       return end;
     }
 
+    /**
+     * @return results of all callables, <code>null</code> if callables were passed lazily
+     */
     public List<CallableResult<V>> getResults() {
       return results;
     }
 
+    public long getTotalCount() {
+      return getSuccessCount() + getFailedCount();
+    }
+
+    public long getSuccessCount() {
+      return successCount.sum();
+    }
+
+    public long getFailedCount() {
+      return failedCount.sum();
+    }
+
+    /**
+     * @return number of callables which were stopped because they took longer than the task timeout,
+     * they are also counted as failed
+     */
+    public long getTimedOutCount() {
+      return timedOutCount.sum();
+    }
+
+    /**
+     * @return <code>true</code> if invocation was cancelled or took longer than the invocation timeout
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * @return number of failures per exception message
+     */
+    public Map<String, Long> getErrorCounts() {
+      return errorCounts.entrySet()
+                        .stream()
+                        .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 95
+     * @return approximate duration of tasks at <code>percentile</code>
+     */
+    public Duration getLatency(double percentile) {
+      return latencies.getPercentile(percentile);
+    }
+
+    /**
+     * @return finished tasks per second, over the whole invocation
+     */
+    public double getThroughput() {
+      long nanos = System.nanoTime() - startNanos;
+      return nanos <= 0 ? 0 : getTotalCount() * 1_000_000_000d / nanos;
+    }
+
     public String getTotalTime() {
       long hours = start.until(end, ChronoUnit.HOURS);
       long minutes = start.until(end, ChronoUnit.MINUTES);
@@ -144,42 +446,408 @@ public class MonitoredPool {
     }
   }
 
+  /**
+   * Snapshot of the progress of an invocation.
+   */
+  public static class Progress {
+
+    private final String poolName;
+    private final LocalDateTime start;
+    private final Duration elapsed;
+    private final long expectedCount;
+    private final long submittedCount;
+    private final long successCount;
+    private final long failedCount;
+    private final long timedOutCount;
+    private final int activeThreads;
+    private final int queuedTasks;
+    private final boolean saturated;
+    private final boolean cancelled;
+    private final boolean finished;
+    private final double throughput;
+    private final Duration p50;
+    private final Duration p95;
+    private final Duration p99;
+
+    private Progress(InvocationContext<?> invocation, int activeThreads, int queuedTasks, boolean saturated) {
+      this.poolName = invocation.getPoolName();
+      this.start = invocation.getStart();
+      this.elapsed = Duration.ofNanos(System.nanoTime() - invocation.startNanos);
+      this.expectedCount = invocation.expectedCount;
+      this.submittedCount = invocation.submittedCount.sum();
+      this.successCount = invocation.getSuccessCount();
+      this.failedCount = invocation.getFailedCount();
+      this.timedOutCount = invocation.getTimedOutCount();
+      this.activeThreads = activeThreads;
+      this.queuedTasks = queuedTasks;
+      this.saturated = saturated;
+      this.cancelled = invocation.isCancelled();
+      this.finished = invocation.getEnd() != null;
+      this.throughput = invocation.getThroughput();
+      this.p50 = invocation.getLatency(50);
+      this.p95 = invocation.getLatency(95);
+      this.p99 = invocation.getLatency(99);
+    }
+
+    public String getPoolName() {
+      return poolName;
+    }
+
+    public LocalDateTime getStart() {
+      return start;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    /**
+     * @return number of callables of the invocation, <code>-1</code> if not known up front
+     */
+    public long getExpectedCount() {
+      return expectedCount;
+    }
+
+    public long getSubmittedCount() {
+      return submittedCount;
+    }
+
+    public long getCompletedCount() {
+      return successCount + failedCount;
+    }
+
+    public long getSuccessCount() {
+      return successCount;
+    }
+
+    public long getFailedCount() {
+      return failedCount;
+    }
+
+    public long getTimedOutCount() {
+      return timedOutCount;
+    }
+
+    public int getActiveThreads() {
+      return activeThreads;
+    }
+
+    public int getQueuedTasks() {
+      return queuedTasks;
+    }
+
+    public boolean isSaturated() {
+      return saturated;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    public boolean isFinished() {
+      return finished;
+    }
+
+    /**
+     * @return finished tasks per second
+     */
+    public double getThroughput() {
+      return throughput;
+    }
+
+    public Duration getLatencyP50() {
+      return p50;
+    }
+
+    public Duration getLatencyP95() {
+      return p95;
+    }
+
+    public Duration getLatencyP99() {
+      return p99;
+    }
+
+    /**
+     * @return estimated remaining time based on current throughput,
+     * <code>null</code> if number of callables is not known or nothing finished yet
+     */
+    public Duration getEstimatedTimeRemaining() {
+      if (finished) return Duration.ZERO;
+      if (expectedCount < 0 || throughput <= 0) return null;
+
+      long remaining = Math.max(0, expectedCount - getCompletedCount());
+      return Duration.ofMillis((long) (remaining / throughput * 1000));
+    }
+
+    @Override
+    public String toString() {
+      Duration eta = getEstimatedTimeRemaining();
+      return getCompletedCount() + (expectedCount < 0 ? "" : " of " + expectedCount) + " done"
+             + " (" + failedCount + " failed, " + timedOutCount + " timed out)"
+             + ", " + String.format("%.1f", throughput) + " tasks/s"
+             + ", latency p50 " + p50.toMillis() + " ms, p95 " + p95.toMillis() + " ms, p99 " + p99.toMillis() + " ms"
+             + ", " + activeThreads + " threads busy, " + queuedTasks + " queued" + (saturated ? " (saturated)" : "")
+             + ", elapsed " + elapsed.getSeconds() + " s"
+             + (eta == null ? "" : ", remaining " + eta.getSeconds() + " s")
+             + (cancelled ? ", cancelled" : "");
+    }
+  }
+
   public <V> Collection<V> invoke(Collection<Callable<V>> callables) {
-    return invoke(callables, Arrays.asList(logTiming(),
-                                           logSummary(),
-                                           logDetailedErrors()));
+    return invoke(callables, getDefaultAfterCodeBlocks());
+  }
+
+  /**
+   * Invokes callables as they are taken from the stream, see {@link #invoke(Iterator, List)}.
+   * Progress gives an estimated remaining time if the size of the stream is known.
+   */
+  public <V> InvocationContext<V> invoke(Stream<? extends Callable<V>> callables) {
+    Spliterator<? extends Callable<V>> spliterator = callables.spliterator();
+    return invoke(Spliterators.iterator(spliterator), spliterator.getExactSizeIfKnown(), getDefaultAfterCodeBlocks());
+  }
+
+  /**
+   * Invokes callables as they are taken from the stream, see {@link #invoke(Iterator, List)}.
+   *
+   * @param expectedCount number of callables in the stream, used to estimate remaining time
+   */
+  public <V> InvocationContext<V> invoke(Stream<? extends Callable<V>> callables, long expectedCount) {
+    return invoke(callables.iterator(), expectedCount, getDefaultAfterCodeBlocks());
+  }
+
+  /**
+   * Invokes callables while keeping at most <code>maxInFlight</code> of them submitted to the pool.
+   * Next callable is only taken from the iterator once there is room,
+   * so callables can be created lazily and the pool never runs dry between batches.
+   * <p>
+   * Results are counted in the returned context, they are not kept.
+   *
+   * @return context with counts of successes and failures per error message
+   */
+  public <V> InvocationContext<V> invoke(Iterator<? extends Callable<V>> callables,
+                                         List<Consumer<InvocationContext<V>>> afterCodeBlocks) {
+    return invoke(callables, -1, afterCodeBlocks);
+  }
+
+  private <V> InvocationContext<V> invoke(Iterator<? extends Callable<V>> callables,
+                                          long expectedCount,
+                                          List<Consumer<InvocationContext<V>>> afterCodeBlocks) {
+    log.info("Invoking callables, at most {} in flight", maxInFlight);
+    if (isInvoking()) throw new RuntimeException("cannot be invoked, another process is running");
+
+    InvocationContext<V> context = startInvocation(expectedCount);
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    try {
+      while (true) {
+        // take a permit first, so next callable is only created when it can be submitted
+        if (!acquire(inFlight, 1, context)) break;
+        if (!callables.hasNext()) {
+          inFlight.release();
+          break;
+        }
+
+        submit(callables.next(), context, inFlight);
+      }
+
+      // wait for last callables
+      if (acquire(inFlight, maxInFlight, context)) inFlight.release(maxInFlight);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Pool '{}' was interrupted, results are incomplete.", name);
+      context.cancelled = true;
+    }
+
+    if (context.isStopped()) stopInvocation(context, maxInFlight - inFlight.availablePermits());
+
+    context.setEnd();
+    afterCodeBlocks.forEach(block -> block.accept(context));
+    return context;
+  }
+
+  private <V> InvocationContext<V> startInvocation(long expectedCount) {
+    InvocationContext<V> context = new InvocationContext<>(name);
+    context.expectedCount = expectedCount;
+    if (invocationTimeout != null) context.deadlineNanos = context.startNanos + invocationTimeout.toNanos();
+
+    currentInvocation = context;
+    return context;
+  }
+
+  /**
+   * Waits for <code>permits</code>, checking regularly whether invocation was cancelled or its deadline passed.
+   *
+   * @return <code>true</code> if permits were acquired, <code>false</code> if invocation is stopped
+   */
+  private boolean acquire(Semaphore semaphore, int permits, InvocationContext<?> context) throws InterruptedException {
+    while (!context.isStopped()) {
+      long waitNanos = Math.min(TimeUnit.SECONDS.toNanos(1), context.getNanosToDeadline());
+      if (semaphore.tryAcquire(permits, Math.max(0, waitNanos), TimeUnit.NANOSECONDS)) return true;
+    }
+    return false;
   }
 
-  private <V> List<Future<CallableResult<V>>> submit(Collection<Callable<V>> callables) {
-    return callables.stream()
-                    .map(this::wrapIntoCallableResult)
-                    .map(threadPool::submit)
-                    .collect(Collectors.toList());
+  /**
+   * Interrupts running callables by replacing the thread pool.
+   */
+  private void stopInvocation(InvocationContext<?> context, int runningCount) {
+    context.cancelled = true;
+    log.warn("[pool '{}' activity] invocation stopped {}, interrupting {} running callables",
+             name, System.nanoTime() - context.deadlineNanos > 0 ? "after timeout of " + invocationTimeout : "on request",
+             runningCount);
+    resetThreadPool();
   }
 
-  private <V> Callable<CallableResult<V>> wrapIntoCallableResult(Callable<V> callable) {
-    return () -> {
+  private <V> void submit(Callable<V> callable, InvocationContext<V> context, Semaphore inFlight) {
+    try {
+      threadPool.execute(() -> {
+        try {
+          context.addResult(call(callable, context));
+        }
+        finally {
+          inFlight.release();
+        }
+      });
+      context.submittedCount.increment();
+    }
+    catch (RejectedExecutionException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Calls <code>callable</code> on the current thread and keeps track of running tasks.
+   * On virtual threads, waits first until less than <code>threadPoolSize</code> tasks are running.
+   */
+  private <V> CallableResult<V> call(Callable<V> callable, InvocationContext<V> context) {
+    if (virtualThreads) {
       try {
-        V result = callable.call(); // <- what if call is hanging ???
-        return new CallableResult<>(callable, result);
+        virtualThreadSlots.acquire();
       }
-      catch (RuntimeException e) {
-        return new CallableResult<>(callable, e);
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new CallableResult<>(callable, new RuntimeException("cancelled, invocation was stopped"));
       }
-    };
+    }
+
+    runningCount.incrementAndGet();
+    try {
+      return callWithTimeout(callable, context);
+    }
+    finally {
+      runningCount.decrementAndGet();
+      if (virtualThreads) virtualThreadSlots.release();
+    }
+  }
+
+  /**
+   * Calls <code>callable</code> on the current thread, within the task timeout if there is one.
+   */
+  private <V> CallableResult<V> callWithTimeout(Callable<V> callable, InvocationContext<V> context) {
+    long start = System.nanoTime();
+    TaskTimeout timeout = startTaskTimeout();
+
+    CallableResult<V> result;
+    try {
+      result = new CallableResult<>(callable, callable.call());
+    }
+    catch (RuntimeException e) {
+      result = new CallableResult<>(callable, e);
+    }
+    catch (Exception e) {
+      result = new CallableResult<>(callable, new RuntimeException(e.getMessage(), e));
+    }
+
+    if (timeout != null && timeout.stop()) {
+      context.timedOutCount.increment();
+      result = new CallableResult<>(callable, new RuntimeException("task timed out after " + taskTimeout));
+    }
+
+    context.latencies.record(System.nanoTime() - start);
+    return result;
+  }
+
+  private synchronized TaskTimeout startTaskTimeout() {
+    if (taskTimeout == null) return null;
+
+    TaskTimeout result = new TaskTimeout(Thread.currentThread());
+    result.scheduledFuture = timeoutScheduler.schedule(result, taskTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  /**
+   * Interrupts a thread if its task does not finish in time.
+   */
+  private static class TaskTimeout implements Runnable {
+
+    private final Thread thread;
+    private ScheduledFuture<?> scheduledFuture;
+    private boolean done;
+    private boolean timedOut;
+
+    private TaskTimeout(Thread thread) {
+      this.thread = thread;
+    }
+
+    @Override
+    public synchronized void run() {
+      if (done) return;
+
+      timedOut = true;
+      thread.interrupt();
+    }
+
+    /**
+     * To be called by the thread running the task when it is done.
+     *
+     * @return <code>true</code> if task timed out, interrupted flag of the thread is cleared in that case
+     */
+    private synchronized boolean stop() {
+      done = true;
+      scheduledFuture.cancel(false);
+
+      //noinspection ResultOfMethodCallIgnored
+      if (timedOut) Thread.interrupted();
+      return timedOut;
+    }
+  }
+
+  private void resetThreadPool() {
+    threadPool.shutdownNow();
+    threadPool = createThreadPool();
   }
 
-  private <V> List<CallableResult<V>> getCallableResults(List<Future<CallableResult<V>>> futures) {
+  private <V> List<Future<CallableResult<V>>> submit(List<Callable<V>> callables, InvocationContext<V> context) {
+    List<Future<CallableResult<V>>> result = callables.stream()
+                                                      .map(callable -> wrapIntoCallableResult(callable, context))
+                                                      .map(threadPool::submit)
+                                                      .collect(Collectors.toList());
+    context.submittedCount.add(result.size());
+    return result;
+  }
+
+  private <V> Callable<CallableResult<V>> wrapIntoCallableResult(Callable<V> callable, InvocationContext<V> context) {
+    return () -> call(callable, context);
+  }
+
+  private <V> List<CallableResult<V>> getCallableResults(List<Callable<V>> callables,
+                                                         List<Future<CallableResult<V>>> futures,
+                                                         InvocationContext<V> context) {
     try {
+      // results are counted while collecting them, in order, so progress is available during the invocation
       List<CallableResult<V>> results = new ArrayList<>();
-      for (Future<CallableResult<V>> future : futures) {
-        results.add(future.get());
+      for (int i = 0; i < futures.size(); i++) {
+        CallableResult<V> result = getCallableResult(callables.get(i), futures.get(i), context);
+        context.addResult(result);
+        results.add(result);
       }
+      if (context.isCancelled()) resetThreadPool();
       return results;
     }
     catch (InterruptedException e) {
       threadPool.shutdown();
-      threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(threadPoolSize);
+      threadPool = createThreadPool();
     }
     catch (ExecutionException e) {
       log.error("Thread pool processing failed.", e);
@@ -187,6 +855,44 @@ public class MonitoredPool {
     return null;
   }
 
+  /**
+   * Waits for result of one callable, once invocation is stopped remaining callables are cancelled.
+   */
+  private <V> CallableResult<V> getCallableResult(Callable<V> callable,
+                                                  Future<CallableResult<V>> future,
+                                                  InvocationContext<V> context)
+          throws InterruptedException, ExecutionException {
+    while (!context.isStopped()) {
+      try {
+        long waitNanos = Math.min(TimeUnit.SECONDS.toNanos(1), context.getNanosToDeadline());
+        return future.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+      }
+      catch (TimeoutException ignore) {
+        // check for cancel or deadline and wait again
+      }
+    }
+
+    if (!context.isCancelled()) {
+      context.cancelled = true;
+      log.warn("[pool '{}' activity] invocation stopped, cancelling remaining callables", name);
+    }
+
+    future.cancel(true);
+    try {
+      return future.get(0, TimeUnit.NANOSECONDS);
+    }
+    catch (CancellationException | TimeoutException e) {
+      return new CallableResult<>(callable, new RuntimeException("cancelled, invocation was stopped"));
+    }
+  }
+
+  private <V> List<Consumer<InvocationContext<V>>> getDefaultAfterCodeBlocks() {
+    return Arrays.asList(logTiming(),
+                         logSummary(),
+                         logDetailedErrors(),
+                         logThroughput());
+  }
+
   public static <V> Consumer<InvocationContext<V>> logTiming() {
     return context -> {
       log.info("[pool '{}' activity] started at {}", context.getPoolName(), context.getStart());
@@ -195,17 +901,17 @@ public class MonitoredPool {
     };
   }
 
-  @SuppressWarnings("Convert2MethodRef")
   public static <V> Consumer<InvocationContext<V>> logSummary() {
     return context -> {
-      List<CallableResult<V>> results = context.getResults();
       log.info("================================");
       log.info(StringUtils.center("pool '" + context.getPoolName() + "' summary", 32));
       log.info("================================");
       log.info("");
-      log.info("          total: " + results.size());
-      log.info("        success: " + results.stream().filter(r -> r.isSuccess()).count());
-      log.info("         failed: " + results.stream().filter(r -> !r.isSuccess()).count());
+      log.info("          total: " + context.getTotalCount());
+      log.info("        success: " + context.getSuccessCount());
+      log.info("         failed: " + context.getFailedCount());
+      log.info("      timed out: " + context.getTimedOutCount());
+      if (context.isCancelled()) log.info("      cancelled: true");
       log.info("");
       log.info("");
     };
@@ -213,12 +919,8 @@ public class MonitoredPool {
 
   public static <V> Consumer<InvocationContext<V>> logDetailedErrors() {
     return context -> {
-      List<CallableResult<V>> results = context.getResults();
-      // group per message and count
-      Map<String, Long> problems = results.stream()
-                                          .filter(r -> !r.isSuccess())
-                                          .collect(Collectors.groupingBy(cr -> StringUtils.defaultIfBlank(cr.getExceptionMessage(), "exception with no message"),
-                                                                         Collectors.counting()));
+      // count per message
+      Map<String, Long> problems = context.getErrorCounts();
 
       // group by count, to be able to sort by count
       Map<Long, List<String>> swappedAndGrouped
@@ -236,6 +938,14 @@ public class MonitoredPool {
     };
   }
 
+  public static <V> Consumer<InvocationContext<V>> logThroughput() {
+    return context -> {
+      log.info("[pool '{}' activity] {} tasks/s, latency p50 {} ms, p95 {} ms, p99 {} ms",
+               context.getPoolName(), String.format("%.1f", context.getThroughput()),
+               context.getLatency(50).toMillis(), context.getLatency(95).toMillis(), context.getLatency(99).toMillis());
+    };
+  }
+
   private <V> List<V> getActualResults(List<CallableResult<V>> results) {
     return results.stream()
                   .map(CallableResult::getResult)
@@ -0,0 +1,250 @@
+package zone.cogni.asquare.cube.pagination;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.expr.E_GreaterThan;
+import org.apache.jena.sparql.expr.E_Str;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Pages by ordering on a key variable and filtering on <code>?key &gt; lastSeen</code>,
+ * also known as keyset or seek pagination.
+ * Unlike <code>offset</code> a store does not need to return and skip the solutions of previous pages.
+ * </p>
+ * <p>
+ * Limitation: the filter is on <code>str(?key)</code> and combined with an <code>order by</code>,
+ * most stores (in memory, TDB2, Virtuoso) cannot answer that from an index.
+ * Each page then still evaluates and sorts all solutions after the last key,
+ * so the cost per page is not constant, it only goes down where offset pages go up.
+ * This strategy is opt-in, {@link OffsetPaginationStrategy} stays the default of {@link PaginatedQuery};
+ * only use it where it was measured to help, see <code>PaginationStrategyBenchmark</code>.
+ * </p>
+ * <p>
+ * Restrictions
+ * <ul>
+ *   <li>key must be bound in every solution and must be unique per row of a select query</li>
+ *   <li>keys must either be all IRIs or all literals of one type, blank nodes are not supported</li>
+ *   <li>query cannot have an <code>order by</code>, since solutions are ordered by key</li>
+ *   <li>query must be parsable by Jena</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Construct queries are paged by selecting a page of distinct keys first,
+ * the construct query is then run for those keys only using a <code>values</code> block.
+ * </p>
+ */
+public class KeysetPaginationStrategy implements PaginationStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(KeysetPaginationStrategy.class);
+
+  private final String keyVariable;
+
+  public KeysetPaginationStrategy(@Nonnull String keyVariable) {
+    this.keyVariable = keyVariable.startsWith("?") ? keyVariable.substring(1) : keyVariable;
+  }
+
+  public String getKeyVariable() {
+    return keyVariable;
+  }
+
+  @Override
+  public PaginationStrategy forKey(@Nonnull String keyVariable) {
+    return new KeysetPaginationStrategy(keyVariable);
+  }
+
+  @Override
+  public void select(@Nonnull RdfStoreService rdfStore,
+                     @Nonnull String selectQuery,
+                     long pageSize,
+                     @Nonnull Consumer<QuerySolution> rowConsumer) {
+    Query query = parse(selectQuery);
+    if (!query.isSelectType()) throw new RuntimeException("expected a select query, got: " + selectQuery);
+    if (!query.isQueryResultStar() && !query.getResultVars().contains(keyVariable))
+      throw new RuntimeException("key variable '" + keyVariable + "' must be part of select query result: " + selectQuery);
+
+    selectPages(rdfStore, query, pageSize, rowConsumer);
+  }
+
+  @Override
+  public Iterator<Model> constructPages(@Nonnull RdfStoreService rdfStore,
+                                        @Nonnull String constructQuery,
+                                        long pageSize) {
+    Query query = parse(constructQuery);
+    if (!query.isConstructType()) throw new RuntimeException("expected a construct query, got: " + constructQuery);
+
+    checkNoOrderBy(query);
+    Query keyQuery = getKeyQuery(query);
+
+    return new AbstractIterator<Model>() {
+      private RDFNode lastKey;
+      private boolean done;
+
+      @Override
+      protected Model computeNext() {
+        if (done) return endOfData();
+
+        List<RDFNode> keys = new ArrayList<>();
+        Page page = selectPage(rdfStore, keyQuery, pageSize, lastKey, row -> keys.add(row.get(keyVariable)));
+        done = page.size < pageSize;
+        lastKey = page.lastKey;
+
+        // construct runs after key page is fully read
+        return keys.isEmpty() ? endOfData() : constructPage(rdfStore, query, keys);
+      }
+    };
+  }
+
+  private void selectPages(@Nonnull RdfStoreService rdfStore,
+                           @Nonnull Query query,
+                           long pageSize,
+                           @Nonnull Consumer<QuerySolution> rowConsumer) {
+    checkNoOrderBy(query);
+
+    RDFNode lastKey = null;
+    while (true) {
+      Page page = selectPage(rdfStore, query, pageSize, lastKey, rowConsumer);
+
+      if (page.size < pageSize) return;
+      lastKey = page.lastKey;
+    }
+  }
+
+  private void checkNoOrderBy(@Nonnull Query query) {
+    if (query.hasOrderBy()) throw new RuntimeException("keyset pagination cannot be combined with an order by: " + query);
+  }
+
+  @Nonnull
+  private Page selectPage(@Nonnull RdfStoreService rdfStore,
+                          @Nonnull Query query,
+                          long pageSize,
+                          @Nullable RDFNode lastKey,
+                          @Nonnull Consumer<QuerySolution> rowConsumer) {
+    Query pageQuery = getPageQuery(query, pageSize, lastKey);
+
+    long start = System.nanoTime();
+    Page page = new Page();
+    rdfStore.streamSelectQuery(pageQuery, new QuerySolutionMap(), row -> {
+      page.add(getKey(row));
+      rowConsumer.accept(row);
+    });
+
+    if (log.isDebugEnabled())
+      log.debug("(keyset) page after '{}' returned {} rows in {} ms", lastKey, page.size, (System.nanoTime() - start) / 1_000_000);
+    return page;
+  }
+
+  @Nonnull
+  private RDFNode getKey(@Nonnull QuerySolution row) {
+    RDFNode key = row.get(keyVariable);
+    if (key == null) throw new RuntimeException("key variable '" + keyVariable + "' is not bound in row " + row);
+    if (key.isAnon()) throw new RuntimeException("key variable '" + keyVariable + "' cannot be a blank node");
+    return key;
+  }
+
+  /**
+   * @return copy of query ordered on key, with filter on keys after <code>lastKey</code> and a limit
+   */
+  @Nonnull
+  private Query getPageQuery(@Nonnull Query query, long pageSize, @Nullable RDFNode lastKey) {
+    Query result = query.cloneQuery();
+
+    if (lastKey != null) {
+      ElementGroup pattern = new ElementGroup();
+      pattern.addElement(result.getQueryPattern());
+      pattern.addElementFilter(new ElementFilter(getAfterKeyExpression(lastKey)));
+      result.setQueryPattern(pattern);
+    }
+
+    result.addOrderBy(new ExprVar(keyVariable), Query.ORDER_ASCENDING);
+    result.setLimit(pageSize);
+    return result;
+  }
+
+  /**
+   * IRIs are ordered on their string value, <code>&gt;</code> is not defined on IRIs so we compare <code>str(?key)</code>.
+   */
+  @Nonnull
+  private Expr getAfterKeyExpression(@Nonnull RDFNode lastKey) {
+    ExprVar key = new ExprVar(keyVariable);
+    if (lastKey.isURIResource()) {
+      return new E_GreaterThan(new E_Str(key), NodeValue.makeString(lastKey.asResource().getURI()));
+    }
+    return new E_GreaterThan(key, NodeValue.makeNode(lastKey.asNode()));
+  }
+
+  /**
+   * @return <code>select distinct ?key</code> query with the same pattern and dataset as <code>query</code>
+   */
+  @Nonnull
+  private Query getKeyQuery(@Nonnull Query query) {
+    Query result = new Query();
+    result.setQuerySelectType();
+    result.setPrefixMapping(query.getPrefixMapping());
+    if (query.getBaseURI() != null) result.setBaseURI(query.getBaseURI());
+    query.getGraphURIs().forEach(result::addGraphURI);
+    query.getNamedGraphURIs().forEach(result::addNamedGraphURI);
+
+    result.setDistinct(true);
+    result.addResultVar(keyVariable);
+    result.setQueryPattern(query.getQueryPattern());
+    return result;
+  }
+
+  @Nonnull
+  private Model constructPage(@Nonnull RdfStoreService rdfStore,
+                              @Nonnull Query query,
+                              @Nonnull List<RDFNode> keys) {
+    Query pageQuery = query.cloneQuery();
+
+    Var var = Var.alloc(keyVariable);
+    ElementData values = new ElementData();
+    values.add(var);
+    keys.forEach(key -> values.add(BindingFactory.binding(var, key.asNode())));
+
+    ElementGroup pattern = new ElementGroup();
+    pattern.addElement(values);
+    pattern.addElement(pageQuery.getQueryPattern());
+    pageQuery.setQueryPattern(pattern);
+
+    return rdfStore.executeConstructQuery(pageQuery, new QuerySolutionMap());
+  }
+
+  @Nonnull
+  private static Query parse(@Nonnull String query) {
+    return QueryFactory.create(query, Syntax.syntaxARQ);
+  }
+
+  private static class Page {
+    private long size;
+    private RDFNode lastKey;
+
+    private void add(RDFNode key) {
+      size += 1;
+      lastKey = key;
+    }
+  }
+}
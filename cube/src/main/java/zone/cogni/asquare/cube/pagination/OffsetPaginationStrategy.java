@@ -0,0 +1,120 @@
+package zone.cogni.asquare.cube.pagination;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.sem.jena.template.JenaQueryUtils;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Pages by appending <code>limit</code> and <code>offset</code> to the query.
+ * <p>
+ * Works for any query but each page is more expensive than the previous one,
+ * since stores need to skip <code>offset</code> solutions before returning the page.
+ */
+public class OffsetPaginationStrategy implements PaginationStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(OffsetPaginationStrategy.class);
+
+  @Override
+  public void select(@Nonnull RdfStoreService rdfStore,
+                     @Nonnull String selectQuery,
+                     long pageSize,
+                     @Nonnull Consumer<QuerySolution> rowConsumer) {
+    long offset = 0;
+    while (true) {
+      log.info("Running query offset {} and limit {}", offset, pageSize);
+      int queryReturnedSize = selectPage(rdfStore, selectQuery + getLimitOffset(pageSize, offset), rowConsumer);
+      log.info("Query offset {} and limit {} returned {} rows", offset, pageSize, queryReturnedSize);
+
+      if (queryReturnedSize < pageSize) return;
+      offset += pageSize;
+    }
+  }
+
+  /**
+   * Query is sent as is, with <code>limit</code> and <code>offset</code> appended, it is not parsed by Jena.
+   */
+  @Override
+  public List<Map<String, RDFNode>> selectRows(@Nonnull RdfStoreService rdfStore,
+                                               @Nonnull String selectQuery,
+                                               long pageSize) {
+    List<Map<String, RDFNode>> result = new ArrayList<>();
+    long offset = 0;
+    while (true) {
+      log.info("Running query offset {} and limit {}", offset, pageSize);
+      List<Map<String, RDFNode>> page = rdfStore.executeSelectQuery(selectQuery + getLimitOffset(pageSize, offset),
+                                                                    JenaQueryUtils::convertToListOfMaps);
+      log.info("Query offset {} and limit {} returned {} rows", offset, pageSize, page.size());
+      result.addAll(page);
+
+      if (page.size() < pageSize) return result;
+      offset += pageSize;
+    }
+  }
+
+  private int selectPage(RdfStoreService rdfStore, String query, Consumer<QuerySolution> rowConsumer) {
+    AtomicInteger counter = new AtomicInteger();
+    rdfStore.streamSelectQuery(query, row -> {
+      rowConsumer.accept(row);
+      counter.incrementAndGet();
+    });
+    return counter.get();
+  }
+
+  @Override
+  public Iterator<Model> constructPages(@Nonnull RdfStoreService rdfStore,
+                                        @Nonnull String constructQuery,
+                                        long pageSize) {
+    return getPages(rdfStore, constructQuery, pageSize, Model::isEmpty);
+  }
+
+  @Override
+  public Iterator<Model> constructTriplePages(@Nonnull RdfStoreService rdfStore,
+                                              @Nonnull String constructQuery,
+                                              long pageSize) {
+    return getPages(rdfStore, constructQuery, pageSize, part -> part.size() < pageSize);
+  }
+
+  /**
+   * @param isLastPage decides, based on the page just fetched, whether more pages need to be fetched
+   */
+  @Nonnull
+  private Iterator<Model> getPages(@Nonnull RdfStoreService rdfStore,
+                                   @Nonnull String constructQuery,
+                                   long pageSize,
+                                   @Nonnull Predicate<Model> isLastPage) {
+    return new AbstractIterator<Model>() {
+      private long offset;
+      private boolean done;
+
+      @Override
+      protected Model computeNext() {
+        if (done) return endOfData();
+
+        Model part = rdfStore.executeConstructQuery(constructQuery + getLimitOffset(pageSize, offset));
+        offset += pageSize;
+        done = isLastPage.test(part);
+
+        return part.isEmpty() ? endOfData() : part;
+      }
+    };
+  }
+
+  @Nonnull
+  private String getLimitOffset(long pageSize, long offset) {
+    return " limit " + pageSize + " offset " + offset;
+  }
+}
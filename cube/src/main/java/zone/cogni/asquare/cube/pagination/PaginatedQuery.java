@@ -2,8 +2,10 @@ package zone.cogni.asquare.cube.pagination;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.query.QuerySolution;
 import org.apache.jena.rdf.model.Model;
@@ -11,31 +13,55 @@ import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.system.StreamRDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zone.cogni.asquare.triplestore.RdfStoreService;
 import zone.cogni.asquare.triplestore.jenamemory.InternalRdfStoreService;
 import zone.cogni.sem.jena.template.JenaQueryUtils;
-import zone.cogni.sem.jena.template.JenaResultSetHandler;
 import zone.cogni.sem.jena.template.JenaResultSetHandlers;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs queries in batches of <code>batchSize</code>.
+ * <p>
+ * How a query is split in batches is decided by a <code>PaginationStrategy</code>,
+ * default is {@link OffsetPaginationStrategy}.
+ * A different strategy can be passed in the constructor or per query,
+ * see {@link KeysetPaginationStrategy} for when keyset pagination does not help.
+ * </p>
+ */
 public class PaginatedQuery {
 
   private static final Logger log = LoggerFactory.getLogger(PaginatedQuery.class);
 
   private final long batchSize;
+  private final PaginationStrategy paginationStrategy;
 
   public PaginatedQuery(long batchSize) {
+    this(batchSize, new OffsetPaginationStrategy());
+  }
+
+  public PaginatedQuery(long batchSize, @Nonnull PaginationStrategy paginationStrategy) {
     Preconditions.checkState(batchSize > 0, "invalid batch size " + batchSize);
     this.batchSize = batchSize;
+    this.paginationStrategy = paginationStrategy;
+  }
+
+  public PaginationStrategy getPaginationStrategy() {
+    return paginationStrategy;
   }
 
   /**
@@ -70,7 +96,8 @@ public class PaginatedQuery {
       List<String> sublist = graphUrisSublists.get(i);
       String selectQuery = getGraphsSelectQuery(sublist);
 
-      List<Map<String, RDFNode>> rows = select(rdfStore, selectQuery);
+      // rows have no single key variable, so offset pagination is used
+      List<Map<String, RDFNode>> rows = select(rdfStore, selectQuery, new OffsetPaginationStrategy());
       rows.forEach(row -> {
         Property p = ResourceFactory.createProperty(row.get("p").asResource().getURI());
         model.add(row.get("s").asResource(), p, row.get("o"));
@@ -126,13 +153,8 @@ public class PaginatedQuery {
    */
   @Nonnull
   public Model getGraph(@Nonnull RdfStoreService rdfStore, @Nonnull String graphUri, boolean validateCount) {
-    String wherePart = " where {" +
-                       "   graph <" + graphUri + "> {" +
-                       "     ?s ?p ?o" +
-                       "   }" +
-                       " } ";
-    String constructGraph = "construct { ?s ?p ?o }" + wherePart;
-    Model modelFromQuery = getModelFromQuery(rdfStore, constructGraph);
+    String wherePart = getGraphWherePart(graphUri);
+    Model modelFromQuery = getModelFromQuery(rdfStore, graphUri);
     if (validateCount) {
       int count = rdfStore.executeSelectQuery("select (count(*) as ?cnt) " + wherePart, JenaResultSetHandlers.firstResultOptional)
                           .map(RDFNode::asLiteral)
@@ -143,42 +165,152 @@ public class PaginatedQuery {
     return modelFromQuery;
   }
 
-  private Model getModelFromQuery(RdfStoreService rdfStore, String constructGraph) {
+  @Nonnull
+  private String getGraphConstructQuery(@Nonnull String graphUri) {
+    return "construct { ?s ?p ?o }" + getGraphWherePart(graphUri);
+  }
+
+  @Nonnull
+  private String getGraphConstructQuery(@Nonnull String graphUri, @Nonnull String subjectFilter) {
+    return "construct { ?s ?p ?o }" +
+           " where {" +
+           "   graph <" + graphUri + "> {" +
+           "     ?s ?p ?o" +
+           "     filter (" + subjectFilter + ")" +
+           "   }" +
+           " } ";
+  }
+
+  @Nonnull
+  private String getGraphWherePart(@Nonnull String graphUri) {
+    return " where {" +
+           "   graph <" + graphUri + "> {" +
+           "     ?s ?p ?o" +
+           "   }" +
+           " } ";
+  }
+
+  private Model getModelFromQuery(RdfStoreService rdfStore, String graphUri) {
     Model model = ModelFactory.createDefaultModel();
-    long batchNumber = 0;
-    while (true) {
-      Model part = getModel(rdfStore, constructGraph, batchSize * batchNumber);
-      model.add(part);
-      batchNumber += 1;
+    getGraphPages(rdfStore, graphUri).forEachRemaining(model::add);
+    return model;
+  }
 
-      if (part.size() < batchSize) break;
+  /**
+   * Keyset pagination pages on subjects, which cannot be blank nodes.
+   * In that case triples with an IRI subject are paged on subject and triples with a blank node subject
+   * are fetched afterwards with offset pagination.
+   */
+  @Nonnull
+  private Iterator<Model> getGraphPages(@Nonnull RdfStoreService rdfStore, @Nonnull String graphUri) {
+    PaginationStrategy subjectStrategy = paginationStrategy.forKey("s");
+    if (!(subjectStrategy instanceof KeysetPaginationStrategy)) {
+      return subjectStrategy.constructTriplePages(rdfStore, getGraphConstructQuery(graphUri), batchSize);
     }
 
-    return model;
+    Iterator<Model> iriSubjectPages =
+            subjectStrategy.constructTriplePages(rdfStore, getGraphConstructQuery(graphUri, "isIRI(?s)"), batchSize);
+    Iterator<Model> blankSubjectPages =
+            new OffsetPaginationStrategy().constructTriplePages(rdfStore, getGraphConstructQuery(graphUri, "isBlank(?s)"), batchSize);
+    return Iterators.concat(iriSubjectPages, blankSubjectPages);
   }
 
   @Nonnull
   public Model getModel(RdfStoreService rdfStore, String constructQuery) {
+    return getModel(rdfStore, constructQuery, paginationStrategy);
+  }
+
+  /**
+   * Runs a paginated construct query using the passed <code>paginationStrategy</code>.
+   *
+   * @param rdfStore           RDF store to use when querying
+   * @param constructQuery     construct query without limit or offset
+   * @param paginationStrategy strategy used to split query in pages
+   * @return model with triples of all pages
+   */
+  @Nonnull
+  public Model getModel(RdfStoreService rdfStore, String constructQuery, @Nonnull PaginationStrategy paginationStrategy) {
     Model model = ModelFactory.createDefaultModel();
+    paginationStrategy.construct(rdfStore, constructQuery, batchSize, model::add);
+    return model;
+  }
 
-    long batchNumber = 0;
-    while (true) {
-      Model part = getModel(rdfStore, constructQuery, batchSize * batchNumber);
-      model.add(part);
-      batchNumber += 1;
+  /**
+   * <p>
+   * Streams all triples of a graph, one page at a time.
+   * Next page is only fetched once all triples of the previous page are consumed,
+   * so memory use is bounded by one page instead of the whole graph.
+   * </p>
+   * <p>
+   * Note: stream must be consumed on the calling thread and in order, same restrictions as an <code>Iterator</code>.
+   * </p>
+   *
+   * @param rdfStore RDF store to use when querying
+   * @param graphUri The uri of the graph to stream
+   * @return lazy stream of triples of given graph
+   */
+  @Nonnull
+  public Stream<Triple> streamGraph(@Nonnull RdfStoreService rdfStore, @Nonnull String graphUri) {
+    return toStream(iterateTriples(getGraphPages(rdfStore, graphUri)));
+  }
 
-      if (part.isEmpty()) break;
-    }
+  /**
+   * Sends all triples of a graph to <code>destination</code>, one page at a time.
+   * <code>start</code> and <code>finish</code> are called on <code>destination</code> before and after the triples.
+   *
+   * @param rdfStore    RDF store to use when querying
+   * @param graphUri    The uri of the graph to stream
+   * @param destination sink receiving triples
+   */
+  public void streamGraph(@Nonnull RdfStoreService rdfStore, @Nonnull String graphUri, @Nonnull StreamRDF destination) {
+    sendTriples(streamGraph(rdfStore, graphUri), destination);
+  }
 
-    return model;
+  /**
+   * Same as {@link #getModel(RdfStoreService, String)} but returns a lazy stream of triples,
+   * see {@link #streamGraph(RdfStoreService, String)} for details.
+   * Triples produced by more than one page are returned more than once.
+   */
+  @Nonnull
+  public Stream<Triple> streamModel(@Nonnull RdfStoreService rdfStore, @Nonnull String constructQuery) {
+    return streamModel(rdfStore, constructQuery, paginationStrategy);
   }
 
+  /**
+   * Same as {@link #streamModel(RdfStoreService, String)} using the passed <code>paginationStrategy</code>.
+   */
   @Nonnull
-  private Model getModel(RdfStoreService rdfStore, String constructQuery, long offset) {
-    String limit = " limit " + batchSize + " offset " + offset;
-    String batchQuery = constructQuery + limit;
+  public Stream<Triple> streamModel(@Nonnull RdfStoreService rdfStore,
+                                    @Nonnull String constructQuery,
+                                    @Nonnull PaginationStrategy paginationStrategy) {
+    return toStream(iterateTriples(paginationStrategy.constructPages(rdfStore, constructQuery, batchSize)));
+  }
 
-    return rdfStore.executeConstructQuery(batchQuery);
+  /**
+   * Same as {@link #streamModel(RdfStoreService, String)} sending triples to <code>destination</code>.
+   */
+  public void streamModel(@Nonnull RdfStoreService rdfStore, @Nonnull String constructQuery, @Nonnull StreamRDF destination) {
+    sendTriples(streamModel(rdfStore, constructQuery), destination);
+  }
+
+  @Nonnull
+  private Iterator<Triple> iterateTriples(@Nonnull Iterator<Model> pages) {
+    return Iterators.concat(Iterators.transform(pages, page -> page.getGraph().find()));
+  }
+
+  @Nonnull
+  private Stream<Triple> toStream(@Nonnull Iterator<Triple> triples) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(triples, Spliterator.ORDERED), false);
+  }
+
+  private void sendTriples(@Nonnull Stream<Triple> triples, @Nonnull StreamRDF destination) {
+    destination.start();
+    try {
+      triples.forEach(destination::triple);
+    }
+    finally {
+      destination.finish();
+    }
   }
 
   /**
@@ -188,19 +320,22 @@ public class PaginatedQuery {
    * @param querySolutionConsumer QuerySolution consumer, will be called on each result row.
    */
   public void select(RdfStoreService rdfStore, String query, Consumer<QuerySolution> querySolutionConsumer) {
+    select(rdfStore, query, paginationStrategy, querySolutionConsumer);
+  }
+
+  /**
+   * Same as {@link #select(RdfStoreService, String, Consumer)} using the passed <code>paginationStrategy</code>.
+   */
+  public void select(RdfStoreService rdfStore,
+                     String query,
+                     @Nonnull PaginationStrategy paginationStrategy,
+                     Consumer<QuerySolution> querySolutionConsumer) {
     if (hasLimitAtEnd(query)) {  //is this needed? if somebody sends something with limit here it deserves to fail
       selectBatch(rdfStore, query, querySolutionConsumer);
       return;
     }
-    int offset = 0;
-    while (true) {
-      String limitQuery = query + " offset " + offset + " limit " + batchSize;
-      log.info("Running query offset {} and limit {}", offset, batchSize);
-      int queryReturnedSize = selectBatch(rdfStore, limitQuery, querySolutionConsumer);
-      log.info("Query offset {} and limit {} returned {} rows", offset, batchSize, queryReturnedSize);
-      if (queryReturnedSize < batchSize) return;
-      offset += batchSize;
-    }
+
+    paginationStrategy.select(rdfStore, query, batchSize, querySolutionConsumer);
   }
 
   private int selectBatch(RdfStoreService rdfStore, String query, Consumer<QuerySolution> querySolutionConsumer) {
@@ -215,22 +350,21 @@ public class PaginatedQuery {
   }
 
   public List<Map<String, RDFNode>> select(RdfStoreService rdfStore, String query) {
+    return select(rdfStore, query, paginationStrategy);
+  }
+
+  /**
+   * Same as {@link #select(RdfStoreService, String)} using the passed <code>paginationStrategy</code>.
+   */
+  public List<Map<String, RDFNode>> select(RdfStoreService rdfStore,
+                                           String query,
+                                           @Nonnull PaginationStrategy paginationStrategy) {
     // skip if there is a limit
     if (hasLimitAtEnd(query)) {
       return rdfStore.executeSelectQuery(query, JenaQueryUtils::convertToListOfMaps);
     }
 
-    long batchNumber = 0;
-    List<Map<String, RDFNode>> result = new ArrayList<>();
-    while (true) {
-      List<Map<String, RDFNode>> batchMap = select(rdfStore, query, batchNumber);
-      result.addAll(batchMap);
-      batchNumber += 1;
-
-      if (batchMap.size() < batchSize) break;
-    }
-
-    return result;
+    return paginationStrategy.selectRows(rdfStore, query, batchSize);
   }
 
   private boolean hasLimitAtEnd(String query) {
@@ -238,16 +372,29 @@ public class PaginatedQuery {
     return lastPart.toLowerCase().contains("limit");
   }
 
-  private List<Map<String, RDFNode>> select(RdfStoreService rdfStore, String query, long batchNumber) {
-    String limit = " limit " + batchSize + " offset " + (batchSize * batchNumber);
-    String batchQuery = query + limit;
-
-    return runQuery(rdfStore, batchQuery);
+  /**
+   * Same as <code>convertSingleColumnUriToStringList(select(rdfStore, query))</code>
+   * without keeping all rows in memory, only the uris are kept.
+   *
+   * @param rdfStore RDF store to use when querying
+   * @param query    select query returning exactly one uri column
+   * @return list of uris
+   * @throws RuntimeException in case there is not exactly one column
+   */
+  @Nonnull
+  public List<String> selectUris(@Nonnull RdfStoreService rdfStore, @Nonnull String query) {
+    List<String> result = new ArrayList<>();
+    select(rdfStore, query, row -> result.add(getSingleColumn(row).asResource().getURI()));
+    return result;
   }
 
-  private List<Map<String, RDFNode>> runQuery(RdfStoreService rdfStore, String query) {
-    JenaResultSetHandler<List<Map<String, RDFNode>>> convertToListOfMaps = JenaQueryUtils::convertToListOfMaps;
-    return rdfStore.executeSelectQuery(query, convertToListOfMaps);
+  @Nonnull
+  private RDFNode getSingleColumn(@Nonnull QuerySolution row) {
+    List<String> columns = Lists.newArrayList(row.varNames());
+    if (columns.size() != 1)
+      throw new RuntimeException("Expected exactly one result per row. Found row size of '" + columns.size() + "'");
+
+    return row.get(columns.get(0));
   }
 
   /**
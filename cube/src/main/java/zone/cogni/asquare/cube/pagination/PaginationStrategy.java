@@ -0,0 +1,125 @@
+package zone.cogni.asquare.cube.pagination;
+
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Decides how <code>PaginatedQuery</code> splits a query in pages.
+ *
+ * <ul>
+ *   <li>{@link OffsetPaginationStrategy} adds <code>limit</code> and <code>offset</code>, works for any query, default</li>
+ *   <li>{@link KeysetPaginationStrategy} orders on a key and continues after the last key seen,
+ *   opt-in, pages are not cheaper on stores that cannot use an index for the key filter</li>
+ * </ul>
+ */
+public interface PaginationStrategy {
+
+  /**
+   * Runs a select query page by page.
+   *
+   * @param rdfStore    RDF store to use when querying
+   * @param selectQuery select query without <code>limit</code> or <code>offset</code>
+   * @param pageSize    maximum number of rows per page
+   * @param rowConsumer called for each row
+   */
+  void select(@Nonnull RdfStoreService rdfStore,
+              @Nonnull String selectQuery,
+              long pageSize,
+              @Nonnull Consumer<QuerySolution> rowConsumer);
+
+  /**
+   * Runs a select query page by page and collects all rows.
+   * Like <code>JenaQueryUtils.convertToListOfMaps</code> rows contain all result variables, also unbound ones.
+   * <p>
+   * Default implementation parses the query to know its result variables,
+   * strategies which can run the query as is should override it.
+   * </p>
+   *
+   * @param rdfStore    RDF store to use when querying
+   * @param selectQuery select query without <code>limit</code> or <code>offset</code>
+   * @param pageSize    maximum number of rows per page
+   * @return rows of all pages
+   */
+  default List<Map<String, RDFNode>> selectRows(@Nonnull RdfStoreService rdfStore,
+                                                @Nonnull String selectQuery,
+                                                long pageSize) {
+    List<String> resultVars = QueryFactory.create(selectQuery, Syntax.syntaxARQ).getResultVars();
+    List<Map<String, RDFNode>> result = new ArrayList<>();
+    select(rdfStore, selectQuery, pageSize, row -> {
+      Map<String, RDFNode> map = new HashMap<>();
+      resultVars.forEach(var -> map.put(var, row.get(var)));
+      result.add(map);
+    });
+    return result;
+  }
+
+  /**
+   * Runs a construct query page by page.
+   * A page is only fetched when the previous one has been consumed, so at most one page is kept in memory.
+   *
+   * @param rdfStore       RDF store to use when querying
+   * @param constructQuery construct query without <code>limit</code> or <code>offset</code>
+   * @param pageSize       maximum number of solutions per page
+   * @return iterator over the non-empty models of each page
+   */
+  Iterator<Model> constructPages(@Nonnull RdfStoreService rdfStore,
+                                 @Nonnull String constructQuery,
+                                 long pageSize);
+
+  /**
+   * Same as {@link #constructPages(RdfStoreService, String, long)} for queries returning one distinct triple
+   * per solution, e.g. <code>construct { ?s ?p ?o } where { ?s ?p ?o }</code>.
+   * Strategies can use this to detect the last page without running an extra query.
+   */
+  default Iterator<Model> constructTriplePages(@Nonnull RdfStoreService rdfStore,
+                                               @Nonnull String constructQuery,
+                                               long pageSize) {
+    return constructPages(rdfStore, constructQuery, pageSize);
+  }
+
+  /**
+   * Runs a construct query page by page.
+   *
+   * @param rdfStore       RDF store to use when querying
+   * @param constructQuery construct query without <code>limit</code> or <code>offset</code>
+   * @param pageSize       maximum number of solutions per page
+   * @param pageConsumer   called with the model of each page
+   */
+  default void construct(@Nonnull RdfStoreService rdfStore,
+                         @Nonnull String constructQuery,
+                         long pageSize,
+                         @Nonnull Consumer<Model> pageConsumer) {
+    constructPages(rdfStore, constructQuery, pageSize).forEachRemaining(pageConsumer);
+  }
+
+  /**
+   * Same as {@link #construct(RdfStoreService, String, long, Consumer)} using
+   * {@link #constructTriplePages(RdfStoreService, String, long)}.
+   */
+  default void constructTriples(@Nonnull RdfStoreService rdfStore,
+                                @Nonnull String constructQuery,
+                                long pageSize,
+                                @Nonnull Consumer<Model> pageConsumer) {
+    constructTriplePages(rdfStore, constructQuery, pageSize).forEachRemaining(pageConsumer);
+  }
+
+  /**
+   * @param keyVariable variable identifying a solution in queries built by <code>PaginatedQuery</code> itself
+   * @return strategy to use for those queries, strategies not using keys return themselves
+   */
+  default PaginationStrategy forKey(@Nonnull String keyVariable) {
+    return this;
+  }
+}
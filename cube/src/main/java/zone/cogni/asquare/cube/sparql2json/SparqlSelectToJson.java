@@ -68,9 +68,16 @@ public class SparqlSelectToJson {
     return getQueries(templateService, context, templateSuppliers);
   }
 
+  /**
+   * Instances are immutable and can be shared between threads, e.g. by all uris of a partition,
+   * since values like <code>?uri</code> are passed as bindings in {@link #convert(Model, Map)}.
+   */
   public SparqlSelectToJson(List<Query> queries, ListExceptionHandling listExceptionHandling) {
     this.queries = queries;
     this.listExceptionHandling = listExceptionHandling;
+
+    // result variables are calculated lazily by Jena, do it here before instance gets shared
+    queries.forEach(Query::getResultVars);
   }
 
   public ObjectNode convert(Model model, Map<String, RDFNode> bindings) {
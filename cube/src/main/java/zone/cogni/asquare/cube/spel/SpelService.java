@@ -1,6 +1,10 @@
 package zone.cogni.asquare.cube.spel;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.springframework.core.io.Resource;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
@@ -9,13 +13,32 @@ import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import zone.cogni.core.spring.ResourceHelper;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Processes SpEL templates, parsed templates are kept in a cache keyed by template text.
+ * <p>
+ * Cache is safe for concurrent use: a template is parsed once, also when many threads ask for it at the same time.
+ * Cache holds at most <code>maximumSize</code> templates, least recently used ones are evicted first.
+ */
 public class SpelService implements TemplateService {
 
+  private static final long defaultMaximumSize = 1000;
+
   private final SpelExpressionParser spelExpressionParser = new SpelExpressionParser();
-  private final Map<String, Expression> expressionCache = new HashMap<>();
+  private final LoadingCache<String, Expression> expressionCache;
+
+  public SpelService() {
+    this(defaultMaximumSize);
+  }
+
+  /**
+   * @param maximumSize maximum number of parsed templates kept in cache
+   */
+  public SpelService(long maximumSize) {
+    expressionCache = CacheBuilder.newBuilder()
+                                  .maximumSize(maximumSize)
+                                  .recordStats()
+                                  .build(CacheLoader.from(this::parseExpression));
+  }
 
   public String processTemplate(String template, Object root) {
     Expression expression = getExpression(template);
@@ -29,21 +52,28 @@ public class SpelService implements TemplateService {
    */
   private Expression getExpression(String template) {
     try {
-      String md5Hex = DigestUtils.md5Hex(template);
-
-      boolean isCached = expressionCache.containsKey(md5Hex);
-      Expression expression = isCached
-                              ? expressionCache.get(md5Hex)
-                              : spelExpressionParser.parseExpression(template, new TemplateParserContext());
-
-      if (!isCached) expressionCache.put(md5Hex, expression);
-      return expression;
+      return expressionCache.getUnchecked(template);
     }
-    catch (RuntimeException e) {
-      throw new RuntimeException("SpEL expression template parsing failed for: \n" + template, e);
+    catch (UncheckedExecutionException e) {
+      throw new RuntimeException("SpEL expression template parsing failed for: \n" + template, e.getCause());
     }
   }
 
+  private Expression parseExpression(String template) {
+    return spelExpressionParser.parseExpression(template, new TemplateParserContext());
+  }
+
+  /**
+   * @return hit, miss, load and eviction counts of the parsed template cache
+   */
+  public CacheStats getCacheStats() {
+    return expressionCache.stats();
+  }
+
+  public long getCacheSize() {
+    return expressionCache.size();
+  }
+
   private EvaluationContext getContext(Object root) {
     return root instanceof EvaluationContext ? (EvaluationContext) root
                                              : new StandardEvaluationContext(root);
@@ -0,0 +1,86 @@
+package zone.cogni.asquare.cube.sync;
+
+/**
+ * Outcome of synchronizing one graph to the target triplestore.
+ */
+public class GraphSyncResult {
+
+  public enum Action {
+    /**
+     * Target graph was cleared and the calculated model was added.
+     */
+    REPLACED,
+    /**
+     * Only removed and added triples were sent to the target graph.
+     */
+    PATCHED,
+    /**
+     * Calculated model is the same as the target graph, nothing was sent.
+     */
+    UNCHANGED,
+    /**
+     * Graph does not exist in source anymore and was deleted on target.
+     */
+    DELETED
+  }
+
+  /**
+   * Count of triples which were not read from the target triplestore.
+   */
+  public static final long UNKNOWN = -1;
+
+  public static GraphSyncResult replaced(String graphUri, long addedTriples, long removedTriples) {
+    return new GraphSyncResult(graphUri, Action.REPLACED, addedTriples, removedTriples);
+  }
+
+  public static GraphSyncResult patched(String graphUri, long addedTriples, long removedTriples) {
+    return new GraphSyncResult(graphUri, Action.PATCHED, addedTriples, removedTriples);
+  }
+
+  public static GraphSyncResult unchanged(String graphUri) {
+    return new GraphSyncResult(graphUri, Action.UNCHANGED, 0, 0);
+  }
+
+  public static GraphSyncResult deleted(String graphUri) {
+    return new GraphSyncResult(graphUri, Action.DELETED, 0, UNKNOWN);
+  }
+
+  private final String graphUri;
+  private final Action action;
+  private final long addedTriples;
+  private final long removedTriples;
+
+  private GraphSyncResult(String graphUri, Action action, long addedTriples, long removedTriples) {
+    this.graphUri = graphUri;
+    this.action = action;
+    this.addedTriples = addedTriples;
+    this.removedTriples = removedTriples;
+  }
+
+  public String getGraphUri() {
+    return graphUri;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public long getAddedTriples() {
+    return addedTriples;
+  }
+
+  /**
+   * @return number of removed triples or {@link #UNKNOWN} if the target graph was not read before it was cleared
+   */
+  public long getRemovedTriples() {
+    return removedTriples;
+  }
+
+  @Override
+  public String toString() {
+    if (action == Action.DELETED) return "[delete] " + graphUri;
+
+    String removed = removedTriples == UNKNOWN ? "?" : String.valueOf(removedTriples);
+    return "[sync  ] " + graphUri + " " + action.name().toLowerCase() + " +" + addedTriples + " -" + removed;
+  }
+}
@@ -2,10 +2,20 @@ package zone.cogni.asquare.cube.sync;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.modify.request.QuadDataAcc;
+import org.apache.jena.sparql.modify.request.UpdateDataDelete;
+import org.apache.jena.sparql.modify.request.UpdateDataInsert;
+import org.apache.jena.update.UpdateRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
@@ -23,13 +33,15 @@ import zone.cogni.core.util.function.CachingSupplier;
 import zone.cogni.sem.jena.template.JenaResultSetHandlers;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -37,6 +49,8 @@ public class SynchronizeGraphs {
 
   private static final Logger log = LoggerFactory.getLogger(SynchronizeGraphs.class);
 
+  private static final int deltaPartitionSize = 1000;
+
   /**
    * In configuration folder we require
    * <dl>
@@ -101,6 +115,9 @@ public class SynchronizeGraphs {
   private final PaginatedQuery paginatedQuery;
   private final MonitoredPool monitoredPool;
 
+  private boolean incrementalUpdate;
+  private double maxDeltaRatio = 0.5;
+
   public SynchronizeGraphs(String configurationFolder,
                            RdfStoreService source,
                            RdfStoreService target,
@@ -117,6 +134,24 @@ public class SynchronizeGraphs {
     this.monitoredPool = monitoredPool;
   }
 
+  /**
+   * When enabled the calculated model is compared with the current target graph
+   * and only removed and added triples are sent with <code>DELETE DATA</code> and <code>INSERT DATA</code>.
+   * The target graph is replaced instead when it is empty, when triples with blank nodes need to be removed
+   * or when the delta is too large, see {@link #setMaxDeltaRatio(double)}.
+   */
+  public void setIncrementalUpdate(boolean incrementalUpdate) {
+    this.incrementalUpdate = incrementalUpdate;
+  }
+
+  /**
+   * @param maxDeltaRatio maximum number of added and removed triples, relative to the size of the current target graph,
+   *                      for which an incremental update is done; default is <code>0.5</code>
+   */
+  public void setMaxDeltaRatio(double maxDeltaRatio) {
+    this.maxDeltaRatio = maxDeltaRatio;
+  }
+
   private String calculateConfigurationFolder(String configurationFolder) {
     String result = StringUtils.removeEnd(configurationFolder, "/");
 
@@ -139,11 +174,11 @@ public class SynchronizeGraphs {
     }
   }
 
-  public void synchronizeOne(String graphUri) {
+  public GraphSyncResult synchronizeOne(String graphUri) {
     try {
       String defaultModificationStamp = generateStamp.get();
-      Callable<String> syncCall = getSyncCallFromGraphUri(graphUri, defaultModificationStamp);
-      syncCall.call();
+      Callable<GraphSyncResult> syncCall = getSyncCallFromGraphUri(graphUri, defaultModificationStamp);
+      return syncCall.call();
     }
     catch (Exception e) {
       throw new RuntimeException("(synchronizeOne) failed", e);
@@ -199,26 +234,26 @@ public class SynchronizeGraphs {
     }
   }
 
-  public void synchronizeMany(List<String> graphUris) {
+  public Collection<GraphSyncResult> synchronizeMany(List<String> graphUris) {
     String defaultModificationStamp = generateStamp.get();
-    List<Callable<String>> syncCalls = getSyncCallsFromGraphUri(graphUris, defaultModificationStamp);
-    monitoredPool.invoke(syncCalls);
+    List<Callable<GraphSyncResult>> syncCalls = getSyncCallsFromGraphUri(graphUris, defaultModificationStamp);
+    return monitoredPool.invoke(syncCalls);
   }
 
-  public void synchronize() {
+  public Collection<GraphSyncResult> synchronize() {
     String defaultModificationStamp = generateStamp.get();
 
     Map<String, SelectedGraph> sourceMap = getSelectedGraphMap(source);
     Map<String, SelectedGraph> targetMap = getSelectedGraphMap(target);
 
     Collection<SelectedGraph> graphsToUpdate = getGraphsToUpdate(sourceMap, targetMap);
-    Collection<Callable<String>> syncCalls = getSyncCallsFromSelectedGraphs(graphsToUpdate, defaultModificationStamp);
+    Collection<Callable<GraphSyncResult>> syncCalls = getSyncCallsFromSelectedGraphs(graphsToUpdate, defaultModificationStamp);
 
     Collection<String> graphsToRemove = getGraphsToRemove(sourceMap, targetMap);
-    List<Callable<String>> deleteCalls = getDeleteCalls(graphsToRemove);
+    List<Callable<GraphSyncResult>> deleteCalls = getDeleteCalls(graphsToRemove);
 
-    Collection<Callable<String>> allCalls = CollectionUtils.union(deleteCalls, syncCalls);
-    monitoredPool.invoke(allCalls);
+    Collection<Callable<GraphSyncResult>> allCalls = CollectionUtils.union(deleteCalls, syncCalls);
+    return monitoredPool.invoke(allCalls);
   }
 
   private Collection<SelectedGraph> getGraphsToUpdate(Map<String, SelectedGraph> sourceMap,
@@ -241,20 +276,20 @@ public class SynchronizeGraphs {
     return differentStamps;
   }
 
-  public void forceSynchronize() {
+  public Collection<GraphSyncResult> forceSynchronize() {
     String defaultModificationStamp = generateStamp.get();
 
     Map<String, SelectedGraph> sourceMap = getSelectedGraphMap(source);
     Map<String, SelectedGraph> targetMap = getSelectedGraphMap(target);
 
     Collection<SelectedGraph> graphsToUpdate = sourceMap.values();
-    Collection<Callable<String>> syncCalls = getSyncCallsFromSelectedGraphs(graphsToUpdate, defaultModificationStamp);
+    Collection<Callable<GraphSyncResult>> syncCalls = getSyncCallsFromSelectedGraphs(graphsToUpdate, defaultModificationStamp);
 
     Collection<String> graphsToRemove = getGraphsToRemove(sourceMap, targetMap);
-    List<Callable<String>> deleteCalls = getDeleteCalls(graphsToRemove);
+    List<Callable<GraphSyncResult>> deleteCalls = getDeleteCalls(graphsToRemove);
 
-    Collection<Callable<String>> allCalls = CollectionUtils.union(deleteCalls, syncCalls);
-    monitoredPool.invoke(allCalls);
+    Collection<Callable<GraphSyncResult>> allCalls = CollectionUtils.union(deleteCalls, syncCalls);
+    return monitoredPool.invoke(allCalls);
   }
 
   private Collection<String> getGraphsToRemove(Map<String, SelectedGraph> sourceMap, Map<String, SelectedGraph> targetMap) {
@@ -262,15 +297,19 @@ public class SynchronizeGraphs {
   }
 
   private Map<String, SelectedGraph> getSelectedGraphMap(RdfStoreService rdfStore) {
-    List<Map<String, RDFNode>> rows = paginatedQuery.select(rdfStore, getQuery("select-graphs.sparql"));
-    return rows.stream()
-               .map(this::getSelectedGraph)
-               .collect(Collectors.toMap(SelectedGraph::getGraphUri, Function.identity(), (a, b) -> a));
+    // rows are handled while paging, only the selected graphs are kept in memory
+    Map<String, SelectedGraph> result = new HashMap<>();
+    paginatedQuery.select(rdfStore, getQuery("select-graphs.sparql"), row -> {
+      SelectedGraph selectedGraph = getSelectedGraph(row);
+      result.putIfAbsent(selectedGraph.getGraphUri(), selectedGraph);
+    });
+    return result;
   }
 
-  private SelectedGraph getSelectedGraph(Map<String, RDFNode> row) {
-    boolean hasTwoColumns = row.size() != 2;
-    boolean hasCorrectColumns = row.keySet().containsAll(Arrays.asList("graph", "stamp"));
+  private SelectedGraph getSelectedGraph(QuerySolution row) {
+    List<String> columns = Lists.newArrayList(row.varNames());
+    boolean hasTwoColumns = columns.size() != 2;
+    boolean hasCorrectColumns = columns.containsAll(Arrays.asList("graph", "stamp"));
     if (hasTwoColumns && hasCorrectColumns)
       throw new RuntimeException("expecting two columns 'graph' and 'stamp' in select-graph.sparql.");
 
@@ -278,7 +317,7 @@ public class SynchronizeGraphs {
                              getStringValue(row, "stamp"));
   }
 
-  private String getStringValue(Map<String, RDFNode> row, String column) {
+  private String getStringValue(QuerySolution row, String column) {
     JsonNode stringNode = PropertyConversion.asString().apply(row.get(column));
     return stringNode == null ? null : stringNode.textValue();
   }
@@ -297,34 +336,34 @@ public class SynchronizeGraphs {
     return resource;
   }
 
-  private List<Callable<String>> getDeleteCalls(Collection<String> graphUris) {
+  private List<Callable<GraphSyncResult>> getDeleteCalls(Collection<String> graphUris) {
     return graphUris.stream()
                     .map(this::getDeleteCall)
                     .collect(Collectors.toList());
   }
 
-  private Callable<String> getDeleteCall(String graphUri) {
+  private Callable<GraphSyncResult> getDeleteCall(String graphUri) {
     return () -> {
       log.info("removing on target: {}", graphUri);
       target.deleteGraph(graphUri);
 
-      return "[delete] " + graphUri;
+      return GraphSyncResult.deleted(graphUri);
     };
   }
 
-  private List<Callable<String>> getSyncCallsFromGraphUri(Collection<String> graphUris, String defaultModificationStamp) {
+  private List<Callable<GraphSyncResult>> getSyncCallsFromGraphUri(Collection<String> graphUris, String defaultModificationStamp) {
     return graphUris.stream()
                     .map(graphUri -> getSyncCallFromGraphUri(graphUri, defaultModificationStamp))
                     .collect(Collectors.toList());
   }
 
-  private Callable<String> getSyncCallFromGraphUri(String graphUri, String defaultModificationStamp) {
+  private Callable<GraphSyncResult> getSyncCallFromGraphUri(String graphUri, String defaultModificationStamp) {
     Supplier<Model> sourceModelSupplier = getSourceModelSupplier(graphUri);
     Supplier<SelectedGraph> sourceSelectedGraphSupplier = getSelectedGraphFromModel(sourceModelSupplier, graphUri);
     return getSyncCall(defaultModificationStamp, sourceSelectedGraphSupplier, sourceModelSupplier);
   }
 
-  private List<Callable<String>> getSyncCallsFromSelectedGraphs(Collection<SelectedGraph> graphsToUpdate,
+  private List<Callable<GraphSyncResult>> getSyncCallsFromSelectedGraphs(Collection<SelectedGraph> graphsToUpdate,
                                                                 String defaultModificationStamp) {
     return graphsToUpdate.stream()
                          .map(selectedGraph -> getSyncCall(defaultModificationStamp,
@@ -333,26 +372,28 @@ public class SynchronizeGraphs {
                          .collect(Collectors.toList());
   }
 
-  private Callable<String> getSyncCall(String defaultModificationStamp,
-                                       Supplier<SelectedGraph> sourceSelectedGraphSupplier,
-                                       Supplier<Model> sourceModelSupplier) {
+  private Callable<GraphSyncResult> getSyncCall(String defaultModificationStamp,
+                                                Supplier<SelectedGraph> sourceSelectedGraphSupplier,
+                                                Supplier<Model> sourceModelSupplier) {
     return () -> {
       SelectedGraph sourceSelectedGraph = sourceSelectedGraphSupplier.get();
       String graphUri = sourceSelectedGraph.getGraphUri();
 
       log.info("synchronizing {}", graphUri);
 
+      GraphSyncResult result;
       if (isGraphDeleted(sourceModelSupplier)) {
         target.deleteGraph(sourceSelectedGraph.getGraphUri());
+        result = GraphSyncResult.deleted(graphUri);
       }
       else {
         boolean sourceChanged = updateSourceGraph(sourceSelectedGraph, defaultModificationStamp);
         Supplier<Model> sourceModelSupplierToUse = sourceChanged ? getSourceModelSupplier(sourceSelectedGraph) : sourceModelSupplier;
-        updateTargetGraph(sourceSelectedGraph, sourceModelSupplierToUse);
+        result = updateTargetGraph(sourceSelectedGraph, sourceModelSupplierToUse);
       }
 
-      log.info("synchronizing {} done", graphUri);
-      return "[sync  ] " + graphUri;
+      log.info("synchronizing {} done: {}", graphUri, result);
+      return result;
     };
   }
 
@@ -373,14 +414,69 @@ public class SynchronizeGraphs {
     source.executeUpdateQuery(query);
   }
 
-  private void updateTargetGraph(SelectedGraph sourceSelectedGraph, Supplier<Model> sourceModelSupplier) {
+  private GraphSyncResult updateTargetGraph(SelectedGraph sourceSelectedGraph, Supplier<Model> sourceModelSupplier) {
     Model sourceModel = sourceModelSupplier.get();
     Model targetModel = getCalculatedTargetModel(sourceModel);
 
     // target stamp update or insert
     addModificationStampToTarget(targetModel, sourceSelectedGraph);
 
-    target.replaceGraph(sourceSelectedGraph.getGraphUri(), targetModel);
+    String graphUri = sourceSelectedGraph.getGraphUri();
+    if (!incrementalUpdate) {
+      target.replaceGraph(graphUri, targetModel);
+      return GraphSyncResult.replaced(graphUri, targetModel.size(), GraphSyncResult.UNKNOWN);
+    }
+
+    Model currentTargetModel = paginatedQuery.getGraph(target, graphUri);
+    return patchTargetGraph(graphUri, currentTargetModel, targetModel);
+  }
+
+  /**
+   * Compares triples with <code>equals</code>, unlike <code>Model.difference</code> which considers
+   * literals with the same value, e.g. <code>"1"^^xsd:int</code> and <code>"01"^^xsd:int</code>, as equal.
+   */
+  private GraphSyncResult patchTargetGraph(String graphUri, Model currentTargetModel, Model targetModel) {
+    Set<Triple> removedTriples = currentTargetModel.getGraph().find().toSet();
+    List<Triple> addedTriples = new ArrayList<>();
+    targetModel.getGraph().find().forEachRemaining(triple -> {
+      if (!removedTriples.remove(triple)) addedTriples.add(triple);
+    });
+
+    long currentSize = currentTargetModel.size();
+    long deltaSize = addedTriples.size() + removedTriples.size();
+    if (deltaSize == 0) return GraphSyncResult.unchanged(graphUri);
+
+    // blank nodes of the target cannot be referenced in a DELETE DATA,
+    // blank node labels of an INSERT DATA are scoped per operation so one blank node could become several
+    boolean hasBlankNodes = removedTriples.stream().anyMatch(this::hasBlankNode)
+                            || addedTriples.stream().anyMatch(this::hasBlankNode);
+    if (currentSize == 0 || hasBlankNodes || deltaSize > maxDeltaRatio * currentSize) {
+      target.replaceGraph(graphUri, targetModel);
+      return GraphSyncResult.replaced(graphUri, targetModel.size(), currentSize);
+    }
+
+    target.executeUpdateQuery(getPatchUpdate(graphUri, removedTriples, addedTriples).toString());
+    return GraphSyncResult.patched(graphUri, addedTriples.size(), removedTriples.size());
+  }
+
+  private boolean hasBlankNode(Triple triple) {
+    return triple.getSubject().isBlank() || triple.getObject().isBlank();
+  }
+
+  private UpdateRequest getPatchUpdate(String graphUri, Collection<Triple> removedTriples, List<Triple> addedTriples) {
+    Node graph = NodeFactory.createURI(graphUri);
+    UpdateRequest result = new UpdateRequest();
+    Lists.partition(toQuads(graph, removedTriples), deltaPartitionSize)
+         .forEach(quads -> result.add(new UpdateDataDelete(new QuadDataAcc(quads))));
+    Lists.partition(toQuads(graph, addedTriples), deltaPartitionSize)
+         .forEach(quads -> result.add(new UpdateDataInsert(new QuadDataAcc(quads))));
+    return result;
+  }
+
+  private List<Quad> toQuads(Node graph, Collection<Triple> triples) {
+    return triples.stream()
+                  .map(triple -> new Quad(graph, triple))
+                  .collect(Collectors.toList());
   }
 
   private void addModificationStampToTarget(Model targetModel, SelectedGraph selectedGraph) {
@@ -22,9 +22,12 @@ import zone.cogni.asquare.cube.jsondiff.SameFieldJsonSorter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.in;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -115,6 +118,31 @@ public class ConversionProfileTest {
                                    .contains("name", "hasHair", "barks");
   }
 
+  @Test
+  public void type_lookups_on_animal_conversion_profile() {
+    // given
+    ConversionProfile conversionProfile = ConversionProfile.read(new ClassPathResource("convertor/animal-conversion-profile.json"));
+    String model = "http://demo.com/person/model#";
+    List<String> dogRdfTypes = Arrays.asList(model + "Dog", model + "Mammal", model + "Animal");
+
+    // when
+    ConversionProfile.Type byClassIds = conversionProfile.getTypeFromClassIds(Arrays.asList("Animal", "Dog", "Mammal"));
+    ConversionProfile.Type byRdfTypes = conversionProfile.getTypeFromRdfTypes(dogRdfTypes);
+    ConversionProfile.Type bestMatch = conversionProfile.getBestMatchingTypeFromRdfTypes(Arrays.asList(model + "Mammal", model + "Animal", "http://other/Type"));
+    ConversionProfile.Type cachedBestMatch = conversionProfile.getBestMatchingTypeFromRdfTypes(Arrays.asList(model + "Animal", "http://other/Type", model + "Mammal"));
+
+    // then
+    assertThat(byClassIds.getRootClassId()).isEqualTo("Dog");
+    assertThat(byRdfTypes.getRootClassId()).isEqualTo("Dog");
+    assertThat(bestMatch.getRootClassId()).isEqualTo("Mammal");
+    assertThat(cachedBestMatch).isSameAs(bestMatch);
+
+    assertThatThrownBy(() -> conversionProfile.getTypeFromRdfTypes(Arrays.asList(model + "Dog", model + "Mammal")))
+            .hasMessageContaining("expecting exactly one type");
+    assertThatThrownBy(() -> conversionProfile.getBestMatchingTypeFromRdfTypes(Collections.singletonList("http://other/Type")))
+            .hasMessageContaining("no class matches input");
+  }
+
   @Test
   public void compare_conversion_profiles() throws IOException {
     // given
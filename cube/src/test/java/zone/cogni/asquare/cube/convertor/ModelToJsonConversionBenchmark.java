@@ -0,0 +1,110 @@
+package zone.cogni.asquare.cube.convertor;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import zone.cogni.asquare.cube.convertor.ModelToJsonConversion.Configuration.JsonType;
+import zone.cogni.asquare.cube.convertor.ModelToJsonConversion.Configuration.ModelType;
+import zone.cogni.asquare.cube.convertor.json.ConversionProfile;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures time and heap allocation of converting one large document.
+ * <p>
+ * Run with <code>-Dbenchmark=true</code>, size can be changed with <code>-Dbenchmark.children=...</code>.
+ * Document is a person with many children, each child has a few attributes and one triple which is not in the profile.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ModelToJsonConversionBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(ModelToJsonConversionBenchmark.class);
+
+  private static final String model = "http://demo.com/person/model#";
+  private static final String data = "http://demo.com/data#";
+
+  private static final int warmupRuns = 5;
+  private static final int runs = 10;
+
+  @Test
+  public void large_document() {
+    int children = Integer.getInteger("benchmark.children", 50_000);
+    Model document = createModel(children);
+    ModelToJsonConversion conversion = getConversion();
+
+    for (int i = 0; i < warmupRuns; i++) {
+      convert(conversion, document, children);
+    }
+
+    long totalNanos = 0;
+    long totalBytes = 0;
+    for (int i = 0; i < runs; i++) {
+      long bytesBefore = getAllocatedBytes();
+      long start = System.nanoTime();
+      convert(conversion, document, children);
+      totalNanos += System.nanoTime() - start;
+      totalBytes += getAllocatedBytes() - bytesBefore;
+    }
+
+    log.info("converted document of {} triples in {} ms, allocating {} MB per conversion",
+             document.size(), totalNanos / runs / 1_000_000, totalBytes / runs / (1024 * 1024));
+  }
+
+  private void convert(ModelToJsonConversion conversion, Model document, int children) {
+    ModelToJsonConversion.ConversionReport report = conversion.applyAndReport(document, data + "root");
+    ObjectNode json = report.getResult();
+
+    assertThat(json.get("included").size()).isEqualTo(children);
+    assertThat(report.getMissedTriples().size()).isEqualTo(children);
+  }
+
+  private static long getAllocatedBytes() {
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private ModelToJsonConversion getConversion() {
+    ModelToJsonConversion.Configuration configuration = new ModelToJsonConversion.Configuration();
+    configuration.setModelType(ModelType.ALL);
+    configuration.setJsonType(JsonType.ALL);
+
+    ClassPathResource profile = new ClassPathResource("convertor/person-conversion-profile.json");
+    return new ModelToJsonConversion(configuration, ConversionProfile.read(profile));
+  }
+
+  private Model createModel(int children) {
+    Model result = ModelFactory.createDefaultModel();
+    Resource person = result.createResource(model + "Person");
+    Property name = result.createProperty(model + "name");
+    Property hasChild = result.createProperty(model + "hasChild");
+    Property hasDate = result.createProperty(model + "hasDate");
+    Property website = result.createProperty(model + "website");
+    Property nickname = result.createProperty(model + "nickname");
+
+    Resource root = result.createResource(data + "root")
+                          .addProperty(RDF.type, person)
+                          .addProperty(name, "root");
+    for (int i = 0; i < children; i++) {
+      Resource child = result.createResource(data + "child-" + i)
+                             .addProperty(RDF.type, person)
+                             .addProperty(name, "child " + i)
+                             .addProperty(hasDate, "2021-04-" + (10 + i % 20), XSDDatatype.XSDdate)
+                             .addProperty(hasDate, "2022-04-" + (10 + i % 20), XSDDatatype.XSDdate)
+                             .addProperty(website, "http://demo.com/child/" + i, XSDDatatype.XSDanyURI)
+                             .addProperty(nickname, "nickname " + i);
+      root.addProperty(hasChild, child);
+    }
+    return result;
+  }
+}
@@ -2,6 +2,7 @@ package zone.cogni.asquare.cube.convertor.data2shacl;
 
 import com.google.common.collect.ImmutableList;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFList;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
@@ -22,8 +23,12 @@ import zone.cogni.asquare.triplestore.RdfStoreService;
 import zone.cogni.asquare.triplestore.jenamemory.InternalRdfStoreService;
 import zone.cogni.sem.jena.JenaUtils;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.apache.jena.rdf.model.ResourceFactory.createTypedLiteral;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -138,11 +143,66 @@ public class ShaclGeneratorTest {
     assertThat(shacl.contains(prefLabel, SHACLM.uniqueLang, (RDFNode) null)).isFalse();
   }
 
+  @Test
+  public void merged_partition_statistics_test() {
+    // given
+    Configuration configuration = getConfiguration();
+    Model model = getModel("person-or.ttl");
+    Stream<Model> subjectPartitions = model.listSubjects().toList().stream()
+                                           .map(subject -> ModelFactory.createDefaultModel()
+                                                                       .add(model.listStatements(subject, null, (RDFNode) null)));
+
+    // when
+    Model shacl = shaclGenerator.generate(configuration, getPrefixes(), model);
+    Model partitionedShacl = shaclGenerator.generate(configuration, getPrefixes(), ShaclStatistics.calculate(subjectPartitions));
+
+    // then
+    assertThat(partitionedShacl.isIsomorphicWith(shacl)).isTrue();
+  }
+
+  @Test
+  public void remote_store_statistics_are_paged_test() {
+    // given
+    Configuration configuration = getConfiguration();
+    Model model = getModel("person-or.ttl");
+    List<String> calls = new ArrayList<>();
+    RdfStoreService remoteStore = getRemoteStore(new InternalRdfStoreService(model), calls);
+    // small pages, so triples of a subject are spread over more than one page
+    ShaclGenerator pagedShaclGenerator = new ShaclGenerator(new SpelService(), new PaginatedQuery(3));
+
+    // when
+    Model shacl = shaclGenerator.generate(configuration, getPrefixes(), model);
+    Model remoteShacl = pagedShaclGenerator.generate(configuration, getPrefixes(), remoteStore);
+
+    // then
+    assertThat(remoteShacl.isIsomorphicWith(shacl)).isTrue();
+    assertThat(calls).hasSizeGreaterThan(1)
+                     .containsOnly("streamSelectQuery");
+  }
+
+  /**
+   * @return store which is not an in memory store, delegating all calls to <code>rdfStore</code>
+   */
+  private RdfStoreService getRemoteStore(RdfStoreService rdfStore, List<String> calls) {
+    return (RdfStoreService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RdfStoreService.class}, (proxy, method, args) -> {
+      calls.add(method.getName());
+      try {
+        return method.invoke(rdfStore, args);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+  }
+
   private RdfStoreService getDataModel(String file) {
+    return new InternalRdfStoreService(getModel(file));
+  }
+
+  private Model getModel(String file) {
     String folder = "convertor/data2shacl/";
     ClassPathResource resource = new ClassPathResource(folder + file);
-    Model model = JenaUtils.read(resource, null, "ttl");
-    return new InternalRdfStoreService(model);
+    return JenaUtils.read(resource, null, "ttl");
   }
 
   private HashMap<String, String> getPrefixes() {
@@ -0,0 +1,151 @@
+package zone.cogni.asquare.cube.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import zone.cogni.asquare.service.elasticsearch.v7.HttpElasticsearch7Store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs against a fake Elasticsearch http endpoint, so ids are encoded by the real store.
+ */
+class DocumentDigestIndexTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final List<String> digestUris = new ArrayList<>();
+  private final Map<String, Integer> deleteStatus = new HashMap<>();
+  private final List<String> deleteCalls = new ArrayList<>();
+
+  private HttpServer server;
+  private HttpElasticsearch7Store elasticStore;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/demo-digest/_search", exchange -> respond(exchange, getSearchResponse()));
+    server.createContext("/_bulk", exchange -> respond(exchange, getBulkResponse(exchange)));
+    server.start();
+
+    elasticStore = new HttpElasticsearch7Store("http://localhost:" + server.getAddress().getPort(), true);
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void uri_with_failing_model_is_not_deleted() {
+    // given
+    digestUris.add("http://demo.com/1");
+    digestUris.add("http://demo.com/2");
+    digestUris.add("http://demo.com/3");
+
+    DocumentDigestIndex digestIndex = new DocumentDigestIndex(elasticStore, "demo");
+    digestIndex.loadDigests();
+    IndexMethod indexMethod = new IndexMethod(null, null, null, "demo", elasticStore, null, null, digestIndex);
+
+    // when
+    assertThatThrownBy(() -> indexMethod.indexOne(() -> {
+      throw new RuntimeException("store is down");
+    }, "http://demo.com/1", IndexMethod.Configuration.AsyncElasticsearch)).hasMessage("store is down");
+    digestIndex.markProcessed("http://demo.com/2");
+    digestIndex.deleteUnprocessed();
+
+    // then
+    assertThat(deleteCalls).containsExactly("demo " + encode("http://demo.com/3"),
+                                            "demo-digest " + encode("http://demo.com/3"));
+    assertThat(digestIndex.getDeletedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void only_documents_reported_as_deleted_are_counted() {
+    // given
+    digestUris.add("http://demo.com/deleted");
+    digestUris.add("http://demo.com/missing");
+    digestUris.add("http://demo.com/failing");
+    deleteStatus.put("demo " + encode("http://demo.com/missing"), 404);
+    deleteStatus.put("demo " + encode("http://demo.com/failing"), 500);
+
+    DocumentDigestIndex digestIndex = new DocumentDigestIndex(elasticStore, "demo");
+    digestIndex.loadDigests();
+
+    // when
+    digestIndex.deleteUnprocessed();
+
+    // then
+    assertThat(deleteCalls).containsExactlyInAnyOrder("demo " + encode("http://demo.com/deleted"),
+                                                      "demo " + encode("http://demo.com/missing"),
+                                                      "demo " + encode("http://demo.com/failing"),
+                                                      "demo-digest " + encode("http://demo.com/deleted"),
+                                                      "demo-digest " + encode("http://demo.com/missing"));
+    assertThat(digestIndex.getDeletedCount()).isEqualTo(1);
+  }
+
+  private String encode(String uri) {
+    return URLEncoder.encode(uri, StandardCharsets.UTF_8);
+  }
+
+  private ObjectNode getSearchResponse() {
+    ObjectNode response = objectMapper.createObjectNode();
+    ArrayNode hits = response.putObject("hits").putArray("hits");
+    for (String uri : digestUris) {
+      hits.addObject()
+          .putObject("_source")
+          .put("uri", uri)
+          .put("digest", "old");
+    }
+    return response;
+  }
+
+  /**
+   * Records each delete action as index and <code>_id</code>, answers with the status configured for it or 200.
+   */
+  private ObjectNode getBulkResponse(HttpExchange exchange) throws IOException {
+    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+    ObjectNode response = objectMapper.createObjectNode();
+    ArrayNode items = response.putArray("items");
+    for (String line : body.split("\n")) {
+      JsonNode action = objectMapper.readTree(line).path("delete");
+      String deleteCall = action.path("_index").asText() + " " + action.path("_id").asText();
+      deleteCalls.add(deleteCall);
+
+      int status = deleteStatus.getOrDefault(deleteCall, 200);
+      ObjectNode item = items.addObject().putObject("delete");
+      item.put("status", status);
+      if (status == 200) item.put("result", "deleted");
+      if (status == 404) item.put("result", "not_found");
+      if (status == 500) item.putObject("error").put("reason", "shard failure");
+    }
+    return response;
+  }
+
+  private void respond(HttpExchange exchange, ObjectNode response) throws IOException {
+    byte[] bytes = objectMapper.writeValueAsBytes(response);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+}
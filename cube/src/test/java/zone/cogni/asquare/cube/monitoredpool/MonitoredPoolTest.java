@@ -4,13 +4,19 @@ import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import zone.cogni.libs.core.utils.ConcurrencyLimiter;
+import zone.cogni.libs.core.utils.VirtualThreads;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class MonitoredPoolTest {
 
@@ -115,4 +121,196 @@ class MonitoredPoolTest {
     Assertions.assertThat(nullCount).isEqualTo(5);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void lazy_test() {
+    // given
+    MonitoredPool monitoredPool = new MonitoredPool("lazy", 4, 6);
+
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    Stream<Callable<String>> callables =
+            IntStream.range(1, 101)
+                     .peek(count -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                     .mapToObj(count -> (Callable<String>) () -> {
+                       try {
+                         Thread.sleep(5);
+                         if (count % 10 == 0) throw new RuntimeException("error-" + (count % 20));
+                         return "call-" + count;
+                       }
+                       finally {
+                         inFlight.decrementAndGet();
+                       }
+                     });
+
+    // when
+    MonitoredPool.InvocationContext<String> context = monitoredPool.invoke(callables);
+
+    // then
+    Assertions.assertThat(context.getResults()).isNull();
+    Assertions.assertThat(context.getTotalCount()).isEqualTo(100);
+    Assertions.assertThat(context.getSuccessCount()).isEqualTo(90);
+    Assertions.assertThat(context.getFailedCount()).isEqualTo(10);
+    Assertions.assertThat(context.getErrorCounts()).containsOnly(Assertions.entry("error-0", 5L),
+                                                                 Assertions.entry("error-10", 5L));
+    Assertions.assertThat(maxInFlight.get()).isLessThanOrEqualTo(6);
+  }
+
+  @Test
+  public void task_timeout_test() {
+    // given
+    MonitoredPool monitoredPool = new MonitoredPool("task-timeout", 4);
+    monitoredPool.setTaskTimeout(Duration.ofMillis(200));
+
+    List<Callable<String>> callables =
+            IntStream.range(1, 9)
+                     .mapToObj(count -> (Callable<String>) () -> {
+                       Thread.sleep(count % 4 == 0 ? 10_000 : 10);
+                       return "call-" + count;
+                     })
+                     .collect(Collectors.toList());
+
+    // when
+    long start = System.nanoTime();
+    Collection<String> results = monitoredPool.invoke(callables);
+
+    // then
+    Assertions.assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    Assertions.assertThat(results).hasSize(8);
+    Assertions.assertThat(results).contains("call-1", "call-7").doesNotContain("call-4", "call-8");
+
+    MonitoredPool.Progress progress = monitoredPool.getProgress();
+    Assertions.assertThat(progress.isFinished()).isTrue();
+    Assertions.assertThat(progress.getTimedOutCount()).isEqualTo(2);
+    Assertions.assertThat(progress.getFailedCount()).isEqualTo(2);
+    Assertions.assertThat(progress.getSuccessCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void invocation_timeout_test() {
+    // given
+    MonitoredPool monitoredPool = new MonitoredPool("invocation-timeout", 2, 4);
+    monitoredPool.setInvocationTimeout(Duration.ofMillis(500));
+
+    AtomicInteger created = new AtomicInteger();
+    Stream<Callable<String>> callables =
+            IntStream.range(1, 1001)
+                     .peek(count -> created.incrementAndGet())
+                     .mapToObj(count -> (Callable<String>) () -> {
+                       Thread.sleep(100);
+                       return "call-" + count;
+                     });
+
+    // when
+    long start = System.nanoTime();
+    MonitoredPool.InvocationContext<String> context = monitoredPool.invoke(callables);
+
+    // then
+    Assertions.assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    Assertions.assertThat(context.isCancelled()).isTrue();
+    Assertions.assertThat(created.get()).isLessThan(100);
+    Assertions.assertThat(context.getSuccessCount()).isBetween(2L, 20L);
+  }
+
+  @Test
+  public void progress_test() throws InterruptedException {
+    // given
+    MonitoredPool monitoredPool = new MonitoredPool("progress", 2, 2);
+    Assertions.assertThat(monitoredPool.getProgress()).isNull();
+
+    Stream<Callable<String>> callables =
+            IntStream.range(1, 21)
+                     .mapToObj(count -> (Callable<String>) () -> {
+                       Thread.sleep(50);
+                       return "call-" + count;
+                     });
+
+    // when
+    Thread invoker = new Thread(() -> monitoredPool.invoke(callables, 20));
+    invoker.start();
+    Thread.sleep(300);
+    MonitoredPool.Progress running = monitoredPool.getProgress();
+    invoker.join();
+    MonitoredPool.Progress done = monitoredPool.getProgress();
+
+    // then
+    log.info("progress while running: {}", running);
+    Assertions.assertThat(running.isFinished()).isFalse();
+    Assertions.assertThat(running.getExpectedCount()).isEqualTo(20);
+    Assertions.assertThat(running.getCompletedCount()).isBetween(1L, 19L);
+    Assertions.assertThat(running.getSubmittedCount()).isGreaterThanOrEqualTo(running.getCompletedCount());
+    Assertions.assertThat(running.getEstimatedTimeRemaining()).isNotNull();
+
+    log.info("progress when done: {}", done);
+    Assertions.assertThat(done.isFinished()).isTrue();
+    Assertions.assertThat(done.getCompletedCount()).isEqualTo(20);
+    Assertions.assertThat(done.getThroughput()).isPositive();
+    Assertions.assertThat(done.getLatencyP50()).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+    Assertions.assertThat(done.getLatencyP99()).isGreaterThanOrEqualTo(done.getLatencyP50());
+  }
+
+  @Test
+  public void invoke_guard_test() throws InterruptedException {
+    // given
+    MonitoredPool monitoredPool = new MonitoredPool("guard", 2, 2);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Stream<Callable<String>> blocking = Stream.of(() -> {
+      started.countDown();
+      release.await();
+      return "blocking";
+    });
+
+    Thread invoker = new Thread(() -> monitoredPool.invoke(blocking, 1));
+    invoker.start();
+    started.await();
+
+    // when
+    boolean invokingWhileRunning = monitoredPool.isInvoking();
+    boolean activeWhileRunning = monitoredPool.isActive();
+    Throwable concurrentInvoke = Assertions.catchThrowable(() -> monitoredPool.invoke(Stream.of(() -> "second"), 1));
+
+    release.countDown();
+    invoker.join();
+    MonitoredPool.InvocationContext<String> next = monitoredPool.invoke(Stream.of(() -> "next"), 1);
+
+    // then
+    Assertions.assertThat(invokingWhileRunning).isTrue();
+    Assertions.assertThat(activeWhileRunning).isTrue();
+    Assertions.assertThat(concurrentInvoke).hasMessageContaining("another process is running");
+    Assertions.assertThat(monitoredPool.isInvoking()).isFalse();
+    Assertions.assertThat(next.getSuccessCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void virtual_threads_test() {
+    // given
+    MonitoredPool monitoredPool = MonitoredPool.withVirtualThreads("virtual", 16);
+    ConcurrencyLimiter downstream = new ConcurrencyLimiter("downstream", 3);
+
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Stream<Callable<String>> callables =
+            IntStream.range(1, 51)
+                     .mapToObj(count -> (Callable<String>) () -> downstream.call(() -> {
+                       maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                       try {
+                         Thread.sleep(5);
+                         return "call-" + count;
+                       }
+                       finally {
+                         running.decrementAndGet();
+                       }
+                     }));
+
+    // when
+    MonitoredPool.InvocationContext<String> context = monitoredPool.invoke(callables);
+
+    // then
+    Assertions.assertThat(monitoredPool.isVirtualThreads()).isEqualTo(VirtualThreads.isAvailable());
+    Assertions.assertThat(context.getSuccessCount()).isEqualTo(50);
+    Assertions.assertThat(maxRunning.get()).isLessThanOrEqualTo(3);
+    Assertions.assertThat(downstream.getCallCount()).isEqualTo(50);
+    Assertions.assertThat(downstream.getActiveCount()).isZero();
+  }
+
+}
@@ -1,6 +1,10 @@
 package zone.cogni.asquare.cube.pagination;
 
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.vocabulary.RDFS;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,9 +12,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.asquare.triplestore.tdb2.Tdb2StoreService;
 import zone.cogni.sem.jena.JenaUtils;
 
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(classes = {PaginatedQueryTestConfig.class})
@@ -42,4 +53,95 @@ class PaginatedQueryTest {
 
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test_keyset_select() {
+    // given
+    Model model = JenaUtils.read(new ClassPathResource("pagination/homer.ttl"));
+    RdfStoreService rdfStore = paginatedQuery.getRdfStore(model);
+    String selectQuery = "select ?s ?p ?o where { ?s ?p ?o }";
+    String selectSubjects = "select distinct ?s where { ?s ?p ?o }";
+
+    // when
+    PaginatedQuery keysetQuery = new PaginatedQuery(2, new KeysetPaginationStrategy("s"));
+    List<Map<String, RDFNode>> offsetRows = paginatedQuery.select(rdfStore, selectSubjects);
+    List<Map<String, RDFNode>> keysetRows = keysetQuery.select(rdfStore, selectSubjects);
+
+    // then
+    assertThat(keysetRows).containsExactlyInAnyOrderElementsOf(offsetRows);
+    assertThrows(RuntimeException.class,
+                 () -> keysetQuery.select(rdfStore, "select ?p where { ?s ?p ?o }"));
+    assertThrows(RuntimeException.class,
+                 () -> keysetQuery.select(rdfStore, selectQuery + " order by ?p"));
+  }
+
+  @Test
+  public void test_keyset_model() {
+    // given
+    Model model = JenaUtils.read(new ClassPathResource("pagination/homer.ttl"));
+    RdfStoreService rdfStore = paginatedQuery.getRdfStore(model);
+    String constructQuery = "construct { ?s ?p ?o } where { ?s ?p ?o }";
+
+    // when
+    PaginatedQuery keysetQuery = new PaginatedQuery(2, new KeysetPaginationStrategy("s"));
+    Model keyset = keysetQuery.getModel(rdfStore, constructQuery);
+
+    // then
+    assertTrue(keyset.isIsomorphicWith(model));
+  }
+
+  @Test
+  public void test_keyset_graph_with_blank_node_subjects() {
+    // given
+    String graphUri = "http://demo.com/graph";
+    Model model = JenaUtils.read(new ClassPathResource("pagination/homer.ttl"));
+    model.createResource()
+         .addProperty(RDFS.label, "blank one")
+         .addProperty(RDFS.seeAlso, model.createResource().addProperty(RDFS.label, "blank two"));
+
+    Tdb2StoreService rdfStore = Tdb2StoreService.inMemory(null);
+    rdfStore.addData(model, graphUri);
+
+    // when
+    PaginatedQuery keysetQuery = new PaginatedQuery(2, new KeysetPaginationStrategy("s"));
+    Model keyset = keysetQuery.getGraph(rdfStore, graphUri, true);
+
+    // then
+    assertTrue(keyset.isIsomorphicWith(model));
+  }
+
+  @Test
+  public void test_stream_model() {
+    // given
+    Model model = JenaUtils.read(new ClassPathResource("pagination/homer.ttl"));
+    RdfStoreService rdfStore = paginatedQuery.getRdfStore(model);
+    String constructQuery = "construct { ?s ?p ?o } where { ?s ?p ?o }";
+    PaginatedQuery smallPages = new PaginatedQuery(2);
+
+    // when
+    Model streamed = ModelFactory.createDefaultModel();
+    smallPages.streamModel(rdfStore, constructQuery, StreamRDFLib.graph(streamed.getGraph()));
+    long firstTriples = smallPages.streamModel(rdfStore, constructQuery).limit(3).count();
+
+    // then
+    assertTrue(streamed.isIsomorphicWith(model));
+    assertEquals(3, firstTriples);
+  }
+
+  @Test
+  public void test_select_uris() {
+    // given
+    Model model = JenaUtils.read(new ClassPathResource("pagination/homer.ttl"));
+    RdfStoreService rdfStore = paginatedQuery.getRdfStore(model);
+    String selectSubjects = "select distinct ?s where { ?s ?p ?o }";
+
+    // when
+    List<String> uris = new PaginatedQuery(2).selectUris(rdfStore, selectSubjects);
+
+    // then
+    List<Map<String, RDFNode>> rows = paginatedQuery.select(rdfStore, selectSubjects);
+    assertThat(uris).containsExactlyInAnyOrderElementsOf(paginatedQuery.convertSingleColumnUriToStringList(rows));
+    assertThrows(RuntimeException.class,
+                 () -> paginatedQuery.selectUris(rdfStore, "select ?s ?p where { ?s ?p ?o }"));
+  }
+
+}
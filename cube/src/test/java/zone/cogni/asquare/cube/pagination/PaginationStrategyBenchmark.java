@@ -0,0 +1,172 @@
+package zone.cogni.asquare.cube.pagination;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.triplestore.RdfStoreService;
+import zone.cogni.asquare.triplestore.jenamemory.InternalRdfStoreService;
+import zone.cogni.asquare.triplestore.tdb2.Tdb2StoreService;
+import zone.cogni.sem.jena.template.JenaResultSetHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares how the cost per page of offset and keyset pagination grows with the page number.
+ * <p>
+ * Run with <code>-Dbenchmark=true</code>, size can be changed with <code>-Dbenchmark.subjects=...</code>.
+ * For each store and strategy the average duration of the first and the last tenth of the pages is logged,
+ * their ratio is the growth of the cost per page; both strategies must return the same rows.
+ * </p>
+ * <p>
+ * Note: the in memory and TDB2 stores have no range index to evaluate <code>str(?s) &gt; last</code>,
+ * each keyset page still sorts all solutions after the last key, so on these stores its cost per page goes down
+ * while the cost of offset pages goes up; neither is constant.
+ * The benchmark reports the growth instead of asserting a constant cost.
+ * </p>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PaginationStrategyBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(PaginationStrategyBenchmark.class);
+
+  private static final int pageSize = 1000;
+  private static final String selectQuery = "select distinct ?s where { ?s a ?type }";
+
+  @Test
+  public void internal_rdf_store() {
+    Model model = createModel();
+    run("internal", new InternalRdfStoreService(model), model);
+  }
+
+  @Test
+  public void tdb2_store() {
+    Model model = createModel();
+    Tdb2StoreService tdb2 = Tdb2StoreService.inMemory(null);
+    try {
+      tdb2.addData(model);
+      run("tdb2", tdb2, model);
+    }
+    finally {
+      tdb2.getDataset().close();
+    }
+  }
+
+  private void run(String storeName, RdfStoreService rdfStore, Model model) {
+    Set<String> subjects = model.listSubjects()
+                                .mapWith(Resource::getURI)
+                                .toSet();
+
+    // warm up, first run is dominated by class loading and JIT compilation
+    measure(rdfStore, new OffsetPaginationStrategy(), subjects);
+    measure(rdfStore, new KeysetPaginationStrategy("s"), subjects);
+
+    List<Long> offsetPages = measure(rdfStore, new OffsetPaginationStrategy(), subjects);
+    List<Long> keysetPages = measure(rdfStore, new KeysetPaginationStrategy("s"), subjects);
+
+    log(storeName, "offset", offsetPages);
+    log(storeName, "keyset", keysetPages);
+  }
+
+  private List<Long> measure(RdfStoreService rdfStore, PaginationStrategy strategy, Set<String> expectedSubjects) {
+    TimingRdfStoreService timingStore = new TimingRdfStoreService(rdfStore);
+    List<String> subjects = new ArrayList<>();
+
+    new PaginatedQuery(pageSize, strategy).select(timingStore, selectQuery, row -> subjects.add(row.getResource("s").getURI()));
+
+    assertThat(subjects).doesNotHaveDuplicates()
+                        .containsExactlyInAnyOrderElementsOf(expectedSubjects);
+    return timingStore.durations;
+  }
+
+  private void log(String storeName, String strategyName, List<Long> pages) {
+    int tenth = Math.max(1, pages.size() / 10);
+    double firstPages = average(pages.subList(0, tenth));
+    double lastPages = average(pages.subList(pages.size() - tenth, pages.size()));
+    long total = pages.stream().mapToLong(Long::longValue).sum();
+
+    log.info("{} {}: {} pages, total {} ms, first pages {} ms, last pages {} ms, growth of cost per page x{}",
+             storeName, strategyName, pages.size(), total / 1_000_000,
+             String.format("%.2f", firstPages / 1_000_000), String.format("%.2f", lastPages / 1_000_000),
+             String.format("%.1f", lastPages / firstPages));
+  }
+
+  private double average(List<Long> durations) {
+    return durations.stream().mapToLong(Long::longValue).average().orElse(0);
+  }
+
+  private Model createModel() {
+    int subjects = Integer.getInteger("benchmark.subjects", 100_000);
+
+    Model model = ModelFactory.createDefaultModel();
+    Resource type = model.createResource("http://demo.com/model#Thing");
+    for (int i = 0; i < subjects; i++) {
+      Resource subject = model.createResource("http://demo.com/data/" + i);
+      model.add(subject, RDF.type, type);
+      model.add(subject, RDFS.label, "thing " + i);
+    }
+    return model;
+  }
+
+  /**
+   * Measures duration of each select query, which is the cost of one page.
+   */
+  private static class TimingRdfStoreService implements RdfStoreService {
+
+    private final RdfStoreService delegate;
+    private final List<Long> durations = new ArrayList<>();
+
+    private TimingRdfStoreService(RdfStoreService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public <R> R executeSelectQuery(Query query, QuerySolutionMap bindings, JenaResultSetHandler<R> resultSetHandler, String context) {
+      long start = System.nanoTime();
+      R result = delegate.executeSelectQuery(query, bindings, resultSetHandler, context);
+      durations.add(System.nanoTime() - start);
+      return result;
+    }
+
+    @Override
+    public void addData(Model model) {
+      delegate.addData(model);
+    }
+
+    @Override
+    public void addData(Model model, String graphUri) {
+      delegate.addData(model, graphUri);
+    }
+
+    @Override
+    public boolean executeAskQuery(Query query, QuerySolutionMap bindings) {
+      return delegate.executeAskQuery(query, bindings);
+    }
+
+    @Override
+    public Model executeConstructQuery(Query query, QuerySolutionMap bindings) {
+      return delegate.executeConstructQuery(query, bindings);
+    }
+
+    @Override
+    public void executeUpdateQuery(String updateQuery) {
+      delegate.executeUpdateQuery(updateQuery);
+    }
+
+    @Override
+    public void delete() {
+      delegate.delete();
+    }
+  }
+}
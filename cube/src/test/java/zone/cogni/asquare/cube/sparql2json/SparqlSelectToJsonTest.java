@@ -1,7 +1,10 @@
 package zone.cogni.asquare.cube.sparql2json;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,4 +41,20 @@ class SparqlSelectToJsonTest {
     assertThat(convert.get("spouseName").asText()).isEqualTo("Marge Simpson");
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test_facets_reused_with_bindings() {
+    // given
+    Model model = JenaUtils.read(new ClassPathResource("sparql2json/model.ttl"));
+    RDFNode homer = ResourceFactory.createResource("http://demo.com/data#homer");
+    RDFNode marge = ResourceFactory.createResource("http://demo.com/data#marge");
+
+    // when
+    ObjectNode homerFacets = selectToJson.convert(model, ImmutableMap.of("s", homer));
+    ObjectNode margeFacets = selectToJson.convert(model, ImmutableMap.of("s", marge));
+
+    // then
+    assertThat(homerFacets.get("spouseName").asText()).isEqualTo("Marge Simpson");
+    assertThat(margeFacets.isEmpty()).isTrue();
+  }
+
+}
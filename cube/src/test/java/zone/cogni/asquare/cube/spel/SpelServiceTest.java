@@ -0,0 +1,89 @@
+package zone.cogni.asquare.cube.spel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpelServiceTest {
+
+  @Test
+  public void template_is_parsed_once() {
+    // given
+    SpelService spelService = new SpelService();
+
+    // when
+    String first = spelService.processTemplate("<#{[name]}>", Collections.singletonMap("name", "one"));
+    String second = spelService.processTemplate("<#{[name]}>", Collections.singletonMap("name", "two"));
+
+    // then
+    assertThat(first).isEqualTo("<one>");
+    assertThat(second).isEqualTo("<two>");
+    assertThat(spelService.getCacheStats().loadCount()).isEqualTo(1);
+    assertThat(spelService.getCacheStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void template_is_parsed_once_by_concurrent_threads() throws Exception {
+    // given
+    SpelService spelService = new SpelService();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+
+    // when
+    List<Future<String>> results = IntStream.range(0, 100)
+                                            .mapToObj(i -> executor.submit(() -> {
+                                              start.await();
+                                              Map<String, Object> root = Collections.singletonMap("index", i);
+                                              return spelService.processTemplate("value #{[index] % 4}", root);
+                                            }))
+                                            .collect(Collectors.toList());
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    // then
+    for (int i = 0; i < results.size(); i++) {
+      assertThat(results.get(i).get()).isEqualTo("value " + i % 4);
+    }
+    assertThat(spelService.getCacheStats().loadCount()).isEqualTo(1);
+    assertThat(spelService.getCacheStats().requestCount()).isEqualTo(100);
+  }
+
+  @Test
+  public void cache_size_is_bounded() {
+    // given
+    SpelService spelService = new SpelService(10);
+
+    // when
+    IntStream.range(0, 100)
+             .forEach(i -> spelService.processTemplate("<uri-" + i + "-#{[id]}>", Collections.singletonMap("id", i)));
+
+    // then
+    assertThat(spelService.getCacheSize()).isLessThanOrEqualTo(10);
+    assertThat(spelService.getCacheStats().evictionCount()).isGreaterThanOrEqualTo(90);
+  }
+
+  @Test
+  public void invalid_template_fails_with_template_in_message() {
+    // given
+    SpelService spelService = new SpelService();
+
+    // then
+    assertThatThrownBy(() -> spelService.processTemplate("#{[name}", Collections.emptyMap()))
+            .isInstanceOf(RuntimeException.class)
+            .hasMessageContaining("SpEL expression template parsing failed for")
+            .hasMessageContaining("#{[name}");
+  }
+}
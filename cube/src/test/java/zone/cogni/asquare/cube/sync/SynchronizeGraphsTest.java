@@ -1,14 +1,21 @@
 package zone.cogni.asquare.cube.sync;
 
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 import zone.cogni.asquare.triplestore.RdfStoreService;
 import zone.cogni.sem.jena.template.JenaResultSetHandlers;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -310,6 +317,94 @@ class SynchronizeGraphsTest {
     Assertions.assertThat(graphs).doesNotContain("http://demo.com/20080999");
   }
 
+  @Test
+  public void incremental_synchronize_one_modified_into_target() {
+    // given
+    RdfStoreService source = config.sourceRdfStore("19880130", "19880140", "20080240");
+    RdfStoreService target = config.targetRdfStore("19880130-wrong-stamp");
+    SynchronizeGraphs sync = config.synchronizedGraph(source, target);
+    sync.setIncrementalUpdate(true);
+    sync.setMaxDeltaRatio(1.0);
+
+    // when
+    String graphUri = "http://demo.com/19880130";
+    GraphSyncResult result = sync.synchronizeOne(graphUri);
+
+    // then
+    Assertions.assertThat(result.getAction()).isEqualTo(GraphSyncResult.Action.PATCHED);
+    Assertions.assertThat(result.getAddedTriples()).isEqualTo(1);
+    Assertions.assertThat(result.getRemovedTriples()).isEqualTo(1);
+
+    List<Map<String, RDFNode>> rows = getTargetData(target);
+    Assertions.assertThat(rows).hasSize(2);
+    Assertions.assertThat(getSlice(rows, "o")).contains("1988-08-10T08:00:00Z")
+              .doesNotContain("2000-01-01T00:00:00Z");
+  }
+
+  @Test
+  public void incremental_synchronize_one_replaces_target_when_delta_is_too_large() {
+    // given
+    RdfStoreService source = config.sourceRdfStore("19880130", "19880140", "20080240");
+    RdfStoreService target = config.targetRdfStore("19880130-wrong-stamp");
+    SynchronizeGraphs sync = config.synchronizedGraph(source, target);
+    sync.setIncrementalUpdate(true);
+
+    // when
+    GraphSyncResult result = sync.synchronizeOne("http://demo.com/19880130");
+
+    // then
+    Assertions.assertThat(result.getAction()).isEqualTo(GraphSyncResult.Action.REPLACED);
+    Assertions.assertThat(result.getAddedTriples()).isEqualTo(2);
+    Assertions.assertThat(result.getRemovedTriples()).isEqualTo(2);
+
+    List<Map<String, RDFNode>> rows = getTargetData(target);
+    Assertions.assertThat(rows).hasSize(2);
+    Assertions.assertThat(getSlice(rows, "o")).contains("1988-08-10T08:00:00Z");
+  }
+
+  @Test
+  public void incremental_synchronize_does_not_write_unchanged_graphs() {
+    // given
+    RdfStoreService source = config.sourceRdfStore("19880130", "19880140", "20080240");
+    RdfStoreService target = config.targetRdfStore("19880130", "19880140", "20080240");
+    SynchronizeGraphs sync = config.synchronizedGraph(source, target);
+    sync.setIncrementalUpdate(true);
+
+    // when
+    Collection<GraphSyncResult> results = sync.forceSynchronize();
+
+    // then
+    Assertions.assertThat(results).hasSize(3)
+              .allSatisfy(result -> Assertions.assertThat(result.getAction()).isEqualTo(GraphSyncResult.Action.UNCHANGED));
+    Assertions.assertThat(getTargetData(target)).hasSize(6);
+  }
+
+  @Test
+  public void incremental_synchronize_replaces_target_when_added_triples_have_blank_nodes() {
+    // given
+    RdfStoreService source = config.sourceRdfStore("19880130");
+    RdfStoreService target = config.targetRdfStore("19880130-wrong-stamp");
+    SynchronizeGraphs sync = config.synchronizedGraph(source, target);
+    sync.setIncrementalUpdate(true);
+    sync.setMaxDeltaRatio(1.0);
+
+    String graphUri = "http://demo.com/19880130";
+    Model currentTargetModel = target.executeConstructQuery("construct { ?s ?p ?o } { graph <" + graphUri + "> { ?s ?p ?o } }");
+    Model targetModel = ModelFactory.createDefaultModel().add(currentTargetModel);
+    Resource blank = targetModel.createResource();
+    targetModel.add(blank, RDF.type, targetModel.createResource("http://demo.com/Note"))
+               .add(blank, RDFS.label, "note");
+
+    // when
+    GraphSyncResult result = ReflectionTestUtils.invokeMethod(sync, "patchTargetGraph", graphUri, currentTargetModel, targetModel);
+
+    // then
+    Assertions.assertThat(result.getAction()).isEqualTo(GraphSyncResult.Action.REPLACED);
+    List<Map<String, RDFNode>> rows = getTargetData(target);
+    Assertions.assertThat(rows).hasSize(4);
+    Assertions.assertThat(rows.stream().map(row -> row.get("s")).filter(RDFNode::isAnon).distinct()).hasSize(1);
+  }
+
   private List<Map<String, RDFNode>> getTargetData(RdfStoreService target) {
     List<Map<String, RDFNode>> maps = target.executeSelectQuery("select * { graph ?g {?s ?p ?o} } order by ?g ?s ?p ?o",
                                                                 JenaResultSetHandlers.listOfMapsResolver);
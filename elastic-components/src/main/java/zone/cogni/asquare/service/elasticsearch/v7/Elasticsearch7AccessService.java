@@ -19,6 +19,7 @@ import zone.cogni.asquare.access.AccessType;
 import zone.cogni.asquare.access.ApplicationView;
 import zone.cogni.asquare.access.ElasticAccessService;
 import zone.cogni.asquare.service.elasticsearch.Params;
+import zone.cogni.asquare.service.elasticsearch.StreamSearchOptions;
 import zone.cogni.asquare.access.simplerdf.RdfResource;
 import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
 import zone.cogni.asquare.edit.DeltaResource;
@@ -31,10 +32,16 @@ import zone.cogni.asquare.web.rest.controller.exceptions.NotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static io.vavr.API.$;
 import static io.vavr.API.Case;
@@ -55,6 +62,10 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
 
   private Params.Refresh refreshParam;
 
+  private int reindexThreads = Runtime.getRuntime().availableProcessors();
+  private int reindexPageSize = 1000;
+  private BulkIndexer.Configuration reindexBulkConfiguration = new BulkIndexer.Configuration();
+
   public Elasticsearch7AccessService(String indexName,
                                      Elasticsearch7Store elasticStore,
                                      ApplicationProfile applicationProfile,
@@ -73,6 +84,36 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
     this.refreshParam = refreshParam;
   }
 
+  public int getReindexThreads() {
+    return reindexThreads;
+  }
+
+  /**
+   * @param reindexThreads number of threads converting resources to json during {@link #reindex(ApplicationView, List, ObjectNode)}
+   */
+  public void setReindexThreads(int reindexThreads) {
+    this.reindexThreads = reindexThreads;
+  }
+
+  public int getReindexPageSize() {
+    return reindexPageSize;
+  }
+
+  /**
+   * @param reindexPageSize number of resources loaded at a time during {@link #reindex(ApplicationView, List, ObjectNode)}
+   */
+  public void setReindexPageSize(int reindexPageSize) {
+    this.reindexPageSize = reindexPageSize;
+  }
+
+  public BulkIndexer.Configuration getReindexBulkConfiguration() {
+    return reindexBulkConfiguration;
+  }
+
+  public void setReindexBulkConfiguration(BulkIndexer.Configuration reindexBulkConfiguration) {
+    this.reindexBulkConfiguration = reindexBulkConfiguration;
+  }
+
   public Function<TypedResource, ObjectNode> getFacetConversion() {
     return facetConversion;
   }
@@ -105,23 +146,22 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
   @Override
   public List<? extends TypedResource> findAll(ApplicationProfile.Type type) {
     SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-      .query(QueryBuilders.termQuery("data.type.keyword", type.getClassId()))
-      .fetchSource(true);
+      .query(QueryBuilders.termQuery("data.type.keyword", type.getClassId()));
 
     ObjectNode searchRequestBody = toObjectNode(searchSourceBuilder);
-    ObjectNode searchResponseBody = elasticStore.search(indexName, searchRequestBody);
+    StreamSearchOptions options = new StreamSearchOptions().withSourceFields("data");
 
-    return getTypedResourcesFrom(searchResponseBody);
-  }
-
-  private List<? extends TypedResource> getTypedResourcesFrom(ObjectNode searchResponseBody) {
-    List<ObjectNode> objects = new ArrayList<>();
+    // streamed so all instances are returned, a single search stops at the default number of hits
+    List<ObjectNode> objects;
+    try (Stream<ObjectNode> hits = elasticStore.streamSearch(indexName, searchRequestBody, options)) {
+      objects = hits.map(hit -> (ObjectNode) hit.get("_source").get("data"))
+                    .collect(Collectors.toList());
+    }
 
-    ArrayNode hits = (ArrayNode) searchResponseBody.get("hits").get("hits");
-    hits.forEach(hit -> {
-      objects.add((ObjectNode) hit.get("_source").get("data"));
-    });
+    return getTypedResourcesFrom(objects);
+  }
 
+  private List<? extends TypedResource> getTypedResourcesFrom(List<ObjectNode> objects) {
     ArrayNode jsonNodes = objectMapper.createArrayNode().addAll(objects);
     ObjectNode jsonRoot = (ObjectNode) objectMapper.createObjectNode().set("data", jsonNodes);
 
@@ -222,6 +262,13 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
   }
 
   public void indexResource(TypedResource resource, ObjectNode facets, Params params) {
+    ObjectNode json = getDocument(resource, facets, params);
+    indexJson(json, indexName, resource.getResource().getURI(), params);
+
+    log.debug("indexed document '{}' for index '{}'.", resource.getResource().getURI(), indexName);
+  }
+
+  private ObjectNode getDocument(TypedResource resource, ObjectNode facets, Params params) {
     ObjectNode json = jsonConversion.getTypedResourceToJson().withTypedResource(resource).get();
     if (facets != null) {
       json.set("facets", facets);
@@ -229,10 +276,7 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
     if(params.hasGraph()) {
       json.set("graph", new TextNode(params.getGraph()));
     }
-
-    indexJson(json, indexName, resource.getResource().getURI(), params);
-
-    log.debug("indexed document '{}' for index '{}'.", resource.getResource().getURI(), indexName);
+    return json;
   }
 
   public void deleteAll(ApplicationProfile.Type type) {
@@ -256,21 +300,186 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
     elasticStore.deleteDocument(indexName, resource.getResource().getURI(), params);
   }
 
+  /**
+   * Rebuilds the index in a new index and points <code>indexName</code>, as an alias, to it when all resources are indexed.
+   * <p>
+   * Resources are loaded one type and one page of <code>reindexPageSize</code> resources at a time,
+   * converted to json by <code>reindexThreads</code> threads
+   * and sent with a {@link BulkIndexer}.
+   * Searches keep using the current index during the rebuild.
+   * If anything fails, including the alias switch, the new index is deleted and the current index stays in place.
+   * </p>
+   * <p>
+   * When <code>indexName</code> is still a concrete index, it is replaced by the alias in the same atomic operation.
+   * </p>
+   * <p>
+   * Note: {@link #indexResource(TypedResource)} and {@link #deleteResource(TypedResource)} calls made during the rebuild
+   * go to the current index only and are lost when the alias switches,
+   * changes made while reindexing have to be indexed again afterwards.
+   * </p>
+   */
   public void reindex(ApplicationView sourceView, List<ApplicationProfile.Type> types, ObjectNode indexSettings) {
-    log.info(".. loading data for index '{}' ...", indexName);
+    String newIndexName = indexName + "-" + System.currentTimeMillis();
 
-    List<? extends TypedResource> typedResources = types.stream()
-                                                        .flatMap(type -> sourceView.getRepository().findAll(type).stream())
-                                                        .collect(Collectors.toList());
+    log.info(".. reindexing '{}' in new index '{}' ...", indexName, newIndexName);
+    elasticStore.createIndex(newIndexName, indexSettings);
 
-    resetIndex(indexSettings);
+    List<String> oldIndexes;
+    try {
+      indexAll(sourceView, types, newIndexName);
+      oldIndexes = switchAlias(newIndexName);
+    }
+    catch (RuntimeException e) {
+      log.error(".. reindex of '{}' failed, deleting new index '{}'", indexName, newIndexName);
+      deleteNewIndex(newIndexName, e);
+      throw e;
+    }
 
-    log.info(".. indexing '{}' ...", indexName);
-    Runnable progress = getProgress(typedResources.size());
+    deleteOldIndexes(oldIndexes);
+  }
 
-    typedResources.stream()
-                  .peek(j -> progress.run())
-                  .forEach(this::indexResource);
+  private void deleteNewIndex(String newIndexName, RuntimeException cause) {
+    try {
+      elasticStore.deleteIndex(newIndexName);
+    }
+    catch (RuntimeException e) {
+      log.error(".. failed to delete new index '{}'", newIndexName, e);
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Alias already points to the new index, a previous index that cannot be deleted is only logged.
+   */
+  private void deleteOldIndexes(List<String> oldIndexes) {
+    oldIndexes.forEach(oldIndex -> {
+      log.info(".. deleting previous index '{}'", oldIndex);
+      try {
+        elasticStore.deleteIndex(oldIndex);
+      }
+      catch (RuntimeException e) {
+        log.warn(".. failed to delete previous index '{}'", oldIndex, e);
+      }
+    });
+  }
+
+  private void indexAll(ApplicationView sourceView, List<ApplicationProfile.Type> types, String newIndexName) {
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService converters = getReindexExecutor();
+
+    BulkIndexer bulkIndexer = new BulkIndexer(elasticStore, reindexBulkConfiguration);
+    try {
+      for (ApplicationProfile.Type type : types) {
+        if (failure.get() != null) break;
+
+        // only one page of resources is loaded at a time, converters queue is bounded
+        log.info(".. .. type '{}'", type.getClassId());
+        sourceView.getRepository().findAll(type, reindexPageSize, typedResources -> {
+          for (TypedResource typedResource : typedResources) {
+            // stops loading next pages too
+            throwIfFailed(failure);
+
+            converters.execute(() -> convertAndIndex(typedResource, newIndexName, bulkIndexer, counter, failure));
+          }
+        });
+      }
+    }
+    finally {
+      awaitTermination(converters);
+      bulkIndexer.close();
+    }
+
+    throwIfFailed(failure);
+    if (bulkIndexer.getFailureCount() > 0)
+      throw new RuntimeException("reindex of '" + indexName + "' failed: "
+                                 + bulkIndexer.getFailureCount() + " documents were rejected, see bulk indexer failures");
+
+    log.info(".. .. {} resources indexed in '{}'", counter.get(), newIndexName);
+  }
+
+  private void throwIfFailed(AtomicReference<RuntimeException> failure) {
+    if (failure.get() != null) throw new RuntimeException("reindex of '" + indexName + "' failed", failure.get());
+  }
+
+  private void convertAndIndex(TypedResource typedResource,
+                               String newIndexName,
+                               BulkIndexer bulkIndexer,
+                               AtomicInteger counter,
+                               AtomicReference<RuntimeException> failure) {
+    if (failure.get() != null) return;
+
+    try {
+      String uri = typedResource.getResource().getURI();
+      ObjectNode facets = facetConversion == null ? null : facetConversion.apply(typedResource);
+      bulkIndexer.index(newIndexName, uri, getDocument(typedResource, facets, getParams()));
+
+      if (counter.incrementAndGet() % 500 == 0) log.info(".. .. {} resources converted ...", counter.get());
+    }
+    catch (RuntimeException e) {
+      failure.compareAndSet(null, e);
+    }
+  }
+
+  /**
+   * Queue is bounded so only a few resources per thread wait to be converted,
+   * when it is full the reindex thread converts the resource itself.
+   */
+  private ExecutorService getReindexExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(reindexThreads, reindexThreads,
+                                  0L, TimeUnit.MILLISECONDS,
+                                  new ArrayBlockingQueue<>(reindexThreads * 4),
+                                  runnable -> {
+                                    Thread thread = new Thread(runnable, "reindex-" + indexName + "-" + threadCount.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                  },
+                                  new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  private void awaitTermination(ExecutorService executorService) {
+    executorService.shutdown();
+    try {
+      while (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.info(".. .. waiting for conversions to finish ...");
+      }
+    }
+    catch (InterruptedException e) {
+      executorService.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while waiting for reindex of '" + indexName + "'", e);
+    }
+  }
+
+  /**
+   * Moves alias <code>indexName</code> to the new index in one <code>_aliases</code> request.
+   *
+   * @return indexes the alias pointed to before
+   */
+  private List<String> switchAlias(String newIndexName) {
+    List<String> oldIndexes = elasticStore.getIndexesForAlias(indexName);
+    boolean isConcreteIndex = oldIndexes.isEmpty() && elasticStore.indexExists(indexName);
+
+    ObjectNode request = objectMapper.createObjectNode();
+    ArrayNode actions = request.putArray("actions");
+    actions.addObject()
+           .putObject("add")
+           .put("index", newIndexName)
+           .put("alias", indexName);
+    oldIndexes.forEach(oldIndex -> actions.addObject()
+                                          .putObject("remove")
+                                          .put("index", oldIndex)
+                                          .put("alias", indexName));
+    if (isConcreteIndex) {
+      actions.addObject()
+             .putObject("remove_index")
+             .put("index", indexName);
+    }
+
+    log.info(".. switching alias '{}' to index '{}'", indexName, newIndexName);
+    elasticStore.updateAliases(request);
+    return oldIndexes;
   }
 
   public Params getParams() {
@@ -287,7 +496,10 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
   public void resetIndex(ObjectNode indexSettings) {
     log.info(".. resetting index '{}' ...", indexName);
     try {
-      elasticStore.deleteIndex(indexName);
+      // after a reindex the name is an alias, the indexes behind it are deleted instead
+      List<String> aliasedIndexes = elasticStore.getIndexesForAlias(indexName);
+      if (aliasedIndexes.isEmpty()) elasticStore.deleteIndex(indexName);
+      else aliasedIndexes.forEach(elasticStore::deleteIndex);
       log.info(".. index '{}' deleted", indexName);
     }
     catch (RuntimeException e) {
@@ -299,14 +511,6 @@ public class Elasticsearch7AccessService implements ElasticAccessService {
     log.info(".. index '{}' created", indexName);
   }
 
-  private Runnable getProgress(int size) {
-    log.info(".. .. {}/{} ...", 0, size);
-    AtomicInteger counter = new AtomicInteger(0);
-    return () -> {
-      if (counter.incrementAndGet() % 500 == 0) log.info(".. .. {}/{} ...", counter.get(), size);
-    };
-  }
-
   public String getIndexName() {
     return indexName;
   }
@@ -0,0 +1,202 @@
+package zone.cogni.asquare.service.elasticsearch.v7;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import zone.cogni.asquare.access.AccessService;
+import zone.cogni.asquare.access.ApplicationView;
+import zone.cogni.asquare.applicationprofile.model.basic.ApplicationProfile;
+import zone.cogni.asquare.rdf.TypedResource;
+import zone.cogni.asquare.service.jsonconversion.JsonConversionFactory;
+import zone.cogni.asquare.service.jsonconversion.TypedResourceToJson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class Elasticsearch7AccessServiceReindexTest {
+
+  private final Elasticsearch7Store elasticStore = Mockito.mock(Elasticsearch7Store.class);
+  private final Elasticsearch7AccessService accessService = new Elasticsearch7AccessService("persons", elasticStore, null, null);
+
+  @Test
+  void alias_is_moved_to_new_index_and_old_index_is_deleted() {
+    // given
+    when(elasticStore.getIndexesForAlias("persons")).thenReturn(Collections.singletonList("persons-1"));
+
+    // when
+    accessService.reindex(getView(), Collections.emptyList(), getSettings());
+
+    // then
+    String newIndexName = getNewIndexName();
+    assertThat(newIndexName).startsWith("persons-").isNotEqualTo("persons-1");
+
+    List<JsonNode> actions = getAliasActions();
+    assertThat(actions).hasSize(2);
+    assertThat(actions.get(0).path("add").path("index").asText()).isEqualTo(newIndexName);
+    assertThat(actions.get(0).path("add").path("alias").asText()).isEqualTo("persons");
+    assertThat(actions.get(1).path("remove").path("index").asText()).isEqualTo("persons-1");
+    assertThat(actions.get(1).path("remove").path("alias").asText()).isEqualTo("persons");
+
+    verify(elasticStore).deleteIndex("persons-1");
+    verify(elasticStore, never()).deleteIndex(newIndexName);
+  }
+
+  @Test
+  void concrete_index_is_replaced_by_alias() {
+    // given
+    when(elasticStore.getIndexesForAlias("persons")).thenReturn(Collections.emptyList());
+    when(elasticStore.indexExists("persons")).thenReturn(true);
+
+    // when
+    accessService.reindex(getView(), Collections.emptyList(), getSettings());
+
+    // then
+    String newIndexName = getNewIndexName();
+    List<JsonNode> actions = getAliasActions();
+    assertThat(actions).hasSize(2);
+    assertThat(actions.get(0).path("add").path("index").asText()).isEqualTo(newIndexName);
+    assertThat(actions.get(1).path("remove_index").path("index").asText()).isEqualTo("persons");
+
+    verify(elasticStore, never()).deleteIndex(anyString());
+  }
+
+  @Test
+  void new_index_is_deleted_when_alias_switch_fails() {
+    // given
+    when(elasticStore.getIndexesForAlias("persons")).thenReturn(Collections.singletonList("persons-1"));
+    Mockito.doThrow(new RuntimeException("alias switch failed")).when(elasticStore).updateAliases(any());
+
+    // when
+    assertThatThrownBy(() -> accessService.reindex(getView(), Collections.emptyList(), getSettings()))
+      .hasMessage("alias switch failed");
+
+    // then
+    String newIndexName = getNewIndexName();
+    verify(elasticStore).deleteIndex(newIndexName);
+    verify(elasticStore, never()).deleteIndex("persons-1");
+  }
+
+  @Test
+  void new_index_is_deleted_when_indexing_fails() {
+    // given
+    ApplicationProfile.Type type = Mockito.mock(ApplicationProfile.Type.class);
+    ApplicationView view = getView();
+    AccessService repository = view.getRepository();
+    Mockito.doThrow(new RuntimeException("cannot load resources"))
+           .when(repository).findAll(eq(type), anyInt(), any());
+
+    // when
+    assertThatThrownBy(() -> accessService.reindex(view, Arrays.asList(type), getSettings()))
+      .hasMessage("cannot load resources");
+
+    // then
+    String newIndexName = getNewIndexName();
+    verify(elasticStore).deleteIndex(newIndexName);
+    verify(elasticStore, never()).updateAliases(any());
+  }
+
+  @Test
+  void resources_are_loaded_and_indexed_page_by_page() {
+    // given
+    when(elasticStore.getIndexesForAlias("persons")).thenReturn(Collections.emptyList());
+    List<String> indexedIds = new ArrayList<>();
+    when(elasticStore.bulkIndex(any(), any())).thenAnswer(invocation -> {
+      List<BulkItem> items = invocation.getArgument(0);
+      ObjectNode response = JsonNodeFactory.instance.objectNode();
+      items.forEach(item -> {
+        indexedIds.add(item.getId());
+        response.withArray("items").addObject().putObject("index").put("status", 201);
+      });
+      return response;
+    });
+
+    Elasticsearch7AccessService pagedAccessService = new Elasticsearch7AccessService("persons", elasticStore, null, getJsonConversion());
+    pagedAccessService.setReindexPageSize(2);
+
+    ApplicationProfile.Type type = Mockito.mock(ApplicationProfile.Type.class);
+    ApplicationView view = getView();
+    AccessService repository = view.getRepository();
+    List<Integer> pageSizes = new ArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      int pageSize = invocation.getArgument(1);
+      Consumer<List<? extends TypedResource>> pageConsumer = invocation.getArgument(2);
+      List<TypedResource> resources = IntStream.range(0, 5).mapToObj(i -> getTypedResource("http://demo.com/person/" + i))
+                                               .collect(Collectors.toList());
+      Lists.partition(resources, pageSize).forEach(page -> {
+        pageSizes.add(page.size());
+        pageConsumer.accept(page);
+      });
+      return null;
+    }).when(repository).findAll(eq(type), anyInt(), any());
+
+    // when
+    pagedAccessService.reindex(view, Arrays.asList(type), getSettings());
+
+    // then
+    assertThat(pageSizes).containsExactly(2, 2, 1);
+    assertThat(indexedIds).hasSize(5);
+    verify(repository, never()).findAll(type);
+  }
+
+  private ApplicationView getView() {
+    ApplicationView view = Mockito.mock(ApplicationView.class);
+    AccessService repository = Mockito.mock(AccessService.class);
+    when(view.getRepository()).thenReturn(repository);
+    return view;
+  }
+
+  private JsonConversionFactory getJsonConversion() {
+    TypedResourceToJson typedResourceToJson = Mockito.mock(TypedResourceToJson.class);
+    when(typedResourceToJson.withTypedResource(any())).thenReturn(typedResourceToJson);
+    when(typedResourceToJson.get()).thenAnswer(invocation -> JsonNodeFactory.instance.objectNode());
+
+    JsonConversionFactory jsonConversion = Mockito.mock(JsonConversionFactory.class);
+    when(jsonConversion.getTypedResourceToJson()).thenReturn(typedResourceToJson);
+    return jsonConversion;
+  }
+
+  private TypedResource getTypedResource(String uri) {
+    TypedResource typedResource = Mockito.mock(TypedResource.class);
+    when(typedResource.getResource()).thenReturn(ResourceFactory.createResource(uri));
+    return typedResource;
+  }
+
+  private ObjectNode getSettings() {
+    return JsonNodeFactory.instance.objectNode();
+  }
+
+  private String getNewIndexName() {
+    ArgumentCaptor<String> indexName = ArgumentCaptor.forClass(String.class);
+    verify(elasticStore).createIndex(indexName.capture(), any());
+    return indexName.getValue();
+  }
+
+  private List<JsonNode> getAliasActions() {
+    ArgumentCaptor<ObjectNode> request = ArgumentCaptor.forClass(ObjectNode.class);
+    verify(elasticStore).updateAliases(request.capture());
+
+    List<JsonNode> result = new ArrayList<>();
+    request.getValue().path("actions").forEach(result::add);
+    return result;
+  }
+}
@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ElasticStore {
 
@@ -19,6 +20,21 @@ public interface ElasticStore {
   void deleteByQuery(String indexName, ObjectNode query); // 6 & 7
   ObjectNode search(String indexName, ObjectNode searchObject); // 6 & 7
 
+  default Stream<ObjectNode> streamSearch(String indexName, ObjectNode searchObject) {
+    return streamSearch(indexName, searchObject, new StreamSearchOptions());
+  }
+
+  /**
+   * Lazy stream over all hits of a search, without the <code>from + size</code> limit of {@link #search(String, ObjectNode)}.
+   * Hits are fetched in pages with <code>search_after</code>, <code>from</code> and <code>size</code> of the search object are ignored.
+   * <p>
+   * Stream must be closed when it is not fully consumed, to release server side contexts.
+   * </p>
+   */
+  default Stream<ObjectNode> streamSearch(String indexName, ObjectNode searchObject, StreamSearchOptions options) {
+    return new SearchAfterHitIterator(this, indexName, searchObject, options).stream();
+  }
+
   // 7 Only
 
   ObjectNode deleteByQueryWithAck(String indexName, ObjectNode query, Params params); // 7
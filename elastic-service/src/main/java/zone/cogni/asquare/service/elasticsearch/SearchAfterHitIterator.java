@@ -0,0 +1,33 @@
+package zone.cogni.asquare.service.elasticsearch;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Pages with <code>search_after</code> on the sort of the search object followed by a tiebreaker field.
+ * Needs no server side context, but changes to the index between two pages are visible.
+ */
+class SearchAfterHitIterator extends SearchHitIterator {
+
+  private final ElasticStore elasticStore;
+  private final String indexName;
+  private final ObjectNode pageSearchObject;
+
+  SearchAfterHitIterator(ElasticStore elasticStore, String indexName, ObjectNode searchObject, StreamSearchOptions options) {
+    super(searchObject, options);
+    this.elasticStore = elasticStore;
+    this.indexName = indexName;
+    this.pageSearchObject = createPageSearchObject();
+    this.pageSearchObject.set("sort", getSortWithTiebreaker(options.getTiebreakerField()));
+  }
+
+  @Override
+  protected ObjectNode fetchFirstPage() {
+    return elasticStore.search(indexName, pageSearchObject);
+  }
+
+  @Override
+  protected ObjectNode fetchNextPage(ObjectNode previousResponse) {
+    pageSearchObject.set("search_after", getLastSortValues(previousResponse));
+    return elasticStore.search(indexName, pageSearchObject);
+  }
+}
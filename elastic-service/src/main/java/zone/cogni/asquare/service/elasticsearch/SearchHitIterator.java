@@ -0,0 +1,127 @@
+package zone.cogni.asquare.service.elasticsearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the hits of a search, one page at a time.
+ * <p>
+ * Only one page of hits is kept in memory.
+ * A page with less hits than the page size is the last one,
+ * server side contexts are released after the last page or when the stream is closed, whichever comes first.
+ * </p>
+ */
+public abstract class SearchHitIterator implements Iterator<ObjectNode>, AutoCloseable {
+
+  protected final ObjectNode searchObject;
+  protected final StreamSearchOptions options;
+
+  private ObjectNode lastResponse;
+  private Iterator<JsonNode> hits = Collections.emptyIterator();
+  private boolean lastPage;
+  private boolean closed;
+
+  protected SearchHitIterator(ObjectNode searchObject, StreamSearchOptions options) {
+    this.searchObject = searchObject;
+    this.options = options;
+  }
+
+  /**
+   * @return lazy stream of hits, must be closed to release server side contexts if not fully consumed
+   */
+  public Stream<ObjectNode> stream() {
+    Spliterator<ObjectNode> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!hits.hasNext()) {
+      if (lastPage || closed) {
+        close();
+        return false;
+      }
+      fetchPage();
+    }
+    return true;
+  }
+
+  @Override
+  public ObjectNode next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    return (ObjectNode) hits.next();
+  }
+
+  private void fetchPage() {
+    ObjectNode response = lastResponse == null ? fetchFirstPage() : fetchNextPage(lastResponse);
+    JsonNode pageHits = response.path("hits").path("hits");
+
+    lastResponse = response;
+    lastPage = pageHits.size() < options.getPageSize();
+    hits = pageHits.iterator();
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+
+    closed = true;
+    hits = Collections.emptyIterator();
+    release();
+  }
+
+  protected abstract ObjectNode fetchFirstPage();
+
+  protected abstract ObjectNode fetchNextPage(ObjectNode previousResponse);
+
+  /**
+   * Releases server side contexts, called once.
+   */
+  protected void release() {
+  }
+
+  /**
+   * @return copy of the search object with page size and <code>_source</code> fields of the options
+   */
+  protected ObjectNode createPageSearchObject() {
+    ObjectNode result = searchObject.deepCopy();
+    result.remove("from");
+    result.put("size", options.getPageSize());
+    if (options.getSourceFields() != null) {
+      ArrayNode source = result.putArray("_source");
+      options.getSourceFields().forEach(source::add);
+    }
+    return result;
+  }
+
+  /**
+   * @return sort of the search object, followed by <code>tiebreaker</code> so each hit has a unique sort value
+   */
+  protected ArrayNode getSortWithTiebreaker(String tiebreaker) {
+    ArrayNode result = searchObject.arrayNode();
+
+    JsonNode sort = searchObject.get("sort");
+    if (sort != null && sort.isArray()) result.addAll((ArrayNode) sort.deepCopy());
+    else if (sort != null) result.add(sort.deepCopy());
+
+    result.addObject().put(tiebreaker, "asc");
+    return result;
+  }
+
+  /**
+   * @return sort values of the last hit of the response, to pass as <code>search_after</code>
+   */
+  protected static JsonNode getLastSortValues(ObjectNode response) {
+    JsonNode hits = response.path("hits").path("hits");
+    return hits.get(hits.size() - 1).get("sort");
+  }
+}
@@ -0,0 +1,78 @@
+package zone.cogni.asquare.service.elasticsearch;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options of {@link ElasticStore#streamSearch(String, com.fasterxml.jackson.databind.node.ObjectNode, StreamSearchOptions)}.
+ */
+public class StreamSearchOptions {
+
+  private int pageSize = 1000;
+  private List<String> sourceFields;
+  private Duration keepAlive = Duration.ofMinutes(1);
+  private String tiebreakerField = "_id";
+
+  /**
+   * @return number of hits fetched per request
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public StreamSearchOptions withPageSize(int pageSize) {
+    if (pageSize <= 0) throw new RuntimeException("page size must be positive, got " + pageSize);
+
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * @return <code>_source</code> fields to fetch, <code>null</code> to keep <code>_source</code> of the search object
+   */
+  public List<String> getSourceFields() {
+    return sourceFields;
+  }
+
+  public StreamSearchOptions withSourceFields(String... sourceFields) {
+    return withSourceFields(Arrays.asList(sourceFields));
+  }
+
+  public StreamSearchOptions withSourceFields(List<String> sourceFields) {
+    this.sourceFields = sourceFields == null ? null : Collections.unmodifiableList(sourceFields);
+    return this;
+  }
+
+  /**
+   * @return how long a point in time or scroll context is kept between two pages
+   */
+  public Duration getKeepAlive() {
+    return keepAlive;
+  }
+
+  public StreamSearchOptions withKeepAlive(Duration keepAlive) {
+    this.keepAlive = keepAlive;
+    return this;
+  }
+
+  /**
+   * @return keepAlive as an Elasticsearch time value
+   */
+  public String getKeepAliveValue() {
+    return keepAlive.toMillis() + "ms";
+  }
+
+  /**
+   * @return field with a unique value per document, added as last sort field when paging with <code>search_after</code>
+   */
+  public String getTiebreakerField() {
+    return tiebreakerField;
+  }
+
+  public StreamSearchOptions withTiebreakerField(String tiebreakerField) {
+    this.tiebreakerField = tiebreakerField;
+    return this;
+  }
+}
@@ -0,0 +1,467 @@
+package zone.cogni.asquare.service.elasticsearch.v7;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zone.cogni.asquare.service.elasticsearch.Params;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Batching sink for documents which need to be indexed.
+ * <p>
+ * Documents are collected and sent with {@link Elasticsearch7Store#bulkIndex(List, Params)}
+ * <ul>
+ *   <li>when the number of documents reaches <code>maxActions</code></li>
+ *   <li>when the estimated request size reaches <code>maxBytes</code></li>
+ *   <li>when <code>flushInterval</code> passed since the last flush</li>
+ * </ul>
+ * </p>
+ * <p>
+ * At most <code>maxInFlightRequests</code> requests are sent at the same time,
+ * callers of {@link #index(String, String, ObjectNode)} are blocked when that limit is reached.
+ * </p>
+ * <p>
+ * Each item of a bulk response is checked on its own:
+ * items rejected because of cluster pressure (status <code>429</code> or <code>5xx</code>) are retried
+ * up to <code>maxItemRetries</code> times, waiting <code>retryBackoff</code> before the first retry and twice as long
+ * before each next one. Other failures are reported to the <code>failureListener</code>.
+ * The future returned by {@link #index(String, String, ObjectNode)} completes once the item is indexed or failed.
+ * </p>
+ */
+public class BulkIndexer implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(BulkIndexer.class);
+
+  public static class Configuration {
+
+    private int maxActions = 1000;
+    private long maxBytes = 5L * 1024 * 1024;
+    private Duration flushInterval = Duration.ofSeconds(1);
+    private int maxInFlightRequests = 2;
+    private int maxItemRetries = 3;
+    private Duration retryBackoff = Duration.ofMillis(100);
+    private Params params = Params.noRefresh();
+    private Consumer<Failure> failureListener = failure -> log.warn("(bulk) indexing failed: {}", failure);
+
+    public int getMaxActions() {
+      return maxActions;
+    }
+
+    public Configuration withMaxActions(int maxActions) {
+      this.maxActions = maxActions;
+      return this;
+    }
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    public Configuration withMaxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    public Duration getFlushInterval() {
+      return flushInterval;
+    }
+
+    public Configuration withFlushInterval(Duration flushInterval) {
+      this.flushInterval = flushInterval;
+      return this;
+    }
+
+    public int getMaxInFlightRequests() {
+      return maxInFlightRequests;
+    }
+
+    public Configuration withMaxInFlightRequests(int maxInFlightRequests) {
+      this.maxInFlightRequests = maxInFlightRequests;
+      return this;
+    }
+
+    public int getMaxItemRetries() {
+      return maxItemRetries;
+    }
+
+    public Configuration withMaxItemRetries(int maxItemRetries) {
+      this.maxItemRetries = maxItemRetries;
+      return this;
+    }
+
+    /**
+     * @return delay before the first retry of an item, doubled for each next retry
+     */
+    public Duration getRetryBackoff() {
+      return retryBackoff;
+    }
+
+    public Configuration withRetryBackoff(Duration retryBackoff) {
+      this.retryBackoff = retryBackoff;
+      return this;
+    }
+
+    public Params getParams() {
+      return params;
+    }
+
+    public Configuration withParams(Params params) {
+      this.params = params;
+      return this;
+    }
+
+    public Consumer<Failure> getFailureListener() {
+      return failureListener;
+    }
+
+    public Configuration withFailureListener(Consumer<Failure> failureListener) {
+      this.failureListener = failureListener;
+      return this;
+    }
+  }
+
+  /**
+   * Item which could not be indexed, after retries if any.
+   */
+  public static class Failure {
+
+    private final String indexName;
+    private final String id;
+    private final int status;
+    private final String reason;
+
+    public Failure(String indexName, String id, int status, String reason) {
+      this.indexName = indexName;
+      this.id = id;
+      this.status = status;
+      this.reason = reason;
+    }
+
+    public String getIndexName() {
+      return indexName;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return "index '" + indexName + "', id '" + id + "', status " + status + ": " + reason;
+    }
+  }
+
+  private final Elasticsearch7Store elasticStore;
+  private final Configuration configuration;
+
+  private final Object lock = new Object();
+  private List<BulkItem> batch = new ArrayList<>();
+  private long batchBytes;
+  private int scheduledRetries;
+
+  private final Semaphore inFlight;
+  private final ExecutorService senderPool;
+  private final ScheduledExecutorService flushTimer;
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong successCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+
+  public BulkIndexer(Elasticsearch7Store elasticStore) {
+    this(elasticStore, new Configuration());
+  }
+
+  public BulkIndexer(Elasticsearch7Store elasticStore, Configuration configuration) {
+    this.elasticStore = elasticStore;
+    this.configuration = configuration;
+    this.inFlight = new Semaphore(configuration.getMaxInFlightRequests());
+    this.senderPool = Executors.newFixedThreadPool(configuration.getMaxInFlightRequests(), daemonThreadFactory("bulk-sender"));
+    this.flushTimer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("bulk-flush"));
+
+    long flushMillis = configuration.getFlushInterval().toMillis();
+    flushTimer.scheduleWithFixedDelay(this::scheduledFlush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static ThreadFactory daemonThreadFactory(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Adds a document to the current batch, sends the batch if it is full.
+   * Blocks when <code>maxInFlightRequests</code> requests are already running.
+   *
+   * @param indexName index to add document to
+   * @param id        id of document
+   * @param document  document to index
+   * @return completes when the document is indexed, completes exceptionally when indexing failed after retries
+   */
+  public CompletableFuture<Void> index(String indexName, String id, ObjectNode document) {
+    BulkItem item = new BulkItem(indexName, id, document);
+
+    List<BulkItem> fullBatch = null;
+    synchronized (lock) {
+      addToBatch(item);
+      if (batch.size() >= configuration.getMaxActions() || batchBytes >= configuration.getMaxBytes()) {
+        fullBatch = drainBatch();
+      }
+    }
+
+    if (fullBatch != null) send(fullBatch);
+    return item.getResult();
+  }
+
+  /**
+   * Adds a document to the current batch without sending it, it goes with the next request.
+   * Never blocks, so it can be used in a completion callback of {@link #index(String, String, ObjectNode)},
+   * which runs on a sender thread.
+   *
+   * @param indexName index to add document to
+   * @param id        id of document
+   * @param document  document to index
+   * @return completes when the document is indexed, completes exceptionally when indexing failed after retries
+   */
+  public CompletableFuture<Void> addToNextBatch(String indexName, String id, ObjectNode document) {
+    BulkItem item = new BulkItem(indexName, id, document);
+
+    synchronized (lock) {
+      addToBatch(item);
+      lock.notifyAll();
+    }
+    return item.getResult();
+  }
+
+  /**
+   * Sends all pending documents and waits until all requests, including retries, are done.
+   */
+  public void flush() {
+    while (true) {
+      flushBatch();
+      awaitInFlightRequests();
+
+      if (!awaitScheduledRetries()) return;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if there are items to send, <code>false</code> when all items are done
+   */
+  private boolean awaitScheduledRetries() {
+    synchronized (lock) {
+      while (batch.isEmpty() && scheduledRetries > 0) {
+        try {
+          lock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while waiting for retries", e);
+        }
+      }
+      return !batch.isEmpty();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    flushTimer.shutdown();
+    senderPool.shutdown();
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public long getSuccessCount() {
+    return successCount.get();
+  }
+
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  public void logSummary() {
+    log.info("================================");
+    log.info(StringUtils.center("bulk indexer summary", 32));
+    log.info("================================");
+    log.info("");
+    log.info("       requests: " + getRequestCount());
+    log.info("        success: " + getSuccessCount());
+    log.info("        retried: " + getRetryCount());
+    log.info("         failed: " + getFailureCount());
+    log.info("");
+  }
+
+  private void addToBatch(BulkItem item) {
+    batch.add(item);
+    batchBytes += item.getSize();
+  }
+
+  private List<BulkItem> drainBatch() {
+    List<BulkItem> result = batch;
+    batch = new ArrayList<>();
+    batchBytes = 0;
+    return result;
+  }
+
+  /**
+   * Runs on the flush timer, an exception would cancel all next flushes.
+   */
+  private void scheduledFlush() {
+    try {
+      flushBatch();
+    }
+    catch (RuntimeException e) {
+      log.error("(bulk) scheduled flush failed", e);
+    }
+  }
+
+  private void flushBatch() {
+    List<BulkItem> items;
+    synchronized (lock) {
+      items = batch.isEmpty() ? Collections.emptyList() : drainBatch();
+    }
+
+    send(items);
+  }
+
+  private void send(List<BulkItem> items) {
+    if (items.isEmpty()) return;
+
+    inFlight.acquireUninterruptibly();
+    try {
+      senderPool.execute(() -> {
+        try {
+          execute(items);
+        }
+        finally {
+          inFlight.release();
+        }
+      });
+    }
+    catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  private void awaitInFlightRequests() {
+    int permits = configuration.getMaxInFlightRequests();
+    inFlight.acquireUninterruptibly(permits);
+    inFlight.release(permits);
+  }
+
+  private void execute(List<BulkItem> items) {
+    requestCount.incrementAndGet();
+    try {
+      ObjectNode response = elasticStore.bulkIndex(items, configuration.getParams());
+      processResponse(items, response);
+    }
+    catch (RuntimeException e) {
+      // store already retried the request itself, mark all items as failed
+      log.error("(bulk) request with {} items failed", items.size(), e);
+      items.forEach(item -> fail(item, 0, e.getMessage()));
+    }
+  }
+
+  private void processResponse(List<BulkItem> items, ObjectNode response) {
+    JsonNode resultItems = response.path("items");
+    if (resultItems.size() != items.size()) {
+      items.forEach(item -> fail(item, 0, "bulk response has " + resultItems.size() + " items, expected " + items.size()));
+      return;
+    }
+
+    for (int i = 0; i < items.size(); i++) {
+      JsonNode result = resultItems.get(i).elements().next();
+      processResult(items.get(i), result);
+    }
+  }
+
+  private void processResult(BulkItem item, JsonNode result) {
+    if (!result.has("error")) {
+      successCount.incrementAndGet();
+      item.getResult().complete(null);
+      return;
+    }
+
+    int status = result.path("status").asInt();
+    if (isRetryable(status) && item.getAttempt() < configuration.getMaxItemRetries()) {
+      retry(item);
+      return;
+    }
+
+    fail(item, status, result.path("error").path("reason").asText(result.path("error").toString()));
+  }
+
+  private boolean isRetryable(int status) {
+    return status == 429 || status >= 500;
+  }
+
+  /**
+   * Puts item back in batch after an exponential backoff, it will be sent again with the next flush after that.
+   * Sending is not triggered here, this method runs on a sender thread which holds an in-flight permit.
+   */
+  private void retry(BulkItem item) {
+    retryCount.incrementAndGet();
+    item.incrementAttempt();
+
+    long delayMillis = configuration.getRetryBackoff().toMillis() << Math.min(item.getAttempt() - 1, 16);
+    synchronized (lock) {
+      scheduledRetries += 1;
+    }
+    try {
+      flushTimer.schedule(() -> addRetry(item), delayMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (RuntimeException e) {
+      // timer is shut down, put item back right away
+      addRetry(item);
+    }
+  }
+
+  private void addRetry(BulkItem item) {
+    synchronized (lock) {
+      scheduledRetries -= 1;
+      addToBatch(item);
+      lock.notifyAll();
+    }
+  }
+
+  private void fail(BulkItem item, int status, String reason) {
+    failureCount.incrementAndGet();
+    Failure failure = new Failure(item.getIndexName(), item.getId(), status, reason);
+    item.getResult().completeExceptionally(new RuntimeException("(bulk) indexing failed: " + failure));
+    configuration.getFailureListener().accept(failure);
+  }
+}
@@ -0,0 +1,81 @@
+package zone.cogni.asquare.service.elasticsearch.v7;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single <code>index</code> action of a <code>_bulk</code> request.
+ * Document is serialized once when the item is created, so size of a bulk request is known up front.
+ */
+public class BulkItem {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final String indexName;
+  private final String id;
+  private final ObjectNode document;
+  private final byte[] source;
+  private final CompletableFuture<Void> result = new CompletableFuture<>();
+  private int attempt;
+
+  public BulkItem(String indexName, String id, ObjectNode document) {
+    this.indexName = indexName;
+    this.id = id;
+    this.document = document;
+    this.source = toBytes(document);
+  }
+
+  private static byte[] toBytes(ObjectNode document) {
+    try {
+      return objectMapper.writeValueAsBytes(document);
+    }
+    catch (JsonProcessingException e) {
+      throw new RuntimeException("cannot serialize document", e);
+    }
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public ObjectNode getDocument() {
+    return document;
+  }
+
+  /**
+   * @return serialized document, to be used as source line in a <code>_bulk</code> request
+   */
+  public byte[] getSource() {
+    return source;
+  }
+
+  /**
+   * @return estimated number of bytes this item takes in a <code>_bulk</code> request
+   */
+  public long getSize() {
+    // action line is roughly 40 bytes plus index name and id
+    return source.length + indexName.length() + id.length() + 40;
+  }
+
+  /**
+   * @return completes when the item is indexed, completes exceptionally when it failed after retries
+   */
+  public CompletableFuture<Void> getResult() {
+    return result;
+  }
+
+  public int getAttempt() {
+    return attempt;
+  }
+
+  public void incrementAttempt() {
+    attempt += 1;
+  }
+}
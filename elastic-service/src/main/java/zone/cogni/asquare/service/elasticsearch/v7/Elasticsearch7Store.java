@@ -1,9 +1,12 @@
 package zone.cogni.asquare.service.elasticsearch.v7;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import zone.cogni.asquare.service.elasticsearch.ElasticStore;
 import zone.cogni.asquare.service.elasticsearch.Params;
 
+import java.util.Collections;
 import java.util.List;
 
 public interface Elasticsearch7Store extends ElasticStore {
@@ -40,4 +43,108 @@ public interface Elasticsearch7Store extends ElasticStore {
     deleteByQuery(indexName, query);
     return null;
   }
+
+  /**
+   * Indexes a list of documents in one go and returns a response in the format of a <code>_bulk</code> response:
+   * an <code>items</code> array with one result per item, in the same order as <code>items</code>.
+   * <p>
+   * Default implementation falls back to one <code>indexDocument</code> call per item,
+   * stores talking to a real cluster should send a single <code>_bulk</code> request instead.
+   *
+   * @param items  documents to index
+   * @param params request parameters, e.g. refresh
+   * @return <code>_bulk</code> style response with a result per item
+   */
+  default ObjectNode bulkIndex(List<BulkItem> items, Params params) {
+    ObjectNode response = JsonNodeFactory.instance.objectNode();
+    ArrayNode resultItems = response.putArray("items");
+
+    boolean errors = false;
+    for (BulkItem item : items) {
+      ObjectNode result = resultItems.addObject().putObject("index");
+      result.put("_index", item.getIndexName());
+      result.put("_id", item.getId());
+      try {
+        indexDocument(item.getIndexName(), item.getId(), item.getDocument(), params);
+        result.put("status", 201);
+      }
+      catch (RuntimeException e) {
+        errors = true;
+        result.put("status", 500);
+        result.putObject("error")
+              .put("type", e.getClass().getSimpleName())
+              .put("reason", e.getMessage());
+      }
+    }
+
+    response.put("errors", errors);
+    return response;
+  }
+
+  /**
+   * Deletes a list of documents in one go and returns a response in the format of a <code>_bulk</code> response:
+   * an <code>items</code> array with a <code>delete</code> result per id, in the same order as <code>ids</code>.
+   * Ids are encoded the same way as when documents are indexed.
+   * <p>
+   * Default implementation falls back to one <code>deleteDocument</code> call per id,
+   * stores talking to a real cluster should send a single <code>_bulk</code> request instead.
+   *
+   * @param indexName index to delete documents from
+   * @param ids       ids of documents, as passed when indexing them
+   * @param params    request parameters, e.g. refresh
+   * @return <code>_bulk</code> style response with a result per id
+   */
+  default ObjectNode bulkDelete(String indexName, List<String> ids, Params params) {
+    ObjectNode response = JsonNodeFactory.instance.objectNode();
+    ArrayNode resultItems = response.putArray("items");
+
+    boolean errors = false;
+    for (String id : ids) {
+      ObjectNode result = resultItems.addObject().putObject("delete");
+      result.put("_index", indexName);
+      result.put("_id", id);
+      try {
+        deleteDocument(indexName, id, params);
+        result.put("status", 200);
+        result.put("result", "deleted");
+      }
+      catch (RuntimeException e) {
+        errors = true;
+        result.put("status", 500);
+        result.putObject("error")
+              .put("type", e.getClass().getSimpleName())
+              .put("reason", e.getMessage());
+      }
+    }
+
+    response.put("errors", errors);
+    return response;
+  }
+
+  /**
+   * Default implementation is for stores without alias support, where no alias can exist.
+   *
+   * @param alias name of an alias
+   * @return names of the indexes the alias points to, empty if there is no such alias
+   */
+  default List<String> getIndexesForAlias(String alias) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return <code>true</code> if an index or an alias with the name exists
+   */
+  default boolean indexExists(String indexName) {
+    throw new UnsupportedOperationException("index exists is not supported by " + getClass().getName());
+  }
+
+  /**
+   * Runs all actions of an <code>_aliases</code> request, e.g. <code>add</code>, <code>remove</code> and <code>remove_index</code>,
+   * as one atomic operation.
+   *
+   * @param actions body of the request with an <code>actions</code> array
+   */
+  default void updateAliases(ObjectNode actions) {
+    throw new UnsupportedOperationException("aliases are not supported by " + getClass().getName());
+  }
 }
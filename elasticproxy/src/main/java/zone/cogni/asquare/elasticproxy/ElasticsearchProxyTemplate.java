@@ -13,6 +13,7 @@ import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.TypedValue;
 import org.springframework.expression.common.TemplateParserContext;
@@ -36,13 +37,31 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Proxies a request to Elasticsearch: url and query body are rendered from templates with the request parameters.
+ * <p>
+ * The url template is parsed once when it is set, the query template is read once on first use and shared
+ * by all proxy templates using the same location. Parsed query templates are kept in a bounded LRU cache,
+ * see {@link #setTemplateCacheSize(int)}.
+ * During development {@link #setReloadOnChange(boolean)} reloads query templates when their file changes.
+ */
 public class ElasticsearchProxyTemplate {
 
   static final Logger log = LoggerFactory.getLogger(ElasticsearchProxyTemplate.class);
 
+  private static final ExpressionParser expressionParser = new SpelExpressionParser();
+
+  /**
+   * Query template contents per template location.
+   */
+  private static final Map<String, TemplateContent> templateContents = new ConcurrentHashMap<>();
+
   private static final MapAccessor mapAccessor = new MapAccessor() {
     @Override
     public boolean canRead(EvaluationContext context, Object target, String name) {
@@ -66,13 +85,22 @@ public class ElasticsearchProxyTemplate {
   private String name;
   private Map<String, ParamValidator> paramValuesValidator;
   private String urlTemplate;
+  private Expression urlExpression;
   private String queryTemplate;
   private Set<String> paramNamesWhitelist;
   private Map<String, Object> queryTemplateParams;
   private HttpMethod httpMethod;
+  private boolean reloadOnChange;
+
+  private final LongAdder renderCount = new LongAdder();
+  private final LongAdder renderNanos = new LongAdder();
+  private final LongAccumulator maxRenderNanos = new LongAccumulator(Math::max, 0);
 
   public ElasticsearchProxyTemplate(HttpHost[] hosts) {
-    this.templateEngine.setTemplateResolver(new StringTemplateResolver());
+    StringTemplateResolver templateResolver = new StringTemplateResolver();
+    templateResolver.setCacheable(true);
+    this.templateEngine.setTemplateResolver(templateResolver);
+    this.templateEngine.setCacheManager(new LruCacheManager(100, 500));
     this.restClient = RestClient.builder(hosts).build();
     this.name = UUID.randomUUID().toString();
   }
@@ -96,6 +124,8 @@ public class ElasticsearchProxyTemplate {
 
   public void setUrlTemplate(String urlTemplate) {
     this.urlTemplate = urlTemplate;
+    this.urlExpression = urlTemplate == null ? null
+                                             : expressionParser.parseExpression(urlTemplate, new TemplateParserContext());
   }
 
   public HttpMethod getHttpMethod() {
@@ -138,6 +168,47 @@ public class ElasticsearchProxyTemplate {
     this.paramValuesValidator = paramValuesValidator;
   }
 
+  public boolean isReloadOnChange() {
+    return reloadOnChange;
+  }
+
+  /**
+   * @param reloadOnChange if <code>true</code> the query template is read again when its file was modified,
+   *                       meant for development
+   */
+  public void setReloadOnChange(boolean reloadOnChange) {
+    this.reloadOnChange = reloadOnChange;
+  }
+
+  /**
+   * @param templateCacheSize maximum number of parsed query templates to keep, must be set before the first request
+   */
+  public void setTemplateCacheSize(int templateCacheSize) {
+    templateEngine.setCacheManager(new LruCacheManager(templateCacheSize, 500));
+  }
+
+  /**
+   * @return number of requests for which url and query were rendered
+   */
+  public long getRenderCount() {
+    return renderCount.sum();
+  }
+
+  /**
+   * @return average time to render url and query of a request, in microseconds
+   */
+  public long getAverageRenderMicros() {
+    long count = renderCount.sum();
+    return count == 0 ? 0 : renderNanos.sum() / count / 1000;
+  }
+
+  /**
+   * @return maximum time to render url and query of a request, in microseconds
+   */
+  public long getMaxRenderMicros() {
+    return maxRenderNanos.get() / 1000;
+  }
+
   private String buildUrl(String path, MultiValueMap<String, String> params) {
     UriComponentsBuilder uriComponentsBuilder = UriComponentsBuilder.fromPath(path).queryParams(params);
     return uriComponentsBuilder.build(false).toUriString();
@@ -182,23 +253,22 @@ public class ElasticsearchProxyTemplate {
   }
 
   public ResponseEntity<Resource> process(MultiValueMap<String, String> urlParams, Map<String, Object> bodyParams) throws IOException {
-    return executeRequest(UUID.randomUUID().toString(), httpMethod, urlTemplate, urlParams, bodyParams);
+    return executeRequest(UUID.randomUUID().toString(), httpMethod, urlParams, bodyParams);
   }
 
-  private ResponseEntity<Resource> executeRequest(String requestUUID, HttpMethod httpMethod, String url, MultiValueMap<String, String> urlParams, Map<String, Object> bodyParams) throws IOException {
+  private ResponseEntity<Resource> executeRequest(String requestUUID, HttpMethod httpMethod, MultiValueMap<String, String> urlParams, Map<String, Object> bodyParams) throws IOException {
     Map<String, Object> params = mergeParams(urlParams, bodyParams);
 
     if (!validateParams(requestUUID, params)) {
       return ResponseEntity.badRequest().body(new InputStreamResource(IOUtils.toInputStream(requestUUID, StandardCharsets.UTF_8)));
     }
 
-    Request request = new Request(httpMethod.name(), buildUrl(spel(url, params), urlParams));
-
-
-
     try {
+      long start = System.nanoTime();
+      Request request = new Request(httpMethod.name(), buildUrl(spel(params), urlParams));
       if (HttpMethod.POST.equals(httpMethod) || HttpMethod.PUT.equals(httpMethod))
         request.setJsonEntity(thymeleaf(getTemplateContent(), params));
+      addRenderTime(System.nanoTime() - start);
 
       Response response = restClient.performRequest(request);
       HttpStatus status = HttpStatus.resolve(response.getStatusLine().getStatusCode());
@@ -252,15 +322,39 @@ public class ElasticsearchProxyTemplate {
                           : result;
   }
 
+  private void addRenderTime(long nanos) {
+    renderCount.increment();
+    renderNanos.add(nanos);
+    maxRenderNanos.accumulate(nanos);
+    if (log.isTraceEnabled()) log.trace("Elastic proxy template \"{}\" rendered in {} µs.", name, nanos / 1000);
+  }
+
   private String getTemplateContent() throws IOException {
-    return IOUtils.toString(new DefaultResourceLoader().getResource(queryTemplate).getInputStream(), StandardCharsets.UTF_8);
+    TemplateContent templateContent = templateContents.get(queryTemplate);
+    if (templateContent != null && (!reloadOnChange || !templateContent.isModified())) return templateContent.content;
+
+    Resource resource = new DefaultResourceLoader().getResource(queryTemplate);
+    long lastModified = getLastModified(resource);
+    String content = IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8);
+    if (templateContent != null) log.info("Reloaded elastic proxy query template {}.", queryTemplate);
+
+    templateContents.put(queryTemplate, new TemplateContent(resource, lastModified, content));
+    return content;
   }
 
-  private String spel(String expression, Map<String, Object> map) {
+  private static long getLastModified(Resource resource) {
+    try {
+      return resource.lastModified();
+    }
+    catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private String spel(Map<String, Object> map) {
     StandardEvaluationContext context = new StandardEvaluationContext(map);
     context.addPropertyAccessor(mapAccessor);
-    ExpressionParser expressionParser = new SpelExpressionParser();
-    return expressionParser.parseExpression(expression, new TemplateParserContext()).getValue(context, String.class);
+    return urlExpression.getValue(context, String.class);
   }
 
   private String thymeleaf(String expression, Map<String, Object> map) {
@@ -274,4 +368,21 @@ public class ElasticsearchProxyTemplate {
     GET, POST, PUT
   }
 
+  private static class TemplateContent {
+
+    private final Resource resource;
+    private final long lastModified;
+    private final String content;
+
+    private TemplateContent(Resource resource, long lastModified, String content) {
+      this.resource = resource;
+      this.lastModified = lastModified;
+      this.content = content;
+    }
+
+    private boolean isModified() {
+      return getLastModified(resource) != lastModified;
+    }
+  }
+
 }
@@ -0,0 +1,89 @@
+package zone.cogni.asquare.elasticproxy;
+
+import org.thymeleaf.cache.AbstractCacheManager;
+import org.thymeleaf.cache.ExpressionCacheKey;
+import org.thymeleaf.cache.ICache;
+import org.thymeleaf.cache.ICacheEntryValidityChecker;
+import org.thymeleaf.cache.TemplateCacheKey;
+import org.thymeleaf.engine.TemplateModel;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thymeleaf cache manager with bounded caches which evict the least recently used entry.
+ * <p>
+ * Proxy templates are resolved from their content, so the template cache holds parsed templates per template content.
+ * Templates generated at runtime then only use a bounded amount of memory.
+ */
+public class LruCacheManager extends AbstractCacheManager {
+
+  private final int templateCacheMaxSize;
+  private final int expressionCacheMaxSize;
+
+  public LruCacheManager(int templateCacheMaxSize, int expressionCacheMaxSize) {
+    this.templateCacheMaxSize = templateCacheMaxSize;
+    this.expressionCacheMaxSize = expressionCacheMaxSize;
+  }
+
+  @Override
+  protected ICache<TemplateCacheKey, TemplateModel> initializeTemplateCache() {
+    return new LruCache<>(templateCacheMaxSize);
+  }
+
+  @Override
+  protected ICache<ExpressionCacheKey, Object> initializeExpressionCache() {
+    return new LruCache<>(expressionCacheMaxSize);
+  }
+
+  private static class LruCache<K, V> implements ICache<K, V> {
+
+    private final Map<K, V> entries;
+
+    private LruCache(int maxSize) {
+      this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+      entries.put(key, value);
+    }
+
+    @Override
+    public synchronized V get(K key) {
+      return entries.get(key);
+    }
+
+    @Override
+    public synchronized V get(K key, ICacheEntryValidityChecker<? super K, ? super V> validityChecker) {
+      V value = entries.get(key);
+      if (value == null || validityChecker == null) return value;
+      if (validityChecker.checkIsValueStillValid(key, value, System.currentTimeMillis())) return value;
+
+      entries.remove(key);
+      return null;
+    }
+
+    @Override
+    public synchronized void clear() {
+      entries.clear();
+    }
+
+    @Override
+    public synchronized void clearKey(K key) {
+      entries.remove(key);
+    }
+
+    @Override
+    public synchronized Set<K> keySet() {
+      return new HashSet<>(entries.keySet());
+    }
+  }
+}
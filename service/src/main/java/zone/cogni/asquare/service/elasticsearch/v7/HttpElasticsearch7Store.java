@@ -27,26 +27,34 @@ import org.springframework.web.client.UnknownHttpStatusCodeException;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 import zone.cogni.asquare.service.elasticsearch.Params;
+import zone.cogni.asquare.service.elasticsearch.SearchHitIterator;
+import zone.cogni.asquare.service.elasticsearch.StreamSearchOptions;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class HttpElasticsearch7Store implements Elasticsearch7Store {
 
   private static final Logger log = LoggerFactory.getLogger(HttpElasticsearch7Store.class);
   private static final long numberOfTries = 3;
   private static final long sleepInMillis = 500;
+  private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
   private final RestTemplate restTemplate = new RestTemplate(clientHttpRequestFactory(60000, 5000));
   private final String url;
   private final ObjectMapper objectMapper = new ObjectMapper();
   private final Boolean urlEncodedId;
+  private volatile Boolean pointInTimeSupported;
 
   public HttpElasticsearch7Store(String url, Boolean urlEncodedId) {
     this.url = url;
@@ -159,14 +167,280 @@ public class HttpElasticsearch7Store implements Elasticsearch7Store {
     return restTemplate.postForObject(path, searchObject, ObjectNode.class);
   }
 
+  @Override
+  public boolean indexExists(String indexName) {
+    try {
+      restTemplate.headForHeaders(String.join("/", url, indexName));
+      return true;
+    }
+    catch (ElasticClientError e) {
+      if (e.getRawStatusCode() == 404) return false;
+      throw e;
+    }
+  }
+
+  @Override
+  public List<String> getIndexesForAlias(String alias) {
+    ObjectNode response;
+    try {
+      response = restTemplate.getForObject(String.join("/", url, "_alias", alias), ObjectNode.class);
+    }
+    catch (ElasticClientError e) {
+      if (e.getRawStatusCode() == 404) return new ArrayList<>();
+      throw e;
+    }
+
+    List<String> result = new ArrayList<>();
+    if (response != null) response.fieldNames().forEachRemaining(result::add);
+    return result;
+  }
+
+  @Override
+  public void updateAliases(ObjectNode actions) {
+    restTemplate.postForObject(String.join("/", url, "_aliases"), actions, ObjectNode.class);
+  }
+
+  /**
+   * Pages over a point in time with <code>search_after</code> on <code>_shard_doc</code>,
+   * so all pages see the same state of the index.
+   * Versions before 7.10 have no point in time, there a scroll is used instead.
+   * The point in time or scroll is deleted when the stream is exhausted or closed.
+   */
+  @Override
+  public Stream<ObjectNode> streamSearch(String indexName, ObjectNode searchObject, StreamSearchOptions options) {
+    if (!isPointInTimeSupported()) return new ScrollHitIterator(indexName, searchObject, options).stream();
+
+    String pointInTimeId;
+    try {
+      pointInTimeId = openPointInTime(indexName, options);
+    }
+    catch (ElasticClientError e) {
+      log.warn("Cannot open point in time on index '{}', falling back to scroll: {}", indexName, e.getStatusText());
+      return new ScrollHitIterator(indexName, searchObject, options).stream();
+    }
+    return new PointInTimeHitIterator(pointInTimeId, searchObject, options).stream();
+  }
+
+  private boolean isPointInTimeSupported() {
+    if (pointInTimeSupported == null) {
+      ObjectNode info = restTemplate.getForObject(url, ObjectNode.class);
+      String version = info == null ? "" : info.path("version").path("number").asText();
+      pointInTimeSupported = isVersionAtLeast(version, 7, 10);
+    }
+    return pointInTimeSupported;
+  }
+
+  private static boolean isVersionAtLeast(String version, int major, int minor) {
+    String[] parts = version.split("\\.");
+    if (parts.length < 2) return false;
+
+    try {
+      int versionMajor = Integer.parseInt(parts[0]);
+      int versionMinor = Integer.parseInt(parts[1]);
+      return versionMajor > major || (versionMajor == major && versionMinor >= minor);
+    }
+    catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private String openPointInTime(String indexName, StreamSearchOptions options) {
+    URI uri = UriComponentsBuilder.fromHttpUrl(url)
+                                  .path("/" + indexName + "/_pit")
+                                  .queryParam("keep_alive", options.getKeepAliveValue())
+                                  .build(false)
+                                  .toUri();
+    ObjectNode response = restTemplate.postForObject(uri, null, ObjectNode.class);
+    Preconditions.checkNotNull(response);
+    return response.get("id").asText();
+  }
+
+  private void deleteWithBody(String path, ObjectNode body) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+
+    URI uri = UriComponentsBuilder.fromHttpUrl(url).path(path).build(false).toUri();
+    try {
+      restTemplate.exchange(uri, HttpMethod.DELETE, new HttpEntity<>(body, headers), Void.class);
+    }
+    catch (RestClientException e) {
+      // context expires after keep alive anyway
+      log.warn("Failed to release search context at '{}': {}", path, e.getMessage());
+    }
+  }
+
+  private class PointInTimeHitIterator extends SearchHitIterator {
+
+    private final ObjectNode pageSearchObject;
+    private String pointInTimeId;
+
+    private PointInTimeHitIterator(String pointInTimeId, ObjectNode searchObject, StreamSearchOptions options) {
+      super(searchObject, options);
+      this.pointInTimeId = pointInTimeId;
+      this.pageSearchObject = createPageSearchObject();
+      this.pageSearchObject.set("sort", getSortWithTiebreaker("_shard_doc"));
+    }
+
+    @Override
+    protected ObjectNode fetchFirstPage() {
+      return fetchPage();
+    }
+
+    @Override
+    protected ObjectNode fetchNextPage(ObjectNode previousResponse) {
+      pageSearchObject.set("search_after", getLastSortValues(previousResponse));
+      return fetchPage();
+    }
+
+    private ObjectNode fetchPage() {
+      pageSearchObject.putObject("pit")
+                      .put("id", pointInTimeId)
+                      .put("keep_alive", options.getKeepAliveValue());
+
+      URI uri = UriComponentsBuilder.fromHttpUrl(url).path("/" + Operation._search.name()).build(false).toUri();
+      ObjectNode response = restTemplate.postForObject(uri, pageSearchObject, ObjectNode.class);
+      Preconditions.checkNotNull(response);
+
+      // id of a point in time can change between requests
+      if (response.hasNonNull("pit_id")) pointInTimeId = response.get("pit_id").asText();
+      return response;
+    }
+
+    @Override
+    protected void release() {
+      deleteWithBody("/_pit", objectMapper.createObjectNode().put("id", pointInTimeId));
+    }
+  }
+
+  private class ScrollHitIterator extends SearchHitIterator {
+
+    private final String indexName;
+    private String scrollId;
+
+    private ScrollHitIterator(String indexName, ObjectNode searchObject, StreamSearchOptions options) {
+      super(searchObject, options);
+      this.indexName = indexName;
+    }
+
+    @Override
+    protected ObjectNode fetchFirstPage() {
+      ObjectNode pageSearchObject = createPageSearchObject();
+      // _doc is the cheapest order for a scroll
+      if (!pageSearchObject.has("sort")) pageSearchObject.putArray("sort").add("_doc");
+
+      URI uri = UriComponentsBuilder.fromHttpUrl(url)
+                                    .path("/" + indexName + "/" + Operation._search.name())
+                                    .queryParam("scroll", options.getKeepAliveValue())
+                                    .build(false)
+                                    .toUri();
+      return keepScrollId(restTemplate.postForObject(uri, pageSearchObject, ObjectNode.class));
+    }
+
+    @Override
+    protected ObjectNode fetchNextPage(ObjectNode previousResponse) {
+      ObjectNode body = objectMapper.createObjectNode()
+                                    .put("scroll", options.getKeepAliveValue())
+                                    .put("scroll_id", scrollId);
+
+      URI uri = UriComponentsBuilder.fromHttpUrl(url).path("/_search/scroll").build(false).toUri();
+      return keepScrollId(restTemplate.postForObject(uri, body, ObjectNode.class));
+    }
+
+    private ObjectNode keepScrollId(ObjectNode response) {
+      Preconditions.checkNotNull(response);
+      if (response.hasNonNull("_scroll_id")) scrollId = response.get("_scroll_id").asText();
+      return response;
+    }
+
+    @Override
+    protected void release() {
+      if (scrollId == null) return;
+
+      ObjectNode body = objectMapper.createObjectNode();
+      body.putArray("scroll_id").add(scrollId);
+      deleteWithBody("/_search/scroll", body);
+    }
+  }
+
+  @Override
+  public ObjectNode bulkIndex(List<BulkItem> items, Params params) {
+    URI uri = getBulkPath(params);
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(NDJSON);
+    HttpEntity<byte[]> entity = new HttpEntity<>(getBulkBody(items), headers);
+
+    return retryAndGetIfNeeded(new Tuple2<>(uri, entity),
+                               tuple -> restTemplate.exchange(tuple._1, HttpMethod.POST, tuple._2, ObjectNode.class).getBody());
+  }
+
+  @Override
+  public ObjectNode bulkDelete(String indexName, List<String> ids, Params params) {
+    URI uri = getBulkPath(params);
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(NDJSON);
+    HttpEntity<byte[]> entity = new HttpEntity<>(getBulkDeleteBody(indexName, ids), headers);
+
+    return retryAndGetIfNeeded(new Tuple2<>(uri, entity),
+                               tuple -> restTemplate.exchange(tuple._1, HttpMethod.POST, tuple._2, ObjectNode.class).getBody());
+  }
+
+  /**
+   * @return newline delimited body with a delete action line per id
+   */
+  private byte[] getBulkDeleteBody(String indexName, List<String> ids) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    for (String id : ids) {
+      ObjectNode action = objectMapper.createObjectNode();
+      action.putObject("delete")
+            .put("_index", indexName)
+            .put("_id", getDocumentId(id));
+
+      byte[] actionBytes = Try.of(() -> objectMapper.writeValueAsBytes(action)).get();
+      body.write(actionBytes, 0, actionBytes.length);
+      body.write('\n');
+    }
+    return body.toByteArray();
+  }
+
+  /**
+   * @return newline delimited body with an action line and a source line per item
+   */
+  private byte[] getBulkBody(List<BulkItem> items) {
+    long size = items.stream().mapToLong(BulkItem::getSize).sum();
+    ByteArrayOutputStream body = new ByteArrayOutputStream((int) Math.min(size, Integer.MAX_VALUE - 8));
+
+    for (BulkItem item : items) {
+      ObjectNode action = objectMapper.createObjectNode();
+      action.putObject("index")
+            .put("_index", item.getIndexName())
+            .put("_id", getDocumentId(item.getId()));
+
+      byte[] actionBytes = Try.of(() -> objectMapper.writeValueAsBytes(action)).get();
+      body.write(actionBytes, 0, actionBytes.length);
+      body.write('\n');
+      body.write(item.getSource(), 0, item.getSource().length);
+      body.write('\n');
+    }
+    return body.toByteArray();
+  }
+
   private <T> void retryIfNeeded(T parameters, Consumer<T> retryable) {
+    retryAndGetIfNeeded(parameters, value -> {
+      retryable.accept(value);
+      return null;
+    });
+  }
+
+  private <T, R> R retryAndGetIfNeeded(T parameters, Function<T, R> retryable) {
     long tries = 0;
     RestClientException lastException = null;
 
     while (tries < numberOfTries) {
       try {
-        retryable.accept(parameters);
-        return;
+        return retryable.apply(parameters);
       }
       catch (RestClientException e) {
         log.warn("Operation failed: {}", e.getMessage());
@@ -222,11 +496,30 @@ public class HttpElasticsearch7Store implements Elasticsearch7Store {
     return components.toUri();
   }
 
-  private URI createUri(String indexName, String id, Params params) {
+  private URI getBulkPath(Params params) {
+    UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(url);
+    builder.path("/" + Operation._bulk.name());
+    if (params != null && !params.isEmpty()) builder.queryParams(params.toMultiValueMap());
 
+    return builder.build(false).toUri();
+  }
+
+  /**
+   * Id as it is stored in Elasticsearch: same encoding as the one used in document urls.
+   */
+  private String getDocumentId(String id) {
+    checkUrlEncodedId();
+    return urlEncode(id);
+  }
+
+  private void checkUrlEncodedId() {
     if(!urlEncodedId) { // a-square v 0.1.0
       throw new RuntimeException("a-square v 0.1.0 id encoding is not yet supported for elastic v7");
     }
+  }
+
+  private URI createUri(String indexName, String id, Params params) {
+    checkUrlEncodedId();
 
     // a-square v 0.2.0
 
@@ -248,7 +541,8 @@ public class HttpElasticsearch7Store implements Elasticsearch7Store {
   private enum Operation {
     _delete_by_query,
     _search,
-    _mget
+    _mget,
+    _bulk
   }
 
   private static final class ElasticErrorHandler extends DefaultResponseErrorHandler {
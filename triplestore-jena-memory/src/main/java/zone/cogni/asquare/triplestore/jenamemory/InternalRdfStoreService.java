@@ -1,6 +1,9 @@
 package zone.cogni.asquare.triplestore.jenamemory;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.compose.Delta;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
@@ -8,6 +11,7 @@ import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
 import org.apache.jena.shared.Lock;
 import org.apache.jena.update.UpdateAction;
 import org.slf4j.Logger;
@@ -19,12 +23,28 @@ import zone.cogni.sem.jena.JenaUtils;
 import zone.cogni.sem.jena.template.JenaResultSetHandler;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+/**
+ * Triplestore backed by an in memory model.
+ * <p>
+ * When a save path is set, the model is persisted after each update.
+ * By default the whole model is written to a file on each update.
+ * With {@link #setUseJournal(boolean)} only the changes of an update are appended to a journal,
+ * which is compacted into a snapshot in the background once it grows beyond
+ * {@link #setCompactionJournalSize(long)} bytes or after {@link #setCompactionInterval(Duration)}.
+ */
 public class InternalRdfStoreService implements RdfStoreService {
 
   private static final Logger log = LoggerFactory.getLogger(InternalRdfStoreService.class);
@@ -34,10 +54,17 @@ public class InternalRdfStoreService implements RdfStoreService {
   private ResourcePatternResolver resourcePatternResolver;
   private String preLoadLocations;
   private String savePath;
+  private boolean useJournal;
+  private long compactionJournalSize = 64L * 1024 * 1024;
+  private Duration compactionInterval = Duration.ofHours(1);
 
   private File storeFile;
   private File tempStoreFile;
 
+  private RdfPatchJournal journal;
+  private ScheduledExecutorService compactionExecutor;
+  private final AtomicBoolean isCompactionScheduled = new AtomicBoolean();
+
   public InternalRdfStoreService() {
     model = ModelFactory.createDefaultModel();
   }
@@ -55,6 +82,27 @@ public class InternalRdfStoreService implements RdfStoreService {
     this.savePath = savePath;
   }
 
+  /**
+   * @param useJournal if <code>true</code> updates are appended to a journal in the save path
+   *                   instead of writing the whole model on each update
+   */
+  public void setUseJournal(boolean useJournal) {
+    this.useJournal = useJournal;
+  }
+
+  /**
+   * @param compactionJournalSize journal size in bytes which triggers compaction into a new snapshot
+   */
+  public void setCompactionJournalSize(long compactionJournalSize) {
+    this.compactionJournalSize = compactionJournalSize;
+  }
+
+  /**
+   * @param compactionInterval time between compactions of a journal which is not empty
+   */
+  public void setCompactionInterval(Duration compactionInterval) {
+    this.compactionInterval = compactionInterval;
+  }
 
   @PostConstruct
   private void init() throws Exception {
@@ -63,7 +111,8 @@ public class InternalRdfStoreService implements RdfStoreService {
       tempStoreFile = new File(savePath, "temp-store.rdf");
       storeFile.getParentFile().mkdirs();
 
-      if (storeFile.isFile()) JenaUtils.readInto(storeFile, model);
+      if (useJournal) initJournal();
+      else if (storeFile.isFile()) JenaUtils.readInto(storeFile, model);
     }
 
     if (resourcePatternResolver == null || StringUtils.isBlank(preLoadLocations)) return;
@@ -81,9 +130,33 @@ public class InternalRdfStoreService implements RdfStoreService {
     });
   }
 
+  private void initJournal() {
+    journal = new RdfPatchJournal(storeFile.getParentFile(), storeFile);
+    executeInLock(Lock.WRITE, () -> {
+      boolean isLegacyStoreFile = journal.load(model.getGraph());
+      if (isLegacyStoreFile) journal.compact(model.getGraph());
+    });
+
+    compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "internal-rdf-store-compaction");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long intervalMillis = compactionInterval.toMillis();
+    compactionExecutor.scheduleWithFixedDelay(this::compactJournal, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
   @Override
   public void addData(Model model) {
-    executeInLock(Lock.READ, () -> this.model.add(model));
+    executeInLock(Lock.WRITE, () -> {
+      if (journal == null) {
+        this.model.add(model);
+        return;
+      }
+
+      updateWithJournal(graph -> GraphUtil.addInto(graph, model.getGraph()));
+    });
+    scheduleCompactionIfNeeded();
   }
 
 
@@ -142,17 +215,64 @@ public class InternalRdfStoreService implements RdfStoreService {
   public void executeUpdateQuery(String updateQuery) {
     executeInLock(Lock.WRITE, () -> {
       try {
-        UpdateAction.parseExecute(updateQuery, model);
-        if (null != storeFile) {
-          JenaUtils.write(model, tempStoreFile);
-          storeFile.delete();
-          tempStoreFile.renameTo(storeFile);
+        if (journal != null) {
+          updateWithJournal(graph -> UpdateAction.parseExecute(updateQuery, graph));
+        }
+        else {
+          UpdateAction.parseExecute(updateQuery, model);
+          if (null != storeFile) {
+            JenaUtils.write(model, tempStoreFile);
+            storeFile.delete();
+            tempStoreFile.renameTo(storeFile);
+          }
         }
       }
       catch (Exception e) {
         throw new RuntimeException("Update SPARQL failed.\n" + updateQuery, e);
       }
     });
+    scheduleCompactionIfNeeded();
+  }
+
+  /**
+   * Runs <code>update</code> on a view of the model which collects the changes without applying them.
+   * Changes are appended to the journal first and only then applied to the model,
+   * so if the journal cannot be written the model is left unchanged.
+   */
+  private void updateWithJournal(Consumer<Graph> update) {
+    Delta delta = new Delta(model.getGraph());
+    update.accept(delta);
+
+    RDFChangesCollector changes = new RDFChangesCollector();
+    delta.getDeletions().find().forEachRemaining(triple -> changes.delete(null, triple.getSubject(), triple.getPredicate(), triple.getObject()));
+    delta.getAdditions().find().forEachRemaining(triple -> changes.add(null, triple.getSubject(), triple.getPredicate(), triple.getObject()));
+    journal.append(changes.getRDFPatch());
+
+    GraphUtil.deleteFrom(model.getGraph(), delta.getDeletions());
+    GraphUtil.addInto(model.getGraph(), delta.getAdditions());
+  }
+
+  private void scheduleCompactionIfNeeded() {
+    if (journal == null || journal.getJournalSize() < compactionJournalSize) return;
+    if (!isCompactionScheduled.compareAndSet(false, true)) return;
+
+    compactionExecutor.execute(this::compactJournal);
+  }
+
+  /**
+   * Writes a new snapshot if the journal is not empty.
+   * Runs in a read lock: queries continue, updates wait until the snapshot is written.
+   */
+  private void compactJournal() {
+    try {
+      isCompactionScheduled.set(false);
+      executeInLock(Lock.READ, () -> {
+        if (journal.getJournalSize() > 0) journal.compact(model.getGraph());
+      });
+    }
+    catch (RuntimeException e) {
+      log.error("Compaction of journal failed, journal is kept.", e);
+    }
   }
 
   @Override
@@ -184,4 +304,18 @@ public class InternalRdfStoreService implements RdfStoreService {
     return model;
   }
 
+  @PreDestroy
+  @Override
+  public void close() {
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdownNow();
+      compactionExecutor = null;
+    }
+    if (journal != null) {
+      executeInLock(Lock.WRITE, () -> journal.close());
+      journal = null;
+    }
+    RdfStoreService.super.close();
+  }
+
 }
@@ -0,0 +1,418 @@
+package zone.cogni.asquare.triplestore.jenamemory;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.RDFPatchOps;
+import org.apache.jena.rdfpatch.changes.PatchSummary;
+import org.apache.jena.rdfpatch.changes.RDFChangesApplyGraph;
+import org.apache.jena.rdfpatch.text.RDFChangesWriterText;
+import org.apache.jena.rdfpatch.text.RDFPatchReaderText;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists a graph as a snapshot and an append-only journal of changes, both in RDF Patch text format.
+ * <p>
+ * Each update is appended to the journal as one transaction, so writing costs time proportional to the change.
+ * On load the snapshot is read and the journal is replayed on top of it, one transaction at a time.
+ * A snapshot which cannot be read completely fails the load, it is only replaced by a compaction.
+ * Replay stops at a transaction which was not completely written, e.g. after a crash, or which is corrupt.
+ * The journal is then truncated to the end of the last complete transaction,
+ * so new transactions are not appended after an entry which can never be read.
+ * Appended transactions are synced to disk before {@link #append(RDFPatch)} returns.
+ * {@link #compact(Graph)} writes a fresh snapshot and empties the journal.
+ * <p>
+ * RDF Patch keeps blank node labels, so changes in the journal match blank nodes of the snapshot.
+ * <p>
+ * Not thread safe, callers are expected to hold a lock on the graph.
+ */
+class RdfPatchJournal implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(RdfPatchJournal.class);
+
+  private final File snapshotFile;
+  private final File tempSnapshotFile;
+  private final File journalFile;
+  private final File legacyStoreFile;
+
+  private FileOutputStream journalFileOutputStream;
+  private OutputStream journalOutputStream;
+  private RDFChangesWriterText journalWriter;
+  private volatile long journalSize;
+
+  /**
+   * @param directory       folder containing snapshot and journal
+   * @param legacyStoreFile full RDF file written by earlier versions, only read if there is no snapshot yet
+   */
+  RdfPatchJournal(File directory, File legacyStoreFile) {
+    this.snapshotFile = new File(directory, "snapshot.rdfp");
+    this.tempSnapshotFile = new File(directory, "temp-snapshot.rdfp");
+    this.journalFile = new File(directory, "journal.rdfp");
+    this.legacyStoreFile = legacyStoreFile;
+  }
+
+  /**
+   * Reads snapshot and replays journal into <code>graph</code>, then opens the journal for appending.
+   *
+   * @return <code>true</code> if data was read from the legacy store file,
+   * the graph should then be compacted before blank nodes can be referenced in the journal
+   */
+  boolean load(Graph graph) {
+    boolean isLegacy = false;
+    if (snapshotFile.isFile()) {
+      applySnapshot(snapshotFile, graph);
+    }
+    else if (legacyStoreFile != null && legacyStoreFile.isFile()) {
+      log.info("Reading store file {}, it will be replaced by a snapshot.", legacyStoreFile);
+      RDFDataMgr.read(graph, legacyStoreFile.getAbsolutePath());
+      isLegacy = true;
+    }
+
+    if (journalFile.isFile()) {
+      long start = System.nanoTime();
+      long validLength = replayJournal(graph);
+      log.info("Replayed journal {} of {} bytes in {} ms.",
+               journalFile, validLength, (System.nanoTime() - start) / 1_000_000);
+
+      if (validLength < journalFile.length()) {
+        log.warn("Truncating journal {} from {} to {} bytes, the end of the journal is incomplete or corrupt.",
+                 journalFile, journalFile.length(), validLength);
+        truncateJournal(validLength);
+      }
+    }
+
+    openJournal(true);
+    return isLegacy;
+  }
+
+  private void applySnapshot(File file, Graph graph) {
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+      new RDFPatchReaderText(inputStream).apply(new TransactionalApply(graph));
+    }
+    catch (IOException | RuntimeException e) {
+      throw new RuntimeException("Cannot read snapshot " + file + ", it is not loaded partially since a compaction"
+                                 + " would overwrite it with the partial graph.", e);
+    }
+  }
+
+  /**
+   * Applies transactions of the journal one by one, until the end of the journal or until an incomplete
+   * or corrupt transaction.
+   *
+   * @return length of the journal up to the end of the last transaction which was applied
+   */
+  private long replayJournal(Graph graph) {
+    long validLength = 0;
+    long position = 0;
+    ByteArrayOutputStream transaction = new ByteArrayOutputStream();
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    try (InputStream inputStream = new FileInputStream(journalFile)) {
+      byte[] buffer = new byte[64 * 1024];
+      int length;
+      while ((length = inputStream.read(buffer)) != -1) {
+        for (int i = 0; i < length; i++) {
+          position++;
+          line.write(buffer[i]);
+          if (buffer[i] != '\n') continue;
+
+          boolean isTransactionEnd = isTransactionEnd(line);
+          line.writeTo(transaction);
+          line.reset();
+          if (!isTransactionEnd) continue;
+
+          applyTransaction(transaction.toByteArray(), graph);
+          transaction.reset();
+          validLength = position;
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      log.warn("Stopped reading {} at a corrupt transaction.", journalFile, e);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Cannot read " + journalFile, e);
+    }
+    return validLength;
+  }
+
+  private static boolean isTransactionEnd(ByteArrayOutputStream line) {
+    String text = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+    return text.startsWith("TC") || text.startsWith("TA");
+  }
+
+  private static void applyTransaction(byte[] transaction, Graph graph) {
+    String text = new String(transaction, StandardCharsets.UTF_8).trim();
+    if (!text.startsWith("TX")) throw new RuntimeException("Transaction does not start with TX.");
+
+    new RDFPatchReaderText(new ByteArrayInputStream(transaction)).apply(new TransactionalApply(graph));
+  }
+
+  private void truncateJournal(long length) {
+    try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(length);
+      channel.force(true);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Cannot truncate journal " + journalFile, e);
+    }
+  }
+
+  /**
+   * @return size of the journal in bytes
+   */
+  long getJournalSize() {
+    return journalSize;
+  }
+
+  /**
+   * Appends <code>patch</code> to the journal as one transaction and syncs it to disk. Empty patches are not written.
+   * If appending fails, whatever was written of the transaction is removed from the journal again.
+   */
+  void append(RDFPatch patch) {
+    PatchSummary summary = RDFPatchOps.summary(patch);
+    if (summary.getCountAddData() + summary.getCountDeleteData() == 0) return;
+
+    long oldJournalSize = journalSize;
+    try {
+      journalWriter.txnBegin();
+      patch.apply(new WithoutTransactions(journalWriter));
+      journalWriter.txnCommit();
+      journalWriter.finish();
+      journalOutputStream.flush();
+      journalFileOutputStream.getFD().sync();
+      journalSize = journalFile.length();
+    }
+    catch (IOException | RuntimeException e) {
+      discardAppend(oldJournalSize);
+      throw new RuntimeException("Cannot append to journal " + journalFile, e);
+    }
+  }
+
+  private void discardAppend(long oldJournalSize) {
+    try {
+      closeJournal();
+      truncateJournal(oldJournalSize);
+      openJournal(true);
+    }
+    catch (RuntimeException e) {
+      log.error("Cannot remove failed transaction from journal {}, it is skipped on load.", journalFile, e);
+    }
+  }
+
+  /**
+   * Writes <code>graph</code> to a new snapshot and empties the journal.
+   * Snapshot is written to a temporary file first and then moved,
+   * so a crash during compaction leaves the old snapshot and journal in place.
+   */
+  void compact(Graph graph) {
+    long start = System.nanoTime();
+    long oldJournalSize = journalSize;
+
+    try (FileOutputStream fileOutputStream = new FileOutputStream(tempSnapshotFile);
+         OutputStream outputStream = new BufferedOutputStream(fileOutputStream)) {
+      RDFChangesWriterText writer = RDFChangesWriterText.create(outputStream);
+      writer.start();
+      ExtendedIterator<Triple> triples = graph.find();
+      try {
+        triples.forEachRemaining(triple -> writer.add(null, triple.getSubject(), triple.getPredicate(), triple.getObject()));
+      }
+      finally {
+        triples.close();
+      }
+      writer.finish();
+      outputStream.flush();
+      fileOutputStream.getFD().sync();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Cannot write snapshot " + tempSnapshotFile, e);
+    }
+
+    try {
+      Files.move(tempSnapshotFile.toPath(), snapshotFile.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Cannot move snapshot " + tempSnapshotFile + " to " + snapshotFile, e);
+    }
+
+    closeJournal();
+    openJournal(false);
+    if (legacyStoreFile != null && legacyStoreFile.isFile() && !legacyStoreFile.delete()) {
+      log.warn("Cannot delete store file {}, it is replaced by snapshot {}.", legacyStoreFile, snapshotFile);
+    }
+
+    log.info("Compacted journal of {} bytes into snapshot of {} bytes in {} ms.",
+             oldJournalSize, snapshotFile.length(), (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private void openJournal(boolean append) {
+    try {
+      journalFileOutputStream = new FileOutputStream(journalFile, append);
+      journalOutputStream = new BufferedOutputStream(journalFileOutputStream);
+      journalWriter = RDFChangesWriterText.create(journalOutputStream);
+      journalSize = journalFile.length();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Cannot open journal " + journalFile, e);
+    }
+  }
+
+  private void closeJournal() {
+    if (journalOutputStream == null) return;
+
+    try {
+      journalOutputStream.close();
+    }
+    catch (IOException e) {
+      log.warn("Cannot close journal {}.", journalFile, e);
+    }
+    journalFileOutputStream = null;
+    journalOutputStream = null;
+    journalWriter = null;
+  }
+
+  @Override
+  public void close() {
+    closeJournal();
+  }
+
+  /**
+   * Applies changes to a graph one transaction at a time.
+   * Changes outside of a transaction, like the ones of a snapshot, are applied immediately.
+   */
+  private static class TransactionalApply extends RDFChangesApplyGraph {
+
+    private List<Change> transaction;
+
+    private TransactionalApply(Graph graph) {
+      super(graph);
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+      if (transaction == null) super.add(g, s, p, o);
+      else transaction.add(new Change(true, Triple.create(s, p, o)));
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+      if (transaction == null) super.delete(g, s, p, o);
+      else transaction.add(new Change(false, Triple.create(s, p, o)));
+    }
+
+    @Override
+    public void txnBegin() {
+      transaction = new ArrayList<>();
+    }
+
+    @Override
+    public void txnCommit() {
+      List<Change> changes = transaction;
+      transaction = null;
+      changes.forEach(change -> {
+        Triple triple = change.triple;
+        if (change.isAdd) super.add(null, triple.getSubject(), triple.getPredicate(), triple.getObject());
+        else super.delete(null, triple.getSubject(), triple.getPredicate(), triple.getObject());
+      });
+    }
+
+    @Override
+    public void txnAbort() {
+      transaction = null;
+    }
+  }
+
+  private static class Change {
+
+    private final boolean isAdd;
+    private final Triple triple;
+
+    private Change(boolean isAdd, Triple triple) {
+      this.isAdd = isAdd;
+      this.triple = triple;
+    }
+  }
+
+  /**
+   * Passes changes of a patch to the journal writer, transaction boundaries are written by the journal itself.
+   */
+  private static class WithoutTransactions implements RDFChanges {
+
+    private final RDFChanges delegate;
+
+    private WithoutTransactions(RDFChanges delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void header(String field, Node value) {
+    }
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+      delegate.add(g, s, p, o);
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+      delegate.delete(g, s, p, o);
+    }
+
+    @Override
+    public void addPrefix(Node gn, String prefix, String uriStr) {
+    }
+
+    @Override
+    public void deletePrefix(Node gn, String prefix) {
+    }
+
+    @Override
+    public void txnBegin() {
+    }
+
+    @Override
+    public void txnCommit() {
+    }
+
+    @Override
+    public void txnAbort() {
+    }
+
+    @Override
+    public void segment() {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void finish() {
+    }
+  }
+}
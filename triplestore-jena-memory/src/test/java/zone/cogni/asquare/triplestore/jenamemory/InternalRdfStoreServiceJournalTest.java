@@ -0,0 +1,227 @@
+package zone.cogni.asquare.triplestore.jenamemory;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import zone.cogni.sem.jena.JenaUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InternalRdfStoreServiceJournalTest {
+
+  private static final String ns = "http://example.cogni.zone/";
+
+  @TempDir
+  Path folder;
+
+  @Test
+  void updates_and_added_data_are_replayed_from_journal() {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.executeUpdateQuery("INSERT DATA { <" + ns + "a> <" + ns + "p> [ <" + ns + "q> \"blank\" ] . " +
+                                "             <" + ns + "b> <" + ns + "p> \"b\" . }");
+    rdfStore.executeUpdateQuery("DELETE WHERE { <" + ns + "b> ?p ?o }");
+    rdfStore.addData(getModel("c"));
+    Model expected = copy(rdfStore.getModel());
+    rdfStore.close();
+
+    // when
+    InternalRdfStoreService reloaded = newJournalStore();
+
+    // then
+    assertTrue(expected.isIsomorphicWith(reloaded.getModel()));
+    assertEquals(3, reloaded.getModel().size());
+    assertTrue(new File(folder.toFile(), "journal.rdfp").length() > 0);
+    assertFalse(new File(folder.toFile(), "store.rdf").exists());
+    reloaded.close();
+  }
+
+  @Test
+  void blank_nodes_of_snapshot_can_be_deleted_through_journal() {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.executeUpdateQuery("INSERT DATA { <" + ns + "a> <" + ns + "p> [ <" + ns + "q> \"blank\" ] }");
+    compact(rdfStore);
+    rdfStore.close();
+
+    // when
+    InternalRdfStoreService reloaded = newJournalStore();
+    reloaded.executeUpdateQuery("DELETE WHERE { ?blank <" + ns + "q> ?o }");
+    reloaded.close();
+
+    // then
+    InternalRdfStoreService result = newJournalStore();
+    assertEquals(1, result.getModel().size());
+    result.close();
+  }
+
+  @Test
+  void journal_is_compacted_into_snapshot_when_too_large() throws InterruptedException {
+    // given
+    InternalRdfStoreService rdfStore = new InternalRdfStoreService();
+    rdfStore.setSavePath(folder.toString());
+    rdfStore.setUseJournal(true);
+    rdfStore.setCompactionJournalSize(1);
+    init(rdfStore);
+    File journal = new File(folder.toFile(), "journal.rdfp");
+
+    // when
+    rdfStore.addData(getModel("a"));
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (journal.length() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    rdfStore.close();
+
+    // then
+    assertEquals(0, journal.length());
+    assertTrue(new File(folder.toFile(), "snapshot.rdfp").length() > 0);
+
+    InternalRdfStoreService reloaded = newJournalStore();
+    assertTrue(getModel("a").isIsomorphicWith(reloaded.getModel()));
+    reloaded.close();
+  }
+
+  @Test
+  void incomplete_transaction_at_end_of_journal_is_skipped() throws IOException {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.addData(getModel("a"));
+    rdfStore.close();
+
+    String incomplete = "TX .\nA <" + ns + "x> <" + ns + "p> \"x\" .\n";
+    Files.write(folder.resolve("journal.rdfp"), incomplete.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    // when
+    InternalRdfStoreService reloaded = newJournalStore();
+
+    // then
+    assertTrue(getModel("a").isIsomorphicWith(reloaded.getModel()));
+    reloaded.close();
+  }
+
+  @Test
+  void updates_after_corrupt_entry_are_kept() throws IOException {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.addData(getModel("a"));
+    rdfStore.executeUpdateQuery("INSERT DATA { <" + ns + "n> <" + ns + "p> \"multi\\nline\" }");
+    rdfStore.close();
+    long validLength = new File(folder.toFile(), "journal.rdfp").length();
+
+    String corrupt = "TX .\nA <" + ns + "x> <" + ns + "p> \"x\n";
+    Files.write(folder.resolve("journal.rdfp"), corrupt.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    // when
+    InternalRdfStoreService reloaded = newJournalStore();
+    reloaded.addData(getModel("b"));
+    reloaded.close();
+
+    // then
+    InternalRdfStoreService result = newJournalStore();
+    assertEquals(3, result.getModel().size());
+    assertTrue(result.getModel().containsResource(result.getModel().createResource(ns + "b")));
+    assertTrue(new File(folder.toFile(), "journal.rdfp").length() > validLength);
+    result.close();
+  }
+
+  @Test
+  void corrupt_snapshot_fails_load_and_is_kept() throws IOException {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.addData(getModel("a"));
+    rdfStore.addData(getModel("b"));
+    compact(rdfStore);
+    rdfStore.close();
+
+    Path snapshot = folder.resolve("snapshot.rdfp");
+    String corrupt = "A <" + ns + "x> <" + ns + "p> \"x\n";
+    Files.write(snapshot, corrupt.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    byte[] corruptSnapshot = Files.readAllBytes(snapshot);
+
+    // when
+    InternalRdfStoreService reloaded = new InternalRdfStoreService();
+    reloaded.setSavePath(folder.toString());
+    reloaded.setUseJournal(true);
+
+    // then
+    assertThrows(RuntimeException.class, () -> init(reloaded));
+    assertArrayEquals(corruptSnapshot, Files.readAllBytes(snapshot));
+  }
+
+  @Test
+  void model_is_unchanged_when_journal_cannot_be_written() {
+    // given
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.addData(getModel("a"));
+    Object journal = ReflectionTestUtils.getField(rdfStore, "journal");
+    ReflectionTestUtils.invokeMethod(journal, "closeJournal");
+
+    // when
+    assertThrows(RuntimeException.class, () -> rdfStore.addData(getModel("b")));
+    rdfStore.addData(getModel("c"));
+    rdfStore.close();
+
+    // then
+    Model expected = getModel("a").add(getModel("c"));
+    assertTrue(expected.isIsomorphicWith(rdfStore.getModel()));
+
+    InternalRdfStoreService reloaded = newJournalStore();
+    assertTrue(expected.isIsomorphicWith(reloaded.getModel()));
+    reloaded.close();
+  }
+
+  @Test
+  void store_file_is_replaced_by_snapshot() {
+    // given
+    JenaUtils.write(getModel("a"), new File(folder.toFile(), "store.rdf"));
+
+    // when
+    InternalRdfStoreService rdfStore = newJournalStore();
+    rdfStore.close();
+
+    // then
+    assertTrue(getModel("a").isIsomorphicWith(rdfStore.getModel()));
+    assertFalse(new File(folder.toFile(), "store.rdf").exists());
+    assertTrue(new File(folder.toFile(), "snapshot.rdfp").isFile());
+  }
+
+  private InternalRdfStoreService newJournalStore() {
+    InternalRdfStoreService rdfStore = new InternalRdfStoreService();
+    rdfStore.setSavePath(folder.toString());
+    rdfStore.setUseJournal(true);
+    init(rdfStore);
+    return rdfStore;
+  }
+
+  private static void init(InternalRdfStoreService rdfStore) {
+    ReflectionTestUtils.invokeMethod(rdfStore, "init");
+  }
+
+  private static void compact(InternalRdfStoreService rdfStore) {
+    ReflectionTestUtils.invokeMethod(rdfStore, "compactJournal");
+  }
+
+  private static Model getModel(String name) {
+    Model model = ModelFactory.createDefaultModel();
+    model.createResource(ns + name).addProperty(model.createProperty(ns + "p"), name);
+    return model;
+  }
+
+  private static Model copy(Model model) {
+    return ModelFactory.createDefaultModel().add(model);
+  }
+}
@@ -0,0 +1,289 @@
+package zone.cogni.asquare.triplestore.tdb2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts a TDB2 store on disk when it grew too much or when it was not compacted for a while.
+ * <p>
+ * Every <code>checkInterval</code> the size of the database is compared with its size after the last compaction,
+ * or at start of the scheduler.
+ * The database is compacted when
+ * <ul>
+ *   <li>its size reached <code>growthRatio</code> times that size</li>
+ *   <li>or it grew and <code>maxInterval</code> passed since the last compaction</li>
+ * </ul>
+ * Databases smaller than <code>minimumSize</code> are never compacted automatically.
+ * Size is the length of the files on disk, index files grow in blocks of several megabytes
+ * so small changes often only show up in the node table.
+ * </p>
+ * <p>
+ * Compaction copies the live data to a new generation while readers continue on the old one,
+ * writers only wait for the switch to the new generation.
+ * Old generations are deleted unless <code>deleteOldGenerations</code> is switched off.
+ * </p>
+ */
+public class Tdb2CompactionScheduler implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(Tdb2CompactionScheduler.class);
+
+  public static class Configuration {
+
+    private Duration checkInterval = Duration.ofMinutes(10);
+    private double growthRatio = 2.0;
+    private Duration maxInterval = Duration.ofDays(1);
+    private long minimumSize = 16L * 1024 * 1024;
+    private boolean deleteOldGenerations = true;
+
+    public Duration getCheckInterval() {
+      return checkInterval;
+    }
+
+    public Configuration withCheckInterval(Duration checkInterval) {
+      this.checkInterval = checkInterval;
+      return this;
+    }
+
+    public double getGrowthRatio() {
+      return growthRatio;
+    }
+
+    public Configuration withGrowthRatio(double growthRatio) {
+      if (growthRatio <= 1) throw new RuntimeException("growth ratio must be larger than 1, got " + growthRatio);
+
+      this.growthRatio = growthRatio;
+      return this;
+    }
+
+    /**
+     * @return maximum time between two compactions of a growing database, <code>null</code> to only compact on growth ratio
+     */
+    public Duration getMaxInterval() {
+      return maxInterval;
+    }
+
+    public Configuration withMaxInterval(Duration maxInterval) {
+      this.maxInterval = maxInterval;
+      return this;
+    }
+
+    public long getMinimumSize() {
+      return minimumSize;
+    }
+
+    public Configuration withMinimumSize(long minimumSize) {
+      this.minimumSize = minimumSize;
+      return this;
+    }
+
+    public boolean isDeleteOldGenerations() {
+      return deleteOldGenerations;
+    }
+
+    public Configuration withDeleteOldGenerations(boolean deleteOldGenerations) {
+      this.deleteOldGenerations = deleteOldGenerations;
+      return this;
+    }
+  }
+
+  public static class Metrics {
+
+    private final long databaseSize;
+    private final int generationCount;
+    private final long compactionCount;
+    private final Instant lastCompactionTime;
+    private final Duration lastCompactionDuration;
+    private final long lastReclaimedBytes;
+    private final long totalReclaimedBytes;
+
+    private Metrics(long databaseSize, int generationCount, long compactionCount,
+                    Instant lastCompactionTime, Duration lastCompactionDuration,
+                    long lastReclaimedBytes, long totalReclaimedBytes) {
+      this.databaseSize = databaseSize;
+      this.generationCount = generationCount;
+      this.compactionCount = compactionCount;
+      this.lastCompactionTime = lastCompactionTime;
+      this.lastCompactionDuration = lastCompactionDuration;
+      this.lastReclaimedBytes = lastReclaimedBytes;
+      this.totalReclaimedBytes = totalReclaimedBytes;
+    }
+
+    /**
+     * @return bytes on disk of all generations
+     */
+    public long getDatabaseSize() {
+      return databaseSize;
+    }
+
+    public int getGenerationCount() {
+      return generationCount;
+    }
+
+    public long getCompactionCount() {
+      return compactionCount;
+    }
+
+    /**
+     * @return end time of the last compaction, <code>null</code> if there was none yet
+     */
+    public Instant getLastCompactionTime() {
+      return lastCompactionTime;
+    }
+
+    /**
+     * @return duration of the last compaction, <code>null</code> if there was none yet
+     */
+    public Duration getLastCompactionDuration() {
+      return lastCompactionDuration;
+    }
+
+    public long getLastReclaimedBytes() {
+      return lastReclaimedBytes;
+    }
+
+    public long getTotalReclaimedBytes() {
+      return totalReclaimedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "size " + databaseSize + " bytes in " + generationCount + " generation(s), "
+             + compactionCount + " compaction(s), last took " + lastCompactionDuration
+             + " and reclaimed " + lastReclaimedBytes + " bytes, " + totalReclaimedBytes + " bytes in total";
+    }
+  }
+
+  private static class CompactionState {
+
+    private final long compactionCount;
+    private final Instant lastCompactionTime;
+    private final Duration lastCompactionDuration;
+    private final long lastReclaimedBytes;
+    private final long totalReclaimedBytes;
+
+    private CompactionState(long compactionCount, Instant lastCompactionTime, Duration lastCompactionDuration,
+                            long lastReclaimedBytes, long totalReclaimedBytes) {
+      this.compactionCount = compactionCount;
+      this.lastCompactionTime = lastCompactionTime;
+      this.lastCompactionDuration = lastCompactionDuration;
+      this.lastReclaimedBytes = lastReclaimedBytes;
+      this.totalReclaimedBytes = totalReclaimedBytes;
+    }
+  }
+
+  private final Tdb2StoreService storeService;
+  private final Configuration configuration;
+  private final ScheduledExecutorService scheduler;
+
+  private long sizeAfterLastCompaction;
+  private Instant sizeAfterLastCompactionTime = Instant.now();
+
+  /**
+   * Replaced as a whole after each compaction, so metrics can be read without waiting for a running compaction.
+   */
+  private volatile CompactionState compactionState = new CompactionState(0, null, null, 0, 0);
+
+  public Tdb2CompactionScheduler(Tdb2StoreService storeService) {
+    this(storeService, new Configuration());
+  }
+
+  public Tdb2CompactionScheduler(Tdb2StoreService storeService, Configuration configuration) {
+    if (storeService.getTdbLocationFolder() == null)
+      throw new RuntimeException("compaction scheduler needs a TDB2 store on disk, not an in memory store");
+
+    this.storeService = storeService;
+    this.configuration = configuration;
+    this.sizeAfterLastCompaction = storeService.getDatabaseSize();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tdb2-compaction");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void start() {
+    long checkMillis = configuration.getCheckInterval().toMillis();
+    scheduler.scheduleWithFixedDelay(this::check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    log.info(".. .. compaction of TDB {} checked every {}", storeService.getTdbLocationFolder().getPath(), configuration.getCheckInterval());
+  }
+
+  private void check() {
+    try {
+      if (shouldCompact()) compact();
+    }
+    catch (RuntimeException e) {
+      // exception would stop the schedule, next check tries again
+      log.error(".. .. compaction of TDB {} failed", storeService.getTdbLocationFolder().getPath(), e);
+    }
+  }
+
+  private synchronized boolean shouldCompact() {
+    long size = storeService.getDatabaseSize();
+    if (size < configuration.getMinimumSize()) return false;
+    if (size >= sizeAfterLastCompaction * configuration.getGrowthRatio()) return true;
+
+    Duration maxInterval = configuration.getMaxInterval();
+    return maxInterval != null
+           && size > sizeAfterLastCompaction
+           && sizeAfterLastCompactionTime.plus(maxInterval).isBefore(Instant.now());
+  }
+
+  /**
+   * Compacts the store now.
+   *
+   * @return metrics after compaction
+   */
+  public synchronized Metrics compact() {
+    long sizeBefore = storeService.getDatabaseSize();
+    long start = System.nanoTime();
+
+    storeService.compact(configuration.isDeleteOldGenerations());
+
+    long sizeAfter = storeService.getDatabaseSize();
+    long reclaimedBytes = Math.max(0, sizeBefore - sizeAfter);
+    CompactionState previous = compactionState;
+    compactionState = new CompactionState(previous.compactionCount + 1,
+                                          Instant.now(),
+                                          Duration.ofNanos(System.nanoTime() - start),
+                                          reclaimedBytes,
+                                          previous.totalReclaimedBytes + reclaimedBytes);
+    sizeAfterLastCompaction = sizeAfter;
+    sizeAfterLastCompactionTime = compactionState.lastCompactionTime;
+
+    Metrics metrics = getMetrics();
+    log.info(".. .. compacted TDB {}: {}", storeService.getTdbLocationFolder().getPath(), metrics);
+    return metrics;
+  }
+
+  /**
+   * Does not wait for a running compaction, compaction counts are those of the last finished compaction.
+   */
+  public Metrics getMetrics() {
+    CompactionState state = compactionState;
+    return new Metrics(storeService.getDatabaseSize(), storeService.getGenerationCount(), state.compactionCount,
+                       state.lastCompactionTime, state.lastCompactionDuration,
+                       state.lastReclaimedBytes, state.totalReclaimedBytes);
+  }
+
+  /**
+   * Stops checking, a running compaction is finished first.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(1, TimeUnit.MINUTES))
+        log.warn(".. .. compaction of TDB {} still running", storeService.getTdbLocationFolder().getPath());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
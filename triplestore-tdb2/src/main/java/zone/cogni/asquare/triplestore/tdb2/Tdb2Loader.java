@@ -0,0 +1,366 @@
+package zone.cogni.asquare.triplestore.tdb2;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.progress.MonitorOutput;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streams files or other RDF sources into a TDB2 dataset without reading them into a model first.
+ * <p>
+ * Loads run outside of a transaction: the TDB2 loaders manage their own transaction,
+ * {@link Mode#CHUNKED} commits every <code>chunkSize</code> triples.
+ * Triples go to the default graph or to <code>graphUri</code> if one is passed, quads keep their own graph.
+ * </p>
+ */
+public class Tdb2Loader {
+
+  private static final Logger log = LoggerFactory.getLogger(Tdb2Loader.class);
+
+  public enum Mode {
+    /**
+     * TDB2 parallel loader, fastest but uses several threads and most memory.
+     */
+    PARALLEL,
+    /**
+     * TDB2 phased loader, loads data first and builds the other indexes afterwards.
+     */
+    PHASED,
+    /**
+     * TDB2 sequential loader, one thread.
+     */
+    SEQUENTIAL,
+    /**
+     * Regular writes committed every <code>chunkSize</code> triples,
+     * slower but other writers can get in between two chunks.
+     * Chunks committed before a failure stay in the dataset.
+     */
+    CHUNKED
+  }
+
+  public static class Configuration {
+
+    private Mode mode = Mode.PHASED;
+    private long chunkSize = 100_000;
+    private long progressInterval = 1_000_000;
+    private Consumer<Progress> progressListener = progress -> log.info(".. .. .. {}", progress);
+
+    public Mode getMode() {
+      return mode;
+    }
+
+    public Configuration withMode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * @return number of triples or quads per transaction, only used for {@link Mode#CHUNKED}
+     */
+    public long getChunkSize() {
+      return chunkSize;
+    }
+
+    public Configuration withChunkSize(long chunkSize) {
+      if (chunkSize <= 0) throw new RuntimeException("chunk size must be positive, got " + chunkSize);
+
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * @return number of triples or quads between two calls of the progress listener
+     */
+    public long getProgressInterval() {
+      return progressInterval;
+    }
+
+    public Configuration withProgressInterval(long progressInterval) {
+      if (progressInterval <= 0) throw new RuntimeException("progress interval must be positive, got " + progressInterval);
+
+      this.progressInterval = progressInterval;
+      return this;
+    }
+
+    public Consumer<Progress> getProgressListener() {
+      return progressListener;
+    }
+
+    public Configuration withProgressListener(Consumer<Progress> progressListener) {
+      this.progressListener = progressListener;
+      return this;
+    }
+  }
+
+  public static class Progress {
+
+    private final String source;
+    private final long count;
+    private final long elapsedMillis;
+    private final boolean finished;
+
+    public Progress(String source, long count, long elapsedMillis, boolean finished) {
+      this.source = source;
+      this.count = count;
+      this.elapsedMillis = elapsedMillis;
+      this.finished = finished;
+    }
+
+    public String getSource() {
+      return source;
+    }
+
+    /**
+     * @return number of triples and quads loaded so far
+     */
+    public long getCount() {
+      return count;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    public boolean isFinished() {
+      return finished;
+    }
+
+    public long getPerSecond() {
+      return elapsedMillis == 0 ? count : count * 1000 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return (finished ? "loaded " : "loading ") + source + ": " + count + " triples in " + elapsedMillis + " ms"
+             + " (" + getPerSecond() + " per second)";
+    }
+  }
+
+  private final Dataset dataset;
+  private final Configuration configuration;
+
+  public Tdb2Loader(Dataset dataset) {
+    this(dataset, new Configuration());
+  }
+
+  public Tdb2Loader(Dataset dataset, Configuration configuration) {
+    this.dataset = dataset;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Loads files in one bulk load, syntax is based on the file extension.
+   *
+   * @param graphUri graph for triples, <code>null</code> for the default graph
+   * @param files    files to load
+   * @return number of triples and quads loaded
+   */
+  public long load(@Nullable String graphUri, @Nonnull File... files) {
+    return load(graphUri, Arrays.asList(files));
+  }
+
+  public long load(@Nullable String graphUri, @Nonnull List<File> files) {
+    String sourceName = files.size() == 1 ? files.get(0).getName() : files.size() + " files";
+    return load(graphUri, sourceName, destination -> files.forEach(file -> {
+      log.info(".. .. .. reading {}", file.getName());
+      RDFParser.source(file.getAbsolutePath()).parse(destination);
+    }));
+  }
+
+  /**
+   * Loads everything <code>source</code> sends to the destination it gets passed.
+   * Calls of <code>start</code> and <code>finish</code> on the destination are ignored, the load starts and finishes once.
+   *
+   * @param graphUri   graph for triples, <code>null</code> for the default graph
+   * @param sourceName name of the source used in progress reports
+   * @param source     sends triples or quads to the destination
+   * @return number of triples and quads loaded
+   */
+  public long load(@Nullable String graphUri, @Nonnull String sourceName, @Nonnull Consumer<StreamRDF> source) {
+    if (dataset.isInTransaction()) throw new RuntimeException("cannot load '" + sourceName + "' inside a transaction");
+
+    Node graph = graphUri == null ? null : NodeFactory.createURI(graphUri);
+    return configuration.getMode() == Mode.CHUNKED ? loadChunked(graph, sourceName, source)
+                                                   : loadBulk(graph, sourceName, source);
+  }
+
+  private long loadBulk(@Nullable Node graph, @Nonnull String sourceName, @Nonnull Consumer<StreamRDF> source) {
+    DataLoader loader = createLoader(dataset.asDatasetGraph(), graph);
+    loader.startBulk();
+    try {
+      ProgressStream destination = new ProgressStream(loader.stream(), sourceName);
+      destination.load(source);
+
+      loader.finishBulk();
+      return destination.count;
+    }
+    catch (RuntimeException e) {
+      loader.finishException(e);
+      throw e;
+    }
+  }
+
+  private DataLoader createLoader(@Nonnull DatasetGraph datasetGraph, @Nullable Node graph) {
+    // progress is reported by ProgressStream, loader output is only logged on debug
+    MonitorOutput output = (format, args) -> {
+      if (log.isDebugEnabled()) log.debug(String.format(format, args));
+    };
+
+    switch (configuration.getMode()) {
+      case PARALLEL:
+        return graph == null ? LoaderFactory.parallelLoader(datasetGraph, output)
+                             : LoaderFactory.parallelLoader(datasetGraph, graph, output);
+      case PHASED:
+        return graph == null ? LoaderFactory.phasedLoader(datasetGraph, output)
+                             : LoaderFactory.phasedLoader(datasetGraph, graph, output);
+      case SEQUENTIAL:
+        return graph == null ? LoaderFactory.sequentialLoader(datasetGraph, output)
+                             : LoaderFactory.sequentialLoader(datasetGraph, graph, output);
+      default:
+        throw new RuntimeException("no TDB2 loader for mode " + configuration.getMode());
+    }
+  }
+
+  private long loadChunked(@Nullable Node graph, @Nonnull String sourceName, @Nonnull Consumer<StreamRDF> source) {
+    ChunkedWriteStream writer = new ChunkedWriteStream(dataset, graph, configuration.getChunkSize());
+    try {
+      ProgressStream destination = new ProgressStream(writer, sourceName);
+      destination.load(source);
+      return destination.count;
+    }
+    catch (RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+  }
+
+  /**
+   * Counts triples and quads, reports progress and makes sure the wrapped destination is started and finished once.
+   */
+  private class ProgressStream extends StreamRDFWrapper {
+
+    private final String sourceName;
+    private final long start = System.currentTimeMillis();
+    private long count;
+
+    private ProgressStream(StreamRDF destination, String sourceName) {
+      super(destination);
+      this.sourceName = sourceName;
+    }
+
+    private void load(Consumer<StreamRDF> source) {
+      other.start();
+      source.accept(this);
+      other.finish();
+      report(true);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public void triple(Triple triple) {
+      super.triple(triple);
+      added();
+    }
+
+    @Override
+    public void quad(Quad quad) {
+      super.quad(quad);
+      added();
+    }
+
+    private void added() {
+      count += 1;
+      if (count % configuration.getProgressInterval() == 0) report(false);
+    }
+
+    private void report(boolean finished) {
+      Consumer<Progress> listener = configuration.getProgressListener();
+      if (listener != null) listener.accept(new Progress(sourceName, count, System.currentTimeMillis() - start, finished));
+    }
+  }
+
+  /**
+   * Adds triples and quads in write transactions of <code>chunkSize</code> items.
+   */
+  private static class ChunkedWriteStream extends StreamRDFBase {
+
+    private final Dataset dataset;
+    private final DatasetGraph datasetGraph;
+    private final Node graph;
+    private final long chunkSize;
+    private long chunkCount;
+
+    private ChunkedWriteStream(Dataset dataset, @Nullable Node graph, long chunkSize) {
+      this.dataset = dataset;
+      this.datasetGraph = dataset.asDatasetGraph();
+      this.graph = graph == null ? Quad.defaultGraphIRI : graph;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void triple(Triple triple) {
+      beginIfNeeded();
+      datasetGraph.add(graph, triple.getSubject(), triple.getPredicate(), triple.getObject());
+      added();
+    }
+
+    @Override
+    public void quad(Quad quad) {
+      beginIfNeeded();
+      datasetGraph.add(quad.isTriple() ? new Quad(graph, quad.asTriple()) : quad);
+      added();
+    }
+
+    @Override
+    public void finish() {
+      commitIfNeeded();
+    }
+
+    private void beginIfNeeded() {
+      if (!dataset.isInTransaction()) dataset.begin(ReadWrite.WRITE);
+    }
+
+    private void added() {
+      chunkCount += 1;
+      if (chunkCount >= chunkSize) commitIfNeeded();
+    }
+
+    private void commitIfNeeded() {
+      if (dataset.isInTransaction()) dataset.commit();
+      chunkCount = 0;
+    }
+
+    private void abort() {
+      if (!dataset.isInTransaction()) return;
+
+      dataset.abort();
+      dataset.end();
+    }
+  }
+}
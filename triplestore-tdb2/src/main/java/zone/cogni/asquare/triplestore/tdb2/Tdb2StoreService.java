@@ -3,35 +3,52 @@ package zone.cogni.asquare.triplestore.tdb2;
 
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
 import org.apache.jena.query.QueryExecution;
-import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryExecutionDatasetBuilder;
 import org.apache.jena.query.QuerySolutionMap;
-import org.apache.jena.query.ReadWrite;
-import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.tdb2.DatabaseMgr;
 import org.apache.jena.tdb2.TDB2Factory;
 import org.apache.jena.update.UpdateAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.FileSystemResource;
 import zone.cogni.asquare.triplestore.RdfStoreService;
-import zone.cogni.sem.jena.JenaUtils;
 import zone.cogni.sem.jena.template.JenaResultSetHandler;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Tdb2StoreService implements RdfStoreService, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(Tdb2StoreService.class);
 
+  public static final Duration DEFAULT_FIRST_RESULT_TIMEOUT = Duration.ofMinutes(10);
+  public static final Duration DEFAULT_OVERALL_TIMEOUT = Duration.ofMinutes(30);
+
   private final File tdbLocationFolder;
   private final Dataset dataset;
   private final Model model;
   private final Tdb2Transaction transaction;
+  private Tdb2Loader.Configuration loadConfiguration = new Tdb2Loader.Configuration();
+  private Duration firstResultTimeout = DEFAULT_FIRST_RESULT_TIMEOUT;
+  private Duration overallTimeout = DEFAULT_OVERALL_TIMEOUT;
+  private Tdb2CompactionScheduler compactionScheduler;
   private boolean closed;
 
 
@@ -70,28 +87,75 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
     if (initFolder == null) return;
     if (!initFolder.exists() || !initFolder.isDirectory()) return;
 
-    dataset.begin(ReadWrite.WRITE);
-    try {
-      File[] files = initFolder.listFiles();
-      if (files == null) return;
+    File[] files = initFolder.listFiles();
+    if (files == null || files.length == 0) return;
 
-      for (File file : files) {
-        log.info(".. .. .. reading {}", file.getName());
-        model.add(JenaUtils.read(new FileSystemResource(file)));
-      }
+    try {
+      load(null, files);
     }
-    catch (Throwable e) {
-      dataset.abort();
-      return;
+    catch (RuntimeException e) {
+      log.error(".. .. initializing TDB store from {} failed", initFolder.getPath(), e);
     }
+  }
+
+  public Duration getFirstResultTimeout() {
+    return firstResultTimeout;
+  }
+
+  /**
+   * @param firstResultTimeout maximum time until the first result of a query, <code>null</code> for no timeout
+   */
+  public void setFirstResultTimeout(@Nullable Duration firstResultTimeout) {
+    this.firstResultTimeout = firstResultTimeout;
+  }
+
+  public Duration getOverallTimeout() {
+    return overallTimeout;
+  }
+
+  /**
+   * @param overallTimeout default maximum time of a query, <code>null</code> for no timeout
+   */
+  public void setOverallTimeout(@Nullable Duration overallTimeout) {
+    this.overallTimeout = overallTimeout;
+  }
+
+  public Tdb2Loader.Configuration getLoadConfiguration() {
+    return loadConfiguration;
+  }
+
+  public void setLoadConfiguration(Tdb2Loader.Configuration loadConfiguration) {
+    this.loadConfiguration = loadConfiguration;
+  }
+
+  /**
+   * Streams files into the store with a TDB2 loader, see {@link Tdb2Loader}.
+   * Cannot be called inside a transaction.
+   *
+   * @param graphUri graph to load triples in, <code>null</code> for the default graph
+   * @return number of triples and quads loaded
+   */
+  public long load(@Nullable String graphUri, @Nonnull File... files) {
+    return new Tdb2Loader(dataset, loadConfiguration).load(graphUri, files);
+  }
 
-    dataset.commit();
+  /**
+   * Streams everything <code>source</code> sends to its destination into the store with a TDB2 loader, see {@link Tdb2Loader}.
+   * Cannot be called inside a transaction.
+   *
+   * @param graphUri graph to load triples in, <code>null</code> for the default graph
+   * @return number of triples and quads loaded
+   */
+  public long load(@Nullable String graphUri, @Nonnull String sourceName, @Nonnull Consumer<StreamRDF> source) {
+    return new Tdb2Loader(dataset, loadConfiguration).load(graphUri, sourceName, source);
   }
 
   @Override
   public void close() {
     if (closed) return;
-    log.info(".. .. closing TDB - {}", tdbLocationFolder.getPath());
+    log.info(".. .. closing TDB - {}", getLocationName());
+    if (compactionScheduler != null) compactionScheduler.close();
+
     try {
       if (dataset.isInTransaction()) {
         dataset.abort();
@@ -104,11 +168,15 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
       dataset.close();
     }
     catch (Exception e) {
-      log.error(".. .. close TDB2 - dataset.close() for {} failed", tdbLocationFolder.getPath(), e);
+      log.error(".. .. close TDB2 - dataset.close() for {} failed", getLocationName(), e);
     }
     closed = true;
   }
 
+  private String getLocationName() {
+    return tdbLocationFolder == null ? "in memory" : tdbLocationFolder.getPath();
+  }
+
   @Override
   public void addData(Model model) {
     transaction.write(() -> this.model.add(model));
@@ -116,7 +184,25 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
 
   @Override
   public void addData(Model model, String graphUri) {
-    throw new RuntimeException("Add data with graph not supported" ); //or we add to default graph?
+    transaction.write(() -> dataset.getNamedModel(graphUri).add(model));
+  }
+
+  @Override
+  public boolean graphExists(String graphUri) {
+    return transaction.read(() -> dataset.containsNamedModel(graphUri));
+  }
+
+  @Override
+  public void deleteGraph(String graphUri) {
+    transaction.write(() -> dataset.removeNamedModel(graphUri));
+  }
+
+  @Override
+  public void replaceGraph(String graphUri, Model model) {
+    transaction.write(() -> {
+      dataset.removeNamedModel(graphUri);
+      dataset.getNamedModel(graphUri).add(model);
+    });
   }
 
 
@@ -126,39 +212,54 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
                                         context == null ? "" : "--- " + context + " --- ",
                                         bindings,
                                         query);
-    return transaction.read(() -> {
-      try (QueryExecution queryExecution = QueryExecutionFactory.create(query, model)) {
-        ResultSet resultSet = queryExecution.execSelect();
-        return resultSetHandler.handle(resultSet);
-      }
-      catch (RuntimeException e) {
-        log.error("Query failed: {}", query);
-        throw e;
-      }
-    });
+    return executeSelectQuery(query, bindings, resultSetHandler, overallTimeout);
+  }
+
+  /**
+   * @param timeout overall timeout of this query instead of the default one, <code>null</code> for no overall timeout
+   */
+  public <R> R executeSelectQuery(Query query, QuerySolutionMap bindings, JenaResultSetHandler<R> resultSetHandler, @Nullable Duration timeout) {
+    return executeQuery(query, bindings, timeout, queryExecution -> resultSetHandler.handle(queryExecution.execSelect()));
   }
 
   @Override
   public boolean executeAskQuery(Query query, QuerySolutionMap bindings) {
-    return transaction.read(() -> {
-      try (QueryExecution queryExecution = bindings.asMap().isEmpty()
-                                           ? QueryExecutionFactory.create(query, model)
-                                           : QueryExecutionFactory.create(query, model, bindings)) {
-        return queryExecution.execAsk();
-      }
-      catch (RuntimeException e) {
-        log.error("Query failed: {}", query);
-        throw e;
-      }
-    });
+    return executeAskQuery(query, bindings, overallTimeout);
+  }
+
+  /**
+   * @param timeout overall timeout of this query instead of the default one, <code>null</code> for no overall timeout
+   */
+  public boolean executeAskQuery(Query query, QuerySolutionMap bindings, @Nullable Duration timeout) {
+    return executeQuery(query, bindings, timeout, QueryExecution::execAsk);
   }
 
   @Override
   public Model executeConstructQuery(Query query, QuerySolutionMap bindings) {
+    return executeConstructQuery(query, bindings, overallTimeout);
+  }
+
+  /**
+   * @param timeout overall timeout of this query instead of the default one, <code>null</code> for no overall timeout
+   */
+  public Model executeConstructQuery(Query query, QuerySolutionMap bindings, @Nullable Duration timeout) {
+    if (log.isTraceEnabled()) log.trace("Running construct query: \n{}", query);
+    return executeQuery(query, bindings, timeout, QueryExecution::execConstruct);
+  }
+
+  /**
+   * Runs a query in a read transaction.
+   * When a timeout expires the query execution is aborted and the read transaction ends right away,
+   * so it does not keep writers or compaction waiting.
+   */
+  private <T> T executeQuery(Query query, QuerySolutionMap bindings, @Nullable Duration timeout, Function<QueryExecution, T> execution) {
     return transaction.read(() -> {
-      try (QueryExecution queryExecution = QueryExecutionFactory.create(query, model, bindings)) {
-        if (log.isTraceEnabled()) log.trace("Running construct query: \n{}", query);
-        return queryExecution.execConstruct();
+      try (QueryExecution queryExecution = createQueryExecution(query, bindings, timeout)) {
+        return execution.apply(queryExecution);
+      }
+      catch (QueryCancelledException e) {
+        log.error("Query timed out after {}: {}", timeout, query);
+        throw e;
       }
       catch (RuntimeException e) {
         log.error("Query failed: {}", query);
@@ -167,18 +268,28 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
     });
   }
 
+  private QueryExecution createQueryExecution(Query query, QuerySolutionMap bindings, @Nullable Duration timeout) {
+    QueryExecutionDatasetBuilder builder = QueryExecution.dataset(dataset).query(query);
+    if (bindings != null && !bindings.asMap().isEmpty()) builder.initialBinding(bindings);
+    if (firstResultTimeout != null) builder.initialTimeout(firstResultTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    if (timeout != null) builder.overallTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    return builder.build();
+  }
 
   @Override
   public void executeUpdateQuery(String updateQuery) {
     transaction.write(() -> {
-      UpdateAction.parseExecute(updateQuery, model);
+      UpdateAction.parseExecute(updateQuery, dataset);
     });
   }
 
 
+  /**
+   * Removes all data, from the default graph and from all named graphs.
+   */
   @Override
   public void delete() {
-    transaction.write((Runnable) model::removeAll);
+    transaction.write(() -> dataset.asDatasetGraph().clear());
   }
 
   public Dataset getDataset() {
@@ -189,6 +300,87 @@ public class Tdb2StoreService implements RdfStoreService, Closeable {
     DatabaseMgr.compact(dataset.asDatasetGraph());
   }
 
+  /**
+   * Compacts the database in a new generation, readers keep using the old generation until it is done.
+   *
+   * @param deleteOldGenerations <code>true</code> to delete the previous generation after compaction
+   */
+  public void compact(boolean deleteOldGenerations) {
+    DatabaseMgr.compact(dataset.asDatasetGraph(), deleteOldGenerations);
+  }
+
+  /**
+   * Starts compacting this store on growth or time, see {@link Tdb2CompactionScheduler}.
+   * Scheduler is stopped when the store is closed.
+   */
+  public Tdb2CompactionScheduler startCompactionScheduler(Tdb2CompactionScheduler.Configuration configuration) {
+    if (compactionScheduler != null) throw new RuntimeException("compaction scheduler already started for TDB " + getLocationName());
+
+    compactionScheduler = new Tdb2CompactionScheduler(this, configuration);
+    compactionScheduler.start();
+    return compactionScheduler;
+  }
+
+  /**
+   * @return scheduler started with {@link #startCompactionScheduler(Tdb2CompactionScheduler.Configuration)}, or <code>null</code>
+   */
+  public Tdb2CompactionScheduler getCompactionScheduler() {
+    return compactionScheduler;
+  }
+
+  /**
+   * @return folder of the store, <code>null</code> for an in memory store
+   */
+  public File getTdbLocationFolder() {
+    return tdbLocationFolder;
+  }
+
+  /**
+   * Files that disappear while walking, e.g. an old generation removed by a compaction, are skipped.
+   *
+   * @return bytes on disk of all generations, <code>0</code> for an in memory store
+   */
+  public long getDatabaseSize() {
+    if (tdbLocationFolder == null) return 0;
+
+    AtomicLong size = new AtomicLong();
+    try {
+      Files.walkFileTree(tdbLocationFolder.toPath(), new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          if (attributes.isRegularFile()) size.addAndGet(attributes.size());
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+          if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+          throw e;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+          if (e == null || e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+          throw e;
+        }
+      });
+      return size.get();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("cannot calculate size of TDB " + getLocationName(), e);
+    }
+  }
+
+  /**
+   * @return number of <code>Data-NNNN</code> generation folders, <code>0</code> for an in memory store
+   */
+  public int getGenerationCount() {
+    if (tdbLocationFolder == null) return 0;
+
+    File[] generations = tdbLocationFolder.listFiles(file -> file.isDirectory() && file.getName().startsWith("Data-"));
+    return generations == null ? 0 : generations.length;
+  }
+
   public Tdb2Transaction getTransaction() {
     return transaction;
   }
@@ -0,0 +1,304 @@
+package zone.cogni.asquare.triplestore.tdb2;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.tdb2.TDB2Factory;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import zone.cogni.sem.jena.JenaUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class Tdb2StoreServiceTest {
+
+  private static final String graph = "http://demo.com/graph/1";
+
+  @Test
+  public void named_graph_is_used_by_queries_and_updates() {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+
+    // when
+    store.addData(getDemoModel(), graph);
+    store.executeUpdateQuery("INSERT DATA { GRAPH <http://demo.com/graph/2> { <http://demo.com/data/person/3> a <http://demo.com/onto/Person> } }");
+
+    // then
+    assertThat(store.graphExists(graph)).isTrue();
+    assertThat(store.graphExists("http://demo.com/graph/2")).isTrue();
+    assertThat(store.executeAskQuery("ASK { <http://demo.com/data/person/1> ?p ?o }")).isFalse();
+    assertThat(store.executeAskQuery("ASK { GRAPH <" + graph + "> { <http://demo.com/data/person/1> ?p ?o } }")).isTrue();
+    assertThat(countPersons(store)).isEqualTo(3);
+    assertThat(store.executeConstructQuery("CONSTRUCT { ?s ?p ?o } WHERE { GRAPH <" + graph + "> { ?s ?p ?o } }").size())
+            .isEqualTo(getDemoModel().size());
+
+    // when
+    store.deleteGraph(graph);
+
+    // then
+    assertThat(store.graphExists(graph)).isFalse();
+    assertThat(countPersons(store)).isEqualTo(1);
+  }
+
+  @Test
+  public void delete_removes_named_graphs() {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+    store.addData(getDemoModel());
+    store.addData(getDemoModel(), graph);
+
+    // when
+    store.delete();
+
+    // then
+    assertThat(store.executeAskQuery("ASK { { ?s ?p ?o } UNION { GRAPH ?g { ?s ?p ?o } } }")).isFalse();
+  }
+
+  @Test
+  public void files_are_loaded_in_graph_with_each_loader(@TempDir Path tempDir) throws IOException {
+    File file = getDemoFile(tempDir);
+    long triples = getDemoModel().size();
+
+    for (Tdb2Loader.Mode mode : Tdb2Loader.Mode.values()) {
+      // given
+      Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+      store.setLoadConfiguration(new Tdb2Loader.Configuration().withMode(mode));
+
+      // when
+      long loaded = store.load(graph, file);
+
+      // then
+      assertThat(loaded).as(mode.name()).isEqualTo(triples);
+      assertThat(store.executeAskQuery("ASK { <http://demo.com/data/person/1> ?p ?o }")).as(mode.name()).isFalse();
+      assertThat(store.executeConstructQuery("CONSTRUCT { ?s ?p ?o } WHERE { GRAPH <" + graph + "> { ?s ?p ?o } }").size())
+              .as(mode.name())
+              .isEqualTo(triples);
+    }
+  }
+
+  @Test
+  public void chunked_load_reports_progress() {
+    // given
+    List<Tdb2Loader.Progress> progress = new ArrayList<>();
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+    store.setLoadConfiguration(new Tdb2Loader.Configuration().withMode(Tdb2Loader.Mode.CHUNKED)
+                                                             .withChunkSize(3)
+                                                             .withProgressInterval(4)
+                                                             .withProgressListener(progress::add));
+
+    // when
+    long loaded = store.load(null, "generated", destination -> {
+      destination.start();
+      for (int i = 0; i < 10; i++) {
+        destination.triple(Triple.create(NodeFactory.createURI("http://demo.com/data/person/" + i),
+                                         RDF.type.asNode(),
+                                         NodeFactory.createURI("http://demo.com/onto/Person")));
+      }
+      destination.finish();
+    });
+
+    // then
+    assertThat(loaded).isEqualTo(10);
+    assertThat(countPersons(store)).isEqualTo(10);
+    assertThat(progress).extracting(Tdb2Loader.Progress::getCount).containsExactly(4L, 8L, 10L);
+    assertThat(progress).extracting(Tdb2Loader.Progress::isFinished).containsExactly(false, false, true);
+  }
+
+  @Test
+  public void init_folder_is_loaded_in_default_graph(@TempDir Path tempDir) throws IOException {
+    // given
+    getDemoFile(tempDir);
+
+    // when
+    Tdb2StoreService store = Tdb2StoreService.inMemory(tempDir.toFile());
+
+    // then
+    assertThat(store.executeAskQuery("ASK { <http://demo.com/data/person/1> ?p ?o }")).isTrue();
+  }
+
+  @Test
+  public void bindings_are_used_by_select_ask_and_construct() {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+    store.addData(getDemoModel());
+
+    QuerySolutionMap bindings = new QuerySolutionMap();
+    bindings.add("uri", ResourceFactory.createResource("http://demo.com/data/person/2"));
+
+    // when
+    List<String> names = store.executeSelectQuery(QueryFactory.create("SELECT ?name { ?uri <http://demo.com/onto/name> ?name }"),
+                                                  bindings,
+                                                  resultSet -> {
+                                                    List<String> result = new ArrayList<>();
+                                                    resultSet.forEachRemaining(row -> result.add(row.getLiteral("name").getString()));
+                                                    return result;
+                                                  });
+    boolean hasCar = store.executeAskQuery(QueryFactory.create("ASK { ?uri <http://demo.com/onto/importedGood> ?car }"), bindings);
+    Model construct = store.executeConstructQuery(QueryFactory.create("CONSTRUCT { ?uri ?p ?o } WHERE { ?uri ?p ?o }"), bindings);
+
+    // then
+    assertThat(names).containsExactly("Annie");
+    assertThat(hasCar).isFalse();
+    assertThat(construct.listSubjects().toList()).extracting(Resource::getURI)
+                                                 .containsExactly("http://demo.com/data/person/2");
+  }
+
+  @Test
+  public void timeout_aborts_query_and_ends_transaction() {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+    store.addData(getDemoModel());
+    String slowQuery = "SELECT * { ?a ?b ?c . ?d ?e ?f . ?g ?h ?i . ?j ?k ?l . ?m ?n ?o . ?p ?q ?r }";
+
+    // when
+    long start = System.currentTimeMillis();
+    Throwable exception = catchThrowable(() -> store.executeSelectQuery(QueryFactory.create(slowQuery),
+                                                                        new QuerySolutionMap(),
+                                                                        ResultSetFormatter::consume,
+                                                                        Duration.ofMillis(200)));
+
+    // then
+    assertThat(exception).isInstanceOf(QueryCancelledException.class);
+    assertThat(System.currentTimeMillis() - start).isLessThan(10_000);
+    assertThat(store.getDataset().isInTransaction()).isFalse();
+
+    store.executeUpdateQuery("INSERT DATA { <http://demo.com/data/person/3> a <http://demo.com/onto/Person> }");
+    assertThat(countPersons(store)).isEqualTo(3);
+  }
+
+  @Test
+  public void compaction_deletes_old_generation(@TempDir Path tempDir) {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.connect(tempDir.toFile(), null);
+    Tdb2CompactionScheduler scheduler = new Tdb2CompactionScheduler(store);
+    addAndDeletePersons(store, 5);
+
+    // when
+    Tdb2CompactionScheduler.Metrics metrics = scheduler.compact();
+
+    // then
+    assertThat(metrics.getCompactionCount()).isEqualTo(1);
+    assertThat(metrics.getGenerationCount()).isEqualTo(1);
+    assertThat(metrics.getLastCompactionDuration()).isNotNull();
+    assertThat(metrics.getDatabaseSize()).isEqualTo(store.getDatabaseSize());
+    assertThat(countPersons(store)).isEqualTo(5);
+
+    store.close();
+  }
+
+  @Test
+  public void scheduler_compacts_grown_store_after_max_interval(@TempDir Path tempDir) throws InterruptedException {
+    // given
+    Tdb2StoreService store = Tdb2StoreService.connect(tempDir.toFile(), null);
+    Tdb2CompactionScheduler scheduler =
+            store.startCompactionScheduler(new Tdb2CompactionScheduler.Configuration().withCheckInterval(Duration.ofMillis(50))
+                                                                                     .withMaxInterval(Duration.ZERO)
+                                                                                     .withMinimumSize(0));
+
+    // when
+    addAndDeletePersons(store, 5);
+
+    // then
+    long timeout = System.currentTimeMillis() + 10_000;
+    while (scheduler.getMetrics().getCompactionCount() == 0 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(50);
+    }
+    assertThat(scheduler.getMetrics().getCompactionCount()).isGreaterThanOrEqualTo(1);
+    assertThat(countPersons(store)).isEqualTo(5);
+
+    store.close();
+  }
+
+  @Test
+  public void metrics_are_read_during_compaction(@TempDir Path tempDir) throws Exception {
+    // given
+    CountDownLatch compacting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Tdb2StoreService store = new Tdb2StoreService(tempDir.toFile(), TDB2Factory.connectDataset(tempDir.toString())) {
+      @Override
+      public void compact(boolean deleteOldGenerations) {
+        compacting.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    Tdb2CompactionScheduler scheduler = new Tdb2CompactionScheduler(store);
+    Thread compaction = new Thread(scheduler::compact);
+    compaction.start();
+    compacting.await();
+
+    // when
+    CompletableFuture<Tdb2CompactionScheduler.Metrics> metrics = CompletableFuture.supplyAsync(scheduler::getMetrics);
+
+    // then
+    assertThat(metrics.get(5, TimeUnit.SECONDS).getCompactionCount()).isZero();
+
+    release.countDown();
+    compaction.join();
+    assertThat(scheduler.getMetrics().getCompactionCount()).isEqualTo(1);
+    store.close();
+  }
+
+  @Test
+  public void scheduler_needs_store_on_disk() {
+    Tdb2StoreService store = Tdb2StoreService.inMemory(null);
+
+    assertThatThrownBy(() -> new Tdb2CompactionScheduler(store)).hasMessageContaining("in memory");
+  }
+
+  private void addAndDeletePersons(Tdb2StoreService store, int keep) {
+    for (int i = 0; i < 100; i++) {
+      store.executeUpdateQuery("INSERT DATA { <http://demo.com/data/person/" + i + "> a <http://demo.com/onto/Person> }");
+    }
+    String kept = IntStream.range(0, keep)
+                           .mapToObj(i -> "<http://demo.com/data/person/" + i + ">")
+                           .collect(Collectors.joining(", "));
+    store.executeUpdateQuery("DELETE { ?s ?p ?o } WHERE { ?s ?p ?o FILTER (?s NOT IN (" + kept + ")) }");
+    assertThat(countPersons(store)).isEqualTo(keep);
+  }
+
+  private long countPersons(Tdb2StoreService store) {
+    String query = "SELECT (count(?s) as ?count) { { ?s a <http://demo.com/onto/Person> } UNION { GRAPH ?g { ?s a <http://demo.com/onto/Person> } } }";
+    return store.executeSelectQuery(query, resultSet -> resultSet.next().getLiteral("count").getLong());
+  }
+
+  private Model getDemoModel() {
+    return JenaUtils.read(new ClassPathResource("demo.ttl"));
+  }
+
+  private File getDemoFile(Path folder) throws IOException {
+    Path file = folder.resolve("demo.ttl");
+    try (InputStream input = new ClassPathResource("demo.ttl").getInputStream()) {
+      Files.copy(input, file);
+    }
+    return file.toFile();
+  }
+}
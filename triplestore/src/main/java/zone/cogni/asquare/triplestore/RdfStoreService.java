@@ -3,6 +3,7 @@ package zone.cogni.asquare.triplestore;
 
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.query.Syntax;
 import org.apache.jena.rdf.model.Model;
@@ -15,6 +16,7 @@ import zone.cogni.sem.jena.template.JenaResultSetHandler;
 import java.io.Closeable;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static java.util.function.Function.identity;
@@ -47,6 +49,25 @@ public interface RdfStoreService extends Closeable {
     return executeSelectQuery(query, resultSetHandler, null);
   }
 
+  /**
+   * Runs a select query and passes each row to <code>rowConsumer</code>.
+   * <p>
+   * Remote stores can override this to pass rows while the response is still being read,
+   * instead of buffering the whole result first.
+   * Rows are only valid during the call, copy them if they need to be kept.
+   */
+  default void streamSelectQuery(Query query, QuerySolutionMap bindings, Consumer<QuerySolution> rowConsumer) {
+    executeSelectQuery(query, bindings, resultSet -> {
+      resultSet.forEachRemaining(rowConsumer);
+      return null;
+    });
+  }
+
+  default void streamSelectQuery(String query, Consumer<QuerySolution> rowConsumer) {
+    Query parsedQuery = QueryFactory.create(query, Syntax.syntaxARQ);
+    streamSelectQuery(parsedQuery, new QuerySolutionMap(), rowConsumer);
+  }
+
   boolean executeAskQuery(Query query, QuerySolutionMap bindings);
 
   default boolean executeAskQuery(String query) {